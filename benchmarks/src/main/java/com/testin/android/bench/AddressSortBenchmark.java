@@ -0,0 +1,185 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.elfparser.AddressSort;
+
+/**
+ * AddressSort of size addresses in one of the orders line tables come in
+ *
+ * ------------------------------------------------------------
+ *    Order   |    Keys
+ *    sorted  | ascending, the sort only scans them
+ *    units   | ascending runs of 64 keys in shuffled order, as units
+ *            | appended one by one, merged by the run heap
+ *    random  | random 32-bit addresses, radix sorted
+ *
+ * The baselines are the sorts AddressSort replaced: the merge sort of
+ * row indexes comparing signed, and the boxed rows in a Vector sorted by
+ * Collections.sort with the (int)(a - b) comparator of the first line
+ * tables. That comparator overflows on random keys, where Collections.sort
+ * usually throws "Comparison method violates its general contract".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddressSortBenchmark {
+    private static final int UNIT_ROWS = 64;
+    // Ranges of the old merge sort sorted by insertion
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    @Param({"sorted", "units", "random"})
+    public String order;
+
+    private long[] mKeys = null;
+    private Vector<Row> mRows = null;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(size);
+        mKeys = new long[size];
+        if (order.equals("random")) {
+            for (int i = 0; i < size; i++) {
+                mKeys[i] = random.nextInt() & 0xFFFFFFFFL;
+            }
+        } else {
+            long address = 0x1000L;
+            for (int i = 0; i < size; i++) {
+                address += 1 + random.nextInt(16);
+                mKeys[i] = address;
+            }
+        }
+        if (order.equals("units")) {
+            // Swap whole units, each unit stays ascending
+            int unitNum = size / UNIT_ROWS;
+            long[] unit = new long[UNIT_ROWS];
+            for (int i = unitNum - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                System.arraycopy(mKeys, i * UNIT_ROWS, unit, 0, UNIT_ROWS);
+                System.arraycopy(mKeys, j * UNIT_ROWS, mKeys, i * UNIT_ROWS, UNIT_ROWS);
+                System.arraycopy(unit, 0, mKeys, j * UNIT_ROWS, UNIT_ROWS);
+            }
+        }
+
+        mRows = new Vector<Row>(size);
+        for (int i = 0; i < size; i++) {
+            mRows.add(new Row(mKeys[i]));
+        }
+    }
+
+    @Benchmark
+    public int[] sort() {
+        return AddressSort.sort(mKeys, size);
+    }
+
+    @Benchmark
+    public int[] oldMergeSort() {
+        if (isSortedSigned(mKeys, size)) {
+            return null;
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(mKeys, order, new int[size], 0, size);
+        return order;
+    }
+
+    @Benchmark
+    public Vector<Row> boxedVectorSort() {
+        // The rows were collected into a Vector, then sorted in place
+        Vector<Row> rows = new Vector<Row>(mRows);
+        Collections.sort(rows, new Comparator<Row>() {
+            public int compare(Row arg0, Row arg1) {
+                return (int) (arg0.mStartAddress - arg1.mStartAddress);
+            }
+        });
+        return rows;
+    }
+
+    private static boolean isSortedSigned(long[] keys, int size) {
+        for (int i = 1; i < size; i++) {
+            if (keys[i - 1] > keys[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * AddressSort before the run merge and radix sort
+     */
+    private static void mergeSort(long[] keys, int[] order, int[] tmp, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int idx = order[i];
+                long key = keys[idx];
+                int j = i - 1;
+                while ((j >= from) && (keys[order[j]] > key)) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = idx;
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(keys, order, tmp, from, mid);
+        mergeSort(keys, order, tmp, mid, to);
+        if (keys[order[mid - 1]] <= keys[order[mid]]) {
+            return;
+        }
+
+        System.arraycopy(order, from, tmp, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if ((right >= to) || ((left < mid) && (keys[tmp[left]] <= keys[tmp[right]]))) {
+                order[i] = tmp[left++];
+            } else {
+                order[i] = tmp[right++];
+            }
+        }
+    }
+
+    /**
+     * A boxed line row, as LineInfoEntry was
+     */
+    public static class Row {
+        public long mStartAddress = 0L;
+
+        public Row(long startAddress) {
+            mStartAddress = startAddress;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Run JMH with the GC profiler unless a profiler is given, so every
+ * result has gc.alloc.rate.norm, the bytes allocated per operation.
+ *
+ *     java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp]
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<String>(Arrays.asList(args));
+        if (!options.contains("-prof")) {
+            options.add("-prof");
+            options.add("gc");
+        }
+        Main.main(options.toArray(new String[options.size()]));
+    }
+}
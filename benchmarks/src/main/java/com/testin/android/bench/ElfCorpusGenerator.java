@@ -0,0 +1,902 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Write a synthetic ELF shared object with a symbol table and line
+ * programs of any size, for scale tests without a toolchain
+ *
+ *     java -cp benchmarks.jar com.testin.android.bench.ElfCorpusGenerator [<options>] <output>
+ *
+ * ------------------------------------------------------------
+ *    Section              |    Content
+ *    .text                | NOBITS, the address range of the functions
+ *    .note.gnu.build-id   | 20 bytes derived from the options
+ *    .debug_line          | a unit per CU, one sequence each
+ *    .debug_line_str      | version 5 only, directory and file names
+ *
+ * The debug sections are deflated with --compress=zlib (SHF_COMPRESSED)
+ * or --compress=zlib-gnu (.zdebug_line and .zdebug_line_str).
+ *    .symtab              | null, .text section and a global FUNC per function
+ *    .strtab              | function names, padded to the name length
+ *    .shstrtab            |
+ *
+ * The functions are spread evenly over the units, and the rows evenly
+ * over the functions. A row covers 1 to 8 bytes, so the functions are
+ * laid out back to back from TEXT_ADDRESS and every row is inside one.
+ * Every function is in one file of its unit's file table. Lines move by
+ * small steps, with a far jump now and then to need DW_LNS_advance_line.
+ *
+ * Units are built one at a time, so memory is bounded by the function
+ * table and the biggest unit, not by the row count. The same options
+ * and seed always write the same file.
+ */
+public class ElfCorpusGenerator {
+    public static final long TEXT_ADDRESS = 0x1000L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int ET_DYN = 3;
+    private static final int EM_386 = 3;
+    private static final int EM_X86_64 = 62;
+    private static final int SHT_PROGBITS = 1;
+    private static final int SHT_SYMTAB = 2;
+    private static final int SHT_STRTAB = 3;
+    private static final int SHT_NOTE = 7;
+    private static final int SHT_NOBITS = 8;
+    private static final int SHF_ALLOC = 0x2;
+    private static final int SHF_EXECINSTR = 0x4;
+    private static final int SHF_MERGE = 0x10;
+    private static final int SHF_STRINGS = 0x20;
+    private static final long SHF_COMPRESSED = 0x800L;
+    private static final int ELFCOMPRESS_ZLIB = 1;
+    public static final String COMPRESS_NONE = "none";
+    public static final String COMPRESS_ZLIB = "zlib";
+    public static final String COMPRESS_ZLIB_GNU = "zlib-gnu";
+    private static final int STB_LOCAL = 0;
+    private static final int STB_GLOBAL = 1;
+    private static final int STT_FUNC = 2;
+    private static final int STT_SECTION = 3;
+    private static final int NT_GNU_BUILD_ID = 3;
+    private static final int BUILD_ID_SIZE = 20;
+
+    // Line program constants, as GCC uses
+    private static final int LINE_BASE = -5;
+    private static final int LINE_RANGE = 14;
+    private static final int OPCODE_BASE = 13;
+    private static final byte[] STANDARD_OPCODE_LENGTHS = {0, 1, 1, 1, 1, 0, 0, 0, 1, 0, 0, 1};
+    private static final int DW_LNS_COPY = 1;
+    private static final int DW_LNS_ADVANCE_PC = 2;
+    private static final int DW_LNS_ADVANCE_LINE = 3;
+    private static final int DW_LNS_SET_FILE = 4;
+    private static final int DW_LNE_END_SEQUENCE = 1;
+    private static final int DW_LNE_SET_ADDRESS = 2;
+    private static final int DW_LNCT_PATH = 1;
+    private static final int DW_LNCT_DIRECTORY_INDEX = 2;
+    private static final int DW_FORM_LINE_STRP = 0x1f;
+    private static final int DW_FORM_UDATA = 0x0f;
+
+    private static final int MAX_ROW_SIZE = 8;
+    private static final int FAR_JUMP_RATE = 16;
+    private static final int EMPTY_FUNCTION_SIZE = 16;
+
+    private boolean mIs64 = false;
+    private boolean mIsLSB = true;
+    private int mMachine = -1;
+    private int mFunctionNum = 1000;
+    private int mUnitNum = 10;
+    private long mRowNum = 10000L;
+    private int mFileNum = 4;
+    private int mNameLength = 0;
+    private int mVersion = 2;
+    private String mCompress = COMPRESS_NONE;
+    private long mSeed = 1L;
+
+    // Filled by write()
+    private long[] mStarts = null;
+    private int[] mSizes = null;
+    private long mOffset = 0L;
+
+    public void setElf64(boolean is64) {
+        mIs64 = is64;
+    }
+
+    public void setLSB(boolean isLsb) {
+        mIsLSB = isLsb;
+    }
+
+    /**
+     * e_machine, EM_386 or EM_X86_64 by the class when not set.
+     */
+    public void setMachine(int machine) {
+        mMachine = machine;
+    }
+
+    public void setFunctionCount(int functionNum) {
+        mFunctionNum = functionNum;
+    }
+
+    public void setUnitCount(int unitNum) {
+        mUnitNum = unitNum;
+    }
+
+    /**
+     * Rows of all line programs, not counting the end of sequence rows.
+     */
+    public void setRowCount(long rowNum) {
+        mRowNum = rowNum;
+    }
+
+    /**
+     * Files in the file table of every unit
+     */
+    public void setFileCount(int fileNum) {
+        mFileNum = fileNum;
+    }
+
+    /**
+     * Minimum length of the function names, which sizes .strtab.
+     */
+    public void setNameLength(int nameLength) {
+        mNameLength = nameLength;
+    }
+
+    /**
+     * .debug_line version, 2 to 5.
+     */
+    public void setVersion(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * Compression of the debug sections, COMPRESS_NONE, COMPRESS_ZLIB or
+     * COMPRESS_ZLIB_GNU.
+     */
+    public void setCompress(String compress) {
+        mCompress = compress;
+    }
+
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ElfCorpusGenerator generator = new ElfCorpusGenerator();
+        String output = null;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                output = arg;
+            } else if (!generator.parseOption(arg)) {
+                printHelp();
+                System.exit(1);
+            }
+        }
+        if (output == null) {
+            printHelp();
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        generator.write(new File(output));
+        System.out.println("Wrote " + output + ", " + new File(output).length() + " bytes in "
+                + (System.nanoTime() - start) / 1000000L + " ms");
+    }
+
+    private static void printHelp() {
+        System.out.println("ElfCorpusGenerator [<options>] <output>");
+        System.out.println("--class=<32|64>\tELF class, 32 is default");
+        System.out.println("--data=<lsb|msb>\tByte order, lsb is default");
+        System.out.println("--machine=<n>\te_machine, 3 (EM_386) or 62 (EM_X86_64) by the class is default");
+        System.out.println("--functions=<n>\tFunction symbols, 1000 is default");
+        System.out.println("--units=<n>\tCompilation units, 10 is default");
+        System.out.println("--rows=<n>\tLine rows, 10000 is default");
+        System.out.println("--files=<n>\tFiles in the file table of a unit, 4 is default");
+        System.out.println("--name-length=<n>\tMinimum function name length, to size .strtab");
+        System.out.println("--version=<2|3|4|5>\t.debug_line version, 2 is default");
+        System.out.println("--compress=<none|zlib|zlib-gnu>\tDeflate the debug sections, none is default");
+        System.out.println("--seed=<n>\tRandom seed, 1 is default");
+    }
+
+    /**
+     * Apply an option of main(), return false if it is wrong.
+     */
+    public boolean parseOption(String option) {
+        String value = option.substring(option.indexOf('=') + 1);
+        try {
+            if (option.startsWith("--class=")) {
+                if (!value.equals("32") && !value.equals("64")) {
+                    return false;
+                }
+                setElf64(value.equals("64"));
+            } else if (option.startsWith("--data=")) {
+                if (!value.equals("lsb") && !value.equals("msb")) {
+                    return false;
+                }
+                setLSB(value.equals("lsb"));
+            } else if (option.startsWith("--machine=")) {
+                setMachine(Integer.parseInt(value));
+            } else if (option.startsWith("--functions=")) {
+                setFunctionCount(Integer.parseInt(value));
+            } else if (option.startsWith("--units=")) {
+                setUnitCount(Integer.parseInt(value));
+            } else if (option.startsWith("--rows=")) {
+                setRowCount(Long.parseLong(value));
+            } else if (option.startsWith("--files=")) {
+                setFileCount(Integer.parseInt(value));
+            } else if (option.startsWith("--name-length=")) {
+                setNameLength(Integer.parseInt(value));
+            } else if (option.startsWith("--version=")) {
+                setVersion(Integer.parseInt(value));
+            } else if (option.startsWith("--compress=")) {
+                if (!value.equals(COMPRESS_NONE) && !value.equals(COMPRESS_ZLIB)
+                        && !value.equals(COMPRESS_ZLIB_GNU)) {
+                    return false;
+                }
+                setCompress(value);
+            } else if (option.startsWith("--seed=")) {
+                setSeed(Long.parseLong(value));
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    public void write(File file) throws IOException {
+        if ((mVersion < 2) || (mVersion > 5) || (mFunctionNum <= 0) || (mUnitNum <= 0)
+                || (mUnitNum > mFunctionNum) || (mRowNum < 0) || (mFileNum <= 0)
+                || (!mCompress.equals(COMPRESS_NONE) && !mCompress.equals(COMPRESS_ZLIB)
+                        && !mCompress.equals(COMPRESS_ZLIB_GNU))) {
+            throw new IOException("Wrong generator options");
+        }
+        mStarts = new long[mFunctionNum];
+        mSizes = new int[mFunctionNum];
+        mOffset = 0L;
+        Section[] sections = {
+            new Section(".text", SHT_NOBITS, SHF_ALLOC | SHF_EXECINSTR, 16),
+            new Section(".note.gnu.build-id", SHT_NOTE, SHF_ALLOC, 4),
+            newDebugSection(".debug_line", 0),
+            (mVersion >= 5) ? newDebugSection(".debug_line_str", SHF_MERGE | SHF_STRINGS) : null,
+            new Section(".symtab", SHT_SYMTAB, 0, mIs64 ? 8 : 4),
+            new Section(".strtab", SHT_STRTAB, 0, 1),
+            new Section(".shstrtab", SHT_STRTAB, 0, 1),
+        };
+        sections = compact(sections);
+        Section text = sections[0];
+        Section note = sections[1];
+        Section debugLine = sections[2];
+        Section lineStr = (mVersion >= 5) ? sections[3] : null;
+        Section symtab = sections[sections.length - 3];
+        Section strtab = sections[sections.length - 2];
+        Section shstrtab = sections[sections.length - 1];
+
+        OutputStream os = new FileOutput(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            // The ELF header is written last, over this space
+            Buffer buffer = new Buffer();
+            buffer.pad(getHeaderSize());
+            flush(os, buffer);
+
+            begin(os, note);
+            buffer.put4(4);
+            buffer.put4(BUILD_ID_SIZE);
+            buffer.put4(NT_GNU_BUILD_ID);
+            buffer.putBytes("GNU\0".getBytes(UTF_8));
+            buffer.putBytes(getBuildId());
+            flush(os, buffer);
+            end(note);
+
+            OutputStream content = beginDebug(os, debugLine);
+            Buffer lineStrings = (lineStr != null) ? new Buffer() : null;
+            writeLinePrograms(content, lineStrings);
+            endDebug(content, debugLine);
+            if (lineStr != null) {
+                content = beginDebug(os, lineStr);
+                flush(content, lineStrings);
+                endDebug(content, lineStr);
+            }
+
+            text.mAddr = TEXT_ADDRESS;
+            text.mOffset = mOffset;
+            text.mSize = mStarts[mFunctionNum - 1] + mSizes[mFunctionNum - 1] - TEXT_ADDRESS;
+
+            begin(os, symtab);
+            writeSymbols(os, buffer, getIndex(sections, text));
+            end(symtab);
+            symtab.mLink = getIndex(sections, strtab);
+            symtab.mInfo = 2;
+            symtab.mEntrySize = mIs64 ? 24 : 16;
+
+            begin(os, strtab);
+            buffer.put1(0);
+            for (int i = 0; i < mFunctionNum; i++) {
+                buffer.putString(getFunctionName(i));
+                if (buffer.size() >= (1 << 16)) {
+                    flush(os, buffer);
+                }
+            }
+            flush(os, buffer);
+            end(strtab);
+
+            begin(os, shstrtab);
+            buffer.put1(0);
+            for (Section section : sections) {
+                section.mNameOffset = buffer.size();
+                buffer.putString(section.mName);
+            }
+            flush(os, buffer);
+            end(shstrtab);
+
+            buffer.pad((int) (align(mOffset, 8) - mOffset));
+            flush(os, buffer);
+            long shOffset = mOffset;
+            writeSectionHeaders(buffer, sections);
+            flush(os, buffer);
+            os.close();
+            os = null;
+
+            writeHeader(file, shOffset, sections.length + 1, getIndex(sections, shstrtab));
+            writeCompressionHeaders(file, sections);
+        } finally {
+            if (os != null) {
+                os.close();
+            }
+        }
+    }
+
+    public String getFunctionName(int function) {
+        StringBuilder sb = new StringBuilder("_ZN5synth8function");
+        sb.append(function).append("Ev");
+        while (sb.length() < mNameLength) {
+            sb.append((char) ('a' + (sb.length() % 26)));
+        }
+        return sb.toString();
+    }
+
+    private void writeLinePrograms(OutputStream os, Buffer lineStrings) throws IOException {
+        Random random = new Random(mSeed);
+        long address = TEXT_ADDRESS;
+        int function = 0;
+        Buffer unit = new Buffer();
+        for (int u = 0; u < mUnitNum; u++) {
+            int endFunction = (int) ((long) (u + 1) * mFunctionNum / mUnitNum);
+            unit.clear();
+            int lengthAt = unit.size();
+            unit.put4(0);
+            unit.put2(mVersion);
+            if (mVersion >= 5) {
+                unit.put1(mIs64 ? 8 : 4);
+                unit.put1(0);
+            }
+            int headerLengthAt = unit.size();
+            unit.put4(0);
+            unit.put1(1);
+            if (mVersion >= 4) {
+                unit.put1(1);
+            }
+            unit.put1(1);
+            unit.put1(LINE_BASE);
+            unit.put1(LINE_RANGE);
+            unit.put1(OPCODE_BASE);
+            unit.putBytes(STANDARD_OPCODE_LENGTHS);
+            writeFileTable(unit, lineStrings, u);
+            unit.set4(headerLengthAt, unit.size() - headerLengthAt - 4);
+
+            // One sequence over the functions of the unit
+            unit.put1(0);
+            unit.putULEB128(1 + (mIs64 ? 8 : 4));
+            unit.put1(DW_LNE_SET_ADDRESS);
+            unit.putWord(address);
+            long rowAddress = address;
+            long line = 1L;
+            long file = 1L;
+            for (; function < endFunction; function++) {
+                long rows = mRowNum / mFunctionNum + ((function < mRowNum % mFunctionNum) ? 1 : 0);
+                mStarts[function] = address;
+                if (rows == 0) {
+                    mSizes[function] = EMPTY_FUNCTION_SIZE;
+                    address += EMPTY_FUNCTION_SIZE;
+                    continue;
+                }
+                long functionFile = 1 + (function % mFileNum);
+                if (functionFile != file) {
+                    unit.put1(DW_LNS_SET_FILE);
+                    unit.putULEB128(functionFile);
+                    file = functionFile;
+                }
+                long functionLine = 1 + random.nextInt(2000);
+                long nextLine = functionLine;
+                for (long r = 0; r < rows; r++) {
+                    putRow(unit, address - rowAddress, nextLine - line);
+                    rowAddress = address;
+                    line = nextLine;
+                    address += 1 + random.nextInt(MAX_ROW_SIZE);
+                    if (random.nextInt(FAR_JUMP_RATE) == 0) {
+                        nextLine = Math.max(1L, line + random.nextInt(1000) - 500);
+                    } else {
+                        nextLine = Math.max(1L, line + random.nextInt(12) - 3);
+                    }
+                }
+                mSizes[function] = (int) (address - mStarts[function]);
+            }
+            unit.put1(DW_LNS_ADVANCE_PC);
+            unit.putULEB128(address - rowAddress);
+            unit.put1(0);
+            unit.putULEB128(1);
+            unit.put1(DW_LNE_END_SEQUENCE);
+            unit.set4(lengthAt, unit.size() - lengthAt - 4);
+            flush(os, unit);
+        }
+    }
+
+    /**
+     * Directory src/u<unit> and files file<n>.cpp in it. Version 5 names
+     * them by offsets in .debug_line_str, and file 0 is the primary file,
+     * the same as file 1.
+     */
+    private void writeFileTable(Buffer unit, Buffer lineStrings, int u) {
+        String dir = "src/u" + u;
+        if (mVersion < 5) {
+            unit.putString(dir);
+            unit.put1(0);
+            for (int i = 1; i <= mFileNum; i++) {
+                unit.putString("file" + i + ".cpp");
+                unit.putULEB128(1);
+                unit.putULEB128(0);
+                unit.putULEB128(0);
+            }
+            unit.put1(0);
+            return;
+        }
+
+        unit.put1(1);
+        unit.putULEB128(DW_LNCT_PATH);
+        unit.putULEB128(DW_FORM_LINE_STRP);
+        unit.putULEB128(2);
+        unit.put4(lineStrings.putString("/synth"));
+        unit.put4(lineStrings.putString(dir));
+
+        unit.put1(2);
+        unit.putULEB128(DW_LNCT_PATH);
+        unit.putULEB128(DW_FORM_LINE_STRP);
+        unit.putULEB128(DW_LNCT_DIRECTORY_INDEX);
+        unit.putULEB128(DW_FORM_UDATA);
+        unit.putULEB128(mFileNum + 1);
+        int first = lineStrings.putString("file1.cpp");
+        unit.put4(first);
+        unit.putULEB128(1);
+        for (int i = 1; i <= mFileNum; i++) {
+            unit.put4((i == 1) ? first : lineStrings.putString("file" + i + ".cpp"));
+            unit.putULEB128(1);
+        }
+    }
+
+    /**
+     * A special opcode when the advances fit, or the standard opcodes.
+     */
+    private static void putRow(Buffer unit, long addressAdvance, long lineAdvance) {
+        if ((lineAdvance < LINE_BASE) || (lineAdvance >= LINE_BASE + LINE_RANGE)) {
+            unit.put1(DW_LNS_ADVANCE_LINE);
+            unit.putSLEB128(lineAdvance);
+            lineAdvance = 0;
+        }
+        long opcode = (lineAdvance - LINE_BASE) + (LINE_RANGE * addressAdvance) + OPCODE_BASE;
+        if (opcode <= 255) {
+            unit.put1((int) opcode);
+            return;
+        }
+        unit.put1(DW_LNS_ADVANCE_PC);
+        unit.putULEB128(addressAdvance);
+        if (lineAdvance == 0) {
+            unit.put1(DW_LNS_COPY);
+        } else {
+            unit.put1((int) ((lineAdvance - LINE_BASE) + OPCODE_BASE));
+        }
+    }
+
+    private void writeSymbols(OutputStream os, Buffer buffer, int textIndex) throws IOException {
+        putSymbol(buffer, 0, 0L, 0L, 0, 0);
+        putSymbol(buffer, 0, TEXT_ADDRESS, 0L, (STB_LOCAL << 4) | STT_SECTION, textIndex);
+        long nameOffset = 1L;
+        for (int i = 0; i < mFunctionNum; i++) {
+            putSymbol(buffer, (int) nameOffset, mStarts[i], mSizes[i], (STB_GLOBAL << 4) | STT_FUNC, textIndex);
+            nameOffset += getFunctionName(i).getBytes(UTF_8).length + 1;
+            if (buffer.size() >= (1 << 16)) {
+                flush(os, buffer);
+            }
+        }
+        flush(os, buffer);
+    }
+
+    private void putSymbol(Buffer buffer, int name, long value, long size, int info, int shndx) {
+        buffer.put4(name);
+        if (mIs64) {
+            buffer.put1(info);
+            buffer.put1(0);
+            buffer.put2(shndx);
+            buffer.put8(value);
+            buffer.put8(size);
+        } else {
+            buffer.put4((int) value);
+            buffer.put4((int) size);
+            buffer.put1(info);
+            buffer.put1(0);
+            buffer.put2(shndx);
+        }
+    }
+
+    private void writeSectionHeaders(Buffer buffer, Section[] sections) {
+        // The null section first
+        putSectionHeader(buffer, new Section("", 0, 0, 0));
+        for (Section section : sections) {
+            putSectionHeader(buffer, section);
+        }
+    }
+
+    private void putSectionHeader(Buffer buffer, Section section) {
+        buffer.put4(section.mNameOffset);
+        buffer.put4(section.mType);
+        buffer.putWord(section.mFlags);
+        buffer.putWord(section.mAddr);
+        buffer.putWord(section.mOffset);
+        buffer.putWord(section.mSize);
+        buffer.put4(section.mLink);
+        buffer.put4(section.mInfo);
+        buffer.putWord(section.mAlign);
+        buffer.putWord(section.mEntrySize);
+    }
+
+    private void writeHeader(File file, long shOffset, int shNum, int shStrIndex) throws IOException {
+        Buffer buffer = new Buffer();
+        buffer.put1(0x7f);
+        buffer.putBytes("ELF".getBytes(UTF_8));
+        buffer.put1(mIs64 ? 2 : 1);
+        buffer.put1(mIsLSB ? 1 : 2);
+        buffer.put1(1);
+        buffer.pad(16 - buffer.size());
+        buffer.put2(ET_DYN);
+        buffer.put2((mMachine >= 0) ? mMachine : (mIs64 ? EM_X86_64 : EM_386));
+        buffer.put4(1);
+        buffer.putWord(0L);
+        buffer.putWord(0L);
+        buffer.putWord(shOffset);
+        buffer.put4(0);
+        buffer.put2(getHeaderSize());
+        buffer.put2(mIs64 ? 56 : 32);
+        buffer.put2(0);
+        buffer.put2(mIs64 ? 64 : 40);
+        buffer.put2(shNum);
+        buffer.put2(shStrIndex);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(buffer.mBytes, 0, buffer.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * A debug section is deflated after its compression header, which is
+     * written last as the size of its content is only known then.
+     */
+    private Section newDebugSection(String name, long flags) {
+        if (mCompress.equals(COMPRESS_ZLIB)) {
+            return new Section(name, SHT_PROGBITS, flags | SHF_COMPRESSED, mIs64 ? 8 : 4);
+        }
+        if (mCompress.equals(COMPRESS_ZLIB_GNU)) {
+            return new Section(".z" + name.substring(1), SHT_PROGBITS, flags, 1);
+        }
+        return new Section(name, SHT_PROGBITS, flags, 1);
+    }
+
+    private OutputStream beginDebug(OutputStream os, Section section) throws IOException {
+        begin(os, section);
+        if (mCompress.equals(COMPRESS_NONE)) {
+            return os;
+        }
+        os.write(new byte[getCompressionHeaderSize()]);
+        return new DeflatedOutput(os);
+    }
+
+    private void endDebug(OutputStream content, Section section) throws IOException {
+        if (content instanceof DeflatedOutput) {
+            DeflatedOutput deflated = (DeflatedOutput) content;
+            deflated.finish();
+            section.mContentSize = deflated.mSize;
+        }
+        end(section);
+    }
+
+    private int getCompressionHeaderSize() {
+        if (mCompress.equals(COMPRESS_ZLIB_GNU)) {
+            return 12;
+        }
+        return mIs64 ? 24 : 12;
+    }
+
+    /**
+     * Elf32_Chdr or Elf64_Chdr in the byte order of the file, or "ZLIB" and
+     * the big endian size for the GNU format.
+     */
+    private void writeCompressionHeaders(File file, Section[] sections) throws IOException {
+        if (mCompress.equals(COMPRESS_NONE)) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            for (Section section : sections) {
+                if (section.mContentSize < 0) {
+                    continue;
+                }
+                Buffer buffer = new Buffer();
+                if (mCompress.equals(COMPRESS_ZLIB_GNU)) {
+                    buffer.putBytes("ZLIB".getBytes(UTF_8));
+                    for (int i = 7; i >= 0; i--) {
+                        buffer.put1((int) (section.mContentSize >>> (i * 8)));
+                    }
+                } else {
+                    buffer.put4(ELFCOMPRESS_ZLIB);
+                    if (mIs64) {
+                        buffer.put4(0);
+                    }
+                    buffer.putWord(section.mContentSize);
+                    buffer.putWord(1L);
+                }
+                raf.seek(section.mOffset);
+                raf.write(buffer.mBytes, 0, buffer.size());
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int getHeaderSize() {
+        return mIs64 ? 64 : 52;
+    }
+
+    private byte[] getBuildId() {
+        Random random = new Random(mSeed ^ (mRowNum * 31 + mFunctionNum) ^ ((long) mUnitNum << 40)
+                ^ ((long) mVersion << 56) ^ (mIs64 ? 1L << 60 : 0L) ^ (mIsLSB ? 0L : 1L << 61));
+        byte[] ret = new byte[BUILD_ID_SIZE];
+        random.nextBytes(ret);
+        return ret;
+    }
+
+    private void begin(OutputStream os, Section section) throws IOException {
+        long aligned = align(mOffset, section.mAlign);
+        if (aligned > mOffset) {
+            os.write(new byte[(int) (aligned - mOffset)]);
+        }
+        section.mOffset = mOffset;
+    }
+
+    private void end(Section section) {
+        section.mSize = mOffset - section.mOffset;
+    }
+
+    private void flush(OutputStream os, Buffer buffer) throws IOException {
+        os.write(buffer.mBytes, 0, buffer.size());
+        buffer.clear();
+    }
+
+    private static long align(long value, long alignment) {
+        return (alignment <= 1) ? value : (value + alignment - 1) / alignment * alignment;
+    }
+
+    private static Section[] compact(Section[] sections) {
+        int size = 0;
+        for (Section section : sections) {
+            if (section != null) {
+                sections[size++] = section;
+            }
+        }
+        return Arrays.copyOf(sections, size);
+    }
+
+    private static int getIndex(Section[] sections, Section section) {
+        for (int i = 0; i < sections.length; i++) {
+            if (sections[i] == section) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static class Section {
+        public final String mName;
+        public final int mType;
+        public final long mFlags;
+        public final long mAlign;
+        public int mNameOffset = 0;
+        public long mAddr = 0L;
+        public long mOffset = 0L;
+        public long mSize = 0L;
+        public int mLink = 0;
+        public int mInfo = 0;
+        public long mEntrySize = 0L;
+        // Inflated size of a compressed section, -1 if it is not
+        public long mContentSize = -1L;
+
+        public Section(String name, int type, long flags, long align) {
+            mName = name;
+            mType = type;
+            mFlags = flags;
+            mAlign = align;
+        }
+    }
+
+    /**
+     * The file, counting the bytes written in mOffset
+     */
+    private class FileOutput extends FilterOutputStream {
+        public FileOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mOffset++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mOffset += len;
+        }
+    }
+
+    /**
+     * Content of a compressed section, deflated into the file
+     */
+    private static class DeflatedOutput extends OutputStream {
+        private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final DeflaterOutputStream mOut;
+        public long mSize = 0L;
+
+        public DeflatedOutput(OutputStream os) {
+            mOut = new DeflaterOutputStream(os, mDeflater, 1 << 16);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mSize++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mSize += len;
+        }
+
+        /**
+         * Finish the zlib stream, leaving the file open.
+         */
+        public void finish() throws IOException {
+            mOut.finish();
+            mDeflater.end();
+        }
+    }
+
+    /**
+     * Growing byte buffer in the byte order and class of the file
+     */
+    private class Buffer {
+        public byte[] mBytes = new byte[1 << 12];
+        private int mSize = 0;
+
+        public int size() {
+            return mSize;
+        }
+
+        public void clear() {
+            mSize = 0;
+        }
+
+        public void put1(int value) {
+            ensureCapacity(1);
+            mBytes[mSize++] = (byte) value;
+        }
+
+        public void put2(int value) {
+            putNumber(value, 2);
+        }
+
+        public void put4(int value) {
+            putNumber(value, 4);
+        }
+
+        public void put8(long value) {
+            putNumber(value, 8);
+        }
+
+        /**
+         * An address or offset of the ELF class
+         */
+        public void putWord(long value) {
+            putNumber(value, mIs64 ? 8 : 4);
+        }
+
+        public void set4(int at, int value) {
+            int size = mSize;
+            mSize = at;
+            put4(value);
+            mSize = size;
+        }
+
+        public void putBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mBytes, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        /**
+         * Put the string with its terminating 0, return its offset.
+         */
+        public int putString(String value) {
+            int ret = mSize;
+            putBytes(value.getBytes(UTF_8));
+            put1(0);
+            return ret;
+        }
+
+        public void pad(int size) {
+            ensureCapacity(size);
+            Arrays.fill(mBytes, mSize, mSize + size, (byte) 0);
+            mSize += size;
+        }
+
+        public void putULEB128(long value) {
+            do {
+                int b = (int) (value & 0x7F);
+                value >>>= 7;
+                put1((value != 0) ? (b | 0x80) : b);
+            } while (value != 0);
+        }
+
+        public void putSLEB128(long value) {
+            while (true) {
+                int b = (int) (value & 0x7F);
+                value >>= 7;
+                if (((value == 0) && ((b & 0x40) == 0)) || ((value == -1) && ((b & 0x40) != 0))) {
+                    put1(b);
+                    return;
+                }
+                put1(b | 0x80);
+            }
+        }
+
+        private void putNumber(long value, int size) {
+            ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                int shift = mIsLSB ? (i * 8) : ((size - 1 - i) * 8);
+                mBytes[mSize++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void ensureCapacity(int size) {
+            if (mSize + size > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length << 1, mSize + size));
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.ElfSymbolExtractor;
+import com.testin.android.Logger;
+
+/**
+ * End-to-end extraction, from opening the ELF file to the closed symbol
+ * zip, in the default and the streaming mode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractBenchmark {
+    @Param({"libfx", "libbig", "libmix"})
+    public String fixture;
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private File mSource = null;
+    private File mDir = null;
+    private ElfSymbolExtractor mExtractor = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Logger.setLevel(Logger.LEVEL_WARN);
+        mSource = Fixture.copyResource("fixtures/" + fixture + ".elf");
+        mDir = Fixture.createTempDirectory();
+        String name = "TestinSymbol_x86_" + fixture + ".symbol";
+        mExtractor = new ElfSymbolExtractor(mSource.getPath(), "x86",
+                new File(mDir, name + ".zip").getPath(), name);
+        ElfSymbolExtractor.setStreaming(streaming);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ElfSymbolExtractor.setStreaming(false);
+        mSource.delete();
+        Fixture.deleteDirectory(mDir);
+    }
+
+    @Benchmark
+    public boolean extract() throws IOException {
+        if (!mExtractor.extract()) {
+            throw new IOException("Extract " + fixture + " failed");
+        }
+        return true;
+    }
+}
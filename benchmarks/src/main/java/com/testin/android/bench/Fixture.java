@@ -0,0 +1,137 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadHeader;
+import com.testin.android.elfparser.ReadIdentification;
+import com.testin.android.elfparser.ReadSection;
+import com.testin.android.elfparser.ReadSymbolSection;
+
+/**
+ * ELF fixture of the benchmarks, read up to the section headers
+ *
+ * The fixtures are the resources fixtures/<name>.elf, copied to a
+ * temporary file because ElfFile needs a path:
+ *
+ * ------------------------------------------------------------
+ *    Fixture  |    Content
+ *    libfx    | 12 units, 134 rows, header files inlined
+ *    libbig   | 150 units, 1909 rows
+ *    libmix   | 150 units with interleaved address ranges
+ *
+ * A file written by ElfCorpusGenerator is read by Fixture(File).
+ */
+public class Fixture {
+    private final File mFile;
+    private ElfFile mElfFile = null;
+    private ReadHeader mReadHeader = null;
+    private ReadSection mReadSection = null;
+
+    public Fixture(String name) throws IOException {
+        this(copyResource("fixtures/" + name + ".elf"));
+    }
+
+    public Fixture(File file) throws IOException {
+        mFile = file;
+        String name = file.getName();
+        mElfFile = new ElfFile(mFile.getPath());
+        ReadIdentification readIdentification = new ReadIdentification(mElfFile);
+        readIdentification.read();
+        mReadHeader = new ReadHeader(mElfFile, readIdentification);
+        mReadHeader.read();
+        if (!mReadHeader.readSucceed()) {
+            throw new IOException("Read header of " + name + " failed");
+        }
+        mReadSection = new ReadSection(mElfFile,
+                mReadHeader.getShOffset(), mReadHeader.getShEntryNumber(),
+                mReadHeader.getShtEntrySize(), mReadHeader.getIndexOfShtNameTable());
+        mReadSection.read();
+        if (!mReadSection.readSucceed()) {
+            throw new IOException("Read sections of " + name + " failed");
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public ElfFile getElfFile() {
+        return mElfFile;
+    }
+
+    public ReadHeader getReadHeader() {
+        return mReadHeader;
+    }
+
+    public ReadSection getReadSection() {
+        return mReadSection;
+    }
+
+    public ReadSymbolSection newReadSymbolSection() throws IOException {
+        return new ReadSymbolSection(mElfFile,
+                mReadSection.getSymbolTableOffset(), mReadSection.getSymbolTableEntryNum(),
+                mReadSection.getStrTable(), mReadSection.getStrTableSize());
+    }
+
+    public void close() {
+        mElfFile.close();
+        mFile.delete();
+    }
+
+    /**
+     * Copy the resource to a temporary file deleted on exit.
+     */
+    public static File copyResource(String resource) throws IOException {
+        InputStream is = Fixture.class.getClassLoader().getResourceAsStream(resource);
+        if (is == null) {
+            throw new IOException("No fixture " + resource);
+        }
+        File file = File.createTempFile("fixture", ".elf");
+        file.deleteOnExit();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                os.write(buffer, 0, count);
+            }
+        } finally {
+            os.close();
+            is.close();
+        }
+        return file;
+    }
+
+    /**
+     * Temporary directory for the written symbol files, deleted by
+     * deleteDirectory().
+     */
+    public static File createTempDirectory() throws IOException {
+        File dir = File.createTempFile("bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Create " + dir + " failed");
+        }
+        return dir;
+    }
+
+    public static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
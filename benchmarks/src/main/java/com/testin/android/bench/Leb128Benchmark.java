@@ -0,0 +1,156 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.debugline.DebugLineInfoEntry;
+
+/**
+ * readULEB128() and readSLEB128() of the line program decoder, every
+ * operation decodes count values of about bytes bytes each.
+ *
+ * Line programs mostly hold 1 byte operands, addresses of
+ * DW_LNE_set_address style jumps take 3 to 5.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Leb128Benchmark {
+    @Param({"1024", "65536"})
+    public int count;
+
+    @Param({"1", "2", "5"})
+    public int bytes;
+
+    private File mFile = null;
+    private ElfFile mElfFile = null;
+    private LebReader mUnsigned = null;
+    private LebReader mSigned = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(count * 31 + bytes);
+        ByteArrayOutputStream unsigned = new ByteArrayOutputStream();
+        ByteArrayOutputStream signed = new ByteArrayOutputStream();
+        long limit = 1L << (7 * bytes - 1);
+        for (int i = 0; i < count; i++) {
+            long value = (long) (random.nextDouble() * limit);
+            writeULEB128(unsigned, value);
+            writeSLEB128(signed, random.nextBoolean() ? value : -value);
+        }
+        byte[] data = new byte[unsigned.size() + signed.size()];
+        System.arraycopy(unsigned.toByteArray(), 0, data, 0, unsigned.size());
+        System.arraycopy(signed.toByteArray(), 0, data, unsigned.size(), signed.size());
+
+        mFile = File.createTempFile("leb128", ".bin");
+        mFile.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(mFile);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+        mElfFile = new ElfFile(mFile.getPath());
+        mUnsigned = new LebReader(mElfFile, 0L, unsigned.size());
+        mSigned = new LebReader(mElfFile, unsigned.size(), signed.size());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mUnsigned.readFinish();
+        mSigned.readFinish();
+        mElfFile.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long readULEB128() throws IOException {
+        return mUnsigned.sumULEB128(count);
+    }
+
+    @Benchmark
+    public long readSLEB128() throws IOException {
+        return mSigned.sumSLEB128(count);
+    }
+
+    private static void writeULEB128(ByteArrayOutputStream out, long value) {
+        do {
+            int b = (int) (value & 0x7F);
+            value >>>= 7;
+            out.write((value != 0) ? (b | 0x80) : b);
+        } while (value != 0);
+    }
+
+    private static void writeSLEB128(ByteArrayOutputStream out, long value) {
+        while (true) {
+            int b = (int) (value & 0x7F);
+            value >>= 7;
+            if (((value == 0) && ((b & 0x40) == 0)) || ((value == -1) && ((b & 0x40) != 0))) {
+                out.write(b);
+                return;
+            }
+            out.write(b | 0x80);
+        }
+    }
+
+    /**
+     * Decoder over the length bytes of values from offset, loaded once as
+     * a line program loads its unit.
+     */
+    private static class LebReader extends DebugLineInfoEntry {
+        public LebReader(ElfFile elfFile, long offset, int length) throws IOException {
+            super(elfFile, offset);
+            load(offset, length);
+        }
+
+        @Override
+        public void read() {
+        }
+
+        public long sumULEB128(int count) throws IOException {
+            mPos = 0;
+            long ret = 0L;
+            for (int i = 0; i < count; i++) {
+                ret += readULEB128();
+            }
+            return ret;
+        }
+
+        public long sumSLEB128(int count) throws IOException {
+            mPos = 0;
+            long ret = 0L;
+            for (int i = 0; i < count; i++) {
+                ret += readSLEB128();
+            }
+            return ret;
+        }
+    }
+}
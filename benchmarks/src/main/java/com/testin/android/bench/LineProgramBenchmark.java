@@ -0,0 +1,78 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.Logger;
+import com.testin.android.elfparser.debugline.DebugLineProgram;
+import com.testin.android.elfparser.debugline.ReadDebugLineInfo;
+
+/**
+ * Line program decode, of the first compilation unit alone and of the
+ * whole .debug_line section by one thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LineProgramBenchmark {
+    @Param({"libfx", "libbig", "libmix"})
+    public String fixture;
+
+    private Fixture mFixture = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Logger.setLevel(Logger.LEVEL_WARN);
+        ReadDebugLineInfo.setParallelism(1);
+        mFixture = new Fixture(fixture);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFixture.close();
+    }
+
+    @Benchmark
+    public int decodeUnit() throws IOException {
+        DebugLineProgram entry = new DebugLineProgram(mFixture.getElfFile(),
+                mFixture.getReadSection().getDebugLineOffset());
+        entry.read();
+        if (!entry.readSucceed()) {
+            throw new IOException("Decode unit failed");
+        }
+        return entry.mLineTable.size();
+    }
+
+    @Benchmark
+    public int decodeSection() throws IOException {
+        ReadDebugLineInfo rdli = new ReadDebugLineInfo(mFixture.getElfFile(), mFixture.getReadSection());
+        rdli.read();
+        if (!rdli.readSucceed()) {
+            throw new IOException("Decode debug line failed");
+        }
+        return rdli.mLineTable.size();
+    }
+}
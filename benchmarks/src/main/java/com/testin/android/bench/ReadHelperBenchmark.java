@@ -0,0 +1,145 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadHelper;
+
+/**
+ * ReadHelper primitive reads, every operation reads the whole file of
+ * size bytes in one width, from the mapped file or through
+ * RandomAccessFile.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadHelperBenchmark {
+    @Param({"4096", "1048576"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean mapped;
+
+    private File mFile = null;
+    private ElfFile mElfFile = null;
+    private Reader mReader = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        mFile = File.createTempFile("read", ".bin");
+        mFile.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(mFile);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+        ElfFile.setUseMappedFile(mapped);
+        mElfFile = new ElfFile(mFile.getPath());
+        mElfFile.setLSB(true);
+        mReader = new Reader(mElfFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mReader.readFinish();
+        mElfFile.close();
+        ElfFile.setUseMappedFile(true);
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long readByte() throws IOException {
+        mReader.seek(0L);
+        long ret = 0L;
+        for (int i = 0; i < size; i++) {
+            ret += mReader.readByte();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public long readHalf() throws IOException {
+        mReader.seek(0L);
+        long ret = 0L;
+        for (int i = 0; i < size; i += ReadHelper.HALF_SIZE) {
+            ret += mReader.readHalf();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public long readWord() throws IOException {
+        mReader.seek(0L);
+        long ret = 0L;
+        for (int i = 0; i < size; i += ReadHelper.WORD_SIZE) {
+            ret += mReader.readWord();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public long readTWord() throws IOException {
+        mReader.seek(0L);
+        long ret = 0L;
+        for (int i = 0; i < size; i += ReadHelper.TWORD_SIZE) {
+            ret += mReader.readTWord();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public long readFully() throws IOException {
+        mReader.seek(0L);
+        byte[] buffer = mReader.getBuffer();
+        long ret = 0L;
+        for (int i = 0; i < size; i += buffer.length) {
+            mReader.readFully(buffer, 0, Math.min(buffer.length, size - i));
+            ret += buffer[0];
+        }
+        return ret;
+    }
+
+    private static class Reader extends ReadHelper {
+        public Reader(ElfFile elfFile) throws IOException {
+            super(elfFile);
+        }
+
+        public byte[] getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public void print() {
+        }
+    }
+}
@@ -0,0 +1,121 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.ElfSymbolExtractor;
+import com.testin.android.Logger;
+import com.testin.android.elfparser.ReadSymbolSection;
+import com.testin.android.elfparser.debugline.ReadDebugLineInfo;
+
+/**
+ * Symbol table read, .debug_line decode and end-to-end extraction of a
+ * file written by ElfCorpusGenerator with rows line rows, a function per
+ * 20 rows and a unit per 2000 rows, of the ELF class elfClass (32 or 64)
+ * and the byte order data (lsb or msb), with .debug_line of version 2 or 5,
+ * deflated or not (compress).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScaleBenchmark {
+    @Param({"10000", "1000000"})
+    public long rows;
+
+    @Param({"32", "64"})
+    public int elfClass;
+
+    @Param({"lsb", "msb"})
+    public String data;
+
+    @Param({"2", "5"})
+    public int version;
+
+    @Param({"none", "zlib"})
+    public String compress;
+
+    private Fixture mFixture = null;
+    private File mDir = null;
+    private ElfSymbolExtractor mExtractor = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Logger.setLevel(Logger.LEVEL_WARN);
+        ReadDebugLineInfo.setParallelism(1);
+        File file = File.createTempFile("synth", ".elf");
+        file.deleteOnExit();
+        ElfCorpusGenerator generator = new ElfCorpusGenerator();
+        generator.setElf64(elfClass == 64);
+        generator.setLSB(data.equals("lsb"));
+        generator.setVersion(version);
+        generator.setCompress(compress);
+        generator.setRowCount(rows);
+        generator.setFunctionCount((int) Math.max(1L, rows / 20));
+        generator.setUnitCount((int) Math.max(1L, rows / 2000));
+        generator.write(file);
+        mFixture = new Fixture(file);
+
+        mDir = Fixture.createTempDirectory();
+        String name = "TestinSymbol_x86_synth.symbol";
+        mExtractor = new ElfSymbolExtractor(file.getPath(), "x86",
+                new File(mDir, name + ".zip").getPath(), name);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFixture.close();
+        Fixture.deleteDirectory(mDir);
+    }
+
+    @Benchmark
+    public int readSymbolTable() throws IOException {
+        ReadSymbolSection rss = mFixture.newReadSymbolSection();
+        rss.read();
+        if (!rss.readSucceed()) {
+            throw new IOException("Read symbol table failed");
+        }
+        return rss.mFunctionTable.size();
+    }
+
+    @Benchmark
+    public int decodeSection() throws IOException {
+        ReadDebugLineInfo rdli = new ReadDebugLineInfo(mFixture.getElfFile(), mFixture.getReadSection());
+        rdli.read();
+        if (!rdli.readSucceed()) {
+            throw new IOException("Decode debug line failed");
+        }
+        return rdli.mLineTable.size();
+    }
+
+    @Benchmark
+    public boolean extract() throws IOException {
+        if (!mExtractor.extract()) {
+            throw new IOException("Extract " + rows + " rows failed");
+        }
+        return true;
+    }
+}
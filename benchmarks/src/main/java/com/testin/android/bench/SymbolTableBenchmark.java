@@ -0,0 +1,65 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.Logger;
+import com.testin.android.elfparser.ReadSymbolSection;
+
+/**
+ * ReadSymbolSection.read(), which reads the symbol table and keeps the
+ * function entries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SymbolTableBenchmark {
+    @Param({"libfx", "libbig", "libmix"})
+    public String fixture;
+
+    private Fixture mFixture = null;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Logger.setLevel(Logger.LEVEL_WARN);
+        mFixture = new Fixture(fixture);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFixture.close();
+    }
+
+    @Benchmark
+    public int readSymbolTable() throws IOException {
+        ReadSymbolSection rss = mFixture.newReadSymbolSection();
+        rss.read();
+        if (!rss.readSucceed()) {
+            throw new IOException("Read symbol table failed");
+        }
+        return rss.mFunctionTable.size();
+    }
+}
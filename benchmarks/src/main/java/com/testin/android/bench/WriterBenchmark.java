@@ -0,0 +1,121 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.testin.android.ElfSymbolExtractor;
+import com.testin.android.Logger;
+import com.testin.android.SymbolJoiner;
+import com.testin.android.SymbolRowEncoder;
+import com.testin.android.elfparser.ReadSymbolSection;
+import com.testin.android.elfparser.debugline.LineTable;
+import com.testin.android.elfparser.debugline.ReadDebugLineInfo;
+
+/**
+ * Writing the decoded rows, as ElfSymbolExtractor.writeSymbols() joins
+ * them with the functions and encodes them, without the zip, and the
+ * whole writeSymbolFile() at a deflate level.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriterBenchmark {
+    @Param({"libfx", "libbig", "libmix"})
+    public String fixture;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private Fixture mFixture = null;
+    private ReadSymbolSection mReadSymbolSection = null;
+    private ReadDebugLineInfo mReadDebugLineInfo = null;
+    private File mDir = null;
+    private ElfSymbolExtractor mExtractor = null;
+    private final CountingOutputStream mNull = new CountingOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Logger.setLevel(Logger.LEVEL_WARN);
+        mFixture = new Fixture(fixture);
+        mReadSymbolSection = mFixture.newReadSymbolSection();
+        mReadSymbolSection.read();
+        mReadDebugLineInfo = new ReadDebugLineInfo(mFixture.getElfFile(), mFixture.getReadSection());
+        mReadDebugLineInfo.read();
+        if (!mReadSymbolSection.readSucceed() || !mReadDebugLineInfo.readSucceed()) {
+            throw new IOException("Read " + fixture + " failed");
+        }
+        mDir = Fixture.createTempDirectory();
+        String name = "TestinSymbol_x86_" + fixture + ".symbol";
+        mExtractor = new ElfSymbolExtractor(mFixture.getFile().getPath(), "x86",
+                new File(mDir, name + ".zip").getPath(), name);
+        ElfSymbolExtractor.setDeflateLevel(level);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFixture.close();
+        Fixture.deleteDirectory(mDir);
+    }
+
+    @Benchmark
+    public long joinAndEncode() throws Exception {
+        mNull.mCount = 0L;
+        SymbolRowEncoder encoder = new SymbolRowEncoder(mNull);
+        SymbolJoiner joiner = new SymbolJoiner(encoder, mReadSymbolSection);
+        LineTable lines = mReadDebugLineInfo.mLineTable;
+        for (int i = 0; i < lines.size(); i++) {
+            joiner.addLine(lines.getAddress(i), lines.getPathName(lines.getFile(i)),
+                    lines.getLine(i), lines.getEndLine(i));
+        }
+        joiner.finish();
+        encoder.flush();
+        return mNull.mCount;
+    }
+
+    @Benchmark
+    public boolean writeSymbolFile() throws IOException {
+        if (!mExtractor.writeSymbolFile(mFixture.getReadHeader(), mReadSymbolSection, mReadDebugLineInfo)) {
+            throw new IOException("Write symbol file failed");
+        }
+        return true;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        public long mCount = 0L;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+}
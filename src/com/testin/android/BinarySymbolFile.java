@@ -0,0 +1,425 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+
+/**
+ * Binary symbol file, which is mapped and searched without parsing
+ *
+ * All numbers are little endian, every section starts 8 bytes aligned.
+ *
+ * ------------------------------------------------------------
+ *    Offset  |  Size  |    Header field
+ *       0    |   8    | magic "TSYMBIN\0"
+ *       8    |   4    | format version
+ *      12    |   4    | header size
+ *      16    |   4    | row count
+ *      20    |   4    | function count
+ *      24    |   4    | file count
+ *      28    |   4    | reserved
+ *      32    |   8    | offset of start addresses, long per row
+ *      40    |   8    | offset of end addresses, long per row
+ *      48    |   8    | offset of function ids, int per row
+ *      56    |   8    | offset of file ids, int per row, -1 without file
+ *      64    |   8    | offset of lines, int per row
+ *      72    |   8    | offset of end lines, int per row
+ *      80    |   8    | offset of function names, int offset and int length in the pool per function
+ *      88    |   8    | offset of file names, int offset and int length in the pool per file
+ *      96    |   8    | offset of string pool, UTF-8 strings stored once
+ *     104    |   8    | size of string pool
+ *     112    |   4    | offset of the text header in the pool
+ *     116    |   4    | length of the text header
+ *     120    |   8    | file size
+ *
+ * The text header has the same lines as the header of the zipped symbol
+ * file. The rows are sorted by start address and do not overlap.
+ */
+public class BinarySymbolFile implements SymbolIndex {
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte[] MAGIC = {'T', 'S', 'Y', 'M', 'B', 'I', 'N', 0};
+    private static final int HEADER_SIZE = 128;
+    private static final int ALIGNMENT = 8;
+    static final String TMP_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ByteBuffer mBuffer = null;
+    private int mSize = 0;
+    private int mFunctionCount = 0;
+    private int mFileCount = 0;
+    private int mStarts = 0;
+    private int mEnds = 0;
+    private int mFunctions = 0;
+    private int mFiles = 0;
+    private int mLines = 0;
+    private int mEndLines = 0;
+    private int mFunctionNames = 0;
+    private int mFileNames = 0;
+    private int mPool = 0;
+    private int mHeaderOffset = 0;
+    private int mHeaderLength = 0;
+
+    private BinarySymbolFile() {
+    }
+
+    /**
+     * Map the binary symbol file, only the header is checked here. The
+     * file is closed at once, the mapping stays valid until it is garbage
+     * collected.
+     */
+    public static BinarySymbolFile open(String path) throws IOException {
+        BinarySymbolFile ret = new BinarySymbolFile();
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            ret.map(file.getChannel());
+        } finally {
+            file.close();
+        }
+        return ret;
+    }
+
+    private void map(FileChannel channel) throws IOException {
+        long length = channel.size();
+        if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+            throw new IOException("Wrong binary symbol file size " + length);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer = buffer;
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (mBuffer.get(i) != MAGIC[i]) {
+                throw new IOException("Not a binary symbol file");
+            }
+        }
+        int version = mBuffer.getInt(8);
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupport binary symbol file version " + version);
+        }
+        if (mBuffer.getLong(120) != length) {
+            throw new IOException("Truncated binary symbol file");
+        }
+
+        mSize = mBuffer.getInt(16);
+        mFunctionCount = mBuffer.getInt(20);
+        mFileCount = mBuffer.getInt(24);
+        mStarts = getSection(32, mSize * 8L, length);
+        mEnds = getSection(40, mSize * 8L, length);
+        mFunctions = getSection(48, mSize * 4L, length);
+        mFiles = getSection(56, mSize * 4L, length);
+        mLines = getSection(64, mSize * 4L, length);
+        mEndLines = getSection(72, mSize * 4L, length);
+        mFunctionNames = getSection(80, mFunctionCount * 8L, length);
+        mFileNames = getSection(88, mFileCount * 8L, length);
+        mPool = getSection(96, mBuffer.getLong(104), length);
+        mHeaderOffset = mBuffer.getInt(112);
+        mHeaderLength = mBuffer.getInt(116);
+    }
+
+    private int getSection(int field, long size, long length) throws IOException {
+        long offset = mBuffer.getLong(field);
+        if (offset < HEADER_SIZE || size < 0 || offset + size > length) {
+            throw new IOException("Wrong section at header offset " + field);
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Return the size of the mapped file.
+     */
+    public long length() {
+        return mBuffer.capacity();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int lookup(long pc) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(getStartAddress(mid), pc) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // high is the last row starting at or before pc
+        if ((high >= 0) && (Long.compareUnsigned(pc, getEndAddress(high)) < 0)) {
+            return high;
+        }
+        return -1;
+    }
+
+    public long getStartAddress(int row) {
+        return mBuffer.getLong(mStarts + (row << 3));
+    }
+
+    public long getEndAddress(int row) {
+        return mBuffer.getLong(mEnds + (row << 3));
+    }
+
+    public int getFunctionId(int row) {
+        return mBuffer.getInt(mFunctions + (row << 2));
+    }
+
+    public String getFunction(int row) {
+        return getFunctionName(getFunctionId(row));
+    }
+
+    public int getSourceFileId(int row) {
+        return mBuffer.getInt(mFiles + (row << 2));
+    }
+
+    public String getSourceFile(int row) {
+        int file = getSourceFileId(row);
+        return (file == Symbolizer.NO_FILE) ? null : getFileName(file);
+    }
+
+    public int getLine(int row) {
+        return mBuffer.getInt(mLines + (row << 2));
+    }
+
+    public int getEndLine(int row) {
+        return mBuffer.getInt(mEndLines + (row << 2));
+    }
+
+    public int getFunctionCount() {
+        return mFunctionCount;
+    }
+
+    public String getFunctionName(int function) {
+        int entry = mFunctionNames + (function << 3);
+        return getString(mBuffer.getInt(entry), mBuffer.getInt(entry + 4));
+    }
+
+    public int getFileCount() {
+        return mFileCount;
+    }
+
+    public String getFileName(int file) {
+        int entry = mFileNames + (file << 3);
+        return getString(mBuffer.getInt(entry), mBuffer.getInt(entry + 4));
+    }
+
+    /**
+     * Return the lines of the text header, such as "Arch: x86".
+     */
+    public String getHeader() {
+        return getString(mHeaderOffset, mHeaderLength);
+    }
+
+    private String getString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(mPool + offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Write the rows of the symbolizer as a binary symbol file. It is
+     * written as path.tmp and renamed to path, so path is left as it was
+     * if the write fails.
+     */
+    public static void write(Symbolizer symbolizer, String header, String path) throws IOException {
+        int size = symbolizer.size();
+        int functionCount = symbolizer.getFunctionCount();
+        int fileCount = symbolizer.getFileCount();
+
+        // Build the string pool first, the sections are laid out after it is known
+        StringPool pool = new StringPool();
+        int[] functionNames = new int[functionCount * 2];
+        for (int i = 0; i < functionCount; i++) {
+            pool.add(String.valueOf(symbolizer.getFunctionName(i)), functionNames, i);
+        }
+        int[] fileNames = new int[fileCount * 2];
+        for (int i = 0; i < fileCount; i++) {
+            pool.add(symbolizer.getFileName(i), fileNames, i);
+        }
+        int[] headerName = new int[2];
+        pool.add(header, headerName, 0);
+
+        long starts = HEADER_SIZE;
+        long ends = align(starts + size * 8L);
+        long functions = align(ends + size * 8L);
+        long files = align(functions + size * 4L);
+        long lines = align(files + size * 4L);
+        long endLines = align(lines + size * 4L);
+        long functionNamesOffset = align(endLines + size * 4L);
+        long fileNamesOffset = align(functionNamesOffset + functionCount * 8L);
+        long poolOffset = align(fileNamesOffset + fileCount * 8L);
+        long length = poolOffset + pool.size();
+
+        // Written aside and moved, so a reader never maps a partial file
+        File tmp = new File(path + TMP_SUFFIX);
+        boolean succeed = false;
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = fos.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.put(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(HEADER_SIZE);
+            buffer.putInt(size);
+            buffer.putInt(functionCount);
+            buffer.putInt(fileCount);
+            buffer.putInt(0);
+            buffer.putLong(starts);
+            buffer.putLong(ends);
+            buffer.putLong(functions);
+            buffer.putLong(files);
+            buffer.putLong(lines);
+            buffer.putLong(endLines);
+            buffer.putLong(functionNamesOffset);
+            buffer.putLong(fileNamesOffset);
+            buffer.putLong(poolOffset);
+            buffer.putLong(pool.size());
+            buffer.putInt(headerName[0]);
+            buffer.putInt(headerName[1]);
+            buffer.putLong(length);
+
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(channel, buffer, 8);
+                buffer.putLong(symbolizer.getStartAddress(i));
+            }
+            buffer = pad(channel, buffer);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(channel, buffer, 8);
+                buffer.putLong(symbolizer.getEndAddress(i));
+            }
+            buffer = pad(channel, buffer);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(channel, buffer, 4);
+                buffer.putInt(symbolizer.getFunctionId(i));
+            }
+            buffer = pad(channel, buffer);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(channel, buffer, 4);
+                buffer.putInt(symbolizer.getSourceFileId(i));
+            }
+            buffer = pad(channel, buffer);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(channel, buffer, 4);
+                buffer.putInt(symbolizer.getLine(i));
+            }
+            buffer = pad(channel, buffer);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(channel, buffer, 4);
+                buffer.putInt(symbolizer.getEndLine(i));
+            }
+            buffer = pad(channel, buffer);
+            for (int value : functionNames) {
+                buffer = ensure(channel, buffer, 4);
+                buffer.putInt(value);
+            }
+            buffer = pad(channel, buffer);
+            for (int value : fileNames) {
+                buffer = ensure(channel, buffer, 4);
+                buffer.putInt(value);
+            }
+            buffer = pad(channel, buffer);
+            flush(channel, buffer);
+            pool.write(channel);
+
+            if (channel.position() != length) {
+                throw new IOException("Wrong binary symbol file size " + channel.position());
+            }
+            fos.close();
+            Files.move(tmp.toPath(), new File(path).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            succeed = true;
+        } finally {
+            try {
+                fos.close();
+            } finally {
+                if (!succeed) {
+                    tmp.delete();
+                }
+            }
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) & ~(long) (ALIGNMENT - 1);
+    }
+
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flush(channel, buffer);
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer pad(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long position = channel.position() + buffer.position();
+        while ((position & (ALIGNMENT - 1)) != 0) {
+            buffer = ensure(channel, buffer, 1);
+            buffer.put((byte) 0);
+            position++;
+        }
+        return buffer;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * UTF-8 strings, each identical string stored once
+     */
+    private static class StringPool {
+        private HashMap<String, int[]> mEntries = new HashMap<String, int[]>();
+        private ByteBuffer mBuffer = ByteBuffer.allocate(1 << 16);
+
+        public void add(String value, int[] names, int index) {
+            int[] entry = mEntries.get(value);
+            if (entry == null) {
+                byte[] bytes = value.getBytes(UTF_8);
+                if (mBuffer.remaining() < bytes.length) {
+                    int capacity = Math.max(mBuffer.capacity() << 1, mBuffer.position() + bytes.length);
+                    ByteBuffer buffer = ByteBuffer.allocate(capacity);
+                    mBuffer.flip();
+                    buffer.put(mBuffer);
+                    mBuffer = buffer;
+                }
+                entry = new int[] {mBuffer.position(), bytes.length};
+                mBuffer.put(bytes);
+                mEntries.put(value, entry);
+            }
+            names[index * 2] = entry[0];
+            names[index * 2 + 1] = entry[1];
+        }
+
+        public int size() {
+            return mBuffer.position();
+        }
+
+        public void write(FileChannel channel) throws IOException {
+            flush(channel, mBuffer);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadHeader;
+import com.testin.android.elfparser.debugline.ReadDebugLineInfo;
+
+/**
+ * Extract the symbols of every ELF SO file found under a directory (such as
+ * obj/local/) or listed in a file, on a bounded pool of workers.
+ */
+public class ElfSymbolBatch {
+    private static final byte[] ELF_MAGIC = {
+        (byte) 0x7F, (byte) 'E', (byte) 'L', (byte) 'F'
+    };
+    // The arch directory names of NDK, longer names first
+    static final String[] ARCH_NAMES = {
+        "armeabi-v7a", "armeabi", "arm64-v8a", "mips64", "mips", "x86_64", "x86"
+    };
+
+    private static final String STATUS_OK = "OK";
+    private static final String STATUS_FAILED = "FAILED";
+    private static final String STATUS_SKIPPED = "SKIPPED";
+
+    private String mInput = null;
+    private String mOutPath = null;
+    private int mJobs = 1;
+    private List<BatchItem> mItems = new ArrayList<BatchItem>();
+
+    public ElfSymbolBatch(String input, String outPath, int jobs) {
+        mInput = input;
+        mOutPath = outPath;
+        mJobs = Math.max(jobs, 1);
+    }
+
+    public boolean run() {
+        long start = System.currentTimeMillis();
+        File input = new File(mInput);
+        try {
+            if (input.isDirectory()) {
+                collectDir(input);
+            } else {
+                collectList(input);
+            }
+        } catch (IOException e) {
+            Logger.LogError("Batch read input failed:" + e.toString());
+            return false;
+        }
+
+        Set<String> symbolFiles = new HashSet<String>();
+        List<BatchItem> tasks = new ArrayList<BatchItem>();
+        for (BatchItem item : mItems) {
+            prepare(item);
+            if (item.mStatus != null) {
+                continue;
+            }
+            if (!symbolFiles.add(item.mSymbolFile)) {
+                item.mStatus = STATUS_SKIPPED;
+                item.mMessage = "duplicate of an earlier " + item.mSymbolFileName;
+                continue;
+            }
+            tasks.add(item);
+        }
+
+        if (!tasks.isEmpty()) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(mJobs, tasks.size()));
+            // All jobs decode on one pool, so --threads bounds the decoding
+            // threads of the batch rather than of every job
+            int parallelism = ReadDebugLineInfo.getParallelism();
+            ForkJoinPool decodePool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+            ReadDebugLineInfo.setSharedPool(decodePool);
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final BatchItem item : tasks) {
+                    futures.add(pool.submit(new Runnable() {
+                        public void run() {
+                            extract(item);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (Exception e) {
+                Logger.LogError("Batch extract failed:" + e.toString());
+                return false;
+            } finally {
+                pool.shutdown();
+                ReadDebugLineInfo.setSharedPool(null);
+                if (decodePool != null) {
+                    decodePool.shutdown();
+                }
+            }
+        }
+
+        return printSummary(System.currentTimeMillis() - start);
+    }
+
+    private void collectDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectDir(file);
+            } else if (file.isFile() && isElfFile(file)) {
+                mItems.add(new BatchItem(file, null));
+            }
+        }
+    }
+
+    private void collectList(File list) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(list));
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                // The path may hold spaces, only an arch name ends it
+                String arch = getListArch(line);
+                String path = (arch == null) ? line : line.substring(0, line.length() - arch.length()).trim();
+                BatchItem item = new BatchItem(new File(path), arch);
+                if (!item.mElfFile.isFile() || !isElfFile(item.mElfFile)) {
+                    item.mStatus = STATUS_SKIPPED;
+                    item.mMessage = "not an ELF file";
+                }
+                mItems.add(item);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void prepare(BatchItem item) {
+        if (item.mStatus != null) {
+            return;
+        }
+
+        int machineType = 0;
+        boolean is64 = false;
+        ElfFile elfFile = null;
+        try {
+            elfFile = new ElfFile(item.mElfFile.getPath());
+            ReadHeader readHeader = new ReadHeader(elfFile);
+            readHeader.read();
+            if (!readHeader.readSucceed() || !readHeader.isSharedObject()) {
+                item.mStatus = STATUS_SKIPPED;
+                item.mMessage = "not a shared object";
+                return;
+            }
+            machineType = readHeader.getMachineType();
+            is64 = readHeader.is64();
+        } catch (IOException e) {
+            item.mStatus = STATUS_FAILED;
+            item.mMessage = e.toString();
+            return;
+        } finally {
+            if (elfFile != null) {
+                elfFile.close();
+            }
+        }
+
+        if (item.mArch == null) {
+            item.mArch = getArchFromPath(item.mElfFile);
+        }
+        if (item.mArch == null) {
+            item.mArch = getArchFromMachine(machineType, is64);
+        }
+        if (!ElfSymbolTool.isSupportArch(item.mArch)) {
+            item.mStatus = STATUS_SKIPPED;
+            item.mMessage = "unsupport arch " + item.mArch;
+            return;
+        }
+
+        item.mSymbolFileName = ElfSymbolTool.getSymbolFileName(item.mArch, item.mElfFile.getName());
+        item.mSymbolFile = mOutPath + item.mSymbolFileName + ElfSymbolExtractor.getSymbolFileSuffix();
+    }
+
+    private void extract(BatchItem item) {
+        long start = System.currentTimeMillis();
+        boolean succeed = false;
+        try {
+            ElfSymbolExtractor extractor = new ElfSymbolExtractor(item.mElfFile.getPath(), item.mArch,
+                    item.mSymbolFile, item.mSymbolFileName);
+            succeed = extractor.extract();
+            if (extractor.isCacheHit()) {
+                item.mMessage = "cache hit";
+            }
+        } catch (RuntimeException e) {
+            item.mMessage = e.toString();
+        }
+        item.mTime = System.currentTimeMillis() - start;
+        item.mStatus = succeed ? STATUS_OK : STATUS_FAILED;
+    }
+
+    private boolean printSummary(long time) {
+        int succeed = 0;
+        int failed = 0;
+        int skipped = 0;
+
+        Logger.LogInfo("------------ Batch Summary ------------");
+        for (BatchItem item : mItems) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-9s%-12s%8dms  ", item.mStatus,
+                    item.mArch == null ? "-" : item.mArch, item.mTime));
+            sb.append(item.mElfFile.getPath());
+            if (STATUS_OK.equals(item.mStatus)) {
+                sb.append(" -> ").append(item.mSymbolFile);
+                succeed++;
+            } else if (STATUS_FAILED.equals(item.mStatus)) {
+                failed++;
+            } else {
+                skipped++;
+            }
+            if (item.mMessage != null) {
+                sb.append(" (").append(item.mMessage).append(")");
+            }
+            Logger.LogInfo(sb.toString());
+        }
+        Logger.LogInfo("Total: " + mItems.size() + ", succeed: " + succeed + ", failed: " + failed
+                + ", skipped: " + skipped + ", " + time + "ms");
+        SymbolCache.printStats();
+
+        return failed == 0;
+    }
+
+    static boolean isElfFile(File file) {
+        byte[] magic = new byte[ELF_MAGIC.length];
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            int n = 0;
+            while (n < magic.length) {
+                int count = is.read(magic, n, magic.length - n);
+                if (count < 0) {
+                    return false;
+                }
+                n += count;
+            }
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    Logger.LogError(e.toString());
+                }
+            }
+        }
+        return Arrays.equals(magic, ELF_MAGIC);
+    }
+
+    /**
+     * Return the arch of the directory holding the file, or of the arch
+     * directory of an obj/local/<arch>/ tree. Other directories on the path
+     * named as an arch are not taken.
+     */
+    static String getArchFromPath(File file) {
+        File parent = file.getParentFile();
+        if (parent == null) {
+            return null;
+        }
+        String arch = getArchName(parent.getName());
+        if (arch != null) {
+            return arch;
+        }
+        for (File dir = parent; dir.getParentFile() != null; dir = dir.getParentFile()) {
+            File local = dir.getParentFile();
+            File obj = local.getParentFile();
+            if ("local".equals(local.getName()) && (obj != null) && "obj".equals(obj.getName())) {
+                return getArchName(dir.getName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the arch ending a line of the list file, or null if its last
+     * field is not an arch name.
+     */
+    static String getListArch(String line) {
+        int start = line.length();
+        while ((start > 0) && !Character.isWhitespace(line.charAt(start - 1))) {
+            start--;
+        }
+        return (start > 0) ? getArchName(line.substring(start)) : null;
+    }
+
+    private static String getArchName(String name) {
+        for (String arch : ARCH_NAMES) {
+            if (arch.equals(name)) {
+                return arch;
+            }
+        }
+        return null;
+    }
+
+    static String getArchFromMachine(int machineType, boolean is64) {
+        switch (machineType) {
+            case ReadHeader.EM_386:
+                return "x86";
+            case ReadHeader.EM_MIPS:
+                return is64 ? "mips64" : "mips";
+            case ReadHeader.EM_ARM:
+                return "armeabi";
+            case ReadHeader.EM_X86_64:
+                return "x86_64";
+            case ReadHeader.EM_AARCH64:
+                return "arm64-v8a";
+            default:
+                return "machine-" + machineType;
+        }
+    }
+
+    private static class BatchItem {
+        public File mElfFile = null;
+        public String mArch = null;
+        public String mSymbolFile = null;
+        public String mSymbolFileName = null;
+        public volatile String mStatus = null;
+        public String mMessage = null;
+        public volatile long mTime = 0L;
+
+        public BatchItem(File elfFile, String arch) {
+            mElfFile = elfFile;
+            mArch = arch;
+        }
+    }
+}
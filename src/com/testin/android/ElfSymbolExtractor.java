@@ -6,185 +6,538 @@
 
 package com.testin.android;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import com.testin.android.elfparser.ElfFile;
 import com.testin.android.elfparser.ReadHeader;
+import com.testin.android.elfparser.ReadIdentification;
 import com.testin.android.elfparser.ReadSection;
 import com.testin.android.elfparser.ReadSymbolSection;
-import com.testin.android.elfparser.ReadSymbolSection.SymbolTableEntry;
-import com.testin.android.elfparser.debugline.DebugLineInfoEntry.LineInfoEntry;
+import com.testin.android.elfparser.debugline.LineTable;
 import com.testin.android.elfparser.debugline.ReadDebugLineInfo;
+import com.testin.android.jfr.SymbolJoinEvent;
+import com.testin.android.jfr.ZipWriteEvent;
 
 /**
  * This tool is designed to parse ELF (Executable and Linkable Format) file
  * and extract the symbol infomations.
  */
 public class ElfSymbolExtractor {
+    public static final int FORMAT_ZIP = 0;
+    public static final int FORMAT_BINARY = 1;
+    public static final int FORMAT_SHARDED = 2;
+
+    private static boolean sStreaming = false;
+    private static int sFormat = FORMAT_ZIP;
+    private static int sDeflateLevel = Deflater.DEFAULT_COMPRESSION;
+    private static int sDeflateThreads = 1;
+    private static int sShardSize = ShardedSymbolFile.DEFAULT_SHARD_SIZE;
+    // Deflated bytes are written to the file through this buffer
+    private static final int FILE_BUFFER_SIZE = 1 << 16;
+
     private String mSrcFile = null;
+    private String mArch = null;
     private String mDesFile = null;
     private String mDesFileName = null;
+    private boolean mCacheHit = false;
+    private ExtractReport mReport = null;
 
     public ElfSymbolExtractor() {
-        mSrcFile = ElfSymbolTool.sElfFile;
-        mDesFile = ElfSymbolTool.sSymbolFile;
-        mDesFileName = ElfSymbolTool.sSymbolFileName;
+        this(ElfSymbolTool.sElfFile, ElfSymbolTool.sArch,
+                ElfSymbolTool.sSymbolFile, ElfSymbolTool.sSymbolFileName);
+    }
+
+    public ElfSymbolExtractor(String srcFile, String arch, String desFile, String desFileName) {
+        mSrcFile = srcFile;
+        mArch = arch;
+        mDesFile = desFile;
+        mDesFileName = desFileName;
+    }
+
+    /**
+     * In streaming mode the rows are joined and written while the debug
+     * line info is decoded, instead of after all rows are read.
+     */
+    public static void setStreaming(boolean streaming) {
+        sStreaming = streaming;
+    }
+
+    public static boolean isStreaming() {
+        return sStreaming;
+    }
+
+    /**
+     * FORMAT_ZIP writes the zipped text rows, FORMAT_BINARY writes the
+     * rows as a BinarySymbolFile, FORMAT_SHARDED writes them as a
+     * ShardedSymbolFile.
+     */
+    public static void setFormat(int format) {
+        sFormat = format;
+    }
+
+    public static int getFormat() {
+        return sFormat;
+    }
+
+    /**
+     * Name of the format as given to --format.
+     */
+    public static String getFormatName() {
+        switch (sFormat) {
+            case FORMAT_BINARY:
+                return "binary";
+            case FORMAT_SHARDED:
+                return "sharded";
+            default:
+                return "zip";
+        }
+    }
+
+    /**
+     * Deflate level of the zip entry, 0 (stored blocks) to 9, or
+     * Deflater.DEFAULT_COMPRESSION.
+     */
+    public static void setDeflateLevel(int level) {
+        sDeflateLevel = level;
+    }
+
+    public static int getDeflateLevel() {
+        return sDeflateLevel;
+    }
+
+    /**
+     * With more than 1 thread, the zip entry is deflated a block at a
+     * time by a ParallelZipOutputStream.
+     */
+    public static void setDeflateThreads(int threads) {
+        sDeflateThreads = threads;
     }
 
-    public void extract() {
+    public static int getDeflateThreads() {
+        return sDeflateThreads;
+    }
+
+    /**
+     * Bytes of rows in a shard of FORMAT_SHARDED
+     */
+    public static void setShardSize(int shardSize) {
+        sShardSize = shardSize;
+    }
+
+    public static int getShardSize() {
+        return sShardSize;
+    }
+
+    /**
+     * Suffix appended to the symbol file name for the output file.
+     */
+    public static String getSymbolFileSuffix() {
+        if (sFormat == FORMAT_BINARY) {
+            return ".bin";
+        }
+        return (sFormat == FORMAT_SHARDED) ? ".shards.zip" : ".zip";
+    }
+
+    /**
+     * Return true if the last extract() copied the symbol file from
+     * SymbolCache.
+     */
+    public boolean isCacheHit() {
+        return mCacheHit;
+    }
+
+    public boolean extract() {
         if (mSrcFile == null || mDesFile == null || mDesFileName == null) {
             Logger.LogError("Extract failed!");
-            return;
+            return false;
         }
 
+        mCacheHit = false;
+        mReport = ExtractReport.isEnabled() ? new ExtractReport() : null;
+        boolean succeed = false;
+        ElfFile elfFile = null;
         try {
-            ReadHeader readHeader = new ReadHeader(mSrcFile);
+            elfFile = new ElfFile(mSrcFile);
+            beginPhase(ExtractReport.PHASE_IDENTIFICATION);
+            ReadIdentification readIdentification = new ReadIdentification(elfFile);
+            readIdentification.read();
+            endPhase(ExtractReport.PHASE_IDENTIFICATION, ReadIdentification.EI_NIDENT);
+
+            beginPhase(ExtractReport.PHASE_HEADER);
+            ReadHeader readHeader = new ReadHeader(elfFile, readIdentification);
             readHeader.read();
+            endPhase(ExtractReport.PHASE_HEADER, readHeader.getHeaderSize());
             if (!readHeader.readSucceed()) {
-                return;
+                return false;
             }
             readHeader.print();
 
-            ReadSection readSection = new ReadSection(mSrcFile, readHeader.isLSB(),
+            beginPhase(ExtractReport.PHASE_SECTIONS);
+            ReadSection readSection = new ReadSection(elfFile,
                     readHeader.getShOffset(), readHeader.getShEntryNumber(),
                     readHeader.getShtEntrySize(), readHeader.getIndexOfShtNameTable());
             readSection.read();
+            endPhase(ExtractReport.PHASE_SECTIONS, readSection.getBytesRead());
             if (!readSection.readSucceed()) {
-                return;
+                return false;
             }
             readSection.print();
 
-            ReadSymbolSection readSymbolSection = new ReadSymbolSection(mSrcFile, readHeader.isLSB(),
-                    readSection.getSymbolTableOffset(), readSection.getSymbolTableEntryNum(),
-                    readSection.getStrTable(), readSection.getStrTableSize());
-            readSymbolSection.read();
-            if (!readSymbolSection.readSucceed()) {
-                return;
+            String cacheKey = null;
+            if (SymbolCache.isEnabled()) {
+                cacheKey = SymbolCache.getKey(elfFile, readSection.getBuildId(),
+                        mArch, mSrcFile, mDesFileName);
+                if (SymbolCache.fetch(cacheKey, mDesFile)) {
+                    mCacheHit = true;
+                    Logger.LogInfo("Symbol cache hit, " + mDesFile + " is not extracted again");
+                    succeed = true;
+                    return true;
+                }
+            }
+
+            if (!extractSymbols(elfFile, readHeader, readSection)) {
+                return false;
+            }
+            if (cacheKey != null) {
+                SymbolCache.store(cacheKey, mDesFile);
+            }
+            succeed = true;
+            return true;
+        } catch (IOException e) {
+            Logger.LogError("Extract failed:" + e.toString());
+            return false;
+        } finally {
+            if (elfFile != null) {
+                elfFile.close();
+            }
+            if (mReport != null) {
+                finishReport(succeed);
             }
-            readSymbolSection.print();
+        }
+    }
+
+    private void finishReport(boolean succeed) {
+        mReport.setInfo("source", mSrcFile);
+        mReport.setInfo("arch", mArch);
+        mReport.setInfo("output", mDesFile);
+        mReport.setInfo("format", getFormatName());
+        mReport.setInfo("streaming", sStreaming);
+        mReport.setInfo("threads", ReadDebugLineInfo.getParallelism());
+        mReport.setInfo("succeed", succeed);
+        mReport.setInfo("cache_hit", mCacheHit);
+        File output = new File(mDesFile);
+        if (succeed && output.isFile()) {
+            mReport.setCount("output_bytes", output.length());
+        }
+        ExtractReport.add(mReport);
+    }
+
+    private void beginPhase(String phase) {
+        if (mReport != null) {
+            mReport.begin(phase);
+        }
+    }
+
+    private void endPhase(String phase, long bytesRead) {
+        if (mReport != null) {
+            mReport.end(phase, bytesRead);
+        }
+    }
+
+    private boolean extractSymbols(ElfFile elfFile, ReadHeader readHeader,
+            ReadSection readSection) throws IOException {
+        beginPhase(ExtractReport.PHASE_SYMTAB);
+        ReadSymbolSection readSymbolSection = new ReadSymbolSection(elfFile,
+                readSection.getSymbolTableOffset(), readSection.getSymbolTableEntryNum(),
+                readSection.getStrTable(), readSection.getStrTableSize());
+        readSymbolSection.read();
+        endPhase(ExtractReport.PHASE_SYMTAB, readSymbolSection.getBytesRead());
+        if (!readSymbolSection.readSucceed()) {
+            return false;
+        }
+        readSymbolSection.print();
+        if (mReport != null) {
+            mReport.setCount("symbols", readSymbolSection.getEntryNumber());
+            mReport.setCount("functions", readSymbolSection.mFunctionTable.size());
+        }
 
-            ReadDebugLineInfo readDebugLineInfo = new ReadDebugLineInfo(mSrcFile, readHeader.isLSB(),
-                    readSection.getDebugLineOffset(), readSection.getDebugLineSize());
+        ReadDebugLineInfo readDebugLineInfo = new ReadDebugLineInfo(elfFile, readSection);
+        readDebugLineInfo.setReport(mReport);
+        try {
+            if (sFormat == FORMAT_BINARY) {
+                if (!writeBinarySymbolFile(readHeader, readSymbolSection, readDebugLineInfo)) {
+                    return false;
+                }
+                Logger.LogInfo("Write binary symbol file succeed!");
+                return true;
+            }
+            if (sStreaming) {
+                if (!writeSymbolFile(readHeader, readSymbolSection, readDebugLineInfo)) {
+                    return false;
+                }
+                Logger.LogInfo("Write symbol file succeed!");
+                return true;
+            }
+            beginPhase(ExtractReport.PHASE_DEBUG_LINE);
             readDebugLineInfo.read();
+            endPhase(ExtractReport.PHASE_DEBUG_LINE, readSection.getDebugLineSize());
             if (!readDebugLineInfo.readSucceed()){
-                return;
+                return false;
             }
             readDebugLineInfo.print();
 
             Logger.LogInfo("ELF SO file extract succeed!");
 
-            writeSymbolFile(readHeader, readSymbolSection, readDebugLineInfo);
+            if (!writeSymbolFile(readHeader, readSymbolSection, readDebugLineInfo)) {
+                return false;
+            }
             Logger.LogInfo("Write symbol file succeed!");
-        } catch (IOException e) {
-            Logger.LogError("Extract failed:" + e.toString());
-            return;
+            return true;
+        } finally {
+            if (mReport != null) {
+                mReport.setCount("compilation_units", readDebugLineInfo.getUnitCount());
+                mReport.setCount("line_rows", readDebugLineInfo.getRowCount());
+                mReport.setCount("opcodes", readDebugLineInfo.getOpcodeCount());
+            }
         }
     }
 
-    public void writeSymbolFile(ReadHeader rh, ReadSymbolSection rss, ReadDebugLineInfo rdli) {
+    public boolean writeSymbolFile(ReadHeader rh, ReadSymbolSection rss, ReadDebugLineInfo rdli) {
+        if (sFormat == FORMAT_SHARDED) {
+            return writeShardedSymbolFile(rh, rss, rdli);
+        }
+        boolean succeed = false;
         ZipOutputStream zos = null;
+        ZipEntry ze = null;
+        ParallelZipOutputStream pzos = null;
+        OutputStream file = null;
+        OutputStream zip = null;
+        ZipWriteEvent event = new ZipWriteEvent();
+        event.begin();
+        long startTime = event.isEnabled() ? System.nanoTime() : 0L;
         try {
-            zos = new ZipOutputStream(new FileOutputStream(mDesFile));
-            ZipEntry ze = new ZipEntry(mDesFileName);
-            zos.putNextEntry(ze);
-            writeSymbolHeader(zos, rh);
-            writeSymbols(zos, rss, rdli);
-            zos.closeEntry();
+            file = new BufferedOutputStream(new FileOutputStream(mDesFile), FILE_BUFFER_SIZE);
+            if (sDeflateThreads > 1) {
+                pzos = new ParallelZipOutputStream(file, mDesFileName, sDeflateLevel, sDeflateThreads);
+                zip = pzos;
+            } else {
+                zos = new ZipOutputStream(file);
+                zip = zos;
+                zos.setLevel(sDeflateLevel);
+                ze = new ZipEntry(mDesFileName);
+                zos.putNextEntry(ze);
+            }
+            // The encoder passes the rows a block at a time, with a report
+            // every block is counted as written
+            OutputStream os = (mReport != null) ? new ReportOutputStream(zip, mReport) : zip;
+            SymbolRowEncoder encoder = new SymbolRowEncoder(os);
+            writeSymbolHeader(encoder, rh);
+            if (sStreaming) {
+                beginPhase(ExtractReport.PHASE_DEBUG_LINE);
+                streamSymbols(encoder, rss, rdli);
+                endPhase(ExtractReport.PHASE_DEBUG_LINE, rdli.getSize());
+            } else {
+                beginPhase(ExtractReport.PHASE_JOIN);
+                writeSymbols(encoder, rss, rdli);
+                endPhase(ExtractReport.PHASE_JOIN, 0L);
+            }
+            encoder.flush();
+            beginPhase(ExtractReport.PHASE_WRITE);
+            if (zos != null) {
+                zos.closeEntry();
+            }
+            zip.close();
+            endPhase(ExtractReport.PHASE_WRITE, 0L);
+            succeed = true;
         } catch (Exception e) {
             Logger.LogError("Failed in writeSymbolFile: " + e.toString());
         } finally {
-            if (zos != null) {
+            // The zip stream closes the file, unless it failed to be created
+            OutputStream os = (zip != null) ? zip : file;
+            if (os != null) {
                 try {
-                    zos.close();
+                    os.close();
                 } catch (IOException e) {
                     Logger.LogError("Failed in writeSymbolFile:" + e.toString());
+                    succeed = false;
                 }
             }
+            // No truncated symbol file is left
+            if (!succeed && (file != null) && !new File(mDesFile).delete()) {
+                Logger.LogError("Failed to delete " + mDesFile);
+            }
         }
+        event.end();
+        if (event.shouldCommit()) {
+            long nanos = System.nanoTime() - startTime;
+            event.path = mDesFile;
+            event.entryName = mDesFileName;
+            if (pzos != null) {
+                event.uncompressedSize = pzos.getSize();
+                event.compressedSize = pzos.getCompressedSize();
+            } else {
+                event.uncompressedSize = Math.max(ze != null ? ze.getSize() : 0L, 0L);
+                event.compressedSize = Math.max(ze != null ? ze.getCompressedSize() : 0L, 0L);
+            }
+            event.throughput = (nanos > 0) ? (long) (event.uncompressedSize * 1e9 / nanos) : 0L;
+            event.succeed = succeed;
+            event.commit();
+        }
+        return succeed;
     }
 
-    private void writeSymbolHeader(ZipOutputStream zos, ReadHeader rh) throws Exception {
-        if (zos == null || rh == null) {
+    /**
+     * The rows are written to shards as they are joined, the same way as
+     * writeSymbolFile() writes them to one entry.
+     */
+    public boolean writeShardedSymbolFile(ReadHeader rh, ReadSymbolSection rss, ReadDebugLineInfo rdli) {
+        boolean succeed = false;
+        ShardedSymbolFile.Writer writer = null;
+        try {
+            writer = new ShardedSymbolFile.Writer(mDesFile, mDesFileName, getSymbolHeader(rh),
+                    sShardSize, sDeflateLevel);
+            if (sStreaming) {
+                beginPhase(ExtractReport.PHASE_DEBUG_LINE);
+                streamSymbols(writer, rss, rdli);
+                endPhase(ExtractReport.PHASE_DEBUG_LINE, rdli.getSize());
+            } else {
+                beginPhase(ExtractReport.PHASE_JOIN);
+                writeSymbols(writer, rss, rdli);
+                endPhase(ExtractReport.PHASE_JOIN, 0L);
+            }
+            beginPhase(ExtractReport.PHASE_WRITE);
+            writer.close();
+            endPhase(ExtractReport.PHASE_WRITE, 0L);
+            succeed = true;
+        } catch (Exception e) {
+            Logger.LogError("Failed in writeShardedSymbolFile: " + e.toString());
+        } finally {
+            // The index is only written by close(), and a failed file is
+            // deleted, so the server never takes it for a whole table
+            if (!succeed && (writer != null)) {
+                try {
+                    writer.abort();
+                } catch (IOException e) {
+                    Logger.LogError("Failed in writeShardedSymbolFile:" + e.toString());
+                }
+                if (!new File(mDesFile).delete()) {
+                    Logger.LogError("Failed to delete " + mDesFile);
+                }
+            }
+        }
+        return succeed;
+    }
+
+    /**
+     * The rows are indexed in memory by Symbolizer, then written sorted.
+     */
+    public boolean writeBinarySymbolFile(ReadHeader rh, ReadSymbolSection rss, ReadDebugLineInfo rdli) {
+        try {
+            beginPhase(ExtractReport.PHASE_DEBUG_LINE);
+            Symbolizer symbolizer = Symbolizer.index(rss, rdli);
+            endPhase(ExtractReport.PHASE_DEBUG_LINE, rdli.getSize());
+            beginPhase(ExtractReport.PHASE_WRITE);
+            BinarySymbolFile.write(symbolizer, getSymbolHeader(rh), mDesFile);
+            endPhase(ExtractReport.PHASE_WRITE, 0L);
+            return true;
+        } catch (Exception e) {
+            Logger.LogError("Failed in writeBinarySymbolFile: " + e.toString());
+            return false;
+        }
+    }
+
+    private void writeSymbolHeader(SymbolRowEncoder encoder, ReadHeader rh) throws Exception {
+        if (encoder == null || rh == null) {
             throw new Exception("Failed in writeHeader due to null parameters!");
         }
+        encoder.write(getSymbolHeader(rh).getBytes("utf-8"));
+    }
 
-        String tmp = "Version: " + ElfSymbolTool.SYMBOL_TOOL_VERSION + "\n";
-        zos.write(tmp.getBytes("utf-8"));
-        tmp = "Source File: " + mSrcFile + "\n";
-        zos.write(tmp.getBytes("utf-8"));
-        tmp = "Arch: " + ElfSymbolTool.sArch + "\n";
-        zos.write(tmp.getBytes("utf-8"));
-        tmp = "Format: " + rh.getFileFormat() + "\n";
-        zos.write(tmp.getBytes("utf-8"));
-        tmp = "File Type: " + rh.getFileTypeStr() + "\n";
-        zos.write(tmp.getBytes("utf-8"));
+    private String getSymbolHeader(ReadHeader rh) {
+        StringBuilder ret = new StringBuilder();
+        ret.append("Version: ").append(ElfSymbolTool.SYMBOL_TOOL_VERSION).append("\n");
+        ret.append("Source File: ").append(mSrcFile).append("\n");
+        ret.append("Arch: ").append(mArch).append("\n");
+        ret.append("Format: ").append(rh.getFileFormat()).append("\n");
+        ret.append("File Type: ").append(rh.getFileTypeStr()).append("\n");
+        return ret.toString();
     }
 
-    private void writeSymbols(ZipOutputStream zos, ReadSymbolSection rss,
+    private void writeSymbols(SymbolSink sink, ReadSymbolSection rss,
             ReadDebugLineInfo rdli) throws Exception {
-        if (zos == null || rss == null || rdli == null) {
+        if (sink == null || rss == null || rdli == null) {
             throw new Exception("Failed in writeSymbols due to null parameters!");
         }
-        int dliIndex = 0;
-        SymbolTableEntry func = null;
-        SymbolTableEntry preFunc = null;
-        SymbolWriter sw = null;
-        SymbolWriter preSw = null;
-        LineInfoEntry lie = rdli.mAllLineInfoEntries.get(dliIndex);
-        for (int i = 0; (lie != null) && (i < rss.mFunctionTable.size()); i++) {
-            func = (SymbolTableEntry)rss.mFunctionTable.get(i);
-            if ((preFunc == null) || (func.mStartAddress >= preFunc.mEndAddress)) {
-                if (func.mEndAddress <= lie.mStartAddress) {
-                    if (func.mSymbolSize != 0) {
-                        if (preSw != null) {
-                            preSw.mEndAddress = preFunc.mEndAddress;
-                            preSw.write(zos);
-                        }
-                        preSw = null;
-                        sw = new SymbolWriter();
-                        sw.mStartAddress = func.mStartAddress;
-                        sw.mEndAddress = func.mEndAddress;
-                        sw.mFunction = rss.readSymbolName(func.mNameIndex);
-                        sw.write(zos);
-                    }
-                } else {
-                    while ((lie != null) && (lie.mStartAddress < func.mEndAddress)) {
-                        if ((preSw == null) || (lie.mStartAddress != preSw.mStartAddress)) {
-                            if (lie.mStartAddress >= func.mStartAddress) {
-                                sw = new SymbolWriter();
-                                sw.mStartAddress = lie.mStartAddress;
-                                sw.mSourceFile = lie.mPathName;
-                                sw.mLineNumber = lie.mLineNumber;
-                                sw.mEndLineNumber = lie.mEndLineNumber;
-                                sw.mFunction = rss.readSymbolName(func.mNameIndex);
-                                if (preSw != null) {
-                                    preSw.mEndAddress = sw.mStartAddress;
-                                    preSw.write(zos);
-                                }
-                                preSw = sw;
-                            } else {
-                                if (preSw != null) {
-                                    preSw.mEndAddress = func.mEndAddress;
-                                    preSw.write(zos);
-                                }
-                                preSw = null;
-                            }
-                        }
-                        dliIndex++;
-                        if (dliIndex < rdli.mAllLineInfoEntries.size())
-                            lie = rdli.mAllLineInfoEntries.get(dliIndex);
-                        else
-                            lie = null;
-                    }
-                    preFunc = func;
-                }
-            }
+        SymbolJoinEvent event = new SymbolJoinEvent();
+        event.begin();
+        LineTable lines = rdli.mLineTable;
+        SymbolJoiner joiner = new SymbolJoiner(sink, rss);
+        for (int i = 0; i < lines.size(); i++) {
+            joiner.addLine(lines.getAddress(i), lines.getPathName(lines.getFile(i)),
+                    lines.getLine(i), lines.getEndLine(i));
         }
-        if (preSw != null) {
-            preSw.mEndAddress = func.mEndAddress;
-            preSw.write(zos);
+        joiner.finish();
+        commitJoin(event, joiner, rss);
+    }
+
+    private void streamSymbols(SymbolSink sink, ReadSymbolSection rss,
+            ReadDebugLineInfo rdli) throws Exception {
+        if (sink == null || rss == null || rdli == null) {
+            throw new Exception("Failed in streamSymbols due to null parameters!");
+        }
+        SymbolJoinEvent event = new SymbolJoinEvent();
+        event.begin();
+        SymbolJoiner joiner = new SymbolJoiner(sink, rss);
+        rdli.read(joiner);
+        if (!rdli.readSucceed()) {
+            throw new Exception("Failed in streamSymbols due to reading debug line info failed!");
+        }
+        joiner.finish();
+        commitJoin(event, joiner, rss);
+    }
+
+    private void commitJoin(SymbolJoinEvent event, SymbolJoiner joiner, ReadSymbolSection rss) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = mSrcFile;
+            event.streaming = sStreaming;
+            event.functionCount = rss.mFunctionTable.size();
+            event.lineCount = joiner.getLineCount();
+            event.symbolCount = joiner.getSymbolCount();
+            event.commit();
+        }
+    }
+
+    /**
+     * Count the time of passing the encoded blocks to the zip stream,
+     * where they are deflated and written, as the write phase.
+     */
+    private static class ReportOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private final ExtractReport mReport;
+
+        public ReportOutputStream(OutputStream out, ExtractReport report) {
+            mOut = out;
+            mReport = report;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mReport.begin(ExtractReport.PHASE_WRITE);
+            mOut.write(b, off, len);
+            mReport.end(ExtractReport.PHASE_WRITE, 0L);
         }
     }
 }
@@ -7,6 +7,13 @@
 package com.testin.android;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.debugline.ReadDebugLineInfo;
 
 /**
  * This tool is designed to parse ELF (Executable and Linkable Format) file
@@ -14,35 +21,132 @@ import java.io.File;
  */
 public class ElfSymbolTool {
     public static final String SYMBOL_TOOL_VERSION = "1.0.0";
+    // Exit status when the extraction or a file of the batch failed
+    public static final int EXIT_FAILED = 1;
+    public static final String[] SUPPORT_ARCHS = {
+        "armeabi", "armeabi-v7a", "arm64-v8a", "mips", "mips64", "x86", "x86_64"
+    };
 
     public static String sElfFile;
     public static String sArch;
     public static String sSymbolFile;
     public static String sSymbolFileName;
+    public static boolean sBatch = false;
+    public static String sBatchInput;
+    public static String sOutPath = "";
+    public static int sJobs = Runtime.getRuntime().availableProcessors();
+    public static boolean sServe = false;
+    public static String sServeRoot;
+    public static int sPort = SymbolServer.DEFAULT_PORT;
+    public static long sTableMemory = SymbolServer.DEFAULT_MEMORY_MB;
 
     public static void main(String[] args) {
+        boolean succeed = false;
+        try {
+            succeed = run(args);
+        } finally {
+            Logger.flush();
+        }
+        // A started server keeps running on its own threads
+        if (!succeed) {
+            System.exit(EXIT_FAILED);
+        }
+    }
+
+    /**
+     * Return false if the extraction, or any file of a batch, failed.
+     */
+    private static boolean run(String[] args) {
         if (!parseArgs(args)) {
+            // The help goes to System.out directly, after the queued errors
+            Logger.flush();
             printHelp();
-            return;
+            return true;
+        }
+        if (sServe) {
+            try {
+                new SymbolServer(sServeRoot, sPort, sTableMemory).start();
+            } catch (IOException e) {
+                Logger.LogError("Start symbol server failed:" + e.toString());
+                return false;
+            }
+            return true;
+        }
+        if (sBatch) {
+            Logger.LogInfo("Batch Input: " + sBatchInput);
+            Logger.LogInfo("Output: " + sOutPath);
+            boolean succeed = new ElfSymbolBatch(sBatchInput, sOutPath, sJobs).run();
+            ExtractReport.writeAll();
+            return succeed;
         }
         Logger.LogInfo("Input: " + sElfFile);
         Logger.LogInfo("Arch: " + sArch);
         Logger.LogInfo("Output: " + sSymbolFile);
-        new ElfSymbolExtractor().extract();
+        boolean succeed = new ElfSymbolExtractor().extract();
+        SymbolCache.printStats();
+        ExtractReport.writeAll();
+        return succeed;
     }
 
     public static void printHelp() {
         System.out.println("This tool could get symbol infos from ELF SO file to help Android NDK stack symbolization.");
         System.out.println("It is developed to used in Testin Crash+ system(http://crash.testin.cn/)");
         System.out.println("----------------- Usage -------------------");
-        System.out.println("Java -jar ElfSymbolExtractor.jar <input> <arch> [<output>]");
+        System.out.println("Java -jar ElfSymbolExtractor.jar [<options>] <input> <arch> [<output>]");
         System.out.println("<input>\tELF SO file usually located in /project path/obj/local/armeabi/");
-        System.out.println("<arch>\tCPU arch of SO file building, should be one of armeabi/armeabi-v7a/mips/x86");
+        System.out.println("<arch>\tCPU arch of SO file building, should be one of armeabi/armeabi-v7a/arm64-v8a/mips/mips64/x86/x86_64");
         System.out.println("<output>\tOutput path, current dir is default if you don't specify one");
+        System.out.println("Java -jar ElfSymbolExtractor.jar --batch [<options>] <input> [<output>]");
+        System.out.println("<input>\tDirectory such as /project path/obj/local/, or a list file with one ELF SO file");
+        System.out.println("\t(and optionally its arch) per line. The arch is taken from the path or e_machine");
+        System.out.println("Java -jar ElfSymbolExtractor.jar --serve [<options>] <input>");
+        System.out.println("<input>\tDirectory of symbol files and ELF SO files, served to loopback POST /symbolize");
+        System.out.println("\twith '<library> <arch or build-id> <pc hex>' lines, GET /stats for counters");
+        System.out.println("----------------- Options -----------------");
+        System.out.println("--async-log\tPrint the logs from a writer thread, so logging never waits for the console");
+        System.out.println("--batch\tExtract all ELF SO files of <input> concurrently");
+        System.out.println("--cache=<dir>\tReuse the symbol file of an unchanged ELF file, keyed by its build-id");
+        System.out.println("--cache-size=<MB>\tSize limit of the cache directory, least recently used files are deleted, 1024 is default");
+        System.out.println("--deflate-level=<n>\tDeflate level of the symbol zip, 0 (stored, fastest) to 9, 6 is default");
+        System.out.println("--deflate-threads=<n>\tDeflate the symbol zip in 1MB blocks by n threads, as pigz, 1 is default");
+        System.out.println("--format=<zip|binary|sharded>\tWrite zipped text rows (default), a binary file to be mapped, or a zip of address shards");
+        System.out.println("--inflate-threads=<n>\tDecode the units of a compressed debug section on n threads while one inflates it, 1 is default");
+        System.out.println("--jobs=<n>\tNumber of ELF SO files extracted at the same time in batch mode");
+        System.out.println("--log-level=<level>\tOne of debug/info/warn/error/none, info is default");
+        System.out.println("--no-mmap\tRead ELF file through RandomAccessFile instead of memory mapping");
+        System.out.println("--port=<n>\tPort of the symbol server, " + SymbolServer.DEFAULT_PORT + " is default");
+        System.out.println("--report=<file>\tWrite time, CPU, allocation and bytes read of each extraction phase as JSON");
+        System.out.println("--serve\tRun the symbol server");
+        System.out.println("--shard-size=<KB>\tBytes of rows in a shard of --format=sharded, " + (ShardedSymbolFile.DEFAULT_SHARD_SIZE / 1024) + " is default");
+        System.out.println("--streaming\tWrite symbols while decoding debug line info, to bound the memory by the biggest unit");
+        System.out.println("--table-memory=<MB>\tMemory of tables loaded by the symbol server, " + SymbolServer.DEFAULT_MEMORY_MB + " is default");
+        System.out.println("--threads=<n>\tNumber of threads decoding debug line info, shared by the jobs of a batch, CPU count is default");
     }
 
-    private static boolean parseArgs(String[] args) {
-        if ((args == null) || (args.length < 2)) {
+    private static boolean parseArgs(String[] argv) {
+        if (argv == null) {
+            Logger.LogError("Wrong args!");
+            return false;
+        }
+
+        List<String> params = new ArrayList<String>();
+        for (String arg : argv) {
+            if (!arg.startsWith("--")) {
+                params.add(arg);
+            } else if (!parseOption(arg)) {
+                Logger.LogError("Unknown option " + arg);
+                return false;
+            }
+        }
+
+        String[] args = params.toArray(new String[params.size()]);
+        if (sServe) {
+            return parseServeArgs(args);
+        }
+        if (sBatch) {
+            return parseBatchArgs(args);
+        }
+        if (args.length < 2) {
             Logger.LogError("Wrong args!");
             return false;
         }
@@ -55,25 +159,197 @@ public class ElfSymbolTool {
         }
 
         sArch = args[1];
-        if (!(sArch.equals("armeabi")) &&
-                !(sArch.equals("armeabi-v7a")) &&
-                !(sArch.equals("mips")) &&
-                !(sArch.equals("x86"))) {
+        if (!isSupportArch(sArch)) {
             Logger.LogError("The arch " + sArch + " is unsupport");
             return false;
         }
 
-        String outPath = "";
         if (args.length == 3) {
-            outPath = args[2];
-            if (!outPath.endsWith(File.separator)) {
-                outPath = outPath + File.separator;
-            }
+            sOutPath = getOutPath(args[2]);
+        }
+        sSymbolFileName = getSymbolFileName(sArch, elf.getName());
+        sSymbolFile = sOutPath + sSymbolFileName + ElfSymbolExtractor.getSymbolFileSuffix();
+
+        return true;
+    }
+
+    private static boolean parseBatchArgs(String[] args) {
+        if ((args.length < 1) || (args.length > 2)) {
+            Logger.LogError("Wrong args!");
+            return false;
+        }
+
+        sBatchInput = args[0];
+        if (!new File(sBatchInput).exists()) {
+            Logger.LogError("The batch input " + sBatchInput + " is not avail!");
+            return false;
+        }
+
+        if (args.length == 2) {
+            sOutPath = getOutPath(args[1]);
+        }
+        return true;
+    }
+
+    private static boolean parseServeArgs(String[] args) {
+        if (args.length != 1) {
+            Logger.LogError("Wrong args!");
+            return false;
         }
-        sSymbolFileName = "TestinSymbol_" + sArch + "_" + elf.getName().replace(".so", "") + ".symbol";
-        sSymbolFile = outPath + sSymbolFileName + ".zip";
 
+        sServeRoot = args[0];
+        if (!new File(sServeRoot).isDirectory()) {
+            Logger.LogError("The symbol root " + sServeRoot + " is not avail!");
+            return false;
+        }
         return true;
     }
 
+    public static boolean isSupportArch(String arch) {
+        for (String supportArch : SUPPORT_ARCHS) {
+            if (supportArch.equals(arch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String getSymbolFileName(String arch, String elfName) {
+        return "TestinSymbol_" + arch + "_" + elfName.replace(".so", "") + ".symbol";
+    }
+
+    private static String getOutPath(String outPath) {
+        if (!outPath.endsWith(File.separator)) {
+            outPath = outPath + File.separator;
+        }
+        return outPath;
+    }
+
+    private static boolean parseOption(String option) {
+        if (option.equals("--no-mmap")) {
+            ElfFile.setUseMappedFile(false);
+            return true;
+        }
+        if (option.startsWith("--log-level=")) {
+            int level = Logger.parseLevel(option.substring(option.indexOf('=') + 1));
+            if (level < 0) {
+                Logger.LogError("Wrong value of option " + option);
+                return false;
+            }
+            Logger.setLevel(level);
+            return true;
+        }
+        if (option.equals("--async-log")) {
+            Logger.setAsync(true);
+            return true;
+        }
+        if (option.equals("--streaming")) {
+            ElfSymbolExtractor.setStreaming(true);
+            return true;
+        }
+        if (option.startsWith("--format=")) {
+            String format = option.substring(option.indexOf('=') + 1);
+            if (format.equals("zip")) {
+                ElfSymbolExtractor.setFormat(ElfSymbolExtractor.FORMAT_ZIP);
+                return true;
+            }
+            if (format.equals("binary")) {
+                ElfSymbolExtractor.setFormat(ElfSymbolExtractor.FORMAT_BINARY);
+                return true;
+            }
+            if (format.equals("sharded")) {
+                ElfSymbolExtractor.setFormat(ElfSymbolExtractor.FORMAT_SHARDED);
+                return true;
+            }
+            Logger.LogError("Wrong value of option " + option);
+            return false;
+        }
+        if (option.startsWith("--deflate-level=")) {
+            int level = parseIntOption(option);
+            if ((level < Deflater.NO_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+                return false;
+            }
+            ElfSymbolExtractor.setDeflateLevel(level);
+            return true;
+        }
+        if (option.startsWith("--deflate-threads=")) {
+            int threads = parseIntOption(option);
+            if (threads <= 0) {
+                return false;
+            }
+            ElfSymbolExtractor.setDeflateThreads(threads);
+            return true;
+        }
+        if (option.startsWith("--shard-size=")) {
+            int size = parseIntOption(option);
+            if ((size <= 0) || (size > Integer.MAX_VALUE / 1024)) {
+                return false;
+            }
+            ElfSymbolExtractor.setShardSize(size * 1024);
+            return true;
+        }
+        if (option.startsWith("--cache=")) {
+            SymbolCache.setCacheDir(option.substring(option.indexOf('=') + 1));
+            return true;
+        }
+        if (option.startsWith("--cache-size=")) {
+            int size = parseIntOption(option);
+            if (size <= 0) {
+                return false;
+            }
+            SymbolCache.setCacheSizeMB(size);
+            return true;
+        }
+        if (option.startsWith("--report=")) {
+            ExtractReport.setReportFile(option.substring(option.indexOf('=') + 1));
+            return true;
+        }
+        if (option.equals("--serve")) {
+            sServe = true;
+            return true;
+        }
+        if (option.startsWith("--port=")) {
+            sPort = parseIntOption(option);
+            return (sPort >= 0) && (sPort <= 65535);
+        }
+        if (option.startsWith("--table-memory=")) {
+            sTableMemory = parseIntOption(option);
+            return sTableMemory > 0;
+        }
+        if (option.equals("--batch")) {
+            sBatch = true;
+            return true;
+        }
+        if (option.startsWith("--jobs=")) {
+            sJobs = parseIntOption(option);
+            return sJobs > 0;
+        }
+        if (option.startsWith("--inflate-threads=")) {
+            int threads = parseIntOption(option);
+            if (threads <= 0) {
+                return false;
+            }
+            ReadDebugLineInfo.setInflateThreads(threads);
+            return true;
+        }
+        if (option.startsWith("--threads=")) {
+            int threads = parseIntOption(option);
+            if (threads <= 0) {
+                return false;
+            }
+            ReadDebugLineInfo.setParallelism(threads);
+            return true;
+        }
+        return false;
+    }
+
+    private static int parseIntOption(String option) {
+        String value = option.substring(option.indexOf('=') + 1);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Logger.LogError("Wrong value of option " + option);
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,272 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-phase metrics of one extraction, written as JSON by --report
+ *
+ * ------------------------------------------------------------
+ *    Metric          |    Meaning
+ *    wall_ms         | elapsed time of the phase
+ *    cpu_ms          | CPU time of the extracting thread, plus the CPU
+ *                    | time of the workers decoding debug line units
+ *    allocated_bytes | bytes allocated by the same threads
+ *    bytes_read      | size of the ELF structures the phase reads
+ *
+ * Phases could nest, the time of an inner phase is not counted in the
+ * outer one. In streaming mode the join runs while debug line info is
+ * decoded, so it is counted in debug_line.
+ */
+public class ExtractReport {
+    public static final String PHASE_IDENTIFICATION = "identification";
+    public static final String PHASE_HEADER = "header";
+    public static final String PHASE_SECTIONS = "sections";
+    public static final String PHASE_SYMTAB = "symtab";
+    public static final String PHASE_DEBUG_LINE = "debug_line";
+    public static final String PHASE_SORT = "sort";
+    public static final String PHASE_JOIN = "join";
+    public static final String PHASE_WRITE = "write";
+
+    private static final ThreadMXBean sThreadBean = ManagementFactory.getThreadMXBean();
+    private static String sReportFile = null;
+    private static final List<ExtractReport> sReports = new ArrayList<ExtractReport>();
+
+    private final Map<String, Phase> mPhases = new LinkedHashMap<String, Phase>();
+    private final Map<String, Object> mInfos = new LinkedHashMap<String, Object>();
+    private final Map<String, Long> mCounts = new LinkedHashMap<String, Long>();
+    private final List<Frame> mStack = new ArrayList<Frame>();
+
+    public static void setReportFile(String reportFile) {
+        sReportFile = reportFile;
+    }
+
+    public static boolean isEnabled() {
+        return sReportFile != null;
+    }
+
+    /**
+     * Keep a finished report to be written by writeAll().
+     */
+    public static void add(ExtractReport report) {
+        synchronized (sReports) {
+            sReports.add(report);
+        }
+    }
+
+    /**
+     * Write every added report to the report file.
+     */
+    public static void writeAll() {
+        if (!isEnabled()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"version\": \"").append(ElfSymbolTool.SYMBOL_TOOL_VERSION).append("\",\n");
+        sb.append("  \"extractions\": [");
+        synchronized (sReports) {
+            for (int i = 0; i < sReports.size(); i++) {
+                sb.append(i == 0 ? "\n" : ",\n");
+                sReports.get(i).toJson(sb, "    ");
+            }
+        }
+        sb.append("\n  ]\n}\n");
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(sReportFile), "UTF-8");
+            writer.write(sb.toString());
+        } catch (IOException e) {
+            Logger.LogError("Write report failed:" + e.toString());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Logger.LogError("Write report failed:" + e.toString());
+                }
+            }
+        }
+    }
+
+    public void setInfo(String name, Object value) {
+        mInfos.put(name, value);
+    }
+
+    public void setCount(String name, long value) {
+        mCounts.put(name, value);
+    }
+
+    public synchronized void begin(String phase) {
+        Frame frame = new Frame(phase);
+        sample(frame.mStart);
+        mStack.add(frame);
+    }
+
+    /**
+     * End the innermost phase named phase, the phases begun in it and not
+     * ended by a failure are dropped.
+     */
+    public synchronized void end(String phase, long bytesRead) {
+        int index = mStack.size() - 1;
+        while ((index >= 0) && !mStack.get(index).mName.equals(phase)) {
+            index--;
+        }
+        if (index < 0) {
+            return;
+        }
+        while (mStack.size() > index + 1) {
+            mStack.remove(mStack.size() - 1);
+        }
+        Frame frame = mStack.remove(index);
+        long[] now = new long[3];
+        sample(now);
+
+        Phase ret = getPhase(phase);
+        for (int i = 0; i < now.length; i++) {
+            long delta = now[i] - frame.mStart[i];
+            ret.mValues[i] += delta - frame.mChildren[i];
+            if (!mStack.isEmpty()) {
+                mStack.get(mStack.size() - 1).mChildren[i] += delta;
+            }
+        }
+        ret.mBytesRead += bytesRead;
+    }
+
+    /**
+     * Count the CPU time and allocation of a worker thread in the
+     * innermost phase, workers could call it at the same time.
+     */
+    public synchronized void addWorkerUsage(long cpuNanos, long allocatedBytes) {
+        if (mStack.isEmpty()) {
+            return;
+        }
+        Phase phase = getPhase(mStack.get(mStack.size() - 1).mName);
+        phase.mWorkerCpu += cpuNanos;
+        phase.mWorkerAllocated += allocatedBytes;
+    }
+
+    /**
+     * CPU time of the current thread in nanoseconds, -1 if unsupported.
+     */
+    public static long getThreadCpuTime() {
+        return sThreadBean.isCurrentThreadCpuTimeSupported() ? sThreadBean.getCurrentThreadCpuTime() : -1L;
+    }
+
+    /**
+     * Bytes allocated by the current thread, -1 if unsupported.
+     */
+    @SuppressWarnings("deprecation")
+    public static long getThreadAllocatedBytes() {
+        if (sThreadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) sThreadBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+    }
+
+    private static void sample(long[] values) {
+        values[0] = System.nanoTime();
+        values[1] = getThreadCpuTime();
+        values[2] = getThreadAllocatedBytes();
+    }
+
+    private synchronized Phase getPhase(String name) {
+        Phase phase = mPhases.get(name);
+        if (phase == null) {
+            phase = new Phase();
+            mPhases.put(name, phase);
+        }
+        return phase;
+    }
+
+    private void toJson(StringBuilder sb, String indent) {
+        sb.append(indent).append("{\n");
+        for (Map.Entry<String, Object> info : mInfos.entrySet()) {
+            sb.append(indent).append("  ");
+            appendString(sb, info.getKey());
+            sb.append(": ");
+            if (info.getValue() instanceof String) {
+                appendString(sb, (String) info.getValue());
+            } else {
+                sb.append(info.getValue());
+            }
+            sb.append(",\n");
+        }
+
+        sb.append(indent).append("  \"phases\": [");
+        boolean first = true;
+        for (Map.Entry<String, Phase> entry : mPhases.entrySet()) {
+            Phase phase = entry.getValue();
+            sb.append(first ? "\n" : ",\n").append(indent).append("    {\"name\": ");
+            appendString(sb, entry.getKey());
+            sb.append(", \"wall_ms\": ").append(String.format("%.3f", phase.mValues[0] / 1e6));
+            sb.append(", \"cpu_ms\": ").append(String.format("%.3f",
+                    (phase.mValues[1] + phase.mWorkerCpu) / 1e6));
+            sb.append(", \"allocated_bytes\": ").append(phase.mValues[2] + phase.mWorkerAllocated);
+            sb.append(", \"bytes_read\": ").append(phase.mBytesRead).append("}");
+            first = false;
+        }
+        sb.append("\n").append(indent).append("  ],\n");
+
+        sb.append(indent).append("  \"counts\": {");
+        first = true;
+        for (Map.Entry<String, Long> count : mCounts.entrySet()) {
+            sb.append(first ? "\n" : ",\n").append(indent).append("    ");
+            appendString(sb, count.getKey());
+            sb.append(": ").append(count.getValue());
+            first = false;
+        }
+        sb.append("\n").append(indent).append("  }\n");
+        sb.append(indent).append("}");
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static class Phase {
+        // Wall time, CPU time and allocated bytes of the extracting thread
+        public final long[] mValues = new long[3];
+        public long mWorkerCpu = 0L;
+        public long mWorkerAllocated = 0L;
+        public long mBytesRead = 0L;
+    }
+
+    private static class Frame {
+        public final String mName;
+        public final long[] mStart = new long[3];
+        public final long[] mChildren = new long[3];
+
+        public Frame(String name) {
+            mName = name;
+        }
+    }
+}
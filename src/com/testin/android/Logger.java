@@ -6,31 +6,287 @@
 
 package com.testin.android;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
 /**
  * Output the logs with 4 levels
+ *
+ * Logs below the current level are dropped, INFO is default. A message
+ * that costs something to build should be passed as a Supplier, or built
+ * under isDebugEnabled(), so it is not built at all when dropped.
+ *
+ * In async mode the logging threads only queue the lines, and one writer
+ * thread prints them in batches. flush() waits until the queued lines are
+ * printed. Lines are printed under sPrintLock, never under Logger.class,
+ * so setAsync(false) can wait for the writer.
  */
 public class Logger {
-    private static final boolean mIsDebug = false;
+    public static final int LEVEL_DEBUG = 0;
+    public static final int LEVEL_INFO = 1;
+    public static final int LEVEL_WARN = 2;
+    public static final int LEVEL_ERROR = 3;
+    public static final int LEVEL_NONE = 4;
+
+    private static final String[] LEVEL_NAMES = { "debug", "info", "warn", "error", "none" };
+    private static final String[] LEVEL_TAGS = { "[D]", "[I]", "[W]", "[E]" };
+    // Queued lines, the writer blocks the loggers beyond it
+    private static final int QUEUE_SIZE = 1 << 14;
+
+    private static volatile int sLevel = LEVEL_INFO;
+    private static final PrintStream sOut = System.out;
+    private static final Object sPrintLock = new Object();
+    private static volatile AsyncWriter sAsyncWriter = null;
+
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    public static int getLevel() {
+        return sLevel;
+    }
+
+    /**
+     * Return the level named name (debug, info, warn, error or none), or
+     * -1 for an unknown name.
+     */
+    public static int parseLevel(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static boolean isEnabled(int level) {
+        return level >= sLevel;
+    }
+
+    public static boolean isDebugEnabled() {
+        return LEVEL_DEBUG >= sLevel;
+    }
+
+    /**
+     * Print the logs through a writer thread, or directly again after
+     * the queued ones are printed.
+     */
+    public static void setAsync(boolean async) {
+        AsyncWriter stopped = null;
+        synchronized (Logger.class) {
+            if (async == (sAsyncWriter != null)) {
+                return;
+            }
+            if (async) {
+                AsyncWriter writer = new AsyncWriter();
+                writer.start();
+                sAsyncWriter = writer;
+            } else {
+                stopped = sAsyncWriter;
+                sAsyncWriter = null;
+            }
+        }
+        // Outside the lock, the loggers print directly meanwhile
+        if (stopped != null) {
+            stopped.shutdown();
+        }
+    }
+
+    /**
+     * Wait until every queued log is printed.
+     */
+    public static void flush() {
+        AsyncWriter writer = sAsyncWriter;
+        if (writer != null) {
+            writer.flush();
+        } else {
+            synchronized (sPrintLock) {
+                sOut.flush();
+            }
+        }
+    }
+
     public static void LogInfo(String msg) {
-        System.out.print("[I]");
-        System.out.println(msg);
+        log(LEVEL_INFO, msg);
+    }
+
+    public static void LogInfo(Supplier<String> msg) {
+        if (isEnabled(LEVEL_INFO)) {
+            log(LEVEL_INFO, msg.get());
+        }
     }
 
     public static void LogDebug(String msg) {
-        if (!mIsDebug) {
-            return;
+        log(LEVEL_DEBUG, msg);
+    }
+
+    public static void LogDebug(Supplier<String> msg) {
+        if (isDebugEnabled()) {
+            log(LEVEL_DEBUG, msg.get());
         }
-        System.out.print("[D]");
-        System.out.println(msg);
     }
 
     public static void LogWarn(String msg) {
-        System.out.print("[W]");
-        System.out.println(msg);
+        log(LEVEL_WARN, msg);
+    }
+
+    public static void LogWarn(Supplier<String> msg) {
+        if (isEnabled(LEVEL_WARN)) {
+            log(LEVEL_WARN, msg.get());
+        }
     }
 
     public static void LogError(String msg) {
-        System.out.print("[E]");
-        System.out.println(msg);
+        log(LEVEL_ERROR, msg);
+    }
+
+    public static void LogError(Supplier<String> msg) {
+        if (isEnabled(LEVEL_ERROR)) {
+            log(LEVEL_ERROR, msg.get());
+        }
+    }
+
+    private static void log(int level, String msg) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        AsyncWriter writer = sAsyncWriter;
+        if ((writer != null) && writer.add(LEVEL_TAGS[level] + msg)) {
+            return;
+        }
+        synchronized (sPrintLock) {
+            sOut.print(LEVEL_TAGS[level]);
+            sOut.println(msg);
+        }
+    }
+
+    /**
+     * Daemon thread printing the queued lines, flushed on exit by a
+     * shutdown hook removed by shutdown()
+     */
+    private static class AsyncWriter extends Thread {
+        private final BlockingQueue<String> mQueue = new LinkedBlockingQueue<String>(QUEUE_SIZE);
+        private final Object mLock = new Object();
+        // Lines queued and printed, guarded by mLock
+        private long mQueued = 0L;
+        private long mPrinted = 0L;
+        // Set under mLock, no line is queued after it
+        private volatile boolean mStopped = false;
+        private final Thread mHook = new Thread() {
+            @Override
+            public void run() {
+                AsyncWriter.this.flush();
+            }
+        };
+
+        public AsyncWriter() {
+            super("Logger");
+            setDaemon(true);
+        }
+
+        @Override
+        public synchronized void start() {
+            Runtime.getRuntime().addShutdownHook(mHook);
+            super.start();
+        }
+
+        /**
+         * Queue the line, return false if the writer is stopped.
+         */
+        public boolean add(String line) {
+            synchronized (mLock) {
+                if (mStopped) {
+                    return false;
+                }
+                mQueued++;
+            }
+            try {
+                mQueue.put(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (mLock) {
+                    mQueued--;
+                }
+            }
+            return true;
+        }
+
+        public void flush() {
+            synchronized (mLock) {
+                long target = mQueued;
+                while ((mPrinted < target) && isAlive()) {
+                    try {
+                        mLock.wait(100L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stop queueing, and wait until the queued lines are printed.
+         */
+        public void shutdown() {
+            synchronized (mLock) {
+                mStopped = true;
+            }
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(mHook);
+            } catch (IllegalStateException e) {
+                // Already exiting, the hook flushes
+            }
+        }
+
+        private boolean isDone() {
+            synchronized (mLock) {
+                return mStopped && (mPrinted == mQueued);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<String> lines = new ArrayList<String>();
+            StringBuilder sb = new StringBuilder();
+            while (!isDone()) {
+                try {
+                    // Once stopped, the lines counted by add() may still
+                    // be on their way to the queue
+                    String line = mStopped ? mQueue.poll(10L, TimeUnit.MILLISECONDS) : mQueue.take();
+                    if (line == null) {
+                        continue;
+                    }
+                    lines.add(line);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                mQueue.drainTo(lines);
+                for (String line : lines) {
+                    sb.append(line).append(System.lineSeparator());
+                }
+                synchronized (sPrintLock) {
+                    sOut.print(sb);
+                    sOut.flush();
+                }
+                synchronized (mLock) {
+                    mPrinted += lines.size();
+                    mLock.notifyAll();
+                }
+                lines.clear();
+                sb.setLength(0);
+            }
+        }
     }
-}
\ No newline at end of file
+}
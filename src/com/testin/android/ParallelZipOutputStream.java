@@ -0,0 +1,415 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Zip file of one deflated entry, deflated a block at a time by a pool of
+ * threads, as pigz does
+ *
+ * The entry data is cut into BLOCK_SIZE blocks. Every block is deflated
+ * alone, with the last 32KB of the block before as its dictionary, and
+ * ends with a sync flush, so the blocks joined in order are one deflate
+ * stream. Only the last block is finished. The CRC is computed on the
+ * writing thread as the data comes.
+ *
+ * The sizes are only known after the data, so they follow it in a data
+ * descriptor, and Zip64 records are written when a size or an offset
+ * does not fit 32 bits:
+ *
+ * ------------------------------------------------------------
+ *    Record                  |    Notes
+ *    local file header       | flag bit 3, CRC and sizes are 0
+ *    deflated data           |
+ *    data descriptor         | 8-byte sizes if Zip64
+ *    central directory entry | Zip64 extra field if needed
+ *    Zip64 end record        | only if the directory offset needs it
+ *    Zip64 end locator       |
+ *    end of central directory|
+ */
+public class ParallelZipOutputStream extends OutputStream {
+    public static final int BLOCK_SIZE = 1 << 20;
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // Data descriptor, and UTF-8 name
+    private static final int FLAGS = 0x0808;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final OutputStream mOut;
+    private final byte[] mName;
+    private final int mLevel;
+    private final ExecutorService mPool;
+    private final int mMaxPending;
+    private final ArrayDeque<Future<Block>> mPending = new ArrayDeque<Future<Block>>();
+    // Free block buffers, a buffer is reused after the next block is written
+    private final BlockingQueue<byte[]> mFreeBuffers;
+    private final CRC32 mCrc = new CRC32();
+    private final ThreadLocal<Deflater> mDeflaters = new ThreadLocal<Deflater>();
+    private final byte[] mRecord = new byte[64];
+
+    private byte[] mBlock = null;
+    private int mBlockSize = 0;
+    private byte[] mPreBlock = null;
+    private byte[] mWrittenBlock = null;
+    private long mSize = 0L;
+    private long mCompressedSize = 0L;
+    private long mOffset = 0L;
+    private int mDosTime = 0;
+    private boolean mClosed = false;
+
+    /**
+     * Write the zip with the entry named entryName to out, deflated at
+     * level by threads threads.
+     */
+    public ParallelZipOutputStream(OutputStream out, String entryName, int level, int threads)
+            throws IOException {
+        mOut = out;
+        mName = entryName.getBytes(UTF_8);
+        mLevel = level;
+        mMaxPending = threads * 2;
+        mFreeBuffers = new ArrayBlockingQueue<byte[]>(mMaxPending + 3);
+        mPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParallelZip");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mDosTime = getDosTime(System.currentTimeMillis());
+        writeLocalHeader();
+        mBlock = newBuffer();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+        mCrc.update(b, off, len);
+        mSize += len;
+        while (len > 0) {
+            int count = Math.min(len, BLOCK_SIZE - mBlockSize);
+            System.arraycopy(b, off, mBlock, mBlockSize, count);
+            mBlockSize += count;
+            off += count;
+            len -= count;
+            if (mBlockSize == BLOCK_SIZE) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Deflate and write the rest, then the zip records. The underlying
+     * stream is closed too.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            submit(true);
+            while (!mPending.isEmpty()) {
+                writeBlock(mPending.poll());
+            }
+            writeDataDescriptor();
+            writeCentralDirectory();
+        } finally {
+            mPool.shutdownNow();
+            mOut.close();
+        }
+    }
+
+    /**
+     * Uncompressed size of the entry
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getCompressedSize() {
+        return mCompressedSize;
+    }
+
+    private void submit(boolean last) throws IOException {
+        final byte[] block = mBlock;
+        final int size = mBlockSize;
+        final byte[] dictionary = mPreBlock;
+        final boolean finish = last;
+        mPending.add(mPool.submit(new Callable<Block>() {
+            public Block call() {
+                return deflate(block, size, dictionary, finish);
+            }
+        }));
+        mPreBlock = block;
+        mBlock = null;
+        mBlockSize = 0;
+        while (mPending.size() >= mMaxPending) {
+            writeBlock(mPending.poll());
+        }
+        if (!last) {
+            mBlock = newBuffer();
+        }
+    }
+
+    private void writeBlock(Future<Block> future) throws IOException {
+        Block block;
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deflating");
+        } catch (ExecutionException e) {
+            throw new IOException("Deflate failed", e.getCause());
+        }
+        mOut.write(block.mData, 0, block.mSize);
+        mCompressedSize += block.mSize;
+        mOffset += block.mSize;
+
+        // The block before was the dictionary of this one, and is not
+        // needed any more
+        if (mWrittenBlock != null) {
+            mFreeBuffers.offer(mWrittenBlock);
+        }
+        mWrittenBlock = block.mInput;
+    }
+
+    private byte[] newBuffer() {
+        byte[] buffer = mFreeBuffers.poll();
+        return (buffer != null) ? buffer : new byte[BLOCK_SIZE];
+    }
+
+    private Block deflate(byte[] input, int size, byte[] dictionary, boolean finish) {
+        Deflater deflater = mDeflaters.get();
+        if (deflater == null) {
+            deflater = new Deflater(mLevel, true);
+            mDeflaters.set(deflater);
+        }
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary, BLOCK_SIZE - DICTIONARY_SIZE, DICTIONARY_SIZE);
+        }
+        deflater.setInput(input, 0, size);
+
+        // Deflate could grow stored data by a few bytes per 16KB
+        byte[] out = new byte[size + (size >>> 10) + 64];
+        int count = 0;
+        if (finish) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (count == out.length) {
+                    out = Arrays.copyOf(out, out.length << 1);
+                }
+                count += deflater.deflate(out, count, out.length - count);
+            }
+        } else {
+            while (true) {
+                int space = out.length - count;
+                int n = deflater.deflate(out, count, space, Deflater.SYNC_FLUSH);
+                count += n;
+                if (n < space) {
+                    break;
+                }
+                out = Arrays.copyOf(out, out.length << 1);
+            }
+        }
+        return new Block(input, out, count);
+    }
+
+    private void writeLocalHeader() throws IOException {
+        int pos = 0;
+        pos = putInt(mRecord, pos, LOCAL_HEADER_SIGNATURE);
+        pos = putShort(mRecord, pos, VERSION_DEFLATED);
+        pos = putShort(mRecord, pos, FLAGS);
+        pos = putShort(mRecord, pos, METHOD_DEFLATED);
+        pos = putInt(mRecord, pos, mDosTime);
+        // CRC, compressed and uncompressed sizes follow the data
+        pos = putInt(mRecord, pos, 0);
+        pos = putInt(mRecord, pos, 0);
+        pos = putInt(mRecord, pos, 0);
+        pos = putShort(mRecord, pos, mName.length);
+        pos = putShort(mRecord, pos, 0);
+        writeRecord(pos);
+        mOut.write(mName);
+        mOffset += mName.length;
+    }
+
+    private boolean isZip64Entry() {
+        return (mSize >= ZIP64_MAGIC) || (mCompressedSize >= ZIP64_MAGIC);
+    }
+
+    private void writeDataDescriptor() throws IOException {
+        int pos = 0;
+        pos = putInt(mRecord, pos, DATA_DESCRIPTOR_SIGNATURE);
+        pos = putInt(mRecord, pos, (int) mCrc.getValue());
+        if (isZip64Entry()) {
+            pos = putLong(mRecord, pos, mCompressedSize);
+            pos = putLong(mRecord, pos, mSize);
+        } else {
+            pos = putInt(mRecord, pos, (int) mCompressedSize);
+            pos = putInt(mRecord, pos, (int) mSize);
+        }
+        writeRecord(pos);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        // The local header is at offset 0, which always fits
+        boolean zip64 = isZip64Entry();
+        long directoryOffset = mOffset;
+
+        int pos = 0;
+        pos = putInt(mRecord, pos, CENTRAL_HEADER_SIGNATURE);
+        pos = putShort(mRecord, pos, zip64 ? VERSION_ZIP64 : VERSION_DEFLATED);
+        pos = putShort(mRecord, pos, zip64 ? VERSION_ZIP64 : VERSION_DEFLATED);
+        pos = putShort(mRecord, pos, FLAGS);
+        pos = putShort(mRecord, pos, METHOD_DEFLATED);
+        pos = putInt(mRecord, pos, mDosTime);
+        pos = putInt(mRecord, pos, (int) mCrc.getValue());
+        pos = putInt(mRecord, pos, (int) (zip64 ? ZIP64_MAGIC : mCompressedSize));
+        pos = putInt(mRecord, pos, (int) (zip64 ? ZIP64_MAGIC : mSize));
+        pos = putShort(mRecord, pos, mName.length);
+        pos = putShort(mRecord, pos, zip64 ? 20 : 0);
+        // Comment length, disk, internal and external attributes
+        pos = putShort(mRecord, pos, 0);
+        pos = putShort(mRecord, pos, 0);
+        pos = putShort(mRecord, pos, 0);
+        pos = putInt(mRecord, pos, 0);
+        pos = putInt(mRecord, pos, 0);
+        writeRecord(pos);
+        mOut.write(mName);
+        mOffset += mName.length;
+        if (zip64) {
+            pos = 0;
+            pos = putShort(mRecord, pos, ZIP64_EXTRA_ID);
+            pos = putShort(mRecord, pos, 16);
+            pos = putLong(mRecord, pos, mSize);
+            pos = putLong(mRecord, pos, mCompressedSize);
+            writeRecord(pos);
+        }
+        long directorySize = mOffset - directoryOffset;
+
+        long endOffset = mOffset;
+        boolean zip64End = (directoryOffset >= ZIP64_MAGIC);
+        if (zip64End) {
+            pos = 0;
+            pos = putInt(mRecord, pos, ZIP64_END_SIGNATURE);
+            pos = putLong(mRecord, pos, 44L);
+            pos = putShort(mRecord, pos, VERSION_ZIP64);
+            pos = putShort(mRecord, pos, VERSION_ZIP64);
+            pos = putInt(mRecord, pos, 0);
+            pos = putInt(mRecord, pos, 0);
+            pos = putLong(mRecord, pos, 1L);
+            pos = putLong(mRecord, pos, 1L);
+            pos = putLong(mRecord, pos, directorySize);
+            pos = putLong(mRecord, pos, directoryOffset);
+            writeRecord(pos);
+
+            pos = 0;
+            pos = putInt(mRecord, pos, ZIP64_LOCATOR_SIGNATURE);
+            pos = putInt(mRecord, pos, 0);
+            pos = putLong(mRecord, pos, endOffset);
+            pos = putInt(mRecord, pos, 1);
+            writeRecord(pos);
+        }
+
+        pos = 0;
+        pos = putInt(mRecord, pos, END_SIGNATURE);
+        pos = putShort(mRecord, pos, 0);
+        pos = putShort(mRecord, pos, 0);
+        pos = putShort(mRecord, pos, 1);
+        pos = putShort(mRecord, pos, 1);
+        pos = putInt(mRecord, pos, (int) directorySize);
+        pos = putInt(mRecord, pos, (int) (zip64End ? ZIP64_MAGIC : directoryOffset));
+        pos = putShort(mRecord, pos, 0);
+        writeRecord(pos);
+    }
+
+    private void writeRecord(int size) throws IOException {
+        mOut.write(mRecord, 0, size);
+        mOffset += size;
+    }
+
+    private static int putShort(byte[] b, int pos, int value) {
+        b[pos] = (byte) value;
+        b[pos + 1] = (byte) (value >>> 8);
+        return pos + 2;
+    }
+
+    private static int putInt(byte[] b, int pos, int value) {
+        pos = putShort(b, pos, value);
+        return putShort(b, pos, value >>> 16);
+    }
+
+    private static int putLong(byte[] b, int pos, long value) {
+        pos = putInt(b, pos, (int) value);
+        return putInt(b, pos, (int) (value >>> 32));
+    }
+
+    /**
+     * MS-DOS date and time in local time, as ZipOutputStream writes
+     */
+    private static int getDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static class Block {
+        public final byte[] mInput;
+        public final byte[] mData;
+        public final int mSize;
+
+        public Block(byte[] input, byte[] data, int size) {
+            mInput = input;
+            mData = data;
+            mSize = size;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Symbol zip split by address into shards, so a lookup inflates only the
+ * shard containing its address
+ *
+ * Every shard is an entry of about the shard size of rows, in the same row
+ * format as the zipped symbol file, named <symbol file>.<shard number>.
+ * The index entry <symbol file>.index is written last, with the header
+ * lines of the symbol file and a line per shard:
+ *
+ *     <start hex>\t<end hex>\t<row count>\t<entry name>
+ *
+ * Start is the first row start, end is the biggest row end. The rows are
+ * sorted and do not overlap, so neither do the shards.
+ *
+ * open() reads the zip central directory and the index entry only, the
+ * shards are inflated by the first lookup reaching them and kept. Row
+ * numbers run across the shards in address order.
+ */
+public class ShardedSymbolFile implements SymbolIndex {
+    public static final String INDEX_SUFFIX = ".index";
+    public static final int DEFAULT_SHARD_SIZE = 256 * 1024;
+
+    private static final int FILE_BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mPath;
+    private ZipFile mZip = null;
+    private String mHeader = null;
+    private int mShardNum = 0;
+    private long[] mStarts = null;
+    private long[] mEnds = null;
+    // First row number of every shard, followed by the row count
+    private int[] mRowBases = null;
+    private String[] mEntryNames = null;
+    private AtomicReferenceArray<Symbolizer> mShards = null;
+    private int mLoadedShardNum = 0;
+    private long mInflatedBytes = 0L;
+
+    private ShardedSymbolFile(String path) {
+        mPath = path;
+    }
+
+    /**
+     * Open the sharded symbol file and read its index, the file stays
+     * open until close().
+     */
+    public static ShardedSymbolFile open(String path) throws IOException {
+        ShardedSymbolFile ret = new ShardedSymbolFile(path);
+        ret.mZip = new ZipFile(path);
+        try {
+            ret.readIndex();
+        } catch (IOException e) {
+            ret.close();
+            throw e;
+        }
+        return ret;
+    }
+
+    public void close() {
+        try {
+            mZip.close();
+        } catch (IOException e) {
+            Logger.LogError("ShardedSymbolFile close failed:" + e.toString());
+        }
+    }
+
+    /**
+     * Return the header lines, such as "Arch: x86".
+     */
+    public String getHeader() {
+        return mHeader;
+    }
+
+    public int getShardCount() {
+        return mShardNum;
+    }
+
+    public synchronized int getLoadedShardCount() {
+        return mLoadedShardNum;
+    }
+
+    /**
+     * Bytes inflated from the loaded shards
+     */
+    public synchronized long getInflatedBytes() {
+        return mInflatedBytes;
+    }
+
+    public int size() {
+        return mRowBases[mShardNum];
+    }
+
+    public int lookup(long pc) {
+        int shard = findShard(pc);
+        if (shard < 0) {
+            return -1;
+        }
+        Symbolizer symbolizer = getShard(shard);
+        if (symbolizer == null) {
+            return -1;
+        }
+        int row = symbolizer.lookup(pc);
+        return (row < 0) ? -1 : mRowBases[shard] + row;
+    }
+
+    public long getStartAddress(int row) {
+        int shard = getShardOfRow(row);
+        return getShard(shard).getStartAddress(row - mRowBases[shard]);
+    }
+
+    public long getEndAddress(int row) {
+        int shard = getShardOfRow(row);
+        return getShard(shard).getEndAddress(row - mRowBases[shard]);
+    }
+
+    public String getFunction(int row) {
+        int shard = getShardOfRow(row);
+        return getShard(shard).getFunction(row - mRowBases[shard]);
+    }
+
+    public String getSourceFile(int row) {
+        int shard = getShardOfRow(row);
+        return getShard(shard).getSourceFile(row - mRowBases[shard]);
+    }
+
+    public int getLine(int row) {
+        int shard = getShardOfRow(row);
+        return getShard(shard).getLine(row - mRowBases[shard]);
+    }
+
+    public int getEndLine(int row) {
+        int shard = getShardOfRow(row);
+        return getShard(shard).getEndLine(row - mRowBases[shard]);
+    }
+
+    /**
+     * Return the shard whose range contains pc, or -1.
+     */
+    private int findShard(long pc) {
+        int low = 0;
+        int high = mShardNum - 1;
+        int ret = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(mStarts[mid], pc) <= 0) {
+                ret = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if ((ret < 0) || (Long.compareUnsigned(pc, mEnds[ret]) >= 0)) {
+            return -1;
+        }
+        return ret;
+    }
+
+    private int getShardOfRow(int row) {
+        if ((row < 0) || (row >= size())) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size());
+        }
+        int shard = Arrays.binarySearch(mRowBases, 0, mShardNum, row);
+        if (shard < 0) {
+            shard = -shard - 2;
+        }
+        // Skip the shards without rows
+        while (mRowBases[shard + 1] == row) {
+            shard++;
+        }
+        return shard;
+    }
+
+    /**
+     * Return the rows of the shard, inflated by the first call. Returns
+     * null if the shard could not be read.
+     */
+    private Symbolizer getShard(int shard) {
+        Symbolizer ret = mShards.get(shard);
+        if (ret != null) {
+            return ret;
+        }
+        synchronized (this) {
+            ret = mShards.get(shard);
+            if (ret != null) {
+                return ret;
+            }
+            ZipEntry entry = mZip.getEntry(mEntryNames[shard]);
+            if (entry == null) {
+                Logger.LogError("ShardedSymbolFile " + mPath + " misses " + mEntryNames[shard]);
+                return null;
+            }
+            SymbolZipReader reader = new SymbolZipReader(mPath + "!" + mEntryNames[shard]);
+            InputStream is = null;
+            try {
+                is = mZip.getInputStream(entry);
+                reader.read(is);
+            } catch (IOException e) {
+                Logger.LogError("ShardedSymbolFile read " + mEntryNames[shard] + " failed:" + e.toString());
+                return null;
+            } finally {
+                if (is != null) {
+                    try {
+                        is.close();
+                    } catch (IOException e) {
+                        Logger.LogError("ShardedSymbolFile close failed:" + e.toString());
+                    }
+                }
+            }
+            ret = reader.getSymbolizer();
+            if (ret.size() != mRowBases[shard + 1] - mRowBases[shard]) {
+                Logger.LogError("ShardedSymbolFile " + mEntryNames[shard] + " has " + ret.size()
+                        + " rows, the index says " + (mRowBases[shard + 1] - mRowBases[shard]));
+                return null;
+            }
+            mShards.set(shard, ret);
+            mLoadedShardNum++;
+            mInflatedBytes += entry.getSize();
+            return ret;
+        }
+    }
+
+    private void readIndex() throws IOException {
+        ZipEntry index = null;
+        Enumeration<? extends ZipEntry> entries = mZip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.getName().endsWith(INDEX_SUFFIX)) {
+                index = entry;
+                break;
+            }
+        }
+        if (index == null) {
+            throw new IOException("No index entry in " + mPath);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream is = mZip.getInputStream(index);
+        try {
+            byte[] buffer = new byte[FILE_BUFFER_SIZE];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                bytes.write(buffer, 0, count);
+            }
+        } finally {
+            is.close();
+        }
+
+        String[] lines = new String(bytes.toByteArray(), UTF_8).split("\n");
+        StringBuilder header = new StringBuilder();
+        int capacity = 16;
+        mStarts = new long[capacity];
+        mEnds = new long[capacity];
+        mRowBases = new int[capacity + 1];
+        mEntryNames = new String[capacity];
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (fields.length == 1) {
+                if (line.length() > 0) {
+                    header.append(line).append('\n');
+                }
+                continue;
+            }
+            if (fields.length != 4) {
+                throw new IOException("Wrong index line: " + line);
+            }
+            if (mShardNum == capacity) {
+                capacity <<= 1;
+                mStarts = Arrays.copyOf(mStarts, capacity);
+                mEnds = Arrays.copyOf(mEnds, capacity);
+                mRowBases = Arrays.copyOf(mRowBases, capacity + 1);
+                mEntryNames = Arrays.copyOf(mEntryNames, capacity);
+            }
+            try {
+                mStarts[mShardNum] = Long.parseUnsignedLong(fields[0], 16);
+                mEnds[mShardNum] = Long.parseUnsignedLong(fields[1], 16);
+                int rows = Integer.parseInt(fields[2]);
+                mRowBases[mShardNum + 1] = mRowBases[mShardNum] + rows;
+            } catch (NumberFormatException e) {
+                throw new IOException("Wrong index line: " + line);
+            }
+            mEntryNames[mShardNum] = fields[3];
+            mShardNum++;
+        }
+        mHeader = header.toString();
+        mShards = new AtomicReferenceArray<Symbolizer>(mShardNum);
+    }
+
+    /**
+     * Write the rows to shards of about shardSize bytes, then the index.
+     * A shard is ended after the row reaching its size, so a row is never
+     * split.
+     */
+    public static class Writer implements SymbolSink {
+        private final FileOutputStream mFile;
+        private final ZipOutputStream mZos;
+        private final SymbolRowEncoder mEncoder;
+        private final String mName;
+        private final String mHeader;
+        private final int mShardSize;
+        private final StringBuilder mIndex = new StringBuilder();
+        private int mShardNum = 0;
+        private int mShardRows = 0;
+        private long mShardStart = 0L;
+        private long mShardEnd = 0L;
+        private long mShardOffset = 0L;
+        private long mRowCount = 0L;
+
+        /**
+         * Write the file at path, the entries are named after name, such
+         * as TestinSymbol_x86_libfoo.so.symbol.
+         */
+        public Writer(String path, String name, String header, int shardSize, int level)
+                throws IOException {
+            mFile = new FileOutputStream(path);
+            mZos = new ZipOutputStream(new BufferedOutputStream(mFile, FILE_BUFFER_SIZE));
+            mZos.setLevel(level);
+            mEncoder = new SymbolRowEncoder(mZos);
+            mName = name;
+            mHeader = header;
+            mShardSize = shardSize;
+        }
+
+        public void addSymbol(SymbolWriter sw) throws IOException {
+            if (mShardRows == 0) {
+                mZos.putNextEntry(new ZipEntry(mName + "." + mShardNum));
+                mShardStart = sw.mStartAddress;
+                mShardEnd = sw.mEndAddress;
+                mShardOffset = mEncoder.getBytesEncoded();
+            }
+            mEncoder.addSymbol(sw);
+            mShardRows++;
+            mRowCount++;
+            if (Long.compareUnsigned(sw.mEndAddress, mShardEnd) > 0) {
+                mShardEnd = sw.mEndAddress;
+            }
+            if (mEncoder.getBytesEncoded() - mShardOffset >= mShardSize) {
+                finishShard();
+            }
+        }
+
+        public int getShardCount() {
+            return mShardNum;
+        }
+
+        public long getRowCount() {
+            return mRowCount;
+        }
+
+        /**
+         * End the last shard and write the index. The file is closed even
+         * on failure.
+         */
+        public void close() throws IOException {
+            try {
+                if (mShardRows > 0) {
+                    finishShard();
+                }
+                mZos.putNextEntry(new ZipEntry(mName + INDEX_SUFFIX));
+                mZos.write(mHeader.getBytes(UTF_8));
+                mZos.write(mIndex.toString().getBytes(UTF_8));
+                mZos.closeEntry();
+            } finally {
+                mZos.close();
+            }
+        }
+
+        /**
+         * Close the file after a failed write, dropping the buffered bytes
+         * and writing no index, so it never reads as a complete file.
+         */
+        public void abort() throws IOException {
+            mFile.close();
+        }
+
+        private void finishShard() throws IOException {
+            mEncoder.flush();
+            mZos.closeEntry();
+            mIndex.append(Long.toHexString(mShardStart)).append('\t')
+                    .append(Long.toHexString(mShardEnd)).append('\t')
+                    .append(mShardRows).append('\t')
+                    .append(mName).append('.').append(mShardNum).append('\n');
+            mShardNum++;
+            mShardRows = 0;
+        }
+    }
+}
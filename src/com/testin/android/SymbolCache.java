@@ -0,0 +1,214 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.testin.android.elfparser.ByteSource;
+import com.testin.android.elfparser.ElfFile;
+
+/**
+ * On-disk cache of symbol files, so an unchanged ELF file is not decoded
+ * again
+ *
+ * A cached file is named by the SHA-1 of its key:
+ *
+ *     <build-id or content hash>\n<arch>\n<tool version>\n<source file>\n
+ *     <symbol file name>\n<output suffix>\n<deflate level>
+ *
+ * The source file and the symbol file name are written into the symbol
+ * file, so they are part of the key to keep a hit byte-identical to a fresh
+ * extraction. The build-id comes from .note.gnu.build-id, the SHA-1 of the
+ * whole ELF file is used when there is none.
+ *
+ * A hit is copied to the output and its modified time is refreshed. After
+ * a miss is stored, the least recently used files are deleted until the
+ * cache is not bigger than its size limit.
+ */
+public class SymbolCache {
+    private static final long MB = 1024L * 1024L;
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static String sCacheDir = null;
+    private static long sCacheSize = 1024L * MB;
+    private static final AtomicInteger sHits = new AtomicInteger();
+    private static final AtomicInteger sMisses = new AtomicInteger();
+    private static final AtomicInteger sTmpIndex = new AtomicInteger();
+
+    public static void setCacheDir(String cacheDir) {
+        sCacheDir = cacheDir;
+    }
+
+    public static boolean isEnabled() {
+        return sCacheDir != null;
+    }
+
+    public static void setCacheSizeMB(long size) {
+        sCacheSize = size * MB;
+    }
+
+    public static int getHits() {
+        return sHits.get();
+    }
+
+    public static int getMisses() {
+        return sMisses.get();
+    }
+
+    public static void printStats() {
+        if (isEnabled()) {
+            Logger.LogInfo("Symbol cache hits: " + getHits() + ", misses: " + getMisses());
+        }
+    }
+
+    /**
+     * Return the cache key of the ELF file, hashing its content when the
+     * build-id is null.
+     */
+    public static String getKey(ElfFile elfFile, String buildId, String arch,
+            String srcFile, String symbolFileName) throws IOException {
+        String id = (buildId != null) ? "build-id:" + buildId : "sha1:" + hashContent(elfFile);
+        String key = id + "\n" + arch + "\n" + ElfSymbolTool.SYMBOL_TOOL_VERSION + "\n"
+                + srcFile + "\n" + symbolFileName + "\n" + ElfSymbolExtractor.getSymbolFileSuffix()
+                + "\n" + ElfSymbolExtractor.getDeflateLevel()
+                + ((ElfSymbolExtractor.getDeflateThreads() > 1) ? "\nblocks" : "")
+                + ((ElfSymbolExtractor.getFormat() == ElfSymbolExtractor.FORMAT_SHARDED)
+                        ? "\n" + ElfSymbolExtractor.getShardSize() : "");
+        return toHex(newDigest().digest(key.getBytes(UTF_8)));
+    }
+
+    /**
+     * Copy the cached symbol file of key to desFile, return false on a miss.
+     */
+    public static boolean fetch(String key, String desFile) {
+        File cached = getCacheFile(key);
+        if (!cached.isFile()) {
+            sMisses.incrementAndGet();
+            return false;
+        }
+        try {
+            Files.copy(cached.toPath(), new File(desFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            cached.setLastModified(System.currentTimeMillis());
+            sHits.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            Logger.LogWarn("Read symbol cache failed:" + e.toString());
+            sMisses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Keep a copy of the symbol file just written, a failure only loses
+     * the cache entry.
+     */
+    public static void store(String key, String desFile) {
+        File dir = new File(sCacheDir);
+        File tmp = new File(dir, key + ".tmp" + sTmpIndex.incrementAndGet());
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            // Written aside and moved, so a reader never sees a partial file
+            Files.copy(new File(desFile).toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), getCacheFile(key).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.LogWarn("Write symbol cache failed:" + e.toString());
+            tmp.delete();
+            return;
+        }
+        evict();
+    }
+
+    private static synchronized void evict() {
+        File[] files = new File(sCacheDir).listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                // Files being stored by other workers
+                return file.isFile() && !file.getName().contains(".tmp");
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        final long[] times = new long[files.length];
+        long total = 0L;
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            times[i] = files[i].lastModified();
+            total += files[i].length();
+            order[i] = i;
+        }
+        if (total <= sCacheSize) {
+            return;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(times[a], times[b]);
+            }
+        });
+        for (int i = 0; (i < order.length) && (total > sCacheSize); i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                Logger.LogDebug("Symbol cache evicted " + file.getName());
+            }
+        }
+    }
+
+    private static File getCacheFile(String key) {
+        return new File(sCacheDir, key + ElfSymbolExtractor.getSymbolFileSuffix());
+    }
+
+    private static String hashContent(ElfFile elfFile) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteSource source = elfFile.newSource();
+        try {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            long length = elfFile.length();
+            source.seek(0L);
+            for (long pos = 0L; pos < length; pos += buffer.length) {
+                int count = (int) Math.min(buffer.length, length - pos);
+                source.readFully(buffer, 0, count);
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            source.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,44 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+/**
+ * Sorted, non overlapping symbol rows which could be searched by address
+ *
+ * lookup() returns a row index, the fields of the row are read by index.
+ */
+public interface SymbolIndex {
+    int size();
+
+    /**
+     * Return the row containing pc, or -1 if no row does.
+     *
+     * A row with a source file starts one byte after the address of its
+     * line table row, as in the symbol file, so pc is taken as a return
+     * address: the address after a call finds the row of the call, and
+     * the exact address of a line table row finds the row before it. The
+     * row starting at line table address a is found by lookup(a + 1).
+     * Rows without a source file start at the symbol value.
+     */
+    int lookup(long pc);
+
+    long getStartAddress(int row);
+
+    long getEndAddress(int row);
+
+    String getFunction(int row);
+
+    /**
+     * Return the source file, or null if the row is a function without
+     * line info.
+     */
+    String getSourceFile(int row);
+
+    int getLine(int row);
+
+    int getEndLine(int row);
+}
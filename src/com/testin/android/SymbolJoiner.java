@@ -0,0 +1,146 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import com.testin.android.elfparser.ReadSymbolSection;
+import com.testin.android.elfparser.SymbolTable;
+import com.testin.android.elfparser.debugline.LineSink;
+
+/**
+ * Join the sorted function table with the debug line rows
+ *
+ * The rows are pushed one by one in address order, and every symbol row is
+ * written as soon as its end address is known, so the rows never have to be
+ * held in memory all at once.
+ *
+ * A function overlapping the previous joined function is skipped. A
+ * function ending before the next row is written alone, without source
+ * file. Otherwise every row inside the function is written with the
+ * function name, ending where the next row starts. The functions after the
+ * last row are not written.
+ *
+ * The rows go to a SymbolSink, which writes them to the symbol file or
+ * indexes them for Symbolizer. Only two row objects are used, a row is
+ * reused after it is passed to the sink.
+ */
+public class SymbolJoiner implements LineSink {
+    private SymbolSink mSink = null;
+    private ReadSymbolSection mRss = null;
+    private SymbolTable mFuncs = null;
+    private int mFunc = 0;
+    private int mLastFunc = -1;
+    private int mPreFunc = -1;
+    private boolean mInFunc = false;
+    private SymbolWriter mPreSw = null;
+    // The pending row is one of them, the other is filled next
+    private final SymbolWriter mRow0 = new SymbolWriter();
+    private final SymbolWriter mRow1 = new SymbolWriter();
+    private long mLineCount = 0L;
+    private long mSymbolCount = 0L;
+
+    public SymbolJoiner(SymbolSink sink, ReadSymbolSection rss) {
+        mSink = sink;
+        mRss = rss;
+        mFuncs = rss.mFunctionTable;
+    }
+
+    public void addLine(long address, String pathName, int line, int endLine) throws Exception {
+        mLineCount++;
+        while (true) {
+            if (mInFunc) {
+                if (Long.compareUnsigned(address, mFuncs.getEndAddress(mFunc)) < 0) {
+                    joinLine(address, pathName, line, endLine);
+                    return;
+                }
+                mInFunc = false;
+                mPreFunc = mFunc;
+                mFunc++;
+            }
+
+            if (mFunc >= mFuncs.size()) {
+                return;
+            }
+
+            mLastFunc = mFunc;
+            if ((mPreFunc >= 0)
+                    && (Long.compareUnsigned(mFuncs.getStartAddress(mFunc), mFuncs.getEndAddress(mPreFunc)) < 0)) {
+                mFunc++;
+            } else if (Long.compareUnsigned(mFuncs.getEndAddress(mFunc), address) <= 0) {
+                if (mFuncs.getSymbolSize(mFunc) != 0) {
+                    if (mPreSw != null) {
+                        mPreSw.mEndAddress = mFuncs.getEndAddress(mPreFunc);
+                        addSymbol(mPreSw);
+                    }
+                    mPreSw = null;
+                    SymbolWriter sw = mRow0;
+                    sw.set(mFuncs.getStartAddress(mFunc), mFuncs.getEndAddress(mFunc), mRss, mFunc);
+                    addSymbol(sw);
+                }
+                mFunc++;
+            } else {
+                mInFunc = true;
+                joinLine(address, pathName, line, endLine);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write the last pending row after all rows are added.
+     */
+    public void finish() throws Exception {
+        if (mPreSw != null) {
+            mPreSw.mEndAddress = mFuncs.getEndAddress(mLastFunc);
+            addSymbol(mPreSw);
+            mPreSw = null;
+        }
+    }
+
+    /**
+     * Debug line rows added so far.
+     */
+    public long getLineCount() {
+        return mLineCount;
+    }
+
+    /**
+     * Symbol rows passed to the sink so far.
+     */
+    public long getSymbolCount() {
+        return mSymbolCount;
+    }
+
+    private void addSymbol(SymbolWriter sw) throws Exception {
+        mSymbolCount++;
+        mSink.addSymbol(sw);
+    }
+
+    private void joinLine(long address, String pathName, int line, int endLine) throws Exception {
+        if ((mPreSw != null) && (address == mPreSw.mStartAddress)) {
+            return;
+        }
+
+        if (Long.compareUnsigned(address, mFuncs.getStartAddress(mFunc)) >= 0) {
+            SymbolWriter sw = (mPreSw == mRow0) ? mRow1 : mRow0;
+            sw.set(address, 0L, mRss, mFunc);
+            sw.mSourceFile = pathName;
+            sw.mLineNumber = line;
+            sw.mEndLineNumber = endLine;
+            if (mPreSw != null) {
+                mPreSw.mEndAddress = sw.mStartAddress;
+                addSymbol(mPreSw);
+            }
+            mPreSw = sw;
+        } else {
+            if (mPreSw != null) {
+                mPreSw.mEndAddress = mFuncs.getEndAddress(mFunc);
+                addSymbol(mPreSw);
+            }
+            mPreSw = null;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+import com.testin.android.elfparser.ReadSymbolSection;
+
+/**
+ * Format symbol rows into one reusable byte buffer, written out a block at
+ * a time
+ *
+ *     <start hex>\t<end hex>\t<function>[\t<file>:<line>[-<end line>]]\n
+ *
+ * Addresses and lines are formatted as digits directly, the names of the
+ * function table are copied from the string table, and the UTF-8 bytes of
+ * other names and source paths are encoded once. A row allocates nothing, and the stream
+ * gets a write only when the buffer is full.
+ */
+public class SymbolRowEncoder implements SymbolSink {
+    private static final int BUFFER_SIZE = 1 << 18;
+    // Hex addresses, decimal lines and separators of one row
+    private static final int MAX_FIXED_ROW_SIZE = 2 * 16 + 2 * 20 + 6;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final OutputStream mOut;
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mCount = 0;
+    private long mBytesWritten = 0L;
+    private final BytesCache mFunctionBytes = new BytesCache();
+    private final BytesCache mPathBytes = new BytesCache();
+
+    public SymbolRowEncoder(OutputStream out) {
+        mOut = out;
+    }
+
+    public void addSymbol(SymbolWriter sw) throws IOException {
+        // The name bytes are in name from nameOffset
+        byte[] name = null;
+        int nameOffset = 0;
+        int nameLength = -1;
+        ReadSymbolSection symbols = sw.mSymbols;
+        if ((sw.mFunction == null) && (symbols != null) && (sw.mFunctionIndex >= 0)) {
+            nameLength = symbols.getSymbolNameLength(sw.mFunctionIndex);
+            if (nameLength >= 0) {
+                name = symbols.getStrTable();
+                nameOffset = symbols.getSymbolNameOffset(sw.mFunctionIndex);
+            }
+        }
+        if (nameLength < 0) {
+            name = mFunctionBytes.get(String.valueOf(sw.getFunction()));
+            nameLength = name.length;
+        }
+        byte[] path = (sw.mSourceFile != null) ? mPathBytes.get(sw.mSourceFile) : null;
+        ensureCapacity(MAX_FIXED_ROW_SIZE + nameLength + ((path != null) ? path.length : 0));
+
+        byte[] b = mBuffer;
+        int pos = putHex(b, mCount, sw.mStartAddress);
+        b[pos++] = '\t';
+        pos = putHex(b, pos, sw.mEndAddress);
+        b[pos++] = '\t';
+        System.arraycopy(name, nameOffset, b, pos, nameLength);
+        pos += nameLength;
+
+        if (path != null) {
+            b[pos++] = '\t';
+            System.arraycopy(path, 0, b, pos, path.length);
+            pos += path.length;
+            b[pos++] = ':';
+            long line = sw.mLineNumber;
+            long endLine = sw.mEndLineNumber;
+            if ((0L == endLine) || (endLine == line)) {
+                pos = putDecimal(b, pos, line);
+            } else if (endLine > line) {
+                pos = putDecimal(b, pos, line);
+                b[pos++] = '-';
+                pos = putDecimal(b, pos, endLine);
+            } else {
+                pos = putDecimal(b, pos, endLine);
+                b[pos++] = '-';
+                pos = putDecimal(b, pos, line);
+            }
+        }
+        b[pos++] = '\n';
+        mCount = pos;
+    }
+
+    /**
+     * Write bytes not formatted by the encoder, such as the header, in
+     * order with the rows.
+     */
+    public void write(byte[] bytes) throws IOException {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+        mCount += bytes.length;
+    }
+
+    /**
+     * Write the buffered rows to the stream, the stream is not flushed.
+     */
+    public void flush() throws IOException {
+        if (mCount > 0) {
+            mOut.write(mBuffer, 0, mCount);
+            mBytesWritten += mCount;
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Bytes written to the stream, not counting the buffered ones.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Bytes encoded so far, written or still buffered.
+     */
+    public long getBytesEncoded() {
+        return mBytesWritten + mCount;
+    }
+
+    private void ensureCapacity(int size) throws IOException {
+        if (mCount + size <= mBuffer.length) {
+            return;
+        }
+        flush();
+        if (size > mBuffer.length) {
+            mBuffer = new byte[size];
+        }
+    }
+
+    /**
+     * Lower case hex digits of value as unsigned, as Long.toHexString().
+     */
+    private static int putHex(byte[] b, int pos, long value) {
+        int digits = Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 3) >>> 2);
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            b[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return end;
+    }
+
+    /**
+     * Decimal digits of value, as Long.toString(). The digits are taken
+     * from the negative value, which could hold Long.MIN_VALUE.
+     */
+    private static int putDecimal(byte[] b, int pos, long value) {
+        if (value < 0) {
+            b[pos++] = '-';
+        } else {
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v <= -10L; v /= 10L) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            b[i] = (byte) ('0' - (value % 10L));
+            value /= 10L;
+        }
+        return end;
+    }
+
+    /**
+     * UTF-8 bytes by string, the rows of a function usually share one
+     * string instance
+     */
+    private static class BytesCache {
+        private final HashMap<String, byte[]> mBytes = new HashMap<String, byte[]>();
+        private String mLast = null;
+        private byte[] mLastBytes = null;
+
+        public byte[] get(String value) {
+            if (value == mLast) {
+                return mLastBytes;
+            }
+            byte[] bytes = mBytes.get(value);
+            if (bytes == null) {
+                bytes = value.getBytes(UTF_8);
+                mBytes.put(value, bytes);
+            }
+            mLast = value;
+            mLastBytes = bytes;
+            return bytes;
+        }
+    }
+}
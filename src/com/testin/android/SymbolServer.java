@@ -0,0 +1,579 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadHeader;
+import com.testin.android.elfparser.ReadSection;
+
+/**
+ * Loopback HTTP server symbolizing batches of addresses
+ *
+ * POST /symbolize with one frame per line:
+ *
+ *     <library> <arch or build-id> <pc hex>
+ *
+ * answers one line per frame, in the symbol file row format:
+ *
+ *     <pc hex>\t<function>[\t<file>:<line>[-<end line>]]
+ *     <pc hex>\t??                  no row contains pc
+ *     <pc hex>\t!! <message>        the library could not be loaded
+ *
+ * The symbol root directory is scanned once at start. With an arch the
+ * library is found as TestinSymbol_<arch>_<lib>.symbol.bin, .symbol.shards.zip,
+ * .symbol.zip, or an ELF file of that name and arch. With a build-id it is found as
+ * the ELF file of that build-id. Tables are loaded on demand, at most once
+ * at a time per library, and kept in an LRU bounded by their estimated
+ * memory.
+ *
+ * GET /stats answers the table hit rate, load latency and lookup latency
+ * percentiles as JSON.
+ */
+public class SymbolServer {
+    public static final int DEFAULT_PORT = 7878;
+    public static final long DEFAULT_MEMORY_MB = 512L;
+
+    private static final String SYMBOL_FILE_PREFIX = "TestinSymbol_";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_FRAMES = 100000;
+
+    private final File mRoot;
+    private final int mPort;
+    private final long mMemoryLimit;
+    private HttpServer mServer = null;
+    private ExecutorService mExecutor = null;
+
+    // Found by the scan of the root directory
+    private final Map<String, File> mSymbolFiles = new HashMap<String, File>();
+    private final Map<String, File> mElfFiles = new HashMap<String, File>();
+    private final Map<String, File> mBuildIds = new HashMap<String, File>();
+
+    // Loaded tables in access order, guarded by itself
+    private final LinkedHashMap<String, Table> mTables = new LinkedHashMap<String, Table>(16, 0.75f, true);
+    private long mMemory = 0L;
+    private final ConcurrentHashMap<String, FutureTask<Table>> mLoading =
+            new ConcurrentHashMap<String, FutureTask<Table>>();
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mFrames = new AtomicLong();
+    private final AtomicLong mTableHits = new AtomicLong();
+    private final AtomicLong mTableMisses = new AtomicLong();
+    private final AtomicLong mLoads = new AtomicLong();
+    private final AtomicLong mLoadFailures = new AtomicLong();
+    private final AtomicLong mLoadNanos = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final Histogram mLookupLatency = new Histogram();
+    private final Histogram mLoadLatency = new Histogram();
+
+    public SymbolServer(String root, int port, long memoryMB) {
+        mRoot = new File(root);
+        mPort = port;
+        mMemoryLimit = memoryMB * 1024L * 1024L;
+    }
+
+    public void start() throws IOException {
+        scan(mRoot);
+        Logger.LogInfo("Symbol server found " + mSymbolFiles.size() + " symbol files, "
+                + mElfFiles.size() + " ELF files, " + mBuildIds.size() + " build-ids");
+
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), mPort), 0);
+        mServer.createContext("/symbolize", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleSymbolize(exchange);
+            }
+        });
+        mServer.createContext("/stats", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, 200, getStats(), "application/json");
+            }
+        });
+        mExecutor = newExecutor();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+        Logger.LogInfo("Symbol server listening on http://" + InetAddress.getLoopbackAddress().getHostAddress()
+                + ":" + getPort() + "/symbolize");
+    }
+
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Virtual thread per request on Java 21 and later, looked up by
+     * reflection to keep building for older releases, or a cached pool.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            Logger.LogInfo("Symbol server serves on virtual threads");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            Logger.LogInfo("Symbol server serves on a thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void scan(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                scan(file);
+            } else if (file.getName().startsWith(SYMBOL_FILE_PREFIX)) {
+                if (!mSymbolFiles.containsKey(file.getName())) {
+                    mSymbolFiles.put(file.getName(), file);
+                }
+            } else if (file.isFile() && ElfSymbolBatch.isElfFile(file)) {
+                scanElfFile(file);
+            }
+        }
+    }
+
+    private void scanElfFile(File file) {
+        ElfFile elfFile = null;
+        try {
+            elfFile = new ElfFile(file.getPath());
+            ReadHeader readHeader = new ReadHeader(elfFile);
+            readHeader.read();
+            if (!readHeader.readSucceed() || !readHeader.isSharedObject()) {
+                return;
+            }
+            String arch = ElfSymbolBatch.getArchFromPath(file);
+            if (arch == null) {
+                arch = ElfSymbolBatch.getArchFromMachine(readHeader.getMachineType(), readHeader.is64());
+            }
+            String key = arch + "/" + file.getName();
+            if (!mElfFiles.containsKey(key)) {
+                mElfFiles.put(key, file);
+            }
+
+            ReadSection readSection = new ReadSection(elfFile,
+                    readHeader.getShOffset(), readHeader.getShEntryNumber(),
+                    readHeader.getShtEntrySize(), readHeader.getIndexOfShtNameTable());
+            readSection.read();
+            if (readSection.readSucceed() && (readSection.getBuildId() != null)
+                    && !mBuildIds.containsKey(readSection.getBuildId())) {
+                mBuildIds.put(readSection.getBuildId(), file);
+            }
+        } catch (IOException e) {
+            Logger.LogWarn("Symbol server skipped " + file + ":" + e.toString());
+        } finally {
+            if (elfFile != null) {
+                elfFile.close();
+            }
+        }
+    }
+
+    private void handleSymbolize(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            send(exchange, 405, "POST frames to /symbolize\n", "text/plain");
+            return;
+        }
+        mRequests.incrementAndGet();
+
+        StringBuilder out = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), UTF_8));
+        String line = null;
+        int frames = 0;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (++frames > MAX_FRAMES) {
+                send(exchange, 413, "Too many frames, at most " + MAX_FRAMES + "\n", "text/plain");
+                return;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3) {
+                send(exchange, 400, "Wrong frame: " + line + "\n", "text/plain");
+                return;
+            }
+            String pcStr = fields[2].startsWith("0x") ? fields[2].substring(2) : fields[2];
+            long pc;
+            try {
+                pc = Long.parseUnsignedLong(pcStr, 16);
+            } catch (NumberFormatException e) {
+                send(exchange, 400, "Wrong pc: " + line + "\n", "text/plain");
+                return;
+            }
+            symbolize(fields[0], fields[1], pc, out);
+        }
+        mFrames.addAndGet(frames);
+        send(exchange, 200, out.toString(), "text/plain; charset=utf-8");
+    }
+
+    private void symbolize(String library, String archOrId, long pc, StringBuilder out) {
+        out.append(Long.toHexString(pc)).append('\t');
+
+        Table table;
+        try {
+            table = getTable(library, archOrId);
+        } catch (Exception e) {
+            out.append("!! ").append(e.getMessage()).append('\n');
+            return;
+        }
+        long start = System.nanoTime();
+        SymbolIndex index = table.mIndex;
+        int row = index.lookup(pc);
+        mLookupLatency.record(System.nanoTime() - start);
+        if (table.mSharded != null) {
+            charge(table);
+        }
+
+        if (row < 0) {
+            out.append("??\n");
+            return;
+        }
+        out.append(index.getFunction(row));
+        String file = index.getSourceFile(row);
+        if (file != null) {
+            out.append('\t').append(file).append(':').append(index.getLine(row));
+            if (index.getEndLine(row) != index.getLine(row)) {
+                out.append('-').append(index.getEndLine(row));
+            }
+        }
+        out.append('\n');
+    }
+
+    private Table getTable(String library, String archOrId) throws Exception {
+        final String key = archOrId + "/" + library;
+        synchronized (mTables) {
+            Table table = mTables.get(key);
+            if (table != null) {
+                mTableHits.incrementAndGet();
+                return table;
+            }
+        }
+        mTableMisses.incrementAndGet();
+
+        final File source = findSource(library, archOrId);
+        if (source == null) {
+            throw new IOException("no symbols of " + library + " for " + archOrId);
+        }
+
+        // Only the first request of a library loads it, the others wait
+        FutureTask<Table> task = new FutureTask<Table>(new Callable<Table>() {
+            public Table call() throws Exception {
+                try {
+                    // A load may have put the table and left mLoading
+                    // between the miss and putIfAbsent
+                    synchronized (mTables) {
+                        Table table = mTables.get(key);
+                        if (table != null) {
+                            return table;
+                        }
+                    }
+                    return load(key, source);
+                } finally {
+                    mLoading.remove(key);
+                }
+            }
+        });
+        FutureTask<Table> loading = mLoading.putIfAbsent(key, task);
+        if (loading == null) {
+            loading = task;
+            task.run();
+        }
+        try {
+            return loading.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new IOException("load " + source.getName() + " failed: " + cause);
+        }
+    }
+
+    private Table load(String key, File source) throws Exception {
+        long start = System.nanoTime();
+        try {
+            Table table = new Table();
+            table.mKey = key;
+            String name = source.getName();
+            if (name.endsWith(".symbol.bin")) {
+                BinarySymbolFile file = BinarySymbolFile.open(source.getPath());
+                table.mIndex = file;
+                // Mapped, only the page cache holds its rows
+                table.mMemory = file.length();
+            } else if (name.endsWith(".symbol.shards.zip")) {
+                ShardedSymbolFile file = ShardedSymbolFile.open(source.getPath());
+                table.mIndex = file;
+                table.mSharded = file;
+                // Shards are inflated on demand, charged by charge() as they are
+                table.mMemory = estimateMemory(file);
+            } else if (name.endsWith(".symbol.zip")) {
+                SymbolZipReader reader = new SymbolZipReader(source.getPath());
+                reader.read();
+                if (!reader.readSucceed()) {
+                    throw new IOException("Read " + name + " failed");
+                }
+                table.mIndex = reader.getSymbolizer();
+                table.mMemory = estimateMemory(reader.getSymbolizer());
+            } else {
+                Symbolizer symbolizer = Symbolizer.load(source.getPath());
+                table.mIndex = symbolizer;
+                table.mMemory = estimateMemory(symbolizer);
+            }
+            mLoads.incrementAndGet();
+            put(key, table);
+            return table;
+        } catch (Exception e) {
+            mLoadFailures.incrementAndGet();
+            throw e;
+        } finally {
+            long time = System.nanoTime() - start;
+            mLoadNanos.addAndGet(time);
+            mLoadLatency.record(time);
+        }
+    }
+
+    private void put(String key, Table table) {
+        synchronized (mTables) {
+            Table old = mTables.put(key, table);
+            if (old != null) {
+                mMemory -= old.mMemory;
+            }
+            mMemory += table.mMemory;
+            evict(key);
+        }
+    }
+
+    /**
+     * Charge the shards inflated by the lookups of a sharded table since
+     * the last charge, unless the table is evicted.
+     */
+    private void charge(Table table) {
+        long memory = estimateMemory(table.mSharded);
+        synchronized (mTables) {
+            if ((memory <= table.mMemory) || (mTables.get(table.mKey) != table)) {
+                return;
+            }
+            mMemory += memory - table.mMemory;
+            table.mMemory = memory;
+            evict(table.mKey);
+        }
+    }
+
+    /**
+     * Evict the least recently used tables but the one of key until the
+     * memory is under the limit, so it is kept even when it alone is over
+     * the limit. Called with mTables locked.
+     */
+    private void evict(String key) {
+        Iterator<Map.Entry<String, Table>> it = mTables.entrySet().iterator();
+        while ((mMemory > mMemoryLimit) && (mTables.size() > 1) && it.hasNext()) {
+            Map.Entry<String, Table> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            mMemory -= eldest.getValue().mMemory;
+            it.remove();
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Column bytes of every row plus the pooled names, close enough for
+     * the LRU limit.
+     */
+    private static long estimateMemory(Symbolizer symbolizer) {
+        long ret = symbolizer.size() * (8L + 8L + 4L + 4L + 4L + 4L);
+        for (int i = 0; i < symbolizer.getFunctionCount(); i++) {
+            String name = symbolizer.getFunctionName(i);
+            ret += 64L + ((name == null) ? 0 : name.length());
+        }
+        for (int i = 0; i < symbolizer.getFileCount(); i++) {
+            ret += 64L + symbolizer.getFileName(i).length();
+        }
+        return ret;
+    }
+
+    /**
+     * The index lines plus the text of the shards inflated so far.
+     */
+    private static long estimateMemory(ShardedSymbolFile file) {
+        return file.getShardCount() * (8L + 8L + 4L + 64L) + file.getInflatedBytes();
+    }
+
+    private File findSource(String library, String archOrId) {
+        if (isArch(archOrId)) {
+            String symbolFileName = ElfSymbolTool.getSymbolFileName(archOrId, library);
+            File file = mSymbolFiles.get(symbolFileName + ".bin");
+            if (file == null) {
+                file = mSymbolFiles.get(symbolFileName + ".shards.zip");
+            }
+            if (file == null) {
+                file = mSymbolFiles.get(symbolFileName + ".zip");
+            }
+            if (file == null) {
+                file = mElfFiles.get(archOrId + "/" + library);
+            }
+            return file;
+        }
+        File file = mBuildIds.get(archOrId.toLowerCase());
+        if ((file != null) && !file.getName().equals(library)) {
+            Logger.LogWarn("Build-id " + archOrId + " belongs to " + file + ", not " + library);
+        }
+        return file;
+    }
+
+    private static boolean isArch(String value) {
+        for (String arch : ElfSymbolBatch.ARCH_NAMES) {
+            if (arch.equals(value)) {
+                return true;
+            }
+        }
+        return value.startsWith("machine-");
+    }
+
+    private String getStats() {
+        long hits = mTableHits.get();
+        long misses = mTableMisses.get();
+        long loads = mLoads.get();
+        int tables;
+        long memory;
+        synchronized (mTables) {
+            tables = mTables.size();
+            memory = mMemory;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"requests\": ").append(mRequests.get()).append(",\n");
+        sb.append("  \"frames\": ").append(mFrames.get()).append(",\n");
+        sb.append("  \"table_hits\": ").append(hits).append(",\n");
+        sb.append("  \"table_misses\": ").append(misses).append(",\n");
+        sb.append("  \"table_hit_rate\": ").append(String.format("%.4f",
+                (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses))).append(",\n");
+        sb.append("  \"tables\": ").append(tables).append(",\n");
+        sb.append("  \"table_memory_bytes\": ").append(memory).append(",\n");
+        sb.append("  \"table_memory_limit_bytes\": ").append(mMemoryLimit).append(",\n");
+        sb.append("  \"evictions\": ").append(mEvictions.get()).append(",\n");
+        sb.append("  \"loads\": ").append(loads).append(",\n");
+        sb.append("  \"load_failures\": ").append(mLoadFailures.get()).append(",\n");
+        sb.append("  \"load_avg_ms\": ").append(String.format("%.3f",
+                (loads + mLoadFailures.get() == 0) ? 0.0
+                        : mLoadNanos.get() / 1e6 / (loads + mLoadFailures.get()))).append(",\n");
+        sb.append("  \"load_p99_ms\": ").append(String.format("%.3f", mLoadLatency.getPercentile(0.99) / 1e6)).append(",\n");
+        sb.append("  \"lookup_p50_us\": ").append(String.format("%.3f", mLookupLatency.getPercentile(0.50) / 1e3)).append(",\n");
+        sb.append("  \"lookup_p99_us\": ").append(String.format("%.3f", mLookupLatency.getPercentile(0.99) / 1e3)).append("\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void send(HttpExchange exchange, int code, String body, String type) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static class Table {
+        public String mKey = null;
+        public SymbolIndex mIndex = null;
+        // The index again if it is sharded, to charge its inflated shards
+        public ShardedSymbolFile mSharded = null;
+        public long mMemory = 0L;
+    }
+
+    /**
+     * Lock free latency histogram in nanoseconds. Every power of 2 is split
+     * in 8 buckets, so a percentile is at most 12.5% above the real value.
+     */
+    static class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(64 * SUB_COUNT);
+
+        public void record(long value) {
+            mCounts.incrementAndGet(getBucket(Math.max(value, 0L)));
+        }
+
+        /**
+         * Return the upper bound of the bucket holding the percentile.
+         */
+        public long getPercentile(double percentile) {
+            long total = 0L;
+            for (int i = 0; i < mCounts.length(); i++) {
+                total += mCounts.get(i);
+            }
+            if (total == 0L) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long count = 0L;
+            for (int i = 0; i < mCounts.length(); i++) {
+                count += mCounts.get(i);
+                if (count >= rank) {
+                    return getUpperBound(i);
+                }
+            }
+            return getUpperBound(mCounts.length() - 1);
+        }
+
+        private static int getBucket(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+            return (shift + 1) * SUB_COUNT + sub;
+        }
+
+        private static long getUpperBound(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int shift = bucket / SUB_COUNT - 1;
+            long sub = bucket % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+/**
+ * Receiver of the symbol rows joined by SymbolJoiner, in address order
+ *
+ * The joiner reuses a row after passing it, so a sink has to copy what it
+ * keeps.
+ */
+public interface SymbolSink {
+    void addSymbol(SymbolWriter sw) throws Exception;
+}
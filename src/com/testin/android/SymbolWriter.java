@@ -6,57 +6,45 @@
 
 package com.testin.android;
 
-import java.util.zip.ZipOutputStream;
-
+import com.testin.android.elfparser.ReadSymbolSection;
+
+/**
+ * One symbol row, formatted by SymbolRowEncoder
+ *
+ * The function is either the name in mFunction, or the entry
+ * mFunctionIndex of the function table of mSymbols, whose name is only
+ * decoded by getFunction().
+ */
 public class SymbolWriter
 {
     public long mStartAddress = 0L;
     public long mEndAddress = 0L;
     public String mFunction = null;
+    public int mFunctionIndex = -1;
+    public ReadSymbolSection mSymbols = null;
     public String mSourceFile = null;
     public long mLineNumber = 0L;
     public long mEndLineNumber = 0L;
 
-
-    public void write(ZipOutputStream zos) throws Exception {
-        if (zos == null) {
-            throw new Exception("Failed in SymbolWriter.write with null parameters!");
+    public String getFunction() {
+        if ((mFunction == null) && (mSymbols != null) && (mFunctionIndex >= 0)) {
+            return mSymbols.getSymbolName(mFunctionIndex);
         }
-        zos.write(getString().getBytes("utf-8"));
+        return mFunction;
     }
 
-    private String getString() {
-        StringBuilder ret = new StringBuilder();
-        ret.append(Long.toHexString(mStartAddress));
-        ret.append("\t");
-
-        ret.append(Long.toHexString(mEndAddress));
-        ret.append("\t");
-
-        ret.append(mFunction);
-        if (mSourceFile == null) {
-            ret.append("\n");
-            return ret.toString();
-        }
-        ret.append("\t");
-        ret.append(mSourceFile);
-        ret.append(":");
-        if (0L == mEndLineNumber) {
-            ret.append(mLineNumber);
-        }
-        else if (mEndLineNumber == mLineNumber) {
-            ret.append(mLineNumber);
-        } else if (mEndLineNumber > mLineNumber) {
-            ret.append(mLineNumber);
-            ret.append("-");
-            ret.append(mEndLineNumber);
-        } else {
-            ret.append(mEndLineNumber);
-            ret.append("-");
-            ret.append(mLineNumber);
-        }
-
-        ret.append("\n");
-        return ret.toString();
+    /**
+     * Set the row to a function of the function table of symbols, without
+     * source file.
+     */
+    public void set(long startAddress, long endAddress, ReadSymbolSection symbols, int functionIndex) {
+        mStartAddress = startAddress;
+        mEndAddress = endAddress;
+        mFunction = null;
+        mFunctionIndex = functionIndex;
+        mSymbols = symbols;
+        mSourceFile = null;
+        mLineNumber = 0L;
+        mEndLineNumber = 0L;
     }
 }
@@ -0,0 +1,340 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Read a zipped symbol file written by ElfSymbolExtractor back to a
+ * Symbolizer
+ *
+ * The entry is inflated a buffer at a time and the rows are parsed in
+ * place, without a String per line or per field:
+ *
+ *     <start hex>\t<end hex>\t<function>[\t<file>:<line>[-<end line>]]\n
+ *
+ * The file name is split at the last ':', the lines could be negative.
+ * Function and file names are interned by their bytes, so a name becomes a
+ * String only once. The lines before the first row are kept as the header.
+ */
+public class SymbolZipReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private String mPath = null;
+    private boolean mSucceed = false;
+    private StringBuilder mHeader = new StringBuilder();
+    private Symbolizer mSymbolizer = null;
+    private Symbolizer.Builder mBuilder = null;
+    private NamePool mFunctions = null;
+    private NamePool mFiles = null;
+    private long mRowNumber = 0L;
+
+    public SymbolZipReader(String path) {
+        mPath = path;
+    }
+
+    public void read() {
+        ZipInputStream zis = null;
+        try {
+            zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(mPath), BUFFER_SIZE));
+            ZipEntry ze = zis.getNextEntry();
+            if (ze == null) {
+                throw new IOException("No symbol entry");
+            }
+            read(zis);
+        } catch (IOException e) {
+            Logger.LogError("SymbolZipReader read " + mPath + " failed:" + e.toString());
+        } finally {
+            if (zis != null) {
+                try {
+                    zis.close();
+                } catch (IOException e) {
+                    Logger.LogError("SymbolZipReader close failed:" + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the rows of an entry already opened, such as a shard of a
+     * ShardedSymbolFile. The stream is not closed.
+     */
+    public void read(InputStream is) throws IOException {
+        mBuilder = new Symbolizer.Builder();
+        mFunctions = new NamePool(true);
+        mFiles = new NamePool(false);
+        try {
+            readLines(is);
+            mSymbolizer = mBuilder.build();
+            mSucceed = true;
+        } finally {
+            mBuilder = null;
+            mFunctions = null;
+            mFiles = null;
+        }
+    }
+
+    public boolean readSucceed() {
+        return mSucceed;
+    }
+
+    public Symbolizer getSymbolizer() {
+        return mSymbolizer;
+    }
+
+    /**
+     * Return the header lines, such as "Arch: x86".
+     */
+    public String getHeader() {
+        return mHeader.toString();
+    }
+
+    private void readLines(InputStream is) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int start = 0;
+        int end = 0;
+        while (true) {
+            if (end == buffer.length) {
+                if (start == 0) {
+                    // A line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                } else {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+            }
+            int count = is.read(buffer, end, buffer.length - end);
+            if (count < 0) {
+                break;
+            }
+
+            int scan = end;
+            end += count;
+            for (int i = scan; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    parseLine(buffer, start, i);
+                    start = i + 1;
+                }
+            }
+        }
+        if (start < end) {
+            parseLine(buffer, start, end);
+        }
+    }
+
+    private void parseLine(byte[] b, int from, int to) throws IOException {
+        mRowNumber++;
+        int tab1 = indexOf(b, from, to, (byte) '\t');
+        if (tab1 < 0) {
+            if (mBuilder.size() == 0) {
+                mHeader.append(new String(b, from, to - from, UTF_8)).append('\n');
+                return;
+            }
+            if (from == to) {
+                return;
+            }
+            throw new IOException("Wrong row at line " + mRowNumber);
+        }
+        int tab2 = indexOf(b, tab1 + 1, to, (byte) '\t');
+        if (tab2 < 0) {
+            throw new IOException("Wrong row at line " + mRowNumber);
+        }
+        long start = parseHex(b, from, tab1);
+        long end = parseHex(b, tab1 + 1, tab2);
+
+        int tab3 = indexOf(b, tab2 + 1, to, (byte) '\t');
+        if (tab3 < 0) {
+            int function = mFunctions.getId(b, tab2 + 1, to);
+            mBuilder.add(start, end, function, Symbolizer.NO_FILE, 0, 0);
+            return;
+        }
+        int function = mFunctions.getId(b, tab2 + 1, tab3);
+
+        int colon = lastIndexOf(b, tab3 + 1, to, (byte) ':');
+        if (colon < 0) {
+            throw new IOException("Wrong source line at line " + mRowNumber);
+        }
+        int file = mFiles.getId(b, tab3 + 1, colon);
+
+        // <line> or <line>-<end line>, the first one is not bigger
+        int pos = colon + 1;
+        int dash = pos;
+        if ((dash < to) && (b[dash] == '-')) {
+            dash++;
+        }
+        dash = indexOf(b, dash, to, (byte) '-');
+        int line;
+        int endLine;
+        if (dash < 0) {
+            line = parseInt(b, pos, to);
+            endLine = line;
+        } else {
+            line = parseInt(b, pos, dash);
+            endLine = parseInt(b, dash + 1, to);
+        }
+        mBuilder.add(start, end, function, file, line, endLine);
+    }
+
+    private long parseHex(byte[] b, int from, int to) throws IOException {
+        if ((from == to) || (to - from > 16)) {
+            throw new IOException("Wrong address at line " + mRowNumber);
+        }
+        long ret = 0L;
+        for (int i = from; i < to; i++) {
+            int c = b[i];
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                throw new IOException("Wrong address at line " + mRowNumber);
+            }
+            ret = (ret << 4) | digit;
+        }
+        return ret;
+    }
+
+    private int parseInt(byte[] b, int from, int to) throws IOException {
+        boolean negative = false;
+        if ((from < to) && (b[from] == '-')) {
+            negative = true;
+            from++;
+        }
+        if (from == to) {
+            throw new IOException("Wrong line number at line " + mRowNumber);
+        }
+        long ret = 0L;
+        for (int i = from; i < to; i++) {
+            int c = b[i];
+            if (c < '0' || c > '9' || ret > Integer.MAX_VALUE) {
+                throw new IOException("Wrong line number at line " + mRowNumber);
+            }
+            ret = ret * 10 + (c - '0');
+        }
+        return (int) (negative ? -ret : ret);
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] b, int from, int to, byte value) {
+        for (int i = to - 1; i >= from; i--) {
+            if (b[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Open addressing table from name bytes to the id given by the builder,
+     * the bytes are kept in one growing array.
+     */
+    private class NamePool {
+        private final boolean mIsFunction;
+        private byte[] mBytes = new byte[BUFFER_SIZE];
+        private int mBytesSize = 0;
+        private int[] mOffsets = new int[256];
+        private int[] mLengths = new int[256];
+        private int[] mSlots = new int[512];
+        private int mSize = 0;
+
+        public NamePool(boolean isFunction) {
+            mIsFunction = isFunction;
+            Arrays.fill(mSlots, -1);
+        }
+
+        public int getId(byte[] b, int from, int to) {
+            int length = to - from;
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + b[i];
+            }
+            int mask = mSlots.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (mSlots[slot] >= 0) {
+                int id = mSlots[slot];
+                if ((mLengths[id] == length) && equals(mOffsets[id], b, from, length)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return add(b, from, length, slot);
+        }
+
+        private boolean equals(int offset, byte[] b, int from, int length) {
+            for (int i = 0; i < length; i++) {
+                if (mBytes[offset + i] != b[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int add(byte[] b, int from, int length, int slot) {
+            String name = new String(b, from, length, UTF_8);
+            int id = mIsFunction ? mBuilder.addFunction(name) : mBuilder.addFile(name);
+            if (id != mSize) {
+                throw new IllegalStateException("Name ids out of order");
+            }
+
+            if (mBytesSize + length > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length << 1, mBytesSize + length));
+            }
+            System.arraycopy(b, from, mBytes, mBytesSize, length);
+            if (mSize == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mSize << 1);
+                mLengths = Arrays.copyOf(mLengths, mSize << 1);
+            }
+            mOffsets[mSize] = mBytesSize;
+            mLengths[mSize] = length;
+            mBytesSize += length;
+            mSlots[slot] = mSize;
+            mSize++;
+
+            if (mSize * 2 > mSlots.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            mSlots = new int[mSlots.length << 1];
+            Arrays.fill(mSlots, -1);
+            int mask = mSlots.length - 1;
+            for (int id = 0; id < mSize; id++) {
+                int hash = 1;
+                for (int i = 0; i < mLengths[id]; i++) {
+                    hash = 31 * hash + mBytes[mOffsets[id] + i];
+                }
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (mSlots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                mSlots[slot] = id;
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.testin.android.elfparser.AddressSort;
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadHeader;
+import com.testin.android.elfparser.ReadSection;
+import com.testin.android.elfparser.ReadSymbolSection;
+import com.testin.android.elfparser.debugline.ReadDebugLineInfo;
+
+/**
+ * Answer what is at an address, with the same rows as the symbol file
+ *
+ * ------------------------------------------------------------
+ *    Column    |  Type  |    Meaning
+ *    start     |  long  | first address of the row, +1 with a file
+ *    end       |  long  | address after the row
+ *    function  |  int   | index in the function name pool
+ *    file      |  int   | index in the source file pool, -1 without file
+ *    line      |  int   | lowest source line of the row
+ *    end line  |  int   | highest source line of the row
+ *
+ * The rows are sorted by start address and do not overlap, lookup() is a
+ * binary search over the start column. A row with a file starts one byte
+ * after its line table address, see SymbolIndex.lookup(). A Symbolizer never changes after it
+ * is built, so any number of threads could look up at the same time.
+ *
+ *     Symbolizer symbolizer = Symbolizer.load("libfoo.so");
+ *     int row = symbolizer.lookup(pc);
+ *     if (row >= 0) {
+ *         symbolizer.getFunction(row) ...
+ *     }
+ */
+public final class Symbolizer implements SymbolIndex {
+    public static final int NO_FILE = -1;
+
+    private final long[] mStarts;
+    private final long[] mEnds;
+    private final int[] mFunctions;
+    private final int[] mFiles;
+    private final int[] mLines;
+    private final int[] mEndLines;
+    private final int mSize;
+    private final String[] mFunctionPool;
+    private final String[] mFilePool;
+
+    private Symbolizer(Builder builder) {
+        int[] order = AddressSort.sort(builder.mStarts, builder.mSize);
+        if (order == null) {
+            mStarts = Arrays.copyOf(builder.mStarts, builder.mSize);
+            mEnds = Arrays.copyOf(builder.mEnds, builder.mSize);
+            mFunctions = Arrays.copyOf(builder.mFunctions, builder.mSize);
+            mFiles = Arrays.copyOf(builder.mFiles, builder.mSize);
+            mLines = Arrays.copyOf(builder.mLines, builder.mSize);
+            mEndLines = Arrays.copyOf(builder.mEndLines, builder.mSize);
+        } else {
+            mStarts = Arrays.copyOf(AddressSort.permute(builder.mStarts, order), builder.mSize);
+            mEnds = Arrays.copyOf(AddressSort.permute(builder.mEnds, order), builder.mSize);
+            mFunctions = Arrays.copyOf(AddressSort.permute(builder.mFunctions, order), builder.mSize);
+            mFiles = Arrays.copyOf(AddressSort.permute(builder.mFiles, order), builder.mSize);
+            mLines = Arrays.copyOf(AddressSort.permute(builder.mLines, order), builder.mSize);
+            mEndLines = Arrays.copyOf(AddressSort.permute(builder.mEndLines, order), builder.mSize);
+        }
+        mSize = builder.mSize;
+        mFunctionPool = builder.mFunctionPool.toArray(new String[builder.mFunctionPool.size()]);
+        mFilePool = builder.mFilePool.toArray(new String[builder.mFilePool.size()]);
+    }
+
+    /**
+     * Parse the ELF file and index its symbol rows.
+     */
+    public static Symbolizer load(String elfPath) throws Exception {
+        ElfFile elfFile = new ElfFile(elfPath);
+        try {
+            ReadHeader readHeader = new ReadHeader(elfFile);
+            readHeader.read();
+            if (!readHeader.readSucceed()) {
+                throw new IOException("Read ELF header of " + elfPath + " failed");
+            }
+
+            ReadSection readSection = new ReadSection(elfFile,
+                    readHeader.getShOffset(), readHeader.getShEntryNumber(),
+                    readHeader.getShtEntrySize(), readHeader.getIndexOfShtNameTable());
+            readSection.read();
+            if (!readSection.readSucceed()) {
+                throw new IOException("Read sections of " + elfPath + " failed");
+            }
+
+            ReadSymbolSection readSymbolSection = new ReadSymbolSection(elfFile,
+                    readSection.getSymbolTableOffset(), readSection.getSymbolTableEntryNum(),
+                    readSection.getStrTable(), readSection.getStrTableSize());
+            readSymbolSection.read();
+            if (!readSymbolSection.readSucceed()) {
+                throw new IOException("Read symbol table of " + elfPath + " failed");
+            }
+
+            ReadDebugLineInfo readDebugLineInfo = new ReadDebugLineInfo(elfFile, readSection);
+            return index(readSymbolSection, readDebugLineInfo);
+        } finally {
+            elfFile.close();
+        }
+    }
+
+    /**
+     * Index the rows joined from the symbol table and the debug line info,
+     * which is read here.
+     */
+    public static Symbolizer index(ReadSymbolSection rss, ReadDebugLineInfo rdli) throws Exception {
+        Builder builder = new Builder();
+        SymbolJoiner joiner = new SymbolJoiner(builder, rss);
+        rdli.read(joiner);
+        if (!rdli.readSucceed()) {
+            throw new IOException("Read debug line info failed");
+        }
+        joiner.finish();
+        return builder.build();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int lookup(long pc) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(mStarts[mid], pc) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // high is the last row starting at or before pc
+        if ((high >= 0) && (Long.compareUnsigned(pc, mEnds[high]) < 0)) {
+            return high;
+        }
+        return -1;
+    }
+
+    public long getStartAddress(int row) {
+        return mStarts[row];
+    }
+
+    public long getEndAddress(int row) {
+        return mEnds[row];
+    }
+
+    public String getFunction(int row) {
+        return mFunctionPool[mFunctions[row]];
+    }
+
+    public int getFunctionId(int row) {
+        return mFunctions[row];
+    }
+
+    public String getSourceFile(int row) {
+        int file = mFiles[row];
+        return (file == NO_FILE) ? null : mFilePool[file];
+    }
+
+    public int getSourceFileId(int row) {
+        return mFiles[row];
+    }
+
+    public int getLine(int row) {
+        return mLines[row];
+    }
+
+    public int getEndLine(int row) {
+        return mEndLines[row];
+    }
+
+    public int getFunctionCount() {
+        return mFunctionPool.length;
+    }
+
+    public String getFunctionName(int function) {
+        return mFunctionPool[function];
+    }
+
+    public int getFileCount() {
+        return mFilePool.length;
+    }
+
+    public String getFileName(int file) {
+        return mFilePool[file];
+    }
+
+    /**
+     * Collect the joined rows, then build the immutable index.
+     */
+    public static class Builder implements SymbolSink {
+        private long[] mStarts = new long[1024];
+        private long[] mEnds = new long[1024];
+        private int[] mFunctions = new int[1024];
+        private int[] mFiles = new int[1024];
+        private int[] mLines = new int[1024];
+        private int[] mEndLines = new int[1024];
+        private int mSize = 0;
+        private List<String> mFunctionPool = new ArrayList<String>();
+        private HashMap<String, Integer> mFunctionIds = new HashMap<String, Integer>();
+        private List<String> mFilePool = new ArrayList<String>();
+        private HashMap<String, Integer> mFileIds = new HashMap<String, Integer>();
+
+        public void addSymbol(SymbolWriter sw) {
+            int file = NO_FILE;
+            int line = 0;
+            int endLine = 0;
+            if (sw.mSourceFile != null) {
+                file = getId(sw.mSourceFile, mFilePool, mFileIds);
+                // Same line range as the symbol file writes
+                line = (int) sw.mLineNumber;
+                endLine = (int) sw.mLineNumber;
+                if (0L != sw.mEndLineNumber) {
+                    line = (int) Math.min(sw.mLineNumber, sw.mEndLineNumber);
+                    endLine = (int) Math.max(sw.mLineNumber, sw.mEndLineNumber);
+                }
+            }
+            add(sw.mStartAddress, sw.mEndAddress,
+                    getId(sw.getFunction(), mFunctionPool, mFunctionIds), file, line, endLine);
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public void add(long start, long end, int function, int file, int line, int endLine) {
+            if (mSize == mStarts.length) {
+                int capacity = mSize << 1;
+                mStarts = Arrays.copyOf(mStarts, capacity);
+                mEnds = Arrays.copyOf(mEnds, capacity);
+                mFunctions = Arrays.copyOf(mFunctions, capacity);
+                mFiles = Arrays.copyOf(mFiles, capacity);
+                mLines = Arrays.copyOf(mLines, capacity);
+                mEndLines = Arrays.copyOf(mEndLines, capacity);
+            }
+            mStarts[mSize] = start;
+            mEnds[mSize] = end;
+            mFunctions[mSize] = function;
+            mFiles[mSize] = file;
+            mLines[mSize] = line;
+            mEndLines[mSize] = endLine;
+            mSize++;
+        }
+
+        public int addFunction(String function) {
+            return getId(function, mFunctionPool, mFunctionIds);
+        }
+
+        public int addFile(String file) {
+            return getId(file, mFilePool, mFileIds);
+        }
+
+        public Symbolizer build() {
+            return new Symbolizer(this);
+        }
+
+        private static int getId(String name, List<String> pool, HashMap<String, Integer> ids) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = pool.size();
+                pool.add(name);
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+/**
+ * Stable sort of table rows by address
+ *
+ * Sorts the row indexes instead of the rows, so a columnar table could
+ * move every column once by the returned order. Addresses are compared as
+ * unsigned 64-bit values.
+ *
+ * The keys are scanned for ascending runs first. Rows appended unit by
+ * unit are usually long runs, which are merged by a heap of run heads.
+ * When the runs are short on average, the keys are radix sorted a byte at
+ * a time from the lowest byte, skipping the bytes equal in all keys.
+ */
+public class AddressSort {
+    // Ranges not longer than this are sorted by insertion
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    // Merging costs log2(runs) compares per key, which is slower than the 3
+    // or 4 radix passes of 32-bit addresses once runs get shorter than this
+    private static final int MIN_AVERAGE_RUN = 16;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int DIGIT_NUM = Long.SIZE / RADIX_BITS;
+
+    /**
+     * Return the row order sorting the first size keys, or null if they
+     * are already sorted.
+     */
+    public static int[] sort(long[] keys, int size) {
+        int[] runs = findRuns(keys, size, Math.max(size / MIN_AVERAGE_RUN, RADIX));
+        if (runs == null) {
+            return (size <= INSERTION_SORT_THRESHOLD) ? insertionSort(keys, size) : radixSort(keys, size);
+        }
+        int runNum = runs.length - 1;
+        if (runNum <= 1) {
+            return null;
+        }
+        if (size <= INSERTION_SORT_THRESHOLD) {
+            return insertionSort(keys, size);
+        }
+        return mergeRuns(keys, runs, runNum);
+    }
+
+    public static boolean isSorted(long[] keys, int size) {
+        for (int i = 1; i < size; i++) {
+            if (Long.compareUnsigned(keys[i - 1], keys[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static long[] permute(long[] column, int[] order) {
+        long[] ret = new long[column.length];
+        for (int i = 0; i < order.length; i++) {
+            ret[i] = column[order[i]];
+        }
+        return ret;
+    }
+
+    public static int[] permute(int[] column, int[] order) {
+        int[] ret = new int[column.length];
+        for (int i = 0; i < order.length; i++) {
+            ret[i] = column[order[i]];
+        }
+        return ret;
+    }
+
+    public static byte[] permute(byte[] column, int[] order) {
+        byte[] ret = new byte[column.length];
+        for (int i = 0; i < order.length; i++) {
+            ret[i] = column[order[i]];
+        }
+        return ret;
+    }
+
+    /**
+     * Return the starts of the ascending runs followed by size, or null if
+     * there are more than maxRuns runs.
+     */
+    private static int[] findRuns(long[] keys, int size, int maxRuns) {
+        int[] starts = new int[Math.min(maxRuns, 16) + 1];
+        int runNum = 0;
+        if (size > 0) {
+            starts[runNum++] = 0;
+        }
+        for (int i = 1; i < size; i++) {
+            if (Long.compareUnsigned(keys[i - 1], keys[i]) > 0) {
+                if (runNum == maxRuns) {
+                    return null;
+                }
+                if (runNum + 1 == starts.length) {
+                    int[] grown = new int[Math.min(runNum << 1, maxRuns) + 1];
+                    System.arraycopy(starts, 0, grown, 0, runNum);
+                    starts = grown;
+                }
+                starts[runNum++] = i;
+            }
+        }
+        int[] ret = new int[runNum + 1];
+        System.arraycopy(starts, 0, ret, 0, runNum);
+        ret[runNum] = size;
+        return ret;
+    }
+
+    private static int[] insertionSort(long[] keys, int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            int j = i - 1;
+            while ((j >= 0) && (Long.compareUnsigned(keys[order[j]], keys[i]) > 0)) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Merge the runs by a binary heap of their heads, the heads of equal
+     * keys are taken in run order to keep the sort stable.
+     */
+    private static int[] mergeRuns(long[] keys, int[] runs, int runNum) {
+        int size = runs[runNum];
+        int[] order = new int[size];
+        int[] heads = new int[runNum];
+        int[] heap = new int[runNum];
+        for (int i = 0; i < runNum; i++) {
+            heads[i] = runs[i];
+            heap[i] = i;
+        }
+        for (int i = (runNum >>> 1) - 1; i >= 0; i--) {
+            siftDown(keys, heads, heap, runNum, i);
+        }
+
+        int heapSize = runNum;
+        for (int i = 0; i < size; i++) {
+            int run = heap[0];
+            order[i] = heads[run]++;
+            if ((heads[run] == runs[run + 1]) && (--heapSize == 0)) {
+                break;
+            }
+            if (heads[run] == runs[run + 1]) {
+                heap[0] = heap[heapSize];
+            }
+            siftDown(keys, heads, heap, heapSize, 0);
+        }
+        return order;
+    }
+
+    private static void siftDown(long[] keys, int[] heads, int[] heap, int heapSize, int index) {
+        int run = heap[index];
+        long key = keys[heads[run]];
+        while (true) {
+            int child = (index << 1) + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            int childRun = heap[child];
+            long childKey = keys[heads[childRun]];
+            if (child + 1 < heapSize) {
+                int rightRun = heap[child + 1];
+                long rightKey = keys[heads[rightRun]];
+                if (isBefore(rightKey, rightRun, childKey, childRun)) {
+                    child++;
+                    childRun = rightRun;
+                    childKey = rightKey;
+                }
+            }
+            if (!isBefore(childKey, childRun, key, run)) {
+                break;
+            }
+            heap[index] = childRun;
+            index = child;
+        }
+        heap[index] = run;
+    }
+
+    private static boolean isBefore(long key, int run, long otherKey, int otherRun) {
+        int cmp = Long.compareUnsigned(key, otherKey);
+        return (cmp < 0) || ((cmp == 0) && (run < otherRun));
+    }
+
+    /**
+     * LSD radix sort of the keys with their indexes, stable by every pass
+     * scattering the equal digits in order.
+     */
+    private static int[] radixSort(long[] keys, int size) {
+        int[] counts = new int[DIGIT_NUM * RADIX];
+        for (int i = 0; i < size; i++) {
+            long key = keys[i];
+            int low = (int) key;
+            int high = (int) (key >>> 32);
+            counts[low & 0xFF]++;
+            counts[0x100 + ((low >>> 8) & 0xFF)]++;
+            counts[0x200 + ((low >>> 16) & 0xFF)]++;
+            counts[0x300 + (low >>> 24)]++;
+            counts[0x400 + (high & 0xFF)]++;
+            counts[0x500 + ((high >>> 8) & 0xFF)]++;
+            counts[0x600 + ((high >>> 16) & 0xFF)]++;
+            counts[0x700 + (high >>> 24)]++;
+        }
+
+        long[] srcKeys = null;
+        int[] srcOrder = null;
+        long[] dstKeys = new long[size];
+        int[] dstOrder = new int[size];
+        for (int digit = 0; digit < DIGIT_NUM; digit++) {
+            int base = digit << RADIX_BITS;
+            int shift = digit * RADIX_BITS;
+            if (counts[base + (int) ((keys[0] >>> shift) & (RADIX - 1))] == size) {
+                // Same byte in all keys
+                continue;
+            }
+            int offset = 0;
+            for (int i = 0; i < RADIX; i++) {
+                int count = counts[base + i];
+                counts[base + i] = offset;
+                offset += count;
+            }
+
+            if (srcKeys == null) {
+                for (int i = 0; i < size; i++) {
+                    long key = keys[i];
+                    int pos = counts[base + (int) ((key >>> shift) & (RADIX - 1))]++;
+                    dstKeys[pos] = key;
+                    dstOrder[pos] = i;
+                }
+                srcKeys = new long[size];
+                srcOrder = new int[size];
+            } else {
+                for (int i = 0; i < size; i++) {
+                    long key = srcKeys[i];
+                    int pos = counts[base + (int) ((key >>> shift) & (RADIX - 1))]++;
+                    dstKeys[pos] = key;
+                    dstOrder[pos] = srcOrder[i];
+                }
+            }
+            long[] tmpKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tmpKeys;
+            int[] tmpOrder = srcOrder;
+            srcOrder = dstOrder;
+            dstOrder = tmpOrder;
+        }
+        return srcOrder;
+    }
+}
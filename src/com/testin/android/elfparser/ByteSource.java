@@ -0,0 +1,51 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import java.io.IOException;
+
+/**
+ * Source of ELF file bytes
+ *
+ * Decodes the ELF primitives (byte, half, word, tword) from a positioned
+ * view of ElfFile. The memory mapped implementation is used by default and
+ * the RandomAccessFile one is kept as fallback. Both decode through a
+ * ByteBuffer whose byte order is set once by setLSB(), so a read is one
+ * wide load and never branches on the data encoding.
+ *
+ * Half and word are unsigned, tword is returned as is and must be
+ * compared unsigned.
+ */
+public abstract class ByteSource {
+    protected boolean mIsLSB = false;
+
+    public boolean isLSB() {
+        return mIsLSB;
+    }
+
+    public void setLSB(boolean isLsb) {
+        mIsLSB = isLsb;
+    }
+
+    public abstract long length() throws IOException;
+
+    public abstract long position() throws IOException;
+
+    public abstract void seek(long offset) throws IOException;
+
+    public abstract byte readByte() throws IOException;
+
+    public abstract int readHalf() throws IOException;
+
+    public abstract long readWord() throws IOException;
+
+    public abstract long readTWord() throws IOException;
+
+    public abstract void readFully(byte[] b, int off, int len) throws IOException;
+
+    public abstract void close() throws IOException;
+}
@@ -0,0 +1,189 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed debug section, written by -gz or --compress-debug-sections
+ *
+ * ------------------------------------------------------------
+ *    Format              |    Header before the zlib stream
+ *    SHF_COMPRESSED      | Elf32_Chdr or Elf64_Chdr, ch_type ELFCOMPRESS_ZLIB
+ *    .zdebug_* (GNU)     | "ZLIB" and the uncompressed size as a big endian tword
+ *
+ * The stream is inflated through a window of WINDOW_SIZE bytes of the
+ * file, so nothing but the bytes asked for is held. Inflaters are reused
+ * from a small pool, as one keeps native memory until it is ended.
+ */
+public class CompressedSection {
+    public static final long SHF_COMPRESSED = 0x800L;
+    public static final int ELFCOMPRESS_ZLIB = 1;
+    public static final int WINDOW_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_INFLATERS = 8;
+    private static final ArrayDeque<Inflater> sInflaters = new ArrayDeque<Inflater>();
+
+    private final ElfFile mElfFile;
+    private final long mOffset;
+    private final long mSize;
+    private final long mUncompressedSize;
+
+    /**
+     * offset and size are the zlib stream of the section, after its header.
+     */
+    public CompressedSection(ElfFile elfFile, long offset, long size, long uncompressedSize) {
+        mElfFile = elfFile;
+        mOffset = offset;
+        mSize = size;
+        mUncompressedSize = uncompressedSize;
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getUncompressedSize() {
+        return mUncompressedSize;
+    }
+
+    /**
+     * Open a stream of the inflated section, to be read in order and closed.
+     */
+    public Stream open() throws IOException {
+        return new Stream();
+    }
+
+    /**
+     * Inflate the whole section, for the string sections read at once.
+     */
+    public byte[] inflate() throws IOException {
+        if (mUncompressedSize > Integer.MAX_VALUE) {
+            throw new IOException("Too big compressed section: " + mUncompressedSize);
+        }
+        byte[] ret = new byte[(int) mUncompressedSize];
+        Stream stream = open();
+        try {
+            stream.readFully(ret, 0, ret.length);
+        } finally {
+            stream.close();
+        }
+        return ret;
+    }
+
+    private static Inflater obtainInflater() {
+        synchronized (sInflaters) {
+            Inflater inflater = sInflaters.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+        return new Inflater();
+    }
+
+    private static void recycleInflater(Inflater inflater) {
+        inflater.reset();
+        synchronized (sInflaters) {
+            if (sInflaters.size() < MAX_POOLED_INFLATERS) {
+                sInflaters.push(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * Inflated bytes of the section from the start
+     */
+    public class Stream {
+        private final ByteSource mSource;
+        private final byte[] mWindow = new byte[(int) Math.min(WINDOW_SIZE, Math.max(mSize, 1L))];
+        private Inflater mInflater = null;
+        private long mInputOffset = mOffset;
+        private long mPosition = 0L;
+        private byte[] mSkipBuffer = null;
+
+        private Stream() throws IOException {
+            mSource = mElfFile.newSource();
+            mInflater = obtainInflater();
+        }
+
+        /**
+         * Bytes inflated so far.
+         */
+        public long position() {
+            return mPosition;
+        }
+
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            if (mInflater == null) {
+                throw new IOException("Compressed section stream is closed");
+            }
+            try {
+                while (len > 0) {
+                    int n = mInflater.inflate(b, off, len);
+                    if (n == 0) {
+                        if (mInflater.finished() || mInflater.needsDictionary()) {
+                            throw new IOException("Compressed section ends at " + mPosition);
+                        }
+                        if (mInflater.needsInput()) {
+                            fill();
+                        }
+                    }
+                    off += n;
+                    len -= n;
+                    mPosition += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Wrong compressed section at " + mPosition + ":" + e.toString());
+            }
+        }
+
+        /**
+         * Inflate and drop n bytes.
+         */
+        public void skip(long n) throws IOException {
+            if (n <= 0) {
+                return;
+            }
+            if (mSkipBuffer == null) {
+                mSkipBuffer = new byte[WINDOW_SIZE];
+            }
+            while (n > 0) {
+                int len = (int) Math.min(n, mSkipBuffer.length);
+                readFully(mSkipBuffer, 0, len);
+                n -= len;
+            }
+        }
+
+        public void close() throws IOException {
+            if (mInflater != null) {
+                recycleInflater(mInflater);
+                mInflater = null;
+                mSource.close();
+            }
+        }
+
+        private void fill() throws IOException {
+            long rest = mOffset + mSize - mInputOffset;
+            if (rest <= 0) {
+                throw new IOException("Compressed section truncated at " + mPosition);
+            }
+            int n = (int) Math.min(rest, mWindow.length);
+            mSource.seek(mInputOffset);
+            mSource.readFully(mWindow, 0, n);
+            mInputOffset += n;
+            mInflater.setInput(mWindow, 0, n);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.testin.android.Logger;
+
+/**
+ * ELF file session
+ *
+ * Opens the ELF file once and hands out cheap byte source views to every
+ * reader. Each view keeps its own position, so readers never disturb each
+ * other, and the file is closed only once when the session is closed.
+ */
+public class ElfFile {
+    private static boolean sUseMappedFile = true;
+
+    private String mFileName = null;
+    private RandomAccessFile mFile = null;
+    private FileChannel mChannel = null;
+    private ByteBuffer[] mChunks = null;
+    private long mLength = 0L;
+    private boolean mIsLSB = false;
+    private boolean mIs64 = false;
+
+    public static void setUseMappedFile(boolean useMappedFile) {
+        sUseMappedFile = useMappedFile;
+    }
+
+    public static boolean isUseMappedFile() {
+        return sUseMappedFile;
+    }
+
+    public ElfFile(String fileName) throws IOException {
+        mFileName = fileName;
+        mFile = new RandomAccessFile(fileName, "r");
+        mChannel = mFile.getChannel();
+        mLength = mChannel.size();
+        if (sUseMappedFile) {
+            try {
+                mChunks = MappedByteSource.map(mChannel, mLength);
+            } catch (IOException e) {
+                Logger.LogWarn("Map " + fileName + " failed, fallback to RandomAccessFile:" + e.toString());
+                mChunks = null;
+            }
+        }
+    }
+
+    public String getFileName() {
+        return mFileName;
+    }
+
+    public long length() {
+        return mLength;
+    }
+
+    public boolean isMapped() {
+        return mChunks != null;
+    }
+
+    public boolean isLSB() {
+        return mIsLSB;
+    }
+
+    /**
+     * Set the data encoding read from the identification, the views
+     * created afterwards decode with it.
+     */
+    public void setLSB(boolean isLsb) {
+        mIsLSB = isLsb;
+    }
+
+    public boolean is64() {
+        return mIs64;
+    }
+
+    /**
+     * Set the class read from the identification, the readers created
+     * afterwards read the ELF64 structure layouts when it is true.
+     */
+    public void setElf64(boolean is64) {
+        mIs64 = is64;
+    }
+
+    public ByteSource newSource() throws IOException {
+        if (mChannel == null) {
+            throw new IOException("ELF file " + mFileName + " is closed!");
+        }
+
+        ByteSource source = null;
+        if (mChunks != null) {
+            source = new MappedByteSource(mChunks, mLength);
+        } else {
+            source = new FileByteSource(mChannel);
+        }
+        source.setLSB(mIsLSB);
+        return source;
+    }
+
+    public void close() {
+        mChunks = null;
+        mChannel = null;
+        try {
+            if (mFile != null) {
+                mFile.close();
+                mFile = null;
+            }
+        } catch (IOException e) {
+            Logger.LogError("Close " + mFileName + " failed:" + e.toString());
+        }
+    }
+}
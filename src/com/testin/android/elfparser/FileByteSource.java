@@ -0,0 +1,97 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Byte source reading ELF file through the RandomAccessFile channel
+ *
+ * Uses positional reads, so the views of one channel keep independent
+ * positions and could be read from different threads.
+ */
+public class FileByteSource extends ByteSource {
+    private static final int BUFFER_SIZE = 8;
+
+    private FileChannel mChannel = null;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer mByteBuffer = ByteBuffer.wrap(mBuffer);
+    private long mPosition = 0L;
+
+    public FileByteSource(FileChannel channel) {
+        mChannel = channel;
+    }
+
+    public void setLSB(boolean isLsb) {
+        super.setLSB(isLsb);
+        mByteBuffer.order(isLsb ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    }
+
+    public long length() throws IOException {
+        return mChannel.size();
+    }
+
+    public long position() {
+        return mPosition;
+    }
+
+    public void seek(long offset) throws IOException {
+        if (offset < 0) {
+            throw new IOException("Negative seek offset: " + offset);
+        }
+        mPosition = offset;
+    }
+
+    public byte readByte() throws IOException {
+        fill(ReadHelper.BYTE_SIZE);
+        return mBuffer[0];
+    }
+
+    public int readHalf() throws IOException {
+        fill(ReadHelper.HALF_SIZE);
+        return mByteBuffer.getShort(0) & 0xFFFF;
+    }
+
+    public long readWord() throws IOException {
+        fill(ReadHelper.WORD_SIZE);
+        return mByteBuffer.getInt(0) & 0xFFFFFFFFL;
+    }
+
+    public long readTWord() throws IOException {
+        fill(ReadHelper.TWORD_SIZE);
+        return mByteBuffer.getLong(0);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        read(ByteBuffer.wrap(b, off, len));
+    }
+
+    public void close() {
+        // The channel is owned by ElfFile
+        mChannel = null;
+    }
+
+    private void fill(int size) throws IOException {
+        mByteBuffer.clear();
+        mByteBuffer.limit(size);
+        read(mByteBuffer);
+    }
+
+    private void read(ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = mChannel.read(dst, mPosition);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            mPosition += n;
+        }
+    }
+}
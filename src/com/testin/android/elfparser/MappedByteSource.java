@@ -0,0 +1,128 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Byte source reading ELF file through memory mapped buffers
+ *
+ * A MappedByteBuffer could not address more than 2G bytes, so the file is
+ * mapped in chunks of CHUNK_SIZE bytes. Every chunk overlaps the next one by
+ * TWORD_SIZE bytes, so a primitive never straddles two chunks.
+ * Each source is a view of the chunks mapped by ElfFile.
+ */
+public class MappedByteSource extends ByteSource {
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_OVERLAP = ReadHelper.TWORD_SIZE;
+
+    private ByteBuffer[] mChunks = null;
+    private long mLength = 0L;
+    private long mPosition = 0L;
+
+    public MappedByteSource(ByteBuffer[] chunks, long length) {
+        // Views of the same mapping must not share the byte order and position
+        mChunks = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            mChunks[i] = chunks[i].duplicate();
+        }
+        mLength = length;
+        setLSB(mIsLSB);
+    }
+
+    public static ByteBuffer[] map(FileChannel channel, long length) throws IOException {
+        int chunkNum = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+        ByteBuffer[] chunks = new ByteBuffer[Math.max(chunkNum, 1)];
+        if (chunkNum == 0) {
+            chunks[0] = ByteBuffer.allocate(0);
+        }
+        for (int i = 0; i < chunkNum; i++) {
+            long start = i * CHUNK_SIZE;
+            long size = Math.min(length - start, CHUNK_SIZE + CHUNK_OVERLAP);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+        return chunks;
+    }
+
+    public void setLSB(boolean isLsb) {
+        super.setLSB(isLsb);
+        ByteOrder order = isLsb ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        for (ByteBuffer chunk : mChunks) {
+            chunk.order(order);
+        }
+    }
+
+    public long length() {
+        return mLength;
+    }
+
+    public long position() {
+        return mPosition;
+    }
+
+    public void seek(long offset) throws IOException {
+        if (offset < 0) {
+            throw new IOException("Negative seek offset: " + offset);
+        }
+        mPosition = offset;
+    }
+
+    public byte readByte() throws IOException {
+        long pos = advance(ReadHelper.BYTE_SIZE);
+        return mChunks[(int) (pos >>> CHUNK_SHIFT)].get((int) (pos & CHUNK_MASK));
+    }
+
+    public int readHalf() throws IOException {
+        long pos = advance(ReadHelper.HALF_SIZE);
+        return mChunks[(int) (pos >>> CHUNK_SHIFT)].getShort((int) (pos & CHUNK_MASK)) & 0xFFFF;
+    }
+
+    public long readWord() throws IOException {
+        long pos = advance(ReadHelper.WORD_SIZE);
+        return mChunks[(int) (pos >>> CHUNK_SHIFT)].getInt((int) (pos & CHUNK_MASK)) & 0xFFFFFFFFL;
+    }
+
+    public long readTWord() throws IOException {
+        long pos = advance(ReadHelper.TWORD_SIZE);
+        return mChunks[(int) (pos >>> CHUNK_SHIFT)].getLong((int) (pos & CHUNK_MASK));
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        long pos = advance(len);
+        while (len > 0) {
+            ByteBuffer chunk = mChunks[(int) (pos >>> CHUNK_SHIFT)].duplicate();
+            int index = (int) (pos & CHUNK_MASK);
+            int n = (int) Math.min(len, CHUNK_SIZE - index);
+            chunk.position(index);
+            chunk.get(b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void close() {
+        // The mapping is owned by ElfFile and released by GC
+        mChunks = new ByteBuffer[] { ByteBuffer.allocate(0) };
+        mLength = 0L;
+    }
+
+    private long advance(int size) throws EOFException {
+        long pos = mPosition;
+        if (pos + size > mLength) {
+            throw new EOFException();
+        }
+        mPosition = pos + size;
+        return pos;
+    }
+}
@@ -13,6 +13,9 @@ import com.testin.android.Logger;
 /**
  * Read ELF file Header
  *
+ * Elf64_Ehdr has the same fields, with e_entry, e_phoff and e_shoff as
+ * Elf64_Addr/Elf64_Off twords.
+ *
  * typedef struct {
  *     unsigned char   e_ident[EI_NIDENT];
  *     Elf32_Half      e_type;
@@ -54,7 +57,24 @@ public class ReadHeader extends ReadHelper {
     private static final int ET_DYN = 3;
     private static final int ET_CORE = 4;
 
-    private String mElfFile = null;
+    /**
+     * Machine Type
+     * -----------------------------------------------------
+     *   Name      |    Value    |    Meaning
+     * EM_386      |     3       | Intel 80386
+     * EM_MIPS     |     8       | MIPS I Architecture
+     * EM_ARM      |     40      | ARM 32-bit architecture
+     * EM_X86_64   |     62      | AMD x86-64 architecture
+     * EM_AARCH64  |     183     | ARM 64-bit architecture
+     */
+    public static final int EM_386 = 3;
+    public static final int EM_MIPS = 8;
+    public static final int EM_ARM = 40;
+    public static final int EM_X86_64 = 62;
+    public static final int EM_AARCH64 = 183;
+
+    private ElfFile mElfFile = null;
+    private ReadIdentification mIdentification = null;
     private int mFileType = 0;
     private int mMachineType = 0;
     private long mFileVersion = 0;
@@ -70,17 +90,32 @@ public class ReadHeader extends ReadHelper {
     private int mIndexOfShtNameTable = 0;
     private String mFileFormat = null;
 
-    public ReadHeader(String elfFile) throws IOException {
+    public ReadHeader(ElfFile elfFile) throws IOException {
+        this(elfFile, null);
+    }
+
+    /**
+     * Use the identification read before, or read it when it is null.
+     */
+    public ReadHeader(ElfFile elfFile, ReadIdentification identification) throws IOException {
         super(elfFile);
         mElfFile = elfFile;
+        mIdentification = identification;
     }
 
     public void read() {
         try {
-            ReadIdentification headerIndent = new ReadIdentification(mElfFile);
-            headerIndent.read();
+            ReadIdentification headerIndent = mIdentification;
+            if (headerIndent == null) {
+                headerIndent = new ReadIdentification(mElfFile);
+                headerIndent.read();
+            }
             if (headerIndent.readSucceed()) {
+                // Views created from now on decode with the file's data encoding
+                mElfFile.setLSB(headerIndent.isLSB());
+                mElfFile.setElf64(headerIndent.is64Bit());
                 setLSB(headerIndent.isLSB());
+                setElf64(headerIndent.is64Bit());
                 mFileFormat = headerIndent.getFileFormat();
                 // headerIndent.print();
             }
@@ -89,9 +124,9 @@ public class ReadHeader extends ReadHelper {
             mFileType = readHalf();
             mMachineType = readHalf();
             mFileVersion = readWord();
-            mEntryAddr = readWord();
-            mPhtOffset = readWord();
-            mShtOffset = readWord();
+            mEntryAddr = readAddr();
+            mPhtOffset = readAddr();
+            mShtOffset = readAddr();
             mMachineFlag = readWord();
             mHeaderSize = readHalf();
             mPhtEntrySize = readHalf();
@@ -107,6 +142,18 @@ public class ReadHeader extends ReadHelper {
         readFinish();
     }
 
+    public boolean isSharedObject() {
+        return mFileType == ET_DYN;
+    }
+
+    public int getHeaderSize() {
+        return mHeaderSize;
+    }
+
+    public int getMachineType() {
+        return mMachineType;
+    }
+
     public long getShOffset() {
         return mShtOffset;
     }
@@ -128,6 +175,9 @@ public class ReadHeader extends ReadHelper {
     }
 
     public void print() {
+        if (!Logger.isDebugEnabled()) {
+            return;
+        }
         if (!readSucceed()) {
             Logger.LogDebug("Read EFL header failed!");
             return;
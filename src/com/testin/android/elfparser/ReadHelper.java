@@ -7,7 +7,8 @@
 package com.testin.android.elfparser;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import com.testin.android.Logger;
 
@@ -21,20 +22,22 @@ public abstract class ReadHelper {
     public static final int TWORD_SIZE = 8;
     public static final int BUFFER_SIZE = 512;
 
-    protected RandomAccessFile mFile = null;
+    protected ByteSource mSource = null;
     protected final byte[] mBuffer = new byte[BUFFER_SIZE];
     protected boolean mSucceed = true;
     protected boolean mIsLSB;
+    protected boolean mIs64;
 
+    /**
+     * Dump what is read to the debug log, nothing is done unless debug
+     * logging is enabled.
+     */
     public abstract void print();
 
-    public ReadHelper(String fileName) throws IOException {
-        mFile = new RandomAccessFile(fileName, "r");
-    }
-
-    public ReadHelper(String fileName, boolean isLSB) throws IOException {
-        mFile = new RandomAccessFile(fileName, "r");
-        mIsLSB = isLSB;
+    public ReadHelper(ElfFile elfFile) throws IOException {
+        mSource = elfFile.newSource();
+        mIsLSB = elfFile.isLSB();
+        mIs64 = elfFile.is64();
     }
 
     public boolean isLSB() {
@@ -43,68 +46,67 @@ public abstract class ReadHelper {
 
     public void setLSB(boolean isLsb) {
         mIsLSB = isLsb;
+        mSource.setLSB(isLsb);
+    }
+
+    public boolean is64() {
+        return mIs64;
+    }
+
+    public void setElf64(boolean is64) {
+        mIs64 = is64;
     }
 
     public void seek(long offset) throws IOException {
-        mFile.seek(offset);
+        mSource.seek(offset);
+    }
+
+    public long position() throws IOException {
+        return mSource.position();
     }
 
     public void readFully(byte[] b) throws IOException {
-        mFile.readFully(b);
+        mSource.readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        mSource.readFully(b, off, len);
     }
 
     public byte readByte() throws IOException {
-        mFile.readFully(mBuffer, 0, BYTE_SIZE);
-        return mBuffer[0];
+        return mSource.readByte();
     }
 
     public int readHalf() throws IOException {
-        mFile.readFully(mBuffer, 0, HALF_SIZE);
-
-        final int answer;
-        if (mIsLSB) {
-            answer = mBuffer[1] << 8 | mBuffer[0];
-        } else {
-            answer = mBuffer[0] << 8 | mBuffer[1];
-        }
-
-        return answer;
+        return mSource.readHalf();
     }
 
     public long readWord() throws IOException {
-        mFile.readFully(mBuffer, 0, WORD_SIZE);
-
-        int answer = 0;
-        if (mIsLSB) {
-            for (int i = WORD_SIZE - 1; i >= 0; i--) {
-                answer = (answer << 8) | (mBuffer[i] & 0xFF);
-            }
-        } else {
-            final int N = WORD_SIZE - 1;
-            for (int i = 0; i <= N; i++) {
-                answer = (answer << 8) | mBuffer[i];
-            }
-        }
-
-        return answer;
+        return mSource.readWord();
     }
 
     public long readTWord() throws IOException {
-        mFile.readFully(mBuffer, 0, TWORD_SIZE);
+        return mSource.readTWord();
+    }
 
-        int answer = 0;
-        if (mIsLSB) {
-            for (int i = TWORD_SIZE - 1; i >= 0; i--) {
-                answer = (answer << 8) | (mBuffer[i] & 0xFF);
-            }
-        } else {
-            final int N = TWORD_SIZE - 1;
-            for (int i = 0; i <= N; i++) {
-                answer = (answer << 8) | mBuffer[i];
-            }
-        }
+    /**
+     * Read an address, offset or xword of the file class, Elf32_Addr and
+     * Elf32_Off are words, Elf64_Addr, Elf64_Off and Elf64_Xword twords.
+     */
+    public long readAddr() throws IOException {
+        return mIs64 ? readTWord() : readWord();
+    }
 
-        return answer;
+    /**
+     * Read len bytes at offset into the buffer, which is returned wrapped
+     * in the byte order of the file, for tables decoded with absolute gets.
+     */
+    public ByteBuffer readTable(long offset, byte[] b, int len) throws IOException {
+        seek(offset);
+        readFully(b, 0, len);
+        ByteBuffer ret = ByteBuffer.wrap(b, 0, len);
+        ret.order(mIsLSB ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        return ret;
     }
 
     public boolean readSucceed() {
@@ -121,8 +123,8 @@ public abstract class ReadHelper {
         }
 
         try {
-            if (mFile != null) {
-                mFile.close();
+            if (mSource != null) {
+                mSource.close();
             }
         } catch (IOException e) {
             Logger.LogError(e.toString());
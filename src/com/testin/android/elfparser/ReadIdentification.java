@@ -27,7 +27,7 @@ import com.testin.android.Logger;
  * EI_NIDENT    |      16     | Size of e_ident[]
  */
 public class ReadIdentification extends ReadHelper {
-    private static final int EI_NIDENT = 16;
+    public static final int EI_NIDENT = 16;
     // The magic values for the ELF identification.
     private static final byte[] ELF_IDENT = { 
         (byte) 0x7F, (byte) 'E', (byte) 'L', (byte) 'F'
@@ -44,13 +44,13 @@ public class ReadIdentification extends ReadHelper {
 
     private boolean mIs32Bit;
 
-    public ReadIdentification(String elfFile) throws IOException {
+    public ReadIdentification(ElfFile elfFile) throws IOException {
         super(elfFile);
     }
 
     public void read() throws IOException {
-        mFile.seek(0);
-        mFile.readFully(mBuffer, 0, EI_NIDENT);
+        seek(0);
+        readFully(mBuffer, 0, EI_NIDENT);
 
         if ((mBuffer[0] != ELF_IDENT[0]) ||
                 (mBuffer[1] != ELF_IDENT[1]) ||
@@ -72,9 +72,9 @@ public class ReadIdentification extends ReadHelper {
         }
 
         if (mBuffer[5] == ELFDATA2LSB) {
-            mIsLSB = true;
+            setLSB(true);
         } else if (mBuffer[5] == ELFDATA2MSB) {
-            mIsLSB = false;
+            setLSB(false);
         } else {
             Logger.LogError("Invalid data format!");
             readFinish(false);
@@ -90,11 +90,18 @@ public class ReadIdentification extends ReadHelper {
         readFinish();
     }
 
+    public boolean is64Bit() {
+        return !mIs32Bit;
+    }
+
     public String getFileFormat() {
         return mIs32Bit ? "ELFCLASS32" : "ELFCLASS64";
     }
 
     public void print() {
+        if (!Logger.isDebugEnabled()) {
+            return;
+        }
         if (!readSucceed()) {
             Logger.LogDebug("Read EFL header identification failed!");
             return;
@@ -7,20 +7,43 @@
 package com.testin.android.elfparser;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.testin.android.Logger;
+import com.testin.android.jfr.SectionLoadEvent;
 
 /**
  * Read ELF file Sections
  *
+ * The section header table is read at once and decoded by the loop of the
+ * file class, so the layout is chosen once per table instead of per field.
  */
 public class ReadSection extends ReadHelper {
     private static final String DEBUG_LINE_SECTION = ".debug_line";
+    private static final String DEBUG_LINE_STR_SECTION = ".debug_line_str";
+    private static final String DEBUG_STR_SECTION = ".debug_str";
+    // Prefix of the GNU compressed debug sections, .zdebug_line for .debug_line
+    private static final String GNU_COMPRESSED_PREFIX = ".z";
+    private static final String GNU_COMPRESSED_MAGIC = "ZLIB";
+    // Size of Elf32_Chdr and Elf64_Chdr
+    private static final int COMPRESSION_HEADER_SIZE_32 = 12;
+    private static final int COMPRESSION_HEADER_SIZE_64 = 24;
+    // Size of "ZLIB" and the big endian uncompressed size
+    private static final int GNU_COMPRESSION_HEADER_SIZE = 12;
     private static final String SYMBOL_TABLE_SECTION = ".symtab";
     private static final String STRING_TABLE_SECTION = ".strtab";
+    private static final String BUILD_ID_SECTION = ".note.gnu.build-id";
+    private static final int NT_GNU_BUILD_ID = 3;
+    // Build-ids are 16 or 20 bytes, --build-id=0x<hex> may be longer
+    private static final int MAX_BUILD_ID_SIZE = 1024;
+    private static final String GNU_NOTE_NAME = "GNU";
+    // Size of Elf32_Shdr and Elf64_Shdr
+    private static final int SECTION_HEADER_SIZE_32 = 40;
+    private static final int SECTION_HEADER_SIZE_64 = 64;
 
+    private ElfFile mElfFile = null;
     private long mShtOffset = 0L;
     private int mShtEntrySize = 0;
     private int mShtEntryNumber = 0;
@@ -30,27 +53,38 @@ public class ReadSection extends ReadHelper {
     private int mNameTableSize = 0;
     private long mDebugLineOffset = 0L;
     private long mDebugLineSize = 0L;
+    private long mDebugLineStrOffset = 0L;
+    private long mDebugLineStrSize = 0L;
+    private long mDebugStrOffset = 0L;
+    private long mDebugStrSize = 0L;
+    private CompressedSection mDebugLineCompressed = null;
+    private CompressedSection mDebugLineStrCompressed = null;
+    private CompressedSection mDebugStrCompressed = null;
     private long mSymbolTableOffset = 0L;
     private int mSymbolTableEntryNum = 0;
     private byte[] mStringTable = null;
     private long mStringTableSize = 0L;
+    private String mBuildId = null;
+    private long mBytesRead = 0L;
 
-    public ReadSection(String elfFile, boolean isLsb, long shOffset, int shEntryNumber,
+    public ReadSection(ElfFile elfFile, long shOffset, int shEntryNumber,
             int shtEntrySize, int indexOfShtNameTable) throws IOException {
         super(elfFile);
+        mElfFile = elfFile;
         mShtOffset = shOffset;
         mShtEntryNumber = shEntryNumber;
         mShtEntrySize = shtEntrySize;
         mIndexOfShtNameTable = indexOfShtNameTable;
         mSectionHeaderTable = new ArrayList<SectionHeader>();
-        setLSB(isLsb);
     }
 
     public void read() {
         if (mShtOffset == 0 ||
                 mShtEntryNumber == 0 ||
                 mShtEntrySize == 0 ||
-                mIndexOfShtNameTable == 0) {
+                mIndexOfShtNameTable == 0 ||
+                mIndexOfShtNameTable >= mShtEntryNumber ||
+                mShtEntrySize < (mIs64 ? SECTION_HEADER_SIZE_64 : SECTION_HEADER_SIZE_32)) {
             Logger.LogError("ReadSection read failed with wrong structure!");
             readFinish(false);
             return;
@@ -76,6 +110,38 @@ public class ReadSection extends ReadHelper {
         return mDebugLineSize;
     }
 
+    public long getDebugLineStrOffset() {
+        return mDebugLineStrOffset;
+    }
+
+    public long getDebugLineStrSize() {
+        return mDebugLineStrSize;
+    }
+
+    public long getDebugStrOffset() {
+        return mDebugStrOffset;
+    }
+
+    public long getDebugStrSize() {
+        return mDebugStrSize;
+    }
+
+    /**
+     * The compressed .debug_line or .zdebug_line, null if it is stored as
+     * is. The offset and size above are those of the section in the file.
+     */
+    public CompressedSection getDebugLineCompressed() {
+        return mDebugLineCompressed;
+    }
+
+    public CompressedSection getDebugLineStrCompressed() {
+        return mDebugLineStrCompressed;
+    }
+
+    public CompressedSection getDebugStrCompressed() {
+        return mDebugStrCompressed;
+    }
+
     public long getSymbolTableOffset() {
         return mSymbolTableOffset;
     }
@@ -92,7 +158,24 @@ public class ReadSection extends ReadHelper {
         return mStringTableSize;
     }
 
+    /**
+     * Size of the section header table and of the sections read here.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Return the GNU build-id in hex, or null if the file has none.
+     */
+    public String getBuildId() {
+        return mBuildId;
+    }
+
     public void print() {
+        if (!Logger.isDebugEnabled()) {
+            return;
+        }
         if (!readSucceed()) {
             Logger.LogDebug("Read Section Header failed!");
             return;
@@ -116,49 +199,237 @@ public class ReadSection extends ReadHelper {
     }
 
     private void readSectionHeader() throws IOException {
-        seek(mShtOffset);
-        for (int i = 0; i < mShtEntryNumber; i++) {
+        long tableSize = (long) mShtEntryNumber * mShtEntrySize;
+        if (mShtOffset + tableSize > mSource.length()) {
+            throw new IOException("Section header table out of file");
+        }
+        int size = (int) tableSize;
+        ByteBuffer table = readTable(mShtOffset, new byte[size], size);
+        if (mIs64) {
+            readSectionHeader64(table);
+        } else {
+            readSectionHeader32(table);
+        }
+        mBytesRead += size;
+    }
+
+    private void readSectionHeader32(ByteBuffer table) {
+        for (int i = 0, pos = 0; i < mShtEntryNumber; i++, pos += mShtEntrySize) {
             SectionHeader header = new SectionHeader();
-            header.mNameIndex = (int) readWord();
-            header.mType = readWord();
-            header.mFlag = readWord();
-            header.mAddr =  readWord();
-            header.mOffset = readWord();
-            header.mSize = readWord();
-            header.mLink = readWord();
-            header.mInfo = readWord();
-            header.mAddrAllign = readWord();
-            header.mEntryFixSize = readWord();
+            header.mNameIndex = table.getInt(pos);
+            header.mType = table.getInt(pos + 4) & 0xFFFFFFFFL;
+            header.mFlag = table.getInt(pos + 8) & 0xFFFFFFFFL;
+            header.mAddr = table.getInt(pos + 12) & 0xFFFFFFFFL;
+            header.mOffset = table.getInt(pos + 16) & 0xFFFFFFFFL;
+            header.mSize = table.getInt(pos + 20) & 0xFFFFFFFFL;
+            header.mLink = table.getInt(pos + 24) & 0xFFFFFFFFL;
+            header.mInfo = table.getInt(pos + 28) & 0xFFFFFFFFL;
+            header.mAddrAllign = table.getInt(pos + 32) & 0xFFFFFFFFL;
+            header.mEntryFixSize = table.getInt(pos + 36) & 0xFFFFFFFFL;
+            mSectionHeaderTable.add(header);
+        }
+    }
+
+    private void readSectionHeader64(ByteBuffer table) {
+        for (int i = 0, pos = 0; i < mShtEntryNumber; i++, pos += mShtEntrySize) {
+            SectionHeader header = new SectionHeader();
+            header.mNameIndex = table.getInt(pos);
+            header.mType = table.getInt(pos + 4) & 0xFFFFFFFFL;
+            header.mFlag = table.getLong(pos + 8);
+            header.mAddr = table.getLong(pos + 16);
+            header.mOffset = table.getLong(pos + 24);
+            header.mSize = table.getLong(pos + 32);
+            header.mLink = table.getInt(pos + 40) & 0xFFFFFFFFL;
+            header.mInfo = table.getInt(pos + 44) & 0xFFFFFFFFL;
+            header.mAddrAllign = table.getLong(pos + 48);
+            header.mEntryFixSize = table.getLong(pos + 56);
             mSectionHeaderTable.add(header);
         }
     }
 
     private void readSectionNameTable() throws IOException {
         SectionHeader header = mSectionHeaderTable.get(mIndexOfShtNameTable);
+        SectionLoadEvent event = new SectionLoadEvent();
+        event.begin();
         seek(header.mOffset);
         mNameTableSize = (int) header.mSize;
         mNameTable = new byte[mNameTableSize];
         readFully(mNameTable);
+        mBytesRead += mNameTableSize;
+        commitLoad(event, null, header);
     }
 
     private void readSpecialSections() throws IOException {
         for (SectionHeader header : mSectionHeaderTable) {
             String name = readSectionName(header.mNameIndex);
-            if (name.equals(DEBUG_LINE_SECTION)) {
+            if (isDebugSection(name, DEBUG_LINE_SECTION)) {
                 mDebugLineOffset = header.mOffset;
                 mDebugLineSize = header.mSize;
+                mDebugLineCompressed = readCompression(name, header);
+            } else if (isDebugSection(name, DEBUG_LINE_STR_SECTION)) {
+                mDebugLineStrOffset = header.mOffset;
+                mDebugLineStrSize = header.mSize;
+                mDebugLineStrCompressed = readCompression(name, header);
+            } else if (isDebugSection(name, DEBUG_STR_SECTION)) {
+                mDebugStrOffset = header.mOffset;
+                mDebugStrSize = header.mSize;
+                mDebugStrCompressed = readCompression(name, header);
             } else if (name.equals(SYMBOL_TABLE_SECTION)) {
                 mSymbolTableOffset = header.mOffset;
-                mSymbolTableEntryNum = (int) (header.mSize / header.mEntryFixSize);
+                long entrySize = (header.mEntryFixSize > 0) ? header.mEntryFixSize
+                        : ReadSymbolSection.getEntrySize(mIs64);
+                mSymbolTableEntryNum = (int) (header.mSize / entrySize);
             } else if (name.equals(STRING_TABLE_SECTION)) {
+                SectionLoadEvent event = new SectionLoadEvent();
+                event.begin();
                 seek(header.mOffset);
                 mStringTableSize = header.mSize;
                 mStringTable = new byte[(int) mStringTableSize];
                 readFully(mStringTable);
+                mBytesRead += mStringTableSize;
+                commitLoad(event, name, header);
+            } else if (name.equals(BUILD_ID_SECTION)) {
+                SectionLoadEvent event = new SectionLoadEvent();
+                event.begin();
+                readBuildId(header.mOffset, header.mSize);
+                mBytesRead += header.mSize;
+                commitLoad(event, name, header);
             }
         }
     }
 
+    private static boolean isDebugSection(String name, String debugName) {
+        return name.equals(debugName) || name.equals(GNU_COMPRESSED_PREFIX + debugName.substring(1));
+    }
+
+    /**
+     * Read the compression header of a debug section, return null if the
+     * section is not compressed.
+     *
+     * typedef struct {
+     *     Elf32_Word  ch_type;
+     *     Elf32_Word  ch_size;
+     *     Elf32_Word  ch_addralign;
+     * } Elf32_Chdr;
+     *
+     * Elf64_Chdr has ch_type, a reserved word, then ch_size and
+     * ch_addralign as twords. A .zdebug_* section without "ZLIB" is stored
+     * as is.
+     */
+    private CompressedSection readCompression(String name, SectionHeader header) throws IOException {
+        boolean isCompressed = (header.mFlag & CompressedSection.SHF_COMPRESSED) != 0;
+        if (!isCompressed && !name.startsWith(GNU_COMPRESSED_PREFIX)) {
+            return null;
+        }
+        if (header.mOffset + header.mSize > mSource.length()) {
+            throw new IOException("Section " + name + " out of file");
+        }
+
+        if (isCompressed) {
+            int headerSize = mIs64 ? COMPRESSION_HEADER_SIZE_64 : COMPRESSION_HEADER_SIZE_32;
+            if (header.mSize < headerSize) {
+                throw new IOException("Wrong compression header of " + name);
+            }
+            seek(header.mOffset);
+            long type = readWord();
+            if (mIs64) {
+                readWord();
+            }
+            long size = mIs64 ? readTWord() : readWord();
+            if (type != CompressedSection.ELFCOMPRESS_ZLIB) {
+                throw new IOException("Unsupport compression type " + type + " of " + name);
+            }
+            mBytesRead += headerSize;
+            return new CompressedSection(mElfFile, header.mOffset + headerSize,
+                    header.mSize - headerSize, size);
+        }
+
+        if (header.mSize >= GNU_COMPRESSION_HEADER_SIZE) {
+            byte[] magic = new byte[GNU_COMPRESSION_HEADER_SIZE];
+            seek(header.mOffset);
+            readFully(magic);
+            mBytesRead += GNU_COMPRESSION_HEADER_SIZE;
+            if (!new String(magic, 0, GNU_COMPRESSED_MAGIC.length(), "US-ASCII").equals(GNU_COMPRESSED_MAGIC)) {
+                return null;
+            }
+            long size = 0L;
+            for (int i = GNU_COMPRESSED_MAGIC.length(); i < GNU_COMPRESSION_HEADER_SIZE; i++) {
+                size = (size << 8) | (magic[i] & 0xFF);
+            }
+            return new CompressedSection(mElfFile, header.mOffset + GNU_COMPRESSION_HEADER_SIZE,
+                    header.mSize - GNU_COMPRESSION_HEADER_SIZE, size);
+        }
+        return null;
+    }
+
+    /**
+     * Commit the load event of a section, name is looked up when null.
+     */
+    private void commitLoad(SectionLoadEvent event, String name, SectionHeader header) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.name = (name != null) ? name : readSectionName(header.mNameIndex);
+            event.offset = header.mOffset;
+            event.size = header.mSize;
+            event.commit();
+        }
+    }
+
+    /**
+     * ELF note entries, name and desc are padded to 4 bytes
+     *
+     * typedef struct {
+     *     Elf32_Word  n_namesz;
+     *     Elf32_Word  n_descsz;
+     *     Elf32_Word  n_type;
+     *     char        name[n_namesz];
+     *     char        desc[n_descsz];
+     * } Elf32_Nhdr;
+     *
+     * A note crossing the section end is not read. A build-id longer than
+     * MAX_BUILD_ID_SIZE fails the read, as the section out of the file.
+     */
+    private void readBuildId(long offset, long size) throws IOException {
+        if ((size < 0) || (offset + size > mSource.length())) {
+            throw new IOException("Section " + BUILD_ID_SECTION + " out of file");
+        }
+        long end = offset + size;
+        seek(offset);
+        while (offset + 3 * WORD_SIZE <= end) {
+            long nameSize = readWord();
+            long descSize = readWord();
+            long type = readWord();
+            long nameOffset = offset + 3 * WORD_SIZE;
+            long descOffset = nameOffset + ((nameSize + 3) & ~3L);
+            long nextOffset = descOffset + ((descSize + 3) & ~3L);
+            if (nextOffset > end) {
+                Logger.LogError("Wrong note in " + BUILD_ID_SECTION);
+                return;
+            }
+
+            if ((type == NT_GNU_BUILD_ID) && (nameSize == GNU_NOTE_NAME.length() + 1)) {
+                byte[] name = new byte[(int) nameSize];
+                readFully(name);
+                if (new String(name, 0, GNU_NOTE_NAME.length(), "US-ASCII").equals(GNU_NOTE_NAME)) {
+                    if (descSize > MAX_BUILD_ID_SIZE) {
+                        throw new IOException("Wrong build-id size " + descSize + " in " + BUILD_ID_SECTION);
+                    }
+                    byte[] desc = new byte[(int) descSize];
+                    seek(descOffset);
+                    readFully(desc);
+                    StringBuilder sb = new StringBuilder();
+                    for (byte b : desc) {
+                        sb.append(String.format("%02x", b & 0xFF));
+                    }
+                    mBuildId = sb.toString();
+                    return;
+                }
+            }
+            offset = nextOffset;
+            seek(offset);
+        }
+    }
+
     private String readSectionName(int index) {
         String ret = Integer.toString(index);
 
@@ -194,6 +465,9 @@ public class ReadSection extends ReadHelper {
      *     Elf32_Word  sh_addralign;
      *     Elf32_Word  sh_entsize;
      * } Elf32_Shdr;
+     *
+     * Elf64_Shdr has the same fields, with sh_flags, sh_addr, sh_offset,
+     * sh_size, sh_addralign and sh_entsize as twords.
      */
     public class SectionHeader {
         public int mNameIndex = -1;
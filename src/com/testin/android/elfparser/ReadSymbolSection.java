@@ -7,38 +7,75 @@
 package com.testin.android.elfparser;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import com.testin.android.Logger;
+import com.testin.android.jfr.SymbolTableLoadEvent;
 
 /**
  * Read ELF file Symbol Section
  *
+ * Only the function symbols are kept. Their names are cached by offset in
+ * the string table, so a name shared by aliases is decoded at most once.
+ *
+ * The table is read in blocks of READ_ENTRY_NUM entries, each decoded by
+ * the loop of the file class:
+ *
+ * ------------------------------------------------------------
+ *    Elf32_Sym           |    Elf64_Sym
+ *    Elf32_Word st_name  |    Elf64_Word  st_name
+ *    Elf32_Addr st_value |    uchar       st_info
+ *    Elf32_Word st_size  |    uchar       st_other
+ *    uchar      st_info  |    Elf64_Half  st_shndx
+ *    uchar      st_other |    Elf64_Addr  st_value
+ *    Elf32_Half st_shndx |    Elf64_Xword st_size
  */
 public class ReadSymbolSection extends ReadHelper {
     private static final int SYMBOL_TYPE_FUNCTION = 2;
+    // Size of Elf32_Sym and Elf64_Sym
+    private static final int SYMBOL_ENTRY_SIZE_32 = 16;
+    private static final int SYMBOL_ENTRY_SIZE_64 = 24;
+    private static final int READ_ENTRY_NUM = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-    public Vector<SymbolTableEntry> mFunctionTable = null;
+    public SymbolTable mFunctionTable = null;
     private long mOffset = 0L;
     private int mEntryNumber = 0;
     private byte[] mStrTable = null;
     private long mStrTableSize = 0L;
-    private List<SymbolTableEntry> mSymbolTableEntries = null;
+    // Sorted distinct name offsets of mFunctionTable entries, and the slot
+    // of the name of each entry
+    private int[] mNameOffsets = null;
+    private int[] mNameSlots = null;
+    // By slot, decoded names, and name lengths in the string table plus 1,
+    // 0 before the first lookup
+    private String[] mNames = null;
+    private int[] mNameLengths = null;
 
-    public ReadSymbolSection(String elfFile, boolean isLsb, long offset,
+    public ReadSymbolSection(ElfFile elfFile, long offset,
             int entryNumber, byte[] stringTable, long stringTableSize) throws IOException {
         super(elfFile);
         mOffset = offset;
         mEntryNumber = entryNumber;
         mStrTable = stringTable;
         mStrTableSize = stringTableSize;
-        mSymbolTableEntries = new ArrayList<SymbolTableEntry>();
-        mFunctionTable = new Vector<SymbolTableEntry>();
-        setLSB(isLsb);
+    }
+
+    public int getEntryNumber() {
+        return mEntryNumber;
+    }
+
+    public long getBytesRead() {
+        return (long) mEntryNumber * getEntrySize(mIs64);
+    }
+
+    /**
+     * Size of a symbol table entry of the class
+     */
+    public static int getEntrySize(boolean is64) {
+        return is64 ? SYMBOL_ENTRY_SIZE_64 : SYMBOL_ENTRY_SIZE_32;
     }
 
     public void read() {
@@ -48,102 +85,184 @@ public class ReadSymbolSection extends ReadHelper {
             return;
         }
 
+        SymbolTableLoadEvent event = new SymbolTableLoadEvent();
+        event.begin();
         try {
             readSymbolTable();
-            Collections.sort(mFunctionTable, new Comparator<SymbolTableEntry>() {
-                public int compare(SymbolTableEntry arg0, SymbolTableEntry arg1) {
-                    return (int)(arg0.mStartAddress - arg1.mStartAddress);
-                }
-            });
+            mFunctionTable.sort();
+            indexNames();
         } catch (IOException e) {
             Logger.LogError("ReadSymbolSection read failed:" + e.toString());
             readFinish(false);
         }
 
         readFinish();
+        event.end();
+        if (event.shouldCommit()) {
+            event.offset = mOffset;
+            event.size = getBytesRead();
+            event.entryCount = mEntryNumber;
+            event.functionCount = (mFunctionTable != null) ? mFunctionTable.size() : 0;
+            event.succeed = readSucceed();
+            event.commit();
+        }
     }
 
     public void print() {
+        if (!Logger.isDebugEnabled()) {
+            return;
+        }
         if (!readSucceed()) {
             Logger.LogDebug("Read SymbolSection failed!");
             return;
         }
         Logger.LogDebug("------------ EFL Symbol Table Section ------------");
-        int idx = 1;
-        for (SymbolTableEntry ste : mSymbolTableEntries) {
-            Logger.LogDebug("------------ Symbol Entry #" + idx + "------------");
-            Logger.LogDebug("st_name: " + readSymbolName(ste.mNameIndex));
-            Logger.LogDebug("st_value: " + ste.mSymbolValue);
-            Logger.LogDebug("st_size: " + ste.mSymbolSize);
-            Logger.LogDebug("st_info: " + ste.mSymbolInfo);
-            Logger.LogDebug("st_other: " + ste.mSymbolOther);
-            Logger.LogDebug("st_shndx: " + ste.mRelatedSectionIdx);
-            Logger.LogDebug("start_address: " + ste.mStartAddress);
-            Logger.LogDebug("end_address: " + ste.mEndAddress);
-            idx++;
+        for (int i = 0; i < mFunctionTable.size(); i++) {
+            Logger.LogDebug("------------ Symbol Entry #" + (i + 1) + "------------");
+            Logger.LogDebug("st_name: " + getSymbolName(i));
+            Logger.LogDebug("st_value: " + mFunctionTable.getValue(i));
+            Logger.LogDebug("st_size: " + mFunctionTable.getSymbolSize(i));
+            Logger.LogDebug("st_info: " + mFunctionTable.getInfo(i));
+            Logger.LogDebug("st_shndx: " + mFunctionTable.getSectionIndex(i));
+            Logger.LogDebug("start_address: " + mFunctionTable.getStartAddress(i));
+            Logger.LogDebug("end_address: " + mFunctionTable.getEndAddress(i));
+        }
+    }
+
+    /**
+     * Name of the index-th entry of mFunctionTable
+     */
+    public String getSymbolName(int index) {
+        return getName(mNameSlots[index]);
+    }
+
+    public byte[] getStrTable() {
+        return mStrTable;
+    }
+
+    /**
+     * Offset in the string table of the name of the index-th entry of
+     * mFunctionTable
+     */
+    public int getSymbolNameOffset(int index) {
+        return mFunctionTable.getNameIndex(index);
+    }
+
+    /**
+     * Length in the string table of the name of the index-th entry of
+     * mFunctionTable, or -1 if it is not in the string table.
+     */
+    public int getSymbolNameLength(int index) {
+        int slot = mNameSlots[index];
+        int length = mNameLengths[slot] - 1;
+        if (length < -1) {
+            length = getNameLength(mNameOffsets[slot]);
+            mNameLengths[slot] = length + 1;
         }
+        return length;
     }
 
+    /**
+     * Name at offset index of the string table, cached when it is the name
+     * of a mFunctionTable entry
+     */
     public String readSymbolName(int index) {
-        String ret = Integer.toString(index);
+        int slot = (mNameOffsets != null) ? Arrays.binarySearch(mNameOffsets, index) : -1;
+        return (slot >= 0) ? getName(slot) : decodeName(index);
+    }
 
-        if (mStrTable == null) {
-            return ret;
+    private String getName(int slot) {
+        String name = mNames[slot];
+        if (name == null) {
+            name = decodeName(mNameOffsets[slot]);
+            mNames[slot] = name;
         }
+        return name;
+    }
 
-        int nameLength = 0;
-        for (int i = index; i < mStrTableSize; i++) {
-            if (mStrTable[i] == 0) {
-                break;
-            }
-            nameLength++;
+    private String decodeName(int offset) {
+        int length = getNameLength(offset);
+        if (length < 0) {
+            // A name out of the string table is its offset, as without one
+            return Integer.toString(offset);
         }
-        ret = new String(mStrTable, index, nameLength);
+        // UTF-8 as the rows, which copy the name bytes as they are
+        return new String(mStrTable, offset, length, UTF_8);
+    }
 
-        return ret;
+    /**
+     * Length of the name at offset, or -1 if it is not in the string table.
+     */
+    private int getNameLength(int offset) {
+        if ((mStrTable == null) || (offset < 0) || (offset >= mStrTableSize)) {
+            return -1;
+        }
+        int end = offset;
+        while ((end < mStrTableSize) && (mStrTable[end] != 0)) {
+            end++;
+        }
+        return end - offset;
+    }
+
+    /**
+     * Give the entries sharing a name offset one slot of the name cache.
+     */
+    private void indexNames() {
+        int size = mFunctionTable.size();
+        int[] offsets = new int[size];
+        for (int i = 0; i < size; i++) {
+            offsets[i] = mFunctionTable.getNameIndex(i);
+        }
+        Arrays.sort(offsets);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if ((count == 0) || (offsets[i] != offsets[count - 1])) {
+                offsets[count++] = offsets[i];
+            }
+        }
+        mNameOffsets = Arrays.copyOf(offsets, count);
+        mNameSlots = new int[size];
+        for (int i = 0; i < size; i++) {
+            mNameSlots[i] = Arrays.binarySearch(mNameOffsets, mFunctionTable.getNameIndex(i));
+        }
+        mNames = new String[count];
+        mNameLengths = new int[count];
     }
 
     private void readSymbolTable() throws IOException {
-        seek(mOffset);
-        for (int i = 0; i < mEntryNumber; i++) {
-            SymbolTableEntry ste = new SymbolTableEntry();
-            ste.mNameIndex = (int) readWord();
-            ste.mSymbolValue = (int) readWord();
-            ste.mSymbolSize = (int) readWord();
-            ste.mSymbolInfo =  readByte();
-            ste.mSymbolOther = readByte();
-            ste.mRelatedSectionIdx = readHalf();
-            int type = ste.mSymbolInfo & 0xF;
-            if ((SYMBOL_TYPE_FUNCTION == type) &&
-                    (ste.mRelatedSectionIdx != 0)) {
-                ste.mStartAddress = ste.mSymbolValue;
-                ste.mEndAddress = ste.mSymbolValue + ste.mSymbolSize;
-                mFunctionTable.add(ste);
+        mFunctionTable = new SymbolTable();
+        int entrySize = getEntrySize(mIs64);
+        byte[] block = new byte[Math.min(mEntryNumber, READ_ENTRY_NUM) * entrySize];
+        for (int i = 0; i < mEntryNumber; i += READ_ENTRY_NUM) {
+            int count = Math.min(mEntryNumber - i, READ_ENTRY_NUM);
+            ByteBuffer table = readTable(mOffset + (long) i * entrySize, block, count * entrySize);
+            if (mIs64) {
+                readSymbols64(table, count);
+            } else {
+                readSymbols32(table, count);
             }
-            mSymbolTableEntries.add(ste);
         }
     }
 
-    /**
-     * ELF file Symbol Table Section Header
-     *
-     * typedef struct {
-     *     Elf32_Word  st_name;
-     *     Elf32_Addr  st_value;
-     *     Elf32_Word  st_size;
-     *     unsigned char   st_info;
-     *     unsigned char   st_other;
-     *     Elf32_Half  st_shndx;
-     * } Elf32_Sym;
-     */
-    public class SymbolTableEntry {
-        public int mNameIndex = -1;
-        public int mSymbolValue = 0;
-        public int mSymbolSize = 0;
-        public byte mSymbolInfo = 0;
-        public byte mSymbolOther = 0;
-        public int mRelatedSectionIdx = 0;
-        public int mStartAddress = -1;  // Add this member to relate to debug line info
-        public int mEndAddress = -1;  // Add this member to relate to debug line info
+    private void readSymbols32(ByteBuffer table, int count) {
+        for (int pos = 0, end = count * SYMBOL_ENTRY_SIZE_32; pos < end; pos += SYMBOL_ENTRY_SIZE_32) {
+            byte info = table.get(pos + 12);
+            int sectionIndex = table.getShort(pos + 14) & 0xFFFF;
+            if (((info & 0xF) == SYMBOL_TYPE_FUNCTION) && (sectionIndex != 0)) {
+                mFunctionTable.add(table.getInt(pos + 4) & 0xFFFFFFFFL, table.getInt(pos + 8) & 0xFFFFFFFFL,
+                        table.getInt(pos), info, sectionIndex);
+            }
+        }
+    }
+
+    private void readSymbols64(ByteBuffer table, int count) {
+        for (int pos = 0, end = count * SYMBOL_ENTRY_SIZE_64; pos < end; pos += SYMBOL_ENTRY_SIZE_64) {
+            byte info = table.get(pos + 4);
+            int sectionIndex = table.getShort(pos + 6) & 0xFFFF;
+            if (((info & 0xF) == SYMBOL_TYPE_FUNCTION) && (sectionIndex != 0)) {
+                mFunctionTable.add(table.getLong(pos + 8), table.getLong(pos + 16),
+                        table.getInt(pos), info, sectionIndex);
+            }
+        }
     }
 }
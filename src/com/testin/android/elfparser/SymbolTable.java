@@ -0,0 +1,116 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import java.util.Arrays;
+
+/**
+ * Symbol table entries kept as columns of primitive arrays
+ *
+ * ------------------------------------------------------------
+ *    Column    |  Type  |    Meaning
+ *    value     |  long  | st_value, the start address of a function
+ *    size      |  long  | st_size
+ *    name      |  int   | st_name, the offset of the name in the string table
+ *    info      |  byte  | st_info, the symbol type and binding
+ *    shndx     |  int   | st_shndx, the index of the related section
+ */
+public class SymbolTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mValues = null;
+    private long[] mSizes = null;
+    private int[] mNameIndexes = null;
+    private byte[] mInfos = null;
+    private int[] mSectionIndexes = null;
+    private int mSize = 0;
+
+    public SymbolTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SymbolTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mValues = new long[capacity];
+        mSizes = new long[capacity];
+        mNameIndexes = new int[capacity];
+        mInfos = new byte[capacity];
+        mSectionIndexes = new int[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getValue(int index) {
+        return mValues[index];
+    }
+
+    public long getSymbolSize(int index) {
+        return mSizes[index];
+    }
+
+    public int getNameIndex(int index) {
+        return mNameIndexes[index];
+    }
+
+    public byte getInfo(int index) {
+        return mInfos[index];
+    }
+
+    public int getType(int index) {
+        return mInfos[index] & 0xF;
+    }
+
+    public int getSectionIndex(int index) {
+        return mSectionIndexes[index];
+    }
+
+    public long getStartAddress(int index) {
+        return mValues[index];
+    }
+
+    public long getEndAddress(int index) {
+        return mValues[index] + mSizes[index];
+    }
+
+    public void add(long value, long size, int nameIndex, byte info, int sectionIndex) {
+        if (mSize == mValues.length) {
+            int capacity = mSize + (mSize >> 1) + 1;
+            mValues = Arrays.copyOf(mValues, capacity);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+            mNameIndexes = Arrays.copyOf(mNameIndexes, capacity);
+            mInfos = Arrays.copyOf(mInfos, capacity);
+            mSectionIndexes = Arrays.copyOf(mSectionIndexes, capacity);
+        }
+        mValues[mSize] = value;
+        mSizes[mSize] = size;
+        mNameIndexes[mSize] = nameIndex;
+        mInfos[mSize] = info;
+        mSectionIndexes[mSize] = sectionIndex;
+        mSize++;
+    }
+
+    /**
+     * Stable sort of the entries by start address.
+     */
+    public void sort() {
+        int[] order = AddressSort.sort(mValues, mSize);
+        if (order == null) {
+            return;
+        }
+        mValues = AddressSort.permute(mValues, order);
+        mSizes = AddressSort.permute(mSizes, order);
+        mNameIndexes = AddressSort.permute(mNameIndexes, order);
+        mInfos = AddressSort.permute(mInfos, order);
+        mSectionIndexes = AddressSort.permute(mSectionIndexes, order);
+    }
+}
@@ -7,178 +7,187 @@
 package com.testin.android.elfparser.debugline;
 
 import java.io.IOException;
-import java.util.Vector;
+import java.util.Arrays;
 
 import com.testin.android.Logger;
+import com.testin.android.elfparser.ElfFile;
 import com.testin.android.elfparser.ReadHelper;
 
 /**
  * Read ELF debug line info
- * 
+ *
  * ------------------------------------------------------------
  *         Field              |      Type      |    Meaning
  *      total_length          |     uword      | The size in bytes of the statement information for this compilation
  *                                                   unit (not including the total_length field itself)
  *         version            |     uhalf      | Version identifier for the statement information format
+ *       address_size         |     ubyte      | Version 5 only, the size in bytes of an address
+ *   segment_selector_size    |     ubyte      | Version 5 only, the size in bytes of a segment selector
  *      prologue_length       |     uword      | The number of bytes following the prologue_length field to the beginning
  *                                                   of the first byte of the statement program itself
  * minimum_instruction_length |     ubyte      | The size in bytes of the smallest target machine instruction
+ * maximum_operations_per_instruction | ubyte  | Version 4 and later only, 1 unless the target is VLIW
  *      default_is_stmt       |     ubyte      | The initial value of the is_stmt register
  *         line_base          |     sbyte      | This parameter affects the meaning of the special opcodes
  *         line_range         |     ubyte      | This parameter affects the meaning of the special opcodes
  *        opcode_base         |     ubyte      | The number assigned to the first special opcode.
- *  standard_opcode_lengths   | array of ubyte | This array specifies the number of LEB128 operands 
- *    include_directories     |   sequence     | The path names
- *      file_names            |   sequence     | The file entries
+ *  standard_opcode_lengths   | array of ubyte | This array specifies the number of LEB128 operands
+ *    include_directories     |   sequence     | The path names, described by entry formats since version 5
+ *      file_names            |   sequence     | The file entries, described by entry formats since version 5
+ *
+ * The unit is loaded into mBytes at once and decoded from there, total_length
+ * and prologue_length are twords in the 64-bit DWARF format.
  */
 
 public abstract class DebugLineInfoEntry extends ReadHelper {
-    protected static enum OpcodeType {
-        SPECIAL_OPCODE,
-        STANDARD_OPCODE,
-        EXTENDED_OPCODE;
-    }
+    // total_length escape of the 64-bit DWARF format, followed by the tword length
+    public static final long DWARF64_LENGTH = 0xFFFFFFFFL;
 
-    public Vector<LineInfoEntry> mLineInfoEntries = new Vector<LineInfoEntry> ();
+    public LineTable mLineTable = new LineTable();
+    // Only find a lower bound of the row addresses, without the rows
+    protected boolean mRangeOnly = false;
+    protected long mMinAddress = -1L;
+    protected long mOpcodeCount = 0L;
 
     protected long mOffset = 0L;
     protected long mTotalLength = -1L;
     protected int mFstFieldSize = 0;  // Size of total_length field
     protected int mVersion = 0;
+    protected int mAddressSize = 0;
+    protected int mSegmentSelectorSize = 0;
     protected long mPrologueLength = 0L;
     protected int mMinInstructionLength = 0;
-    protected int mMaxInstructionLength = 0;
+    protected int mMaxOpsPerInstruction = 1;
     protected int mDefaultIsStmt = 0;
-    protected byte mLineBase = 0;
+    protected int mLineBase = 0;
     protected int mLineRange = 0;
     protected int mOpcodeBase = 0;
     protected byte[] mStandardOpcodeLengths = null;
     protected boolean mIs32Bit = true;
-    protected long mRestLength = 0L;
-    protected Vector<StringBuffer> mDirs = new Vector<StringBuffer> ();
-    protected Vector<FileNameEntry> mFileNameEntries = new Vector<FileNameEntry> ();
+    protected FileTable mFileTable = null;
+    // Id in mLineTable of every file name entry, -1 before its first row
+    protected int[] mFileIds = new int[0];
 
-    protected long mAddress = 0L;
-    protected long mFileIndex = 1L;
-    protected long mLine = 1L;
-    protected long mColumn = 0L;
-    protected long mOpIndex = 0L;
-    protected boolean mIsStmt = false;
-    protected boolean mBasicBlock = false;
-    protected boolean mEndEquence = false;
-    protected boolean mPrologueEnd = false;
-    protected boolean mEpilogue_begin = false;
-    protected long mIsA = 0L;
-    protected long mDiscriminator = 0L;
+    // Bytes of the unit from total_length, and the position of the next read
+    protected byte[] mBytes = null;
+    protected int mPos = 0;
 
-    public DebugLineInfoEntry(String elfFile, boolean isLsb, long offset) throws IOException {
+    public DebugLineInfoEntry(ElfFile elfFile, long offset) throws IOException {
         super(elfFile);
         mOffset = offset;
-        setLSB(isLsb);
     }
 
     public abstract void read();
 
-    public byte readByte(boolean isSubLen) throws IOException {
-        if (isSubLen) {
-            mRestLength -= BYTE_SIZE;
-        }
-        return readByte();
-    }
-
-    public int readHalf(boolean isSubLen) throws IOException {
-        if (isSubLen) {
-            mRestLength -= HALF_SIZE;
-        }
-        return readHalf();
+    public long size() {
+        return (mTotalLength + mFstFieldSize);
     }
 
-    public long readWord(boolean isSubLen) throws IOException {
-        if (isSubLen) {
-            mRestLength -= WORD_SIZE;
+    /**
+     * Read length bytes at offset into mBytes, from which the readers below
+     * decode. The buffer is reused when it is big enough.
+     */
+    protected void load(long offset, int length) throws IOException {
+        if ((mBytes == null) || (mBytes.length < length)) {
+            mBytes = new byte[length];
         }
-        return readWord();
+        seek(offset);
+        readFully(mBytes, 0, length);
+        mPos = 0;
     }
 
-    public long readTWord(boolean isSubLen) throws IOException {
-        if (isSubLen) {
-            mRestLength -= TWORD_SIZE;
-        }
-        return readTWord();
+    protected int readUByte() {
+        return mBytes[mPos++] & 0xFF;
     }
 
-    public long size() {
-        return (mTotalLength + mFstFieldSize);
+    protected int readUHalf() {
+        return (int) readUnsigned(HALF_SIZE);
     }
 
-    protected void initRegisters()
-    {
-        mAddress = 0L;
-        mFileIndex = 1L;
-        mLine = 1L;
-        mColumn = 0L;
-        mOpIndex = 0L;
-        mIsStmt = false;
-        mBasicBlock = false;
-        mEndEquence = false;
-        mPrologueEnd = false;
-        mEpilogue_begin = false;
-        mIsA = 0L;
-        mDiscriminator = 0L;
+    /**
+     * Read an unsigned number of size bytes in the byte order of the file,
+     * an address of set_address for example.
+     */
+    protected long readUnsigned(int size) {
+        byte[] b = mBytes;
+        int pos = mPos;
+        long ret = 0L;
+        if (mIsLSB) {
+            for (int i = size - 1; i >= 0; i--) {
+                ret = (ret << 8) | (b[pos + i] & 0xFF);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                ret = (ret << 8) | (b[pos + i] & 0xFF);
+            }
+        }
+        mPos = pos + size;
+        return ret;
     }
 
-    protected void initRestLength() {
-        mRestLength = (mTotalLength - mPrologueLength);
-        mRestLength -= HALF_SIZE;
-        mRestLength -= (mIs32Bit ? WORD_SIZE : TWORD_SIZE);
+    /**
+     * Read an offset or length of the DWARF format, a word or a tword.
+     */
+    protected long readOffset() {
+        return readUnsigned(mIs32Bit ? WORD_SIZE : TWORD_SIZE);
     }
 
-    protected OpcodeType getOpcodeType(byte b) {
-        if (b == 0) {
-            return OpcodeType.EXTENDED_OPCODE;
-        }
-        if ((b > 0) && (b < mOpcodeBase)) {
-            return OpcodeType.STANDARD_OPCODE;
-        }
-        return OpcodeType.SPECIAL_OPCODE;
+    protected long readULEB128() {
+        byte[] b = mBytes;
+        int pos = mPos;
+        long ret = 0L;
+        int shift = 0;
+        byte v;
+        do {
+            v = b[pos++];
+            if (shift < Long.SIZE) {
+                ret |= ((long) (v & 0x7F)) << shift;
+            }
+            shift += 7;
+        } while (v < 0);
+        mPos = pos;
+        return ret;
     }
 
-    public void readDirs() throws IOException {
-        mDirs.add(new StringBuffer("."));
-        char c = (char) readByte(true);
-        while (c != 0) {
-            StringBuffer dir = new StringBuffer();
-            while (c != 0) {
-                dir.append(c);
-                c = (char) readByte(true);
+    protected long readSLEB128() {
+        byte[] b = mBytes;
+        int pos = mPos;
+        long ret = 0L;
+        int shift = 0;
+        byte v;
+        do {
+            v = b[pos++];
+            if (shift < Long.SIZE) {
+                ret |= ((long) (v & 0x7F)) << shift;
             }
-            mDirs.add(dir);
-            c = (char) readByte(true);
+            shift += 7;
+        } while (v < 0);
+        mPos = pos;
+        if ((shift < Long.SIZE) && ((v & 0x40) != 0)) {
+            ret |= -1L << shift;
         }
+        return ret;
     }
 
-    public void readFileNameEntries() throws IOException {
-        FileNameEntry localFne = new FileNameEntry();
-        localFne.mFileName.append(".");
-        mFileNameEntries.add(localFne);
-
-        char c = (char) readByte(true);
-        while (c != 0) {
-            FileNameEntry fne = new FileNameEntry();
-            while (c != 0) {
-                fne.mFileName.append(c);
-                c = (char) readByte(true);
-            }
-            fne.mIndexOfDirs = readULEB128();
-            fne.mLastModTime = readULEB128();
-            fne.mFileLength = readULEB128();
-            mFileNameEntries.add(fne);
-
-            c = (char) readByte(true);
+    /**
+     * Read a null terminated string of the unit, return the offset of its
+     * first byte in mBytes.
+     */
+    protected int skipString() {
+        int start = mPos;
+        byte[] b = mBytes;
+        int pos = start;
+        while (b[pos] != 0) {
+            pos++;
         }
+        mPos = pos + 1;
+        return start;
     }
 
     public void print() {
+        if (!Logger.isDebugEnabled()) {
+            return;
+        }
         if (!readSucceed()) {
             Logger.LogDebug("Read Debug Line Entry failed!");
             return;
@@ -188,104 +197,85 @@ public abstract class DebugLineInfoEntry extends ReadHelper {
         Logger.LogDebug("version: " + mVersion);
         Logger.LogDebug("prologue_length: " + mPrologueLength);
         Logger.LogDebug("minimum_instruction_length: " + mMinInstructionLength);
+        Logger.LogDebug("maximum_operations_per_instruction: " + mMaxOpsPerInstruction);
         Logger.LogDebug("default_is_stmt: " + mDefaultIsStmt);
         Logger.LogDebug("line_base: " + mLineBase);
         Logger.LogDebug("line_range: " + mLineRange);
         Logger.LogDebug("opcode_base: " + mOpcodeBase);
         Logger.LogDebug("------- Dirs: ");
-        for (StringBuffer dir : mDirs) {
-            Logger.LogDebug(dir.toString());
+        for (int i = 0; i < mFileTable.getDirCount(); i++) {
+            Logger.LogDebug(mFileTable.getDir(i));
         }
         Logger.LogDebug("------- File Name Entries: ");
-        for (FileNameEntry fne : mFileNameEntries) {
-            Logger.LogDebug(fne.mFileName.toString());
+        for (int i = 0; i < mFileTable.getFileCount(); i++) {
+            Logger.LogDebug(mFileTable.getFileName(i));
         }
     }
-    
-    protected long readULEB128() throws IOException {
-        long ret = 0L;
-        long shift = 0L;
-        byte b;
-        do {
-            b = readByte(true);
-            ret += ((b & 0x7F) << (int)shift);
-            shift += 7L;
-        } while ((b & 0x80) != 0);
 
-        return ret;
+    public void setRangeOnly(boolean rangeOnly) {
+        mRangeOnly = rangeOnly;
     }
 
-    protected long readSLEB128() throws IOException {
-        long ret = 0L;
-        long shift = 0L;
-        boolean negative = false;
-        byte b;
-        do {
-            b = readByte(true);
-            ret += ((b & 0x7F) << (int)shift);
-            shift += 7L;
-            negative = ((b & 0x40) != 0);
-        } while ((b & 0x80) != 0);
+    public long getOpcodeCount() {
+        return mOpcodeCount;
+    }
 
-        return negative ? (ret - (1 << (int)shift)) : ret;
+    public int getVersion() {
+        return mVersion;
     }
 
-    protected void addToLineInfoEntries() {
-        long fixAddr = mAddress + 1L;
-        if ((!mLineInfoEntries.isEmpty()) && 
-                (fixAddr == (mLineInfoEntries.lastElement()).mStartAddress)) {
-            mLineInfoEntries.lastElement().mEndLineNumber = mLine;
-            return;
+    /**
+     * Lowest row address, unsigned, -1L (the highest) if the unit has no
+     * rows. Only a lower bound of it after a range-only read.
+     */
+    public long getMinAddress() {
+        return mMinAddress;
+    }
+
+    /**
+     * A row may be at or above address, for a range-only read.
+     */
+    protected void addAddressBound(long address) {
+        long fixAddr = address + 1L;
+        if (Long.compareUnsigned(fixAddr, mMinAddress) < 0) {
+            mMinAddress = fixAddr;
         }
-        mLineInfoEntries.add(new LineInfoEntry(mFileIndex, mLine, fixAddr));
     }
 
-    protected class FileNameEntry {
-        public StringBuffer mFileName = new StringBuffer();
-        public long mIndexOfDirs= 0L;
-        public long mLastModTime = 0L;
-        public long mFileLength = 0L;
+    protected void addRow(long address, long file, long line) {
+        long fixAddr = address + 1L;
+        if (Long.compareUnsigned(fixAddr, mMinAddress) < 0) {
+            mMinAddress = fixAddr;
+        }
+        int last = mLineTable.size() - 1;
+        if ((last >= 0) && (fixAddr == mLineTable.getAddress(last))) {
+            mLineTable.setEndLine(last, (int) line);
+            return;
+        }
+        mLineTable.add(fixAddr, getFileId((int) file), (int) line);
     }
 
-    public class LineInfoEntry {
-        public String mPathName = "";
-        public String mFileName = "";
-        public long mIndexOfFileNameTable = 0L;
-        public long mLineNumber = 0L;
-        public long mEndLineNumber = 0L;
-        public long mStartAddress = 0L;
+    /**
+     * A file gets its id when its first row is added, its path is left to
+     * be resolved by mLineTable when a writer needs it.
+     */
+    private int getFileId(int index) {
+        if ((index < 0) || (index >= mFileTable.getFileCount())) {
+            throw new IndexOutOfBoundsException("Wrong file index " + index);
+        }
+        if (mFileTable.getDirIndex(index) >= mFileTable.getDirCount()) {
+            throw new IndexOutOfBoundsException("Wrong dir index of file " + index);
+        }
 
-        public LineInfoEntry(long index, long line, long address) {
-            mIndexOfFileNameTable = index;
-            mFileName = mFileNameEntries.elementAt((int) mIndexOfFileNameTable).mFileName.toString();
-            mPathName = mDirs.get((int) (mFileNameEntries.elementAt((int) mIndexOfFileNameTable)).mIndexOfDirs)
-                + "/" + mFileName;
-            mLineNumber = line;
-            mStartAddress = address;
+        if (index >= mFileIds.length) {
+            int oldLength = mFileIds.length;
+            mFileIds = Arrays.copyOf(mFileIds, mFileTable.getFileCount());
+            Arrays.fill(mFileIds, oldLength, mFileIds.length, -1);
         }
 
-        public String getString() {
-          StringBuilder sb = new StringBuilder();
-          sb.append(Long.toHexString(mStartAddress));
-          sb.append("\t");
-          sb.append(mFileName);
-          sb.append(":");
-          if (0L == mEndLineNumber) {
-            sb.append(mLineNumber);
-          }
-          else if (mEndLineNumber == mLineNumber) {
-            sb.append(mLineNumber);
-          } else if (mEndLineNumber > mLineNumber) {
-            sb.append(mLineNumber);
-            sb.append("-");
-            sb.append(mEndLineNumber);
-          } else {
-            sb.append(mEndLineNumber);
-            sb.append("-");
-            sb.append(mLineNumber);
-          }
-          sb.append("\n");
-          return sb.toString();
+        if (mFileIds[index] < 0) {
+            mFileIds[index] = mLineTable.addFile(mFileTable, index);
         }
+        return mFileIds[index];
     }
-}
\ No newline at end of file
+}
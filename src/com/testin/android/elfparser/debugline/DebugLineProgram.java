@@ -0,0 +1,435 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser.debugline;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.testin.android.Logger;
+import com.testin.android.elfparser.ElfFile;
+
+/**
+ * Line number program of one unit, version 2 to 5
+ *
+ * The unit is loaded at once, or given inflated from a compressed
+ * section, and its program run from the bytes. The
+ * address and line advances of the 256 opcodes are computed from the
+ * header first, so a special opcode is two table loads and a row. The
+ * standard and extended opcodes are dispatched on their int value.
+ *
+ * ------------------------------------------------------------
+ *    Opcode                     |    Effect
+ *    special                    | advance address and line by the tables, add a row
+ *    DW_LNS_copy                | add a row
+ *    DW_LNS_advance_pc          | advance by the operation advance operand
+ *    DW_LNS_advance_line        | advance line by the signed operand
+ *    DW_LNS_set_file            | set file
+ *    DW_LNS_const_add_pc        | advance as special opcode 255 without a row
+ *    DW_LNS_fixed_advance_pc    | add the uhalf operand to address
+ *    DW_LNE_end_sequence        | reset the registers
+ *    DW_LNE_set_address         | set address, the operand size is the target's
+ *    DW_LNE_define_file         | add a file to the file table (before version 5)
+ *    others                     | operands skipped, by standard_opcode_lengths or
+ *                               | the extended opcode length
+ *
+ * A range-only read runs none of them, it only skips the operands to find
+ * the DW_LNE_set_address operands, see scanAddresses().
+ *
+ * Only address, op_index, file and line are kept, as a row has no
+ * column, is_stmt, basic_block, prologue_end, epilogue_begin, isa or
+ * discriminator. op_index counts the operations of a VLIW instruction
+ * when maximum_operations_per_instruction is more than 1.
+ */
+public class DebugLineProgram extends DebugLineInfoEntry {
+    public static final int MIN_VERSION = 2;
+    public static final int MAX_VERSION = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Units up to this size are loaded into a buffer kept by the thread
+    private static final int MAX_REUSED_SIZE = 1 << 20;
+    private static final ThreadLocal<byte[]> sBuffers = new ThreadLocal<byte[]>();
+    // Advance tables of the last unit read by the thread, units of a file mostly share them
+    private static final ThreadLocal<AdvanceTables> sLastTables = new ThreadLocal<AdvanceTables>();
+
+    private static final int DW_LNS_COPY = 1;
+    private static final int DW_LNS_ADVANCE_PC = 2;
+    private static final int DW_LNS_ADVANCE_LINE = 3;
+    private static final int DW_LNS_SET_FILE = 4;
+    private static final int DW_LNS_SET_COLUMN = 5;
+    private static final int DW_LNS_NEGATE_STMT = 6;
+    private static final int DW_LNS_SET_BASIC_BLOCK = 7;
+    private static final int DW_LNS_CONST_ADD_PC = 8;
+    private static final int DW_LNS_FIXED_ADVANCE_PC = 9;
+    private static final int DW_LNS_SET_PROLOGUE_END = 10;
+    private static final int DW_LNS_SET_EPILOGUE_BEGIN = 11;
+    private static final int DW_LNS_SET_ISA = 12;
+    private static final int DW_LNE_END_SEQUENCE = 1;
+    private static final int DW_LNE_SET_ADDRESS = 2;
+    private static final int DW_LNE_DEFINE_FILE = 3;
+
+    private final LineStrings mStrings;
+    // The unit inflated from a compressed section, null to read it from the file
+    private byte[] mUnitBytes = null;
+    // Operation advance and line advance of every special opcode
+    private int[] mOperationAdvances = null;
+    private int[] mLineAdvances = null;
+
+    public DebugLineProgram(ElfFile elfFile, long offset) throws IOException {
+        this(elfFile, offset, new LineStrings(elfFile, 0L, 0L, 0L, 0L));
+    }
+
+    /**
+     * strings gives the names of version 5 file tables.
+     */
+    public DebugLineProgram(ElfFile elfFile, long offset, LineStrings strings) throws IOException {
+        super(elfFile, offset);
+        mStrings = strings;
+    }
+
+    /**
+     * Decode unitBytes, the unit at offset of an inflated section, instead
+     * of reading the file.
+     */
+    public DebugLineProgram(ElfFile elfFile, long offset, LineStrings strings, byte[] unitBytes)
+            throws IOException {
+        this(elfFile, offset, strings);
+        mUnitBytes = unitBytes;
+    }
+
+    public void read() {
+        if (mOffset <= 0) {
+            Logger.LogError("DebugLineProgram read failed with wrong offset!");
+            readFinish(false);
+            return;
+        }
+
+        try {
+            int size = loadUnit();
+            int programOffset = readHeader(size);
+            if (mRangeOnly) {
+                scanAddresses(programOffset, size);
+            } else {
+                buildTables();
+                run(programOffset, size);
+            }
+        } catch (Exception e) {
+            Logger.LogError("DebugLineProgram read at " + mOffset + " failed:" + e.toString());
+            readFinish(false);
+        } finally {
+            mBytes = null;
+            mUnitBytes = null;
+        }
+
+        readFinish();
+    }
+
+    /**
+     * Load the whole unit into mBytes, return its size.
+     */
+    private int loadUnit() throws Exception {
+        if (mUnitBytes != null) {
+            mBytes = mUnitBytes;
+            mPos = 0;
+            mTotalLength = readUnsigned(WORD_SIZE);
+            mFstFieldSize = WORD_SIZE;
+            if (DWARF64_LENGTH == mTotalLength) {
+                mTotalLength = readUnsigned(TWORD_SIZE);
+                mIs32Bit = false;
+                mFstFieldSize += TWORD_SIZE;
+            }
+            if ((mTotalLength <= 0) || (mTotalLength + mFstFieldSize > mBytes.length)) {
+                throw new Exception("Wrong unit length " + mTotalLength);
+            }
+            return (int) (mTotalLength + mFstFieldSize);
+        }
+
+        seek(mOffset);
+        mTotalLength = readWord();
+        mFstFieldSize = WORD_SIZE;
+        if (DWARF64_LENGTH == mTotalLength) {
+            mTotalLength = readTWord();
+            mIs32Bit = false;
+            mFstFieldSize += TWORD_SIZE;
+        }
+        long size = mTotalLength + mFstFieldSize;
+        if ((mTotalLength <= 0) || (size > Integer.MAX_VALUE)) {
+            throw new Exception("Wrong unit length " + mTotalLength);
+        }
+
+        byte[] buffer = sBuffers.get();
+        if ((buffer == null) || (buffer.length < size)) {
+            buffer = new byte[(int) size];
+            if (size <= MAX_REUSED_SIZE) {
+                sBuffers.set(buffer);
+            }
+        }
+        mBytes = buffer;
+        load(mOffset, (int) size);
+        return (int) size;
+    }
+
+    /**
+     * Read the header after total_length, return where the program starts.
+     */
+    private int readHeader(int size) throws Exception {
+        mPos = mFstFieldSize;
+        mVersion = readUHalf();
+        if ((mVersion < MIN_VERSION) || (mVersion > MAX_VERSION)) {
+            throw new Exception("Unsupport debug line version " + mVersion);
+        }
+        if (mVersion >= 5) {
+            mAddressSize = readUByte();
+            mSegmentSelectorSize = readUByte();
+        }
+        mPrologueLength = readOffset();
+        long programOffset = mPos + mPrologueLength;
+        if ((mPrologueLength <= 0) || (programOffset > size)) {
+            throw new Exception("Wrong prologue length " + mPrologueLength);
+        }
+
+        mMinInstructionLength = readUByte();
+        if (mVersion >= 4) {
+            mMaxOpsPerInstruction = readUByte();
+        }
+        mDefaultIsStmt = readUByte();
+        mLineBase = mBytes[mPos++];
+        mLineRange = readUByte();
+        mOpcodeBase = readUByte();
+        if ((mLineRange == 0) || (mMaxOpsPerInstruction == 0) || (mOpcodeBase == 0)) {
+            throw new Exception("Wrong line_range " + mLineRange + ", maximum_operations_per_instruction "
+                    + mMaxOpsPerInstruction + " or opcode_base " + mOpcodeBase);
+        }
+        mStandardOpcodeLengths = Arrays.copyOfRange(mBytes, mPos, mPos + mOpcodeBase - 1);
+        mPos += mOpcodeBase - 1;
+        if (mPos > programOffset) {
+            throw new Exception("Wrong prologue length " + mPrologueLength);
+        }
+
+        if (mRangeOnly) {
+            return (int) programOffset;
+        }
+
+        // The file table is kept by the rows, so it gets a copy of its bytes only
+        byte[] fileTable = Arrays.copyOfRange(mBytes, mPos, (int) programOffset);
+        mFileTable = (mVersion >= 5) ? new FileTable(fileTable, mIs32Bit, mIsLSB, mStrings)
+                : new FileTable(fileTable);
+        return (int) programOffset;
+    }
+
+    private void buildTables() {
+        AdvanceTables last = sLastTables.get();
+        if ((last != null) && (last.mOpcodeBase == mOpcodeBase) && (last.mLineBase == mLineBase)
+                && (last.mLineRange == mLineRange)) {
+            mOperationAdvances = last.mOperationAdvances;
+            mLineAdvances = last.mLineAdvances;
+            return;
+        }
+
+        mOperationAdvances = new int[256];
+        mLineAdvances = new int[256];
+        for (int opcode = mOpcodeBase; opcode < 256; opcode++) {
+            int adjusted = opcode - mOpcodeBase;
+            mOperationAdvances[opcode] = adjusted / mLineRange;
+            mLineAdvances[opcode] = mLineBase + adjusted % mLineRange;
+        }
+        sLastTables.set(new AdvanceTables(mOpcodeBase, mLineBase, mLineRange,
+                mOperationAdvances, mLineAdvances));
+    }
+
+    private void run(int pos, int end) throws Exception {
+        byte[] b = mBytes;
+        int[] operationAdvances = mOperationAdvances;
+        int[] lineAdvances = mLineAdvances;
+        int opcodeBase = mOpcodeBase;
+        long minInstructionLength = mMinInstructionLength;
+        int maxOps = mMaxOpsPerInstruction;
+        long opcodeCount = 0L;
+
+        long address = 0L;
+        long opIndex = 0L;
+        long file = 1L;
+        long line = 1L;
+        while (pos < end) {
+            int opcode = b[pos++] & 0xFF;
+            opcodeCount++;
+            if (opcode >= opcodeBase) {
+                if (maxOps == 1) {
+                    address += operationAdvances[opcode] * minInstructionLength;
+                } else {
+                    long operations = opIndex + operationAdvances[opcode];
+                    address += minInstructionLength * (operations / maxOps);
+                    opIndex = operations % maxOps;
+                }
+                line += lineAdvances[opcode];
+                addRow(address, file, line);
+                continue;
+            }
+
+            mPos = pos;
+            switch (opcode) {
+                case 0:
+                    long length = readULEB128();
+                    if ((length < 0) || (length > end - mPos)) {
+                        throw new Exception("Wrong extended opcode length " + length);
+                    }
+                    int next = mPos + (int) length;
+                    if (length == 0) {
+                        break;
+                    }
+                    switch (readUByte()) {
+                        case DW_LNE_END_SEQUENCE:
+                            address = 0L;
+                            opIndex = 0L;
+                            file = 1L;
+                            line = 1L;
+                            break;
+                        case DW_LNE_SET_ADDRESS:
+                            if ((length - 1 > 0) && (length - 1 <= TWORD_SIZE)) {
+                                address = readUnsigned((int) length - 1);
+                                opIndex = 0L;
+                            }
+                            break;
+                        case DW_LNE_DEFINE_FILE:
+                            int nameOffset = skipString();
+                            String fileName = new String(b, nameOffset, mPos - 1 - nameOffset, UTF_8);
+                            mFileTable.addFile(fileName, readULEB128());
+                            break;
+                        default:
+                            // DW_LNE_set_discriminator and vendor opcodes
+                            break;
+                    }
+                    mPos = next;
+                    break;
+                case DW_LNS_COPY:
+                    addRow(address, file, line);
+                    break;
+                case DW_LNS_ADVANCE_PC:
+                case DW_LNS_CONST_ADD_PC:
+                    long operations = opIndex + ((opcode == DW_LNS_ADVANCE_PC) ? readULEB128()
+                            : operationAdvances[255]);
+                    address += minInstructionLength * (operations / maxOps);
+                    opIndex = operations % maxOps;
+                    break;
+                case DW_LNS_ADVANCE_LINE:
+                    line += readSLEB128();
+                    break;
+                case DW_LNS_SET_FILE:
+                    file = readULEB128();
+                    break;
+                case DW_LNS_SET_COLUMN:
+                case DW_LNS_SET_ISA:
+                    readULEB128();
+                    break;
+                case DW_LNS_NEGATE_STMT:
+                case DW_LNS_SET_BASIC_BLOCK:
+                case DW_LNS_SET_PROLOGUE_END:
+                case DW_LNS_SET_EPILOGUE_BEGIN:
+                    break;
+                case DW_LNS_FIXED_ADVANCE_PC:
+                    address += readUHalf();
+                    opIndex = 0L;
+                    break;
+                default:
+                    // Standard opcodes after DW_LNS_set_isa, with their operand counts in the header
+                    for (int i = mStandardOpcodeLengths[opcode - 1] & 0xFF; i > 0; i--) {
+                        readULEB128();
+                    }
+                    break;
+            }
+            pos = mPos;
+        }
+        mOpcodeCount += opcodeCount;
+    }
+
+    /**
+     * Find a lower bound of the row addresses without running the program.
+     * Address advances are unsigned, so every row of a sequence is at or
+     * above the last DW_LNE_set_address before it, or above 0 if the
+     * sequence has a row before its first one. The operands are skipped
+     * as run() reads them.
+     */
+    private void scanAddresses(int pos, int end) throws Exception {
+        byte[] b = mBytes;
+        int opcodeBase = mOpcodeBase;
+        long opcodeCount = 0L;
+        boolean addressSet = false;
+        while (pos < end) {
+            int opcode = b[pos++] & 0xFF;
+            opcodeCount++;
+            if ((opcode >= opcodeBase) || (opcode == DW_LNS_COPY)) {
+                if (!addressSet) {
+                    addAddressBound(0L);
+                    addressSet = true;
+                }
+                continue;
+            }
+
+            mPos = pos;
+            switch (opcode) {
+                case 0:
+                    long length = readULEB128();
+                    if ((length < 0) || (length > end - mPos)) {
+                        throw new Exception("Wrong extended opcode length " + length);
+                    }
+                    int next = mPos + (int) length;
+                    if (length == 0) {
+                        break;
+                    }
+                    int extended = readUByte();
+                    if (extended == DW_LNE_END_SEQUENCE) {
+                        addressSet = false;
+                    } else if ((extended == DW_LNE_SET_ADDRESS) && (length - 1 > 0) && (length - 1 <= TWORD_SIZE)) {
+                        addAddressBound(readUnsigned((int) length - 1));
+                        addressSet = true;
+                    }
+                    mPos = next;
+                    break;
+                case DW_LNS_ADVANCE_PC:
+                case DW_LNS_ADVANCE_LINE:
+                case DW_LNS_SET_FILE:
+                case DW_LNS_SET_COLUMN:
+                case DW_LNS_SET_ISA:
+                    readULEB128();
+                    break;
+                case DW_LNS_NEGATE_STMT:
+                case DW_LNS_SET_BASIC_BLOCK:
+                case DW_LNS_CONST_ADD_PC:
+                case DW_LNS_SET_PROLOGUE_END:
+                case DW_LNS_SET_EPILOGUE_BEGIN:
+                    break;
+                case DW_LNS_FIXED_ADVANCE_PC:
+                    mPos += HALF_SIZE;
+                    break;
+                default:
+                    for (int i = mStandardOpcodeLengths[opcode - 1] & 0xFF; i > 0; i--) {
+                        readULEB128();
+                    }
+                    break;
+            }
+            pos = mPos;
+        }
+        mOpcodeCount += opcodeCount;
+    }
+
+    private static class AdvanceTables {
+        final int mOpcodeBase;
+        final int mLineBase;
+        final int mLineRange;
+        final int[] mOperationAdvances;
+        final int[] mLineAdvances;
+
+        AdvanceTables(int opcodeBase, int lineBase, int lineRange, int[] operationAdvances,
+                int[] lineAdvances) {
+            mOpcodeBase = opcodeBase;
+            mLineBase = lineBase;
+            mLineRange = lineRange;
+            mOperationAdvances = operationAdvances;
+            mLineAdvances = lineAdvances;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser.debugline;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Directory and file name table of one debug line compilation unit
+ *
+ * Keeps the include_directories and file_names bytes of the unit header
+ * and the offsets of every name in them. A name is decoded as UTF-8 the
+ * first time it is asked for and cached, so a unit never decodes a name
+ * twice, and the names never used by a row are never decoded at all.
+ *
+ * Directory 0 and file 0 are "." as the line number program counts the
+ * real entries from 1 before version 5. Since version 5 the entries are
+ * counted from 0 and described by entry formats, a name is either in the
+ * header or at an offset of .debug_line_str or .debug_str.
+ */
+public class FileTable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CURRENT_DIR = ".";
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Content types and forms of version 5 entry formats
+    private static final int DW_LNCT_PATH = 0x1;
+    private static final int DW_LNCT_DIRECTORY_INDEX = 0x2;
+    private static final int DW_FORM_BLOCK2 = 0x03;
+    private static final int DW_FORM_BLOCK4 = 0x04;
+    private static final int DW_FORM_DATA2 = 0x05;
+    private static final int DW_FORM_DATA4 = 0x06;
+    private static final int DW_FORM_DATA8 = 0x07;
+    private static final int DW_FORM_STRING = 0x08;
+    private static final int DW_FORM_BLOCK = 0x09;
+    private static final int DW_FORM_BLOCK1 = 0x0a;
+    private static final int DW_FORM_DATA1 = 0x0b;
+    private static final int DW_FORM_SDATA = 0x0d;
+    private static final int DW_FORM_STRP = 0x0e;
+    private static final int DW_FORM_UDATA = 0x0f;
+    private static final int DW_FORM_DATA16 = 0x1e;
+    private static final int DW_FORM_LINE_STRP = 0x1f;
+
+    private byte[] mBytes = null;
+
+    private int mDirCount = 0;
+    private byte[][] mDirBytes = new byte[INITIAL_CAPACITY][];
+    private int[] mDirOffsets = new int[INITIAL_CAPACITY];
+    private int[] mDirLengths = new int[INITIAL_CAPACITY];
+    private String[] mDirs = new String[INITIAL_CAPACITY];
+
+    private int mFileCount = 0;
+    private byte[][] mFileBytes = new byte[INITIAL_CAPACITY][];
+    private int[] mFileOffsets = new int[INITIAL_CAPACITY];
+    private int[] mFileLengths = new int[INITIAL_CAPACITY];
+    private long[] mFileDirs = new long[INITIAL_CAPACITY];
+    private String[] mFileNames = new String[INITIAL_CAPACITY];
+
+    /**
+     * Parse the include_directories and file_names sequences of a version
+     * 2 to 4 unit header.
+     */
+    public FileTable(byte[] bytes) throws Exception {
+        mBytes = bytes;
+        addDir(CURRENT_DIR);
+        addFile(CURRENT_DIR, 0L);
+
+        int pos = 0;
+        while (byteAt(pos) != 0) {
+            int end = nameEnd(pos);
+            addDir(mBytes, pos, end - pos);
+            pos = end + 1;
+        }
+        pos++;
+
+        long[] value = new long[1];
+        while (byteAt(pos) != 0) {
+            int end = nameEnd(pos);
+            int nameOffset = pos;
+            pos = readULEB128(end + 1, value);
+            long dir = value[0];
+            pos = readULEB128(pos, value); // Last modification time
+            pos = readULEB128(pos, value); // File length
+            addFile(mBytes, nameOffset, end - nameOffset, dir);
+        }
+    }
+
+    /**
+     * Parse the directory and file name entries of a version 5 unit
+     * header, from directory_entry_format_count to the end of file_names.
+     * Offsets of strp forms are words, or twords in the 64-bit DWARF
+     * format, and numbers are in the byte order of the file.
+     */
+    public FileTable(byte[] bytes, boolean is32Bit, boolean isLsb, LineStrings strings) throws Exception {
+        mBytes = bytes;
+        int[] pos = new int[1];
+        int offsetSize = is32Bit ? 4 : 8;
+
+        int[] formats = readEntryFormats(pos);
+        long count = readULEB128(pos);
+        for (long i = 0; i < count; i++) {
+            readEntry(pos, formats, offsetSize, isLsb, strings, false);
+        }
+
+        formats = readEntryFormats(pos);
+        count = readULEB128(pos);
+        for (long i = 0; i < count; i++) {
+            readEntry(pos, formats, offsetSize, isLsb, strings, true);
+        }
+    }
+
+    public int getDirCount() {
+        return mDirCount;
+    }
+
+    public int getFileCount() {
+        return mFileCount;
+    }
+
+    public long getDirIndex(int file) {
+        return mFileDirs[file];
+    }
+
+    public String getDir(int dir) {
+        if (mDirs[dir] == null) {
+            mDirs[dir] = new String(mDirBytes[dir], mDirOffsets[dir], mDirLengths[dir], UTF_8);
+        }
+        return mDirs[dir];
+    }
+
+    public String getFileName(int file) {
+        if (mFileNames[file] == null) {
+            mFileNames[file] = new String(mFileBytes[file], mFileOffsets[file], mFileLengths[file], UTF_8);
+        }
+        return mFileNames[file];
+    }
+
+    public String getPathName(int file) {
+        return getDir((int) mFileDirs[file]) + "/" + getFileName(file);
+    }
+
+    /**
+     * Add a file defined by DW_LNE_define_file in the line number program.
+     */
+    public int addFile(String fileName, long dir) {
+        int file = addFile(null, -1, 0, dir);
+        mFileNames[file] = fileName;
+        return file;
+    }
+
+    private void addDir(String dir) {
+        mDirs[addDir(null, -1, 0)] = dir;
+    }
+
+    private int addDir(byte[] bytes, int offset, int length) {
+        if (mDirCount == mDirOffsets.length) {
+            int capacity = mDirCount * 2;
+            mDirBytes = Arrays.copyOf(mDirBytes, capacity);
+            mDirOffsets = Arrays.copyOf(mDirOffsets, capacity);
+            mDirLengths = Arrays.copyOf(mDirLengths, capacity);
+            mDirs = Arrays.copyOf(mDirs, capacity);
+        }
+        mDirBytes[mDirCount] = bytes;
+        mDirOffsets[mDirCount] = offset;
+        mDirLengths[mDirCount] = length;
+        return mDirCount++;
+    }
+
+    private int addFile(byte[] bytes, int offset, int length, long dir) {
+        if (mFileCount == mFileOffsets.length) {
+            int capacity = mFileCount * 2;
+            mFileBytes = Arrays.copyOf(mFileBytes, capacity);
+            mFileOffsets = Arrays.copyOf(mFileOffsets, capacity);
+            mFileLengths = Arrays.copyOf(mFileLengths, capacity);
+            mFileDirs = Arrays.copyOf(mFileDirs, capacity);
+            mFileNames = Arrays.copyOf(mFileNames, capacity);
+        }
+        mFileBytes[mFileCount] = bytes;
+        mFileOffsets[mFileCount] = offset;
+        mFileLengths[mFileCount] = length;
+        mFileDirs[mFileCount] = dir;
+        return mFileCount++;
+    }
+
+    /**
+     * Read an entry format, return its (content type, form) pairs.
+     */
+    private int[] readEntryFormats(int[] pos) throws Exception {
+        int count = byteAt(pos[0]++) & 0xFF;
+        int[] ret = new int[count * 2];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = (int) readULEB128(pos);
+        }
+        return ret;
+    }
+
+    private void readEntry(int[] pos, int[] formats, int offsetSize, boolean isLsb,
+            LineStrings strings, boolean isFile) throws Exception {
+        byte[] nameBytes = null;
+        int nameOffset = -1;
+        long dir = 0L;
+        for (int i = 0; i < formats.length; i += 2) {
+            int type = formats[i];
+            int form = formats[i + 1];
+            if (type == DW_LNCT_PATH) {
+                if (form == DW_FORM_STRING) {
+                    nameBytes = mBytes;
+                    nameOffset = pos[0];
+                    pos[0] = nameEnd(pos[0]) + 1;
+                } else if ((form == DW_FORM_LINE_STRP) || (form == DW_FORM_STRP)) {
+                    long offset = readNumber(pos, offsetSize, isLsb);
+                    nameBytes = (form == DW_FORM_LINE_STRP) ? strings.getLineStr() : strings.getStr();
+                    if ((offset < 0) || (offset >= nameBytes.length)) {
+                        throw new Exception("Wrong string offset " + offset + " of form " + form);
+                    }
+                    nameOffset = (int) offset;
+                } else {
+                    throw new Exception("Unsupport path form " + form);
+                }
+            } else if ((type == DW_LNCT_DIRECTORY_INDEX) && isFile) {
+                dir = readFormValue(pos, form, isLsb);
+            } else {
+                // Timestamp, size, MD5 and vendor contents are skipped
+                readFormValue(pos, form, isLsb);
+            }
+        }
+        if (nameBytes == null) {
+            throw new Exception("Entry without a path");
+        }
+        int length = nameEnd(nameBytes, nameOffset) - nameOffset;
+        if (isFile) {
+            addFile(nameBytes, nameOffset, length, dir);
+        } else {
+            addDir(nameBytes, nameOffset, length);
+        }
+    }
+
+    /**
+     * Read a constant or skip a block of the form, blocks return 0.
+     */
+    private long readFormValue(int[] pos, int form, boolean isLsb) throws Exception {
+        switch (form) {
+            case DW_FORM_DATA1:
+                return readNumber(pos, 1, isLsb);
+            case DW_FORM_DATA2:
+                return readNumber(pos, 2, isLsb);
+            case DW_FORM_DATA4:
+                return readNumber(pos, 4, isLsb);
+            case DW_FORM_DATA8:
+                return readNumber(pos, 8, isLsb);
+            case DW_FORM_UDATA:
+            case DW_FORM_SDATA:
+                return readULEB128(pos);
+            case DW_FORM_DATA16:
+                skip(pos, 16);
+                return 0L;
+            case DW_FORM_BLOCK1:
+                skip(pos, readNumber(pos, 1, isLsb));
+                return 0L;
+            case DW_FORM_BLOCK2:
+                skip(pos, readNumber(pos, 2, isLsb));
+                return 0L;
+            case DW_FORM_BLOCK4:
+                skip(pos, readNumber(pos, 4, isLsb));
+                return 0L;
+            case DW_FORM_BLOCK:
+                skip(pos, readULEB128(pos));
+                return 0L;
+            case DW_FORM_STRING:
+                pos[0] = nameEnd(pos[0]) + 1;
+                return 0L;
+            default:
+                throw new Exception("Unsupport entry form " + form);
+        }
+    }
+
+    private long readNumber(int[] pos, int size, boolean isLsb) throws Exception {
+        long ret = 0L;
+        for (int i = 0; i < size; i++) {
+            long b = byteAt(pos[0] + (isLsb ? size - 1 - i : i)) & 0xFF;
+            ret = (ret << 8) | b;
+        }
+        pos[0] += size;
+        return ret;
+    }
+
+    private void skip(int[] pos, long size) throws Exception {
+        if ((size < 0) || (pos[0] + size > mBytes.length)) {
+            throw new Exception("Block out of unit header at " + pos[0]);
+        }
+        pos[0] += (int) size;
+    }
+
+    private long readULEB128(int[] pos) throws Exception {
+        long[] value = new long[1];
+        pos[0] = readULEB128(pos[0], value);
+        return value[0];
+    }
+
+    private static int nameEnd(byte[] bytes, int pos) throws Exception {
+        while ((pos < bytes.length) && (bytes[pos] != 0)) {
+            pos++;
+        }
+        if (pos >= bytes.length) {
+            throw new Exception("Name out of string section at " + pos);
+        }
+        return pos;
+    }
+
+    private byte byteAt(int pos) throws Exception {
+        if (pos >= mBytes.length) {
+            throw new Exception("File table out of unit header at " + pos);
+        }
+        return mBytes[pos];
+    }
+
+    private int nameEnd(int pos) throws Exception {
+        while (byteAt(pos) != 0) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int readULEB128(int pos, long[] value) throws Exception {
+        long ret = 0L;
+        int shift = 0;
+        byte b;
+        do {
+            b = byteAt(pos++);
+            if (shift < Long.SIZE) {
+                ret |= ((long) (b & 0x7F)) << shift;
+            }
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        value[0] = ret;
+        return pos;
+    }
+}
@@ -0,0 +1,14 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser.debugline;
+
+/**
+ * Receiver of debug line rows in address order
+ */
+public interface LineSink {
+    void addLine(long address, String pathName, int line, int endLine) throws Exception;
+}
@@ -0,0 +1,91 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser.debugline;
+
+import java.io.IOException;
+
+import com.testin.android.elfparser.ByteSource;
+import com.testin.android.elfparser.CompressedSection;
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadSection;
+
+/**
+ * The .debug_line_str and .debug_str sections, holding the names of the
+ * version 5 file tables given by DW_FORM_line_strp and DW_FORM_strp
+ *
+ * A section is read by the first unit asking for it and shared by all the
+ * units decoding in parallel. A file without version 5 units never reads
+ * them. A compressed section is inflated as a whole.
+ */
+public class LineStrings {
+    private final ElfFile mElfFile;
+    private final long mLineStrOffset;
+    private final long mLineStrSize;
+    private final long mStrOffset;
+    private final long mStrSize;
+    private CompressedSection mLineStrCompressed = null;
+    private CompressedSection mStrCompressed = null;
+    private byte[] mLineStr = null;
+    private byte[] mStr = null;
+
+    /**
+     * A size of 0 is a section the file does not have.
+     */
+    public LineStrings(ElfFile elfFile, long lineStrOffset, long lineStrSize,
+            long strOffset, long strSize) {
+        mElfFile = elfFile;
+        mLineStrOffset = lineStrOffset;
+        mLineStrSize = lineStrSize;
+        mStrOffset = strOffset;
+        mStrSize = strSize;
+    }
+
+    /**
+     * The string sections found by readSection, compressed or not.
+     */
+    public LineStrings(ElfFile elfFile, ReadSection readSection) {
+        this(elfFile, readSection.getDebugLineStrOffset(), readSection.getDebugLineStrSize(),
+                readSection.getDebugStrOffset(), readSection.getDebugStrSize());
+        mLineStrCompressed = readSection.getDebugLineStrCompressed();
+        mStrCompressed = readSection.getDebugStrCompressed();
+    }
+
+    public synchronized byte[] getLineStr() throws IOException {
+        if (mLineStr == null) {
+            mLineStr = load(".debug_line_str", mLineStrOffset, mLineStrSize, mLineStrCompressed);
+        }
+        return mLineStr;
+    }
+
+    public synchronized byte[] getStr() throws IOException {
+        if (mStr == null) {
+            mStr = load(".debug_str", mStrOffset, mStrSize, mStrCompressed);
+        }
+        return mStr;
+    }
+
+    private byte[] load(String name, long offset, long size, CompressedSection compressed) throws IOException {
+        if (size <= 0) {
+            throw new IOException("No " + name + " section");
+        }
+        if (compressed != null) {
+            return compressed.inflate();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too big " + name + " section: " + size);
+        }
+        byte[] ret = new byte[(int) size];
+        ByteSource source = mElfFile.newSource();
+        try {
+            source.seek(offset);
+            source.readFully(ret, 0, ret.length);
+        } finally {
+            source.close();
+        }
+        return ret;
+    }
+}
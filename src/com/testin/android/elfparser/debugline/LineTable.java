@@ -0,0 +1,205 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser.debugline;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.testin.android.elfparser.AddressSort;
+
+/**
+ * Debug line rows kept as columns of primitive arrays
+ *
+ * ------------------------------------------------------------
+ *    Column    |  Type  |    Meaning
+ *    address   |  long  | Start address of the row (address register + 1)
+ *    file      |  int   | Id of the source file in the file table of this line table
+ *    line      |  int   | Line number
+ *    end line  |  int   | Last line number at the same address, 0 if there is only one
+ *
+ * A file id refers to an entry of the FileTable of the row's unit. Its path
+ * is only built when it is asked for, and the same path of different units
+ * is kept as one string.
+ */
+public class LineTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mAddresses = null;
+    private int[] mFiles = null;
+    private int[] mLines = null;
+    private int[] mEndLines = null;
+    private int mSize = 0;
+    private int mFileCount = 0;
+    private FileTable[] mFileTables = new FileTable[INITIAL_CAPACITY];
+    private int[] mFileEntries = new int[INITIAL_CAPACITY];
+    private String[] mPathNames = new String[INITIAL_CAPACITY];
+    private Map<String, String> mInternedPaths = null;
+
+    public LineTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public LineTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mAddresses = new long[capacity];
+        mFiles = new int[capacity];
+        mLines = new int[capacity];
+        mEndLines = new int[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getAddress(int index) {
+        return mAddresses[index];
+    }
+
+    public int getFile(int index) {
+        return mFiles[index];
+    }
+
+    public int getLine(int index) {
+        return mLines[index];
+    }
+
+    public int getEndLine(int index) {
+        return mEndLines[index];
+    }
+
+    public void setEndLine(int index, int endLine) {
+        mEndLines[index] = endLine;
+    }
+
+    public void add(long address, int file, int line) {
+        ensureCapacity(mSize + 1);
+        mAddresses[mSize] = address;
+        mFiles[mSize] = file;
+        mLines[mSize] = line;
+        mEndLines[mSize] = 0;
+        mSize++;
+    }
+
+    public int addFile(FileTable fileTable, int entry) {
+        ensureFileCapacity(mFileCount + 1);
+        mFileTables[mFileCount] = fileTable;
+        mFileEntries[mFileCount] = entry;
+        return mFileCount++;
+    }
+
+    public int getFileCount() {
+        return mFileCount;
+    }
+
+    public String getFileName(int file) {
+        return mFileTables[file].getFileName(mFileEntries[file]);
+    }
+
+    public String getPathName(int file) {
+        String pathName = mPathNames[file];
+        if (pathName == null) {
+            pathName = mFileTables[file].getPathName(mFileEntries[file]);
+            if (mInternedPaths == null) {
+                mInternedPaths = new HashMap<String, String>();
+            }
+            String interned = mInternedPaths.get(pathName);
+            if (interned == null) {
+                mInternedPaths.put(pathName, pathName);
+            } else {
+                pathName = interned;
+            }
+            mPathNames[file] = pathName;
+        }
+        return pathName;
+    }
+
+    /**
+     * Append all rows of another table, the file ids of those rows are moved
+     * past the files of this table.
+     */
+    public void append(LineTable other) {
+        int fileBase = mFileCount;
+        ensureFileCapacity(mFileCount + other.mFileCount);
+        System.arraycopy(other.mFileTables, 0, mFileTables, mFileCount, other.mFileCount);
+        System.arraycopy(other.mFileEntries, 0, mFileEntries, mFileCount, other.mFileCount);
+        System.arraycopy(other.mPathNames, 0, mPathNames, mFileCount, other.mFileCount);
+        mFileCount += other.mFileCount;
+
+        ensureCapacity(mSize + other.mSize);
+        System.arraycopy(other.mAddresses, 0, mAddresses, mSize, other.mSize);
+        System.arraycopy(other.mLines, 0, mLines, mSize, other.mSize);
+        System.arraycopy(other.mEndLines, 0, mEndLines, mSize, other.mSize);
+        for (int i = 0; i < other.mSize; i++) {
+            mFiles[mSize + i] = other.mFiles[i] + fileBase;
+        }
+        mSize += other.mSize;
+    }
+
+    /**
+     * Stable sort of the rows by address, rows of the same address keep
+     * their order.
+     */
+    public void sort() {
+        int[] order = AddressSort.sort(mAddresses, mSize);
+        if (order == null) {
+            return;
+        }
+        mAddresses = AddressSort.permute(mAddresses, order);
+        mFiles = AddressSort.permute(mFiles, order);
+        mLines = AddressSort.permute(mLines, order);
+        mEndLines = AddressSort.permute(mEndLines, order);
+    }
+
+    public String getString(int index) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Long.toHexString(mAddresses[index]));
+        sb.append("\t");
+        sb.append(getFileName(mFiles[index]));
+        sb.append(":");
+        int line = mLines[index];
+        int endLine = mEndLines[index];
+        if ((0 == endLine) || (endLine == line)) {
+            sb.append(line);
+        } else if (endLine > line) {
+            sb.append(line);
+            sb.append("-");
+            sb.append(endLine);
+        } else {
+            sb.append(endLine);
+            sb.append("-");
+            sb.append(line);
+        }
+        sb.append("\n");
+        return sb.toString();
+    }
+
+    private void ensureFileCapacity(int capacity) {
+        if (capacity <= mFileTables.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mFileTables.length * 2);
+        mFileTables = Arrays.copyOf(mFileTables, newCapacity);
+        mFileEntries = Arrays.copyOf(mFileEntries, newCapacity);
+        mPathNames = Arrays.copyOf(mPathNames, newCapacity);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mAddresses.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mAddresses.length + (mAddresses.length >> 1));
+        mAddresses = Arrays.copyOf(mAddresses, newCapacity);
+        mFiles = Arrays.copyOf(mFiles, newCapacity);
+        mLines = Arrays.copyOf(mLines, newCapacity);
+        mEndLines = Arrays.copyOf(mEndLines, newCapacity);
+    }
+}
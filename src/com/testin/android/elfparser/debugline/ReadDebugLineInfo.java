@@ -7,36 +7,147 @@
 package com.testin.android.elfparser.debugline;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.testin.android.ExtractReport;
 import com.testin.android.Logger;
+import com.testin.android.jfr.CompilationUnitDecodeEvent;
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.AddressSort;
+import com.testin.android.elfparser.CompressedSection;
 import com.testin.android.elfparser.ReadHelper;
-import com.testin.android.elfparser.debugline.DebugLineInfoEntry.LineInfoEntry;
+import com.testin.android.elfparser.ReadSection;
 
 /**
  * Read ELF debug line info
- * 
+ *
+ * The compilation units are found by a fast scan of their headers first,
+ * then their line number programs are decoded in parallel on a fork-join
+ * pool. The rows are merged back in unit order, so the sorted result is the
+ * same as a sequential decode. read(LineSink) sends the same rows in the
+ * same order without keeping all of them.
+ *
+ * Units of version 2 to 5 are decoded by DebugLineProgram, the names of
+ * version 5 file tables are read from .debug_line_str and .debug_str.
+ *
+ * A compressed section has no unit boundaries before it is inflated, and
+ * a zlib stream is inflated in order only. So it is inflated a unit at a
+ * time by one thread, and every unit is decoded in turn, or on a pool of
+ * inflate threads while the next ones are inflated. The units of a
+ * compressed section are at their offset in the inflated section, from
+ * the offset of the section in the file.
  */
 
 public class ReadDebugLineInfo extends ReadHelper {
-    private static final int ENTRY_VERSION_2 = 2;
-    private static final int ENTRY_VERSION_3 = 3;
-    private static final int ENTRY_VERSION_4 = 4;
+    private static int sParallelism = Runtime.getRuntime().availableProcessors();
+    // Pool shared by all the reads in flight, instead of a pool per read
+    private static volatile ForkJoinPool sSharedPool = null;
+    // Threads decoding the units of a compressed section while it is inflated
+    private static int sInflateThreads = 1;
+    // Units inflated and not decoded yet, per decoding thread
+    private static final int INFLATE_WINDOW = 4;
+    // Inflated units kept between the passes of read(LineSink)
+    private static final long INFLATE_MEMORY = 64L << 20;
 
-    public Vector<LineInfoEntry> mAllLineInfoEntries = null;
-    private String mFileName = null;
+    public LineTable mLineTable = null;
+    private ElfFile mElfFile = null;
     private long mOffset = 0L;
     private long mSize = 0L;
+    private LineStrings mStrings = null;
+    private CompressedSection mCompressed = null;
+    private ExtractReport mReport = null;
+    private Thread mCaller = null;
+    private int mUnitCount = 0;
+    private AtomicLong mOpcodeCount = new AtomicLong();
+    private AtomicLong mRowCount = new AtomicLong();
 
-    public ReadDebugLineInfo(String elfFile, boolean isLsb, long offset, long size) throws IOException {
+    /**
+     * Read .debug_line of the sections, with the string sections of
+     * version 5 units. Compressed sections are inflated.
+     */
+    public ReadDebugLineInfo(ElfFile elfFile, ReadSection readSection) throws IOException {
+        this(elfFile, readSection.getDebugLineOffset(), readSection.getDebugLineSize());
+        mStrings = new LineStrings(elfFile, readSection);
+        mCompressed = readSection.getDebugLineCompressed();
+    }
+
+    /**
+     * Read the .debug_line section at offset, a version 5 unit naming its
+     * files by string section offsets fails.
+     */
+    public ReadDebugLineInfo(ElfFile elfFile, long offset, long size) throws IOException {
         super(elfFile);
-        mFileName = elfFile;
+        mElfFile = elfFile;
         mOffset = offset;
         mSize = size;
-        setLSB(isLsb);
-        mAllLineInfoEntries = new Vector<LineInfoEntry> ();
+        mLineTable = new LineTable();
+        mStrings = new LineStrings(elfFile, 0L, 0L, 0L, 0L);
+    }
+
+    public static void setParallelism(int parallelism) {
+        sParallelism = Math.max(parallelism, 1);
+    }
+
+    public static int getParallelism() {
+        return sParallelism;
+    }
+
+    /**
+     * Decode the units of a compressed section on threads threads while it
+     * is inflated, or on the inflating thread if 1.
+     */
+    public static void setInflateThreads(int threads) {
+        sInflateThreads = Math.max(threads, 1);
+    }
+
+    public static int getInflateThreads() {
+        return sInflateThreads;
+    }
+
+    /**
+     * Decode the units of every read on pool, such as the reads of a batch
+     * running at the same time, or on a pool of their own if null. The
+     * pool is not shut down by the reads.
+     */
+    public static void setSharedPool(ForkJoinPool pool) {
+        sSharedPool = pool;
+    }
+
+    /**
+     * Report the sort phase and the usage of decoding workers.
+     */
+    public void setReport(ExtractReport report) {
+        mReport = report;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public int getUnitCount() {
+        return mUnitCount;
+    }
+
+    /**
+     * Opcodes run by all passes over the line number programs.
+     */
+    public long getOpcodeCount() {
+        return mOpcodeCount.get();
+    }
+
+    /**
+     * Rows decoded by the last pass, same address rows merged.
+     */
+    public long getRowCount() {
+        return mRowCount.get();
     }
 
     public void read() {
@@ -46,65 +157,666 @@ public class ReadDebugLineInfo extends ReadHelper {
             return;
         }
 
+        ForkJoinPool pool = null;
         try {
-            seek(mOffset);
-            long offset = mOffset;
-            long remainSize = mSize;
-            long totalLength = -1L;
-            int entryVer = 0;
-            DebugLineInfoEntry entry = null;
+            UnitHeader[] units = null;
+            DebugLineInfoEntry[] entries = null;
+            if (mCompressed != null) {
+                pool = createInflatePool();
+                List<DebugLineInfoEntry> decoded = new ArrayList<DebugLineInfoEntry>();
+                units = inflateUnits(pool, decoded, null);
+                entries = decoded.toArray(new DebugLineInfoEntry[decoded.size()]);
+            } else {
+                units = scanUnits();
+                entries = new DebugLineInfoEntry[units.length];
+                pool = createPool(units.length);
+                decodeUnits(pool, units, entries);
+            }
 
-            while(remainSize > 0) {
-                totalLength = readWord();
-                if (-1L == totalLength) {
-                    totalLength = readTWord();
+            for (int i = 0; i < entries.length; i++) {
+                DebugLineInfoEntry entry = entries[i];
+                if ((entry == null) || !entry.readSucceed()) {
+                    logSkippedUnit(units[i]);
+                    continue;
                 }
+                // Collect debug line info
+                mLineTable.append(entry.mLineTable);
+                // Rows are owned by mLineTable from now on
+                entry.mLineTable = null;
+            }
+
+            mRowCount.set(mLineTable.size());
+            if (mReport != null) {
+                mReport.begin(ExtractReport.PHASE_SORT);
+            }
+            mLineTable.sort();
+            if (mReport != null) {
+                mReport.end(ExtractReport.PHASE_SORT, 0L);
+            }
+        } catch (IOException e) {
+            Logger.LogError("ReadDebugLineInfo read failed:" + e.toString());
+            readFinish(false);
+        } finally {
+            releasePool(pool);
+        }
+
+        readFinish();
+    }
+
+    /**
+     * Stream the rows in address order to the sink instead of collecting
+     * them in mLineTable.
+     *
+     * A first pass only scans the line number programs for a lower bound
+     * of the addresses of every unit, from their DW_LNE_set_address
+     * operands. Then the units are decoded once, ordered by lower bound, a
+     * window of parallelism units at a time. The rows of a decoded unit are
+     * sorted, and merged with the rows still pending from earlier units.
+     * Every pending row lower than the bound of the next unit is sent, as no
+     * later unit could have a lower one. So only the rows of the units being
+     * decoded and the rows overlapping them are held in memory. The rows are
+     * sent in the same order as read() sorts them.
+     *
+     * The first pass over a compressed section keeps the inflated units up
+     * to INFLATE_MEMORY bytes. The units dropped are inflated again when
+     * the second pass reaches them, with the next dropped ones fitting in
+     * the memory left, by a stream skipping to their ranges.
+     */
+    public void read(LineSink sink) {
+        if (mOffset == 0 || mSize == 0) {
+            Logger.LogError("ReadDebugLineInfo read failed with wrong offset or size!");
+            readFinish(false);
+            return;
+        }
+
+        ForkJoinPool pool = null;
+        InflatedUnits inflated = null;
+        try {
+            UnitHeader[] units = null;
+            if (mCompressed != null) {
+                pool = createInflatePool();
+                inflated = new InflatedUnits();
+                units = inflateUnits(pool, null, inflated);
+            } else {
+                units = scanUnits();
+                pool = createPool(units.length);
+                decodeUnits(pool, units, null);
+            }
 
-                if (0 == entryVer) {
-                    entryVer = readHalf();
+            // As read(), skip the units which could not be decoded
+            int unitNum = 0;
+            for (UnitHeader unit : units) {
+                if (unit.mSucceed) {
+                    units[unitNum++] = unit;
+                } else {
+                    logSkippedUnit(unit);
+                    if (inflated != null) {
+                        inflated.drop(unit);
+                    }
                 }
+            }
+            long[] minAddresses = new long[unitNum];
+            for (int i = 0; i < unitNum; i++) {
+                minAddresses[i] = units[i].mMinAddress;
+            }
+            int[] order = AddressSort.sort(minAddresses, unitNum);
+            UnitHeader[] sorted = new UnitHeader[unitNum];
+            for (int i = 0; i < unitNum; i++) {
+                sorted[i] = units[order == null ? i : order[i]];
+            }
 
-                switch (entryVer) {
-                    case ENTRY_VERSION_2:
-                        entry = new DebugLineInfoEntry2(mFileName, isLSB(), offset);
-                        break;
-                    case ENTRY_VERSION_3:
-                        break;
-                    case ENTRY_VERSION_4:
+            PendingRows pending = new PendingRows(unitNum);
+            int window = Math.max(sParallelism, 1);
+            for (int from = 0; from < unitNum; from += window) {
+                int to = Math.min(from + window, unitNum);
+                if (inflated != null) {
+                    inflated.load(sorted, from, to);
+                }
+                UnitHeader[] batch = Arrays.copyOfRange(sorted, from, to);
+                DebugLineInfoEntry[] entries = new DebugLineInfoEntry[batch.length];
+                decodeUnits(pool, batch, entries);
+                if (inflated != null) {
+                    inflated.release(batch);
                 }
 
-                entry.read();
-                if (!entry.readSucceed()) {
-                    break;
+                for (int i = from; i < to; i++) {
+                    DebugLineInfoEntry entry = entries[i - from];
+                    entries[i - from] = null;
+                    if ((entry == null) || !entry.readSucceed()) {
+                        // The first pass only scans, so a unit may fail here
+                        logSkippedUnit(batch[i - from]);
+                    } else {
+                        pending.add(order == null ? i : order[i], entry.mLineTable);
+                    }
+                    if (i + 1 < unitNum) {
+                        pending.send(sink, minAddresses[order == null ? i + 1 : order[i + 1]]);
+                    }
                 }
-                // Collect debug line info
-                mAllLineInfoEntries.addAll(entry.mLineInfoEntries);
-                offset += entry.size();
-                remainSize -= entry.size();
             }
+            pending.flush(sink);
+        } catch (Exception e) {
+            Logger.LogError("ReadDebugLineInfo read failed:" + e.toString());
+            readFinish(false);
+        } finally {
+            releasePool(pool);
+            if (inflated != null) {
+                inflated.close();
+            }
+        }
+
+        readFinish();
+    }
+
+    /**
+     * Walk the total_length fields to find where every compilation unit
+     * starts, without decoding the line number programs.
+     */
+    private UnitHeader[] scanUnits() throws IOException {
+        mCaller = Thread.currentThread();
+        List<UnitHeader> units = new ArrayList<UnitHeader>();
+        long offset = mOffset;
+        long end = mOffset + mSize;
+
+        while (offset < end) {
+            seek(offset);
+            int fstFieldSize = WORD_SIZE;
+            long totalLength = readWord();
+            if (DebugLineInfoEntry.DWARF64_LENGTH == totalLength) {
+                totalLength = readTWord();
+                fstFieldSize += TWORD_SIZE;
+            }
+            if (totalLength <= 0) {
+                Logger.LogError("ReadDebugLineInfo found wrong unit length at " + offset);
+                break;
+            }
+
+            UnitHeader unit = new UnitHeader();
+            unit.mOffset = offset;
+            unit.mSize = totalLength + fstFieldSize;
+            unit.mVersion = readHalf();
+            units.add(unit);
+            offset += unit.mSize;
+        }
+
+        mUnitCount = units.size();
+        return units.toArray(new UnitHeader[units.size()]);
+    }
+
+    /**
+     * Inflate the compressed section unit by unit, each unit decoded on the
+     * pool while the next ones are inflated. At most INFLATE_WINDOW units
+     * per thread are inflated and not decoded yet, so the memory is bounded
+     * by the units in flight rather than by the section.
+     *
+     * The entries are added in unit order. When entries is null only the
+     * lower bounds of the addresses are found, and the inflated units are
+     * kept while inflated has memory for them.
+     */
+    private UnitHeader[] inflateUnits(ForkJoinPool pool, List<DebugLineInfoEntry> entries,
+            InflatedUnits inflated) throws IOException {
+        mCaller = Thread.currentThread();
+        List<UnitHeader> units = new ArrayList<UnitHeader>();
+        ArrayDeque<ForkJoinTask<DebugLineInfoEntry>> pending = new ArrayDeque<ForkJoinTask<DebugLineInfoEntry>>();
+        int window = (pool != null) ? INFLATE_WINDOW * pool.getParallelism() : 1;
+        long end = mCompressed.getUncompressedSize();
+        long offset = 0L;
+        byte[] length = new byte[WORD_SIZE + TWORD_SIZE];
+
+        CompressedSection.Stream stream = mCompressed.open();
+        try {
+            while (offset < end) {
+                int fstFieldSize = WORD_SIZE;
+                stream.readFully(length, 0, WORD_SIZE);
+                long totalLength = getUnsigned(length, 0, WORD_SIZE);
+                if (DebugLineInfoEntry.DWARF64_LENGTH == totalLength) {
+                    stream.readFully(length, WORD_SIZE, TWORD_SIZE);
+                    totalLength = getUnsigned(length, WORD_SIZE, TWORD_SIZE);
+                    fstFieldSize += TWORD_SIZE;
+                }
+                long size = totalLength + fstFieldSize;
+                if ((totalLength <= 0) || (size > end - offset) || (size > Integer.MAX_VALUE)) {
+                    Logger.LogError("ReadDebugLineInfo found wrong unit length at " + offset + " of inflated section");
+                    break;
+                }
 
-            Collections.sort(mAllLineInfoEntries, new Comparator<LineInfoEntry>() {
-                @Override
-                public int compare(LineInfoEntry arg0, LineInfoEntry arg1) {
-                    return (int)(arg0.mStartAddress - arg1.mStartAddress);
+                byte[] bytes = new byte[(int) size];
+                System.arraycopy(length, 0, bytes, 0, fstFieldSize);
+                stream.readFully(bytes, fstFieldSize, bytes.length - fstFieldSize);
+                UnitHeader unit = new UnitHeader();
+                unit.mOffset = mOffset + offset;
+                unit.mSize = size;
+                unit.mVersion = (size >= fstFieldSize + HALF_SIZE) ? (int) getUnsigned(bytes, fstFieldSize, HALF_SIZE) : 0;
+                unit.mBytes = bytes;
+                units.add(unit);
+                offset += size;
+
+                boolean keep = (inflated != null) && inflated.keep(unit);
+                InflatedUnitDecode decode = new InflatedUnitDecode(unit, units.size() - 1, entries == null, keep);
+                if (pool == null) {
+                    addEntry(entries, decode.call());
+                    continue;
+                }
+                pending.add(pool.submit(decode));
+                if (pending.size() >= window) {
+                    addEntry(entries, pending.poll().join());
                 }
-            });
+            }
+            while (!pending.isEmpty()) {
+                addEntry(entries, pending.poll().join());
+            }
+        } finally {
+            stream.close();
+        }
+
+        mUnitCount = units.size();
+        return units.toArray(new UnitHeader[units.size()]);
+    }
+
+    private static void logSkippedUnit(UnitHeader unit) {
+        Logger.LogWarn("ReadDebugLineInfo skipped unit at " + unit.mOffset + " which could not be decoded");
+    }
+
+    private static void addEntry(List<DebugLineInfoEntry> entries, DebugLineInfoEntry entry) {
+        if (entries != null) {
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Decode size bytes at pos of b in the byte order of the file.
+     */
+    private long getUnsigned(byte[] b, int pos, int size) {
+        long ret = 0L;
+        for (int i = 0; i < size; i++) {
+            int index = mIsLSB ? (pos + size - 1 - i) : (pos + i);
+            ret = (ret << 8) | (b[index] & 0xFF);
+        }
+        return ret;
+    }
+
+    /**
+     * Create the entry of a unit, from its inflated bytes if it comes from
+     * a compressed section.
+     */
+    private DebugLineInfoEntry createEntry(UnitHeader unit) throws IOException {
+        byte[] bytes = unit.mBytes;
+        if ((bytes == null) && (mCompressed != null)) {
+            throw new IOException("Unit at " + unit.mOffset + " is not inflated");
+        }
+        if ((unit.mVersion < DebugLineProgram.MIN_VERSION) || (unit.mVersion > DebugLineProgram.MAX_VERSION)) {
+            Logger.LogError("Unsupport debug line version " + unit.mVersion + " at " + unit.mOffset);
+            return null;
+        }
+        if (bytes != null) {
+            return new DebugLineProgram(mElfFile, unit.mOffset, mStrings, bytes);
+        }
+        return new DebugLineProgram(mElfFile, unit.mOffset, mStrings);
+    }
+
+    private ForkJoinPool createPool(int unitNum) {
+        if ((sSharedPool != null) && (unitNum > 1)) {
+            return sSharedPool;
+        }
+        int parallelism = Math.min(sParallelism, unitNum);
+        return (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+    }
+
+    private static ForkJoinPool createInflatePool() {
+        return (sInflateThreads > 1) ? new ForkJoinPool(sInflateThreads) : null;
+    }
+
+    private static void releasePool(ForkJoinPool pool) {
+        if ((pool != null) && (pool != sSharedPool)) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Decode the units and keep them in entries, or when entries is null
+     * only record whether they succeed and their lowest address.
+     */
+    private void decodeUnits(ForkJoinPool pool, UnitHeader[] units, DebugLineInfoEntry[] entries) {
+        DecodeTask task = new DecodeTask(units, entries, 0, units.length);
+        if (pool == null) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     * Decode a unit, keep only its lowest address if rangeOnly. Return the
+     * entry, or null if it could not be created.
+     */
+    private DebugLineInfoEntry decodeUnit(UnitHeader unit, int index, boolean rangeOnly) {
+        DebugLineInfoEntry entry = null;
+        try {
+            entry = createEntry(unit);
         } catch (IOException e) {
-            Logger.LogError("ReadSection read failed:" + e.toString());
-            readFinish(false);
+            Logger.LogError("ReadDebugLineInfo create entry failed:" + e.toString());
+        }
+        if (!rangeOnly) {
+            // Inflated units are decoded once
+            unit.mBytes = null;
+        }
+        if (entry == null) {
+            return null;
         }
 
-        readFinish();
+        entry.setRangeOnly(rangeOnly);
+        // The usage of the calling thread is measured by the report itself
+        boolean isWorker = (mReport != null) && (Thread.currentThread() != mCaller);
+        long cpu = isWorker ? ExtractReport.getThreadCpuTime() : 0L;
+        long allocated = isWorker ? ExtractReport.getThreadAllocatedBytes() : 0L;
+        CompilationUnitDecodeEvent event = new CompilationUnitDecodeEvent();
+        event.begin();
+        entry.read();
+        event.end();
+        if (isWorker) {
+            mReport.addWorkerUsage(ExtractReport.getThreadCpuTime() - cpu,
+                    ExtractReport.getThreadAllocatedBytes() - allocated);
+        }
+        if (event.shouldCommit()) {
+            event.unitIndex = index;
+            event.offset = unit.mOffset;
+            event.sectionOffset = unit.mOffset - mOffset;
+            event.length = unit.mSize;
+            event.version = unit.mVersion;
+            event.rowCount = entry.mLineTable.size();
+            event.opcodeCount = entry.getOpcodeCount();
+            event.rangeOnly = rangeOnly;
+            event.succeed = entry.readSucceed();
+            event.commit();
+        }
+        mOpcodeCount.addAndGet(entry.getOpcodeCount());
+        if (!rangeOnly) {
+            mRowCount.addAndGet(entry.mLineTable.size());
+        }
+        unit.mSucceed = entry.readSucceed();
+        unit.mMinAddress = entry.getMinAddress();
+        return entry;
     }
 
     public void print() {
+        if (!Logger.isDebugEnabled()) {
+            return;
+        }
         if (!readSucceed()) {
             Logger.LogDebug("Read Debug Line Info failed!");
             return;
         }
         Logger.LogDebug("------------ Debug Line Info ------------");
-        for (LineInfoEntry lie : mAllLineInfoEntries) {
-            Logger.LogDebug(lie.getString());
+        for (int i = 0; i < mLineTable.size(); i++) {
+            Logger.LogDebug(mLineTable.getString(i));
+        }
+    }
+
+    private static class UnitHeader {
+        public long mOffset = 0L;
+        public long mSize = 0L;
+        public int mVersion = 0;
+        public boolean mSucceed = false;
+        public long mMinAddress = -1L;
+        // Unit of a compressed section, inflated until it is decoded
+        public byte[] mBytes = null;
+    }
+
+    /**
+     * Decode of a unit inflated by inflateUnits(), which keeps the inflated
+     * unit after a range-only decode if keep.
+     */
+    private class InflatedUnitDecode implements Callable<DebugLineInfoEntry> {
+        private final UnitHeader mUnit;
+        private final int mIndex;
+        private final boolean mRangeOnly;
+        private final boolean mKeep;
+
+        public InflatedUnitDecode(UnitHeader unit, int index, boolean rangeOnly, boolean keep) {
+            mUnit = unit;
+            mIndex = index;
+            mRangeOnly = rangeOnly;
+            mKeep = keep;
+        }
+
+        @Override
+        public DebugLineInfoEntry call() {
+            DebugLineInfoEntry entry = decodeUnit(mUnit, mIndex, mRangeOnly);
+            if (!mKeep) {
+                mUnit.mBytes = null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Inflated units of a compressed section between the passes of
+     * read(LineSink), at most INFLATE_MEMORY bytes of them beside the
+     * units being decoded.
+     */
+    private class InflatedUnits {
+        private long mResident = 0L;
+        private CompressedSection.Stream mStream = null;
+
+        /**
+         * Return whether the unit inflated by the first pass is kept.
+         */
+        public boolean keep(UnitHeader unit) {
+            if (mResident + unit.mSize > INFLATE_MEMORY) {
+                return false;
+            }
+            mResident += unit.mSize;
+            return true;
+        }
+
+        /**
+         * Inflate the units from to to of the decode order which were not
+         * kept, and the next ones fitting in the memory left. They are
+         * read in section order, by one stream while the ranges are ahead
+         * of it, or by a new stream from the start.
+         */
+        public void load(UnitHeader[] units, int from, int to) throws IOException {
+            List<UnitHeader> loads = new ArrayList<UnitHeader>();
+            long size = 0L;
+            for (int i = from; i < units.length; i++) {
+                UnitHeader unit = units[i];
+                if (unit.mBytes != null) {
+                    continue;
+                }
+                if ((i >= to) && (mResident + size + unit.mSize > INFLATE_MEMORY)) {
+                    break;
+                }
+                loads.add(unit);
+                size += unit.mSize;
+            }
+            if (loads.isEmpty()) {
+                return;
+            }
+
+            long[] offsets = new long[loads.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = loads.get(i).mOffset;
+            }
+            int[] order = AddressSort.sort(offsets, offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                UnitHeader unit = loads.get(order == null ? i : order[i]);
+                long sectionOffset = unit.mOffset - mOffset;
+                if ((mStream != null) && (mStream.position() > sectionOffset)) {
+                    close();
+                }
+                if (mStream == null) {
+                    mStream = mCompressed.open();
+                }
+                mStream.skip(sectionOffset - mStream.position());
+                byte[] bytes = new byte[(int) unit.mSize];
+                mStream.readFully(bytes, 0, bytes.length);
+                unit.mBytes = bytes;
+            }
+            mResident += size;
+        }
+
+        /**
+         * Drop a unit which is not decoded.
+         */
+        public void drop(UnitHeader unit) {
+            if (unit.mBytes != null) {
+                mResident -= unit.mSize;
+                unit.mBytes = null;
+            }
+        }
+
+        /**
+         * Forget the units decoded.
+         */
+        public void release(UnitHeader[] units) {
+            for (UnitHeader unit : units) {
+                mResident -= unit.mSize;
+            }
+        }
+
+        public void close() {
+            if (mStream != null) {
+                try {
+                    mStream.close();
+                } catch (IOException e) {
+                    Logger.LogError("ReadDebugLineInfo close inflate stream failed:" + e.toString());
+                }
+                mStream = null;
+            }
+        }
+    }
+
+    private class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final UnitHeader[] mUnits;
+        private final DebugLineInfoEntry[] mEntries;
+        private final int mFrom;
+        private final int mTo;
+
+        public DecodeTask(UnitHeader[] units, DebugLineInfoEntry[] entries, int from, int to) {
+            mUnits = units;
+            mEntries = entries;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > 1 && getPool() != null) {
+                int mid = (mFrom + mTo) >>> 1;
+                invokeAll(new DecodeTask(mUnits, mEntries, mFrom, mid),
+                        new DecodeTask(mUnits, mEntries, mid, mTo));
+                return;
+            }
+            for (int i = mFrom; i < mTo; i++) {
+                decode(i);
+            }
+        }
+
+        private void decode(int index) {
+            DebugLineInfoEntry entry = decodeUnit(mUnits[index], index, mEntries == null);
+            if (mEntries != null) {
+                mEntries[index] = entry;
+            }
+        }
+    }
+
+    /**
+     * Rows decoded but not sent yet, as a run of address sorted rows per
+     * unit merged by a binary heap of the run heads. The heads of equal
+     * address are taken in unit order, so the rows are sent by address then
+     * by unit then by row, as read() sorts them. The table of a unit is
+     * dropped once all its rows are sent.
+     */
+    private static class PendingRows {
+        private final LineTable[] mTables;
+        private final int[] mHeads;
+        private final int[] mHeap;
+        private int mHeapSize = 0;
+
+        public PendingRows(int unitNum) {
+            mTables = new LineTable[unitNum];
+            mHeads = new int[unitNum];
+            mHeap = new int[unitNum];
+        }
+
+        public void add(int unit, LineTable table) {
+            if (table.size() == 0) {
+                return;
+            }
+            table.sort();
+            mTables[unit] = table;
+            mHeads[unit] = 0;
+            int index = mHeapSize++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (!less(unit, mHeap[parent])) {
+                    break;
+                }
+                mHeap[index] = mHeap[parent];
+                index = parent;
+            }
+            mHeap[index] = unit;
+        }
+
+        /**
+         * Send the rows lower than limit.
+         */
+        public void send(LineSink sink, long limit) throws Exception {
+            while ((mHeapSize > 0) && (Long.compareUnsigned(headAddress(mHeap[0]), limit) < 0)) {
+                sendHead(sink);
+            }
+        }
+
+        public void flush(LineSink sink) throws Exception {
+            while (mHeapSize > 0) {
+                sendHead(sink);
+            }
+        }
+
+        private long headAddress(int unit) {
+            return mTables[unit].getAddress(mHeads[unit]);
+        }
+
+        private boolean less(int unit, int other) {
+            int cmp = Long.compareUnsigned(headAddress(unit), headAddress(other));
+            return (cmp < 0) || ((cmp == 0) && (unit < other));
+        }
+
+        private void sendHead(LineSink sink) throws Exception {
+            int unit = mHeap[0];
+            LineTable table = mTables[unit];
+            int row = mHeads[unit]++;
+            sink.addLine(table.getAddress(row), table.getPathName(table.getFile(row)),
+                    table.getLine(row), table.getEndLine(row));
+            if (mHeads[unit] == table.size()) {
+                mTables[unit] = null;
+                if (--mHeapSize == 0) {
+                    return;
+                }
+                mHeap[0] = mHeap[mHeapSize];
+            }
+            siftDown();
+        }
+
+        private void siftDown() {
+            int unit = mHeap[0];
+            int index = 0;
+            while (true) {
+                int child = (index << 1) + 1;
+                if (child >= mHeapSize) {
+                    break;
+                }
+                if ((child + 1 < mHeapSize) && less(mHeap[child + 1], mHeap[child])) {
+                    child++;
+                }
+                if (!less(mHeap[child], unit)) {
+                    break;
+                }
+                mHeap[index] = mHeap[child];
+                index = child;
+            }
+            mHeap[index] = unit;
         }
     }
 }
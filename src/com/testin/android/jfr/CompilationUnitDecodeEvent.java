@@ -0,0 +1,61 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One compilation unit of .debug_line decoded by ReadDebugLineInfo
+ *
+ * The offsets match the unit offsets logged by ReadDebugLineInfo, so a
+ * slow unit could be dumped with readelf --debug-dump=rawline.
+ */
+@Name("com.testin.android.CompilationUnitDecode")
+@Label("Compilation Unit Decode")
+@Description("Line number program of one compilation unit decoded")
+@Category({"Testin", "ElfSymbolExtractor"})
+@Enabled(false)
+@StackTrace(false)
+public class CompilationUnitDecodeEvent extends Event {
+    @Label("Unit Index")
+    public int unitIndex;
+
+    @Label("File Offset")
+    @Description("Offset of the unit in the ELF file")
+    public long offset;
+
+    @Label("Section Offset")
+    @Description("Offset of the unit in .debug_line")
+    public long sectionOffset;
+
+    @Label("Length")
+    @DataAmount
+    public long length;
+
+    @Label("Version")
+    public int version;
+
+    @Label("Row Count")
+    public int rowCount;
+
+    @Label("Opcode Count")
+    public long opcodeCount;
+
+    @Label("Range Only")
+    @Description("Only the address range is decoded, rows are not kept")
+    public boolean rangeOnly;
+
+    @Label("Succeed")
+    public boolean succeed;
+}
@@ -0,0 +1,37 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One ELF section copied out of the file by ReadSection
+ */
+@Name("com.testin.android.SectionLoad")
+@Label("Section Load")
+@Description("ELF section read into memory")
+@Category({"Testin", "ElfSymbolExtractor"})
+@Enabled(false)
+@StackTrace(false)
+public class SectionLoadEvent extends Event {
+    @Label("Name")
+    public String name;
+
+    @Label("File Offset")
+    public long offset;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+}
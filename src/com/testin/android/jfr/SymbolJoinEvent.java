@@ -0,0 +1,46 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Debug line rows joined with the function table by SymbolJoiner
+ *
+ * In streaming mode the join runs while the units are decoded, so the
+ * event spans the decoding too.
+ */
+@Name("com.testin.android.SymbolJoin")
+@Label("Symbol Join")
+@Description("Debug line rows joined with the functions into symbol rows")
+@Category({"Testin", "ElfSymbolExtractor"})
+@Enabled(false)
+@StackTrace(false)
+public class SymbolJoinEvent extends Event {
+    @Label("Source File")
+    public String source;
+
+    @Label("Streaming")
+    public boolean streaming;
+
+    @Label("Function Count")
+    public int functionCount;
+
+    @Label("Line Count")
+    @Description("Debug line rows passed to the join")
+    public long lineCount;
+
+    @Label("Symbol Count")
+    @Description("Symbol rows written")
+    public long symbolCount;
+}
@@ -0,0 +1,44 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * .symtab read and sorted by ReadSymbolSection
+ */
+@Name("com.testin.android.SymbolTableLoad")
+@Label("Symbol Table Load")
+@Description("Symbol table read, filtered and sorted")
+@Category({"Testin", "ElfSymbolExtractor"})
+@Enabled(false)
+@StackTrace(false)
+public class SymbolTableLoadEvent extends Event {
+    @Label("File Offset")
+    public long offset;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+
+    @Label("Entry Count")
+    public int entryCount;
+
+    @Label("Function Count")
+    @Description("Symbols kept for the join")
+    public int functionCount;
+
+    @Label("Succeed")
+    public boolean succeed;
+}
@@ -0,0 +1,52 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Symbol file written by ElfSymbolExtractor, from opening the zip to
+ * closing it
+ */
+@Name("com.testin.android.ZipWrite")
+@Label("Zip Write")
+@Description("Symbol file deflated and written")
+@Category({"Testin", "ElfSymbolExtractor"})
+@Enabled(false)
+@StackTrace(false)
+public class ZipWriteEvent extends Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Entry Name")
+    public String entryName;
+
+    @Label("Uncompressed Size")
+    @DataAmount
+    public long uncompressedSize;
+
+    @Label("Compressed Size")
+    @DataAmount
+    public long compressedSize;
+
+    @Label("Throughput")
+    @Description("Uncompressed bytes per second over the whole write")
+    @DataAmount
+    @Frequency
+    public long throughput;
+
+    @Label("Succeed")
+    public boolean succeed;
+}
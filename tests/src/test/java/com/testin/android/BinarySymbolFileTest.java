@@ -0,0 +1,76 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Binary symbol files read back as the Symbolizer they were written from,
+ * and never left partial
+ */
+public class BinarySymbolFileTest {
+    @TempDir
+    File mDir;
+
+    @BeforeEach
+    public void setUp() {
+        ElfSymbolExtractor.setFormat(ElfSymbolExtractor.FORMAT_BINARY);
+    }
+
+    @AfterEach
+    public void reset() {
+        ElfSymbolExtractor.setFormat(ElfSymbolExtractor.FORMAT_ZIP);
+    }
+
+    @Test
+    public void readsBackTheWrittenRows() throws Exception {
+        for (String name : Fixtures.NAMES) {
+            File symbolFile = Fixtures.extract(name, mDir);
+            assertFalse(new File(symbolFile.getPath() + BinarySymbolFile.TMP_SUFFIX).exists());
+            Symbolizer expected = Symbolizer.load(new File(mDir, name + ".so").getPath());
+            BinarySymbolFile binary = BinarySymbolFile.open(symbolFile.getPath());
+            assertTrue(binary.getHeader().contains("Arch: x86"), name);
+            Fixtures.assertSameRows(expected, binary);
+        }
+    }
+
+    @Test
+    public void keepsTheFileWhenWriteFails() throws Exception {
+        // Writes to /dev/full fail with ENOSPC, after the first buffer
+        File full = new File("/dev/full");
+        assumeTrue(full.exists());
+        File elf = Fixtures.generate(mDir, 50000L);
+        File symbolFile = Fixtures.getSymbolFile(elf, mDir);
+        File tmp = new File(symbolFile.getPath() + BinarySymbolFile.TMP_SUFFIX);
+        byte[] previous = "previous".getBytes("UTF-8");
+        Files.write(symbolFile.toPath(), previous);
+        Files.createSymbolicLink(tmp.toPath(), full.toPath());
+
+        assertFalse(Fixtures.newExtractor(elf, symbolFile).extract());
+        assertFalse(Files.exists(tmp.toPath(), LinkOption.NOFOLLOW_LINKS));
+        assertArrayEquals(previous, Files.readAllBytes(symbolFile.toPath()));
+        assertTrue(full.exists());
+
+        // And the next extraction replaces it
+        assertTrue(Fixtures.newExtractor(elf, symbolFile).extract());
+        BinarySymbolFile binary = BinarySymbolFile.open(symbolFile.getPath());
+        assertEquals(Symbolizer.load(elf.getPath()).size(), binary.size());
+    }
+}
@@ -0,0 +1,85 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.testin.android.elfparser.ReadHeader;
+
+/**
+ * Arch of a batch item, from its list line, its path or e_machine
+ */
+public class ElfSymbolBatchTest {
+    @TempDir
+    File mDir;
+
+    @Test
+    public void takesTheArchEndingAListLine() {
+        assertEquals("x86", ElfSymbolBatch.getListArch("/libs/libfoo.so x86"));
+        assertEquals("arm64-v8a", ElfSymbolBatch.getListArch("/my libs/libfoo.so\tarm64-v8a"));
+        assertEquals("armeabi", ElfSymbolBatch.getListArch("/my libs/libfoo.so  armeabi"));
+        assertNull(ElfSymbolBatch.getListArch("/my libs/libfoo.so"));
+        assertNull(ElfSymbolBatch.getListArch("/my libs/lib foo.so"));
+        assertNull(ElfSymbolBatch.getListArch("/libs/libfoo.so x86-ish"));
+        assertNull(ElfSymbolBatch.getListArch("x86"));
+    }
+
+    @Test
+    public void takesTheArchOfThePath() {
+        assertEquals("x86", getArch("/libs/x86/libfoo.so"));
+        assertEquals("armeabi-v7a", getArch("/my project/libs/armeabi-v7a/libfoo.so"));
+        assertEquals("mips64", getArch("/app/obj/local/mips64/objs/foo/libfoo.so"));
+        assertEquals("x86_64", getArch("obj/local/x86_64/libfoo.so"));
+        // Only the holding directory or the one under obj/local/
+        assertNull(getArch("/x86/libs/libfoo.so"));
+        assertNull(getArch("/app/obj/local/debug/libfoo.so"));
+        assertNull(getArch("/libs/x86 old/libfoo.so"));
+        assertNull(getArch("libfoo.so"));
+    }
+
+    @Test
+    public void takesTheArchOfTheMachine() {
+        assertEquals("x86", ElfSymbolBatch.getArchFromMachine(ReadHeader.EM_386, false));
+        assertEquals("x86_64", ElfSymbolBatch.getArchFromMachine(ReadHeader.EM_X86_64, true));
+        assertEquals("armeabi", ElfSymbolBatch.getArchFromMachine(ReadHeader.EM_ARM, false));
+        assertEquals("arm64-v8a", ElfSymbolBatch.getArchFromMachine(ReadHeader.EM_AARCH64, true));
+        assertEquals("mips", ElfSymbolBatch.getArchFromMachine(ReadHeader.EM_MIPS, false));
+        assertEquals("mips64", ElfSymbolBatch.getArchFromMachine(ReadHeader.EM_MIPS, true));
+        assertEquals("machine-243", ElfSymbolBatch.getArchFromMachine(243, true));
+    }
+
+    @Test
+    public void extractsAListWithSpacesInPaths() throws Exception {
+        File libs = new File(mDir, "my libs");
+        assertTrue(libs.mkdirs());
+        File fx = Fixtures.copy("libfx", libs);
+        File big = Fixtures.copy("libbig", libs);
+        File list = new File(mDir, "list.txt");
+        String lines = "# fixtures\n" + fx.getPath() + "\n  " + big.getPath() + " x86  \n";
+        Files.write(list.toPath(), lines.getBytes(Charset.forName("UTF-8")));
+
+        File out = new File(mDir, "out");
+        assertTrue(out.mkdirs());
+        ElfSymbolBatch batch = new ElfSymbolBatch(list.getPath(), out.getPath() + File.separator, 2);
+        assertTrue(batch.run());
+        assertTrue(Fixtures.getSymbolFile(fx, out).isFile());
+        assertTrue(Fixtures.getSymbolFile(big, out).isFile());
+    }
+
+    private static String getArch(String path) {
+        return ElfSymbolBatch.getArchFromPath(new File(path));
+    }
+}
@@ -0,0 +1,103 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.testin.android.bench.ElfCorpusGenerator;
+
+/**
+ * ELF fixtures of the tests, copied from the resources fixtures/<name>.elf
+ * to a directory because ElfFile needs a path
+ *
+ * ------------------------------------------------------------
+ *    Fixture  |    Content
+ *    libfx    | 12 units, 134 rows, header files inlined
+ *    libbig   | 150 units, 1909 rows
+ *    libmix   | 150 units with interleaved address ranges
+ *    libv5    | x86_64, DWARF 5 units naming their files by DW_FORM_line_strp
+ *    libv5z   | libv5 with the debug sections compressed by SHF_COMPRESSED
+ */
+public class Fixtures {
+    public static final String[] NAMES = {
+        "libfx", "libbig", "libmix", "libv5", "libv5z"
+    };
+
+    public static File copy(String name, File dir) throws IOException {
+        File file = new File(dir, name + ".so");
+        InputStream is = Fixtures.class.getClassLoader().getResourceAsStream("fixtures/" + name + ".elf");
+        if (is == null) {
+            throw new IOException("No fixture " + name);
+        }
+        try {
+            Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            is.close();
+        }
+        return file;
+    }
+
+    /**
+     * ELF32 x86 file of ElfCorpusGenerator, for more rows than the
+     * fixtures have.
+     */
+    public static File generate(File dir, long rowNum) throws IOException {
+        File file = new File(dir, "libgen" + rowNum + ".so");
+        ElfCorpusGenerator generator = new ElfCorpusGenerator();
+        generator.setRowCount(rowNum);
+        generator.write(file);
+        return file;
+    }
+
+    /**
+     * Extract the symbol file of the fixture into dir, with the format and
+     * streaming mode set by ElfSymbolExtractor, and return it.
+     */
+    public static File extract(String name, File dir) throws IOException {
+        return extract(copy(name, dir), dir);
+    }
+
+    public static File extract(File elf, File dir) throws IOException {
+        File symbolFile = getSymbolFile(elf, dir);
+        if (!newExtractor(elf, symbolFile).extract()) {
+            throw new IOException("Extract " + elf + " failed");
+        }
+        return symbolFile;
+    }
+
+    /**
+     * Symbol file of the ELF file in dir, in the format set by
+     * ElfSymbolExtractor
+     */
+    public static File getSymbolFile(File elf, File dir) {
+        String symbolFileName = ElfSymbolTool.getSymbolFileName("x86", elf.getName());
+        return new File(dir, symbolFileName + ElfSymbolExtractor.getSymbolFileSuffix());
+    }
+
+    public static ElfSymbolExtractor newExtractor(File elf, File symbolFile) {
+        return new ElfSymbolExtractor(elf.getPath(), "x86", symbolFile.getPath(),
+                ElfSymbolTool.getSymbolFileName("x86", elf.getName()));
+    }
+
+    public static void assertSameRows(SymbolIndex expected, SymbolIndex actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getStartAddress(row), actual.getStartAddress(row), "start of row " + row);
+            assertEquals(expected.getEndAddress(row), actual.getEndAddress(row), "end of row " + row);
+            assertEquals(expected.getFunction(row), actual.getFunction(row), "function of row " + row);
+            assertEquals(expected.getSourceFile(row), actual.getSourceFile(row), "file of row " + row);
+            assertEquals(expected.getLine(row), actual.getLine(row), "line of row " + row);
+            assertEquals(expected.getEndLine(row), actual.getEndLine(row), "end line of row " + row);
+        }
+    }
+}
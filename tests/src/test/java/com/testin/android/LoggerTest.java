@@ -0,0 +1,75 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Switching the async writer on and off while another thread logs
+ */
+public class LoggerTest {
+    private static final int LEVEL = Logger.getLevel();
+
+    @AfterEach
+    public void reset() {
+        Logger.setLevel(LEVEL);
+    }
+
+    @Test
+    public void stopsAsyncWhileLogging() throws Exception {
+        Logger.setLevel(Logger.LEVEL_DEBUG);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread logging = new Thread() {
+            @Override
+            public void run() {
+                int line = 0;
+                while (!stop.get()) {
+                    // Bursts, so lines are queued whenever the writer stops
+                    for (int i = 0; i < 100; i++) {
+                        Logger.LogDebug("LoggerTest line " + line++);
+                    }
+                    try {
+                        Thread.sleep(1L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        logging.setDaemon(true);
+        logging.start();
+
+        // setAsync(false) waits for the queued lines, which the writer
+        // must be able to print meanwhile
+        Thread switching = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    Logger.setAsync(true);
+                    try {
+                        Thread.sleep(20L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    Logger.setAsync(false);
+                }
+            }
+        };
+        switching.setDaemon(true);
+        switching.start();
+        switching.join(5000L);
+        stop.set(true);
+        assertFalse(switching.isAlive(), "setAsync(false) did not return");
+        logging.join(5000L);
+        assertFalse(logging.isAlive(), "logging did not return");
+    }
+}
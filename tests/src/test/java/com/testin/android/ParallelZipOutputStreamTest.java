@@ -0,0 +1,143 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Entries written by ParallelZipOutputStream inflate back to the input,
+ * through ZipInputStream (local header and data descriptor) and ZipFile
+ * (central directory)
+ */
+public class ParallelZipOutputStreamTest {
+    private static final String ENTRY_NAME = "TestinSymbol_x86_libfoo.so.symbol";
+    private static final int THREADS = 4;
+
+    @TempDir
+    File mDir;
+
+    @Test
+    public void writesAnEmptyEntry() throws Exception {
+        check(new byte[0], Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    public void writesExactlyOneBlock() throws Exception {
+        check(newRows(ParallelZipOutputStream.BLOCK_SIZE), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    public void writesManyBlocks() throws Exception {
+        // Rows repeat across the blocks, to be found through the dictionary
+        byte[] input = newRows(ParallelZipOutputStream.BLOCK_SIZE * 3 + 12345);
+        check(input, Deflater.DEFAULT_COMPRESSION);
+        check(input, Deflater.BEST_SPEED);
+        check(input, Deflater.NO_COMPRESSION);
+    }
+
+    @Test
+    public void writesRandomBlocks() throws Exception {
+        byte[] input = new byte[ParallelZipOutputStream.BLOCK_SIZE * 2 + 1];
+        new Random(5).nextBytes(input);
+        check(input, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private void check(byte[] input, int level) throws IOException {
+        File file = new File(mDir, "parallel" + input.length + "_" + level + ".zip");
+        ParallelZipOutputStream pzos = new ParallelZipOutputStream(
+                new FileOutputStream(file), ENTRY_NAME, level, THREADS);
+        try {
+            // Writes of odd sizes, across the block bounds
+            Random random = new Random(input.length);
+            int off = 0;
+            while (off < input.length) {
+                int len = Math.min(input.length - off, 1 + random.nextInt(100000));
+                pzos.write(input, off, len);
+                off += len;
+            }
+        } finally {
+            pzos.close();
+        }
+        assertEquals(input.length, pzos.getSize());
+
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, input.length);
+        ZipFile zipFile = new ZipFile(file);
+        try {
+            assertEquals(1, zipFile.size());
+            ZipEntry entry = zipFile.getEntry(ENTRY_NAME);
+            assertNotNull(entry);
+            assertEquals(input.length, entry.getSize());
+            assertEquals(pzos.getCompressedSize(), entry.getCompressedSize());
+            assertEquals(crc.getValue(), entry.getCrc());
+            assertArrayEquals(input, readAll(zipFile.getInputStream(entry)), "ZipFile");
+        } finally {
+            zipFile.close();
+        }
+
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
+        try {
+            ZipEntry entry = zis.getNextEntry();
+            assertNotNull(entry);
+            assertEquals(ENTRY_NAME, entry.getName());
+            assertArrayEquals(input, readAll(zis), "ZipInputStream");
+            assertEquals(crc.getValue(), entry.getCrc());
+            assertNull(zis.getNextEntry());
+        } finally {
+            zis.close();
+        }
+    }
+
+    /**
+     * Symbol file like rows of size bytes
+     */
+    private static byte[] newRows(int size) {
+        Random random = new Random(size);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            long start = 0x1000L + random.nextInt(1 << 20);
+            sb.append(Long.toHexString(start)).append(' ')
+                    .append(Long.toHexString(start + random.nextInt(64))).append(" func")
+                    .append(random.nextInt(1000)).append(" /src/file").append(random.nextInt(50))
+                    .append(".c ").append(random.nextInt(5000)).append('\n');
+        }
+        byte[] rows = new byte[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = (byte) sb.charAt(i);
+        }
+        return rows;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,107 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Lookups of a sharded symbol file with small shards, so many lookups
+ * cross from a shard to the next, against the Symbolizer of the ELF file
+ */
+public class ShardedSymbolFileTest {
+    @TempDir
+    File mDir;
+
+    @BeforeEach
+    public void setUp() {
+        ElfSymbolExtractor.setFormat(ElfSymbolExtractor.FORMAT_SHARDED);
+        ElfSymbolExtractor.setShardSize(1024);
+    }
+
+    @AfterEach
+    public void reset() {
+        ElfSymbolExtractor.setFormat(ElfSymbolExtractor.FORMAT_ZIP);
+        ElfSymbolExtractor.setShardSize(ShardedSymbolFile.DEFAULT_SHARD_SIZE);
+        ElfSymbolExtractor.setStreaming(false);
+    }
+
+    @Test
+    public void looksUpAcrossShards() throws Exception {
+        File symbolFile = Fixtures.extract("libbig", mDir);
+        Symbolizer expected = Symbolizer.load(new File(mDir, "libbig.so").getPath());
+        ShardedSymbolFile sharded = ShardedSymbolFile.open(symbolFile.getPath());
+        try {
+            assertTrue(sharded.getShardCount() > 10, "shards " + sharded.getShardCount());
+            assertEquals(0, sharded.getLoadedShardCount());
+
+            // Around the bounds of every row, the first and last rows of the
+            // shards among them
+            for (int row = 0; row < expected.size(); row++) {
+                long start = expected.getStartAddress(row);
+                long end = expected.getEndAddress(row);
+                long[] pcs = {
+                    start - 1, start, end - 1, end
+                };
+                for (long pc : pcs) {
+                    assertEquals(expected.lookup(pc), sharded.lookup(pc), "lookup of " + Long.toHexString(pc));
+                }
+            }
+            assertEquals(-1, sharded.lookup(0L));
+            assertEquals(-1, sharded.lookup(-1L));
+            assertEquals(sharded.getShardCount(), sharded.getLoadedShardCount());
+            assertTrue(sharded.getInflatedBytes() > 0);
+
+            Fixtures.assertSameRows(expected, sharded);
+        } finally {
+            sharded.close();
+        }
+    }
+
+    @Test
+    public void loadsOnlyTheShardsLookedUp() throws Exception {
+        File symbolFile = Fixtures.extract("libbig", mDir);
+        Symbolizer expected = Symbolizer.load(new File(mDir, "libbig.so").getPath());
+        ShardedSymbolFile sharded = ShardedSymbolFile.open(symbolFile.getPath());
+        try {
+            int last = expected.size() - 1;
+            assertEquals(last, sharded.lookup(expected.getStartAddress(last)));
+            assertEquals(1, sharded.getLoadedShardCount());
+            assertEquals(expected.getFunction(last), sharded.getFunction(last));
+        } finally {
+            sharded.close();
+        }
+    }
+
+    @Test
+    public void deletesTheFileWhenWriteFails() throws Exception {
+        // Writes to /dev/full fail with ENOSPC. The rows are many times
+        // the file buffer, so the first flush fails mid-stream.
+        File full = new File("/dev/full");
+        assumeTrue(full.exists());
+        File elf = Fixtures.generate(mDir, 50000L);
+        File symbolFile = Fixtures.getSymbolFile(elf, mDir);
+        for (int i = 0; i < 2; i++) {
+            ElfSymbolExtractor.setStreaming(i == 1);
+            Files.createSymbolicLink(symbolFile.toPath(), full.toPath());
+            assertFalse(Fixtures.newExtractor(elf, symbolFile).extract());
+            assertFalse(Files.exists(symbolFile.toPath(), LinkOption.NOFOLLOW_LINKS), "streaming " + (i == 1));
+            assertTrue(full.exists());
+        }
+    }
+}
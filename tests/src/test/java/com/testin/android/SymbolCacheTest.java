@@ -0,0 +1,177 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.testin.android.elfparser.ElfFile;
+
+/**
+ * Keys, hits and misses, stores and LRU eviction of SymbolCache
+ */
+public class SymbolCacheTest {
+    private static final int DEFLATE_LEVEL = ElfSymbolExtractor.getDeflateLevel();
+
+    @TempDir
+    File mDir;
+
+    private File mCacheDir = null;
+
+    @BeforeEach
+    public void setUp() {
+        mCacheDir = new File(mDir, "cache");
+        SymbolCache.setCacheDir(mCacheDir.getPath());
+    }
+
+    @AfterEach
+    public void reset() {
+        SymbolCache.setCacheDir(null);
+        SymbolCache.setCacheSizeMB(1024L);
+        ElfSymbolExtractor.setDeflateLevel(DEFLATE_LEVEL);
+    }
+
+    @Test
+    public void keysByContentAndOptions() throws Exception {
+        File elf = Fixtures.copy("libfx", mDir);
+        File same = new File(mDir, "libsame.so");
+        Files.copy(elf.toPath(), same.toPath());
+        File changed = new File(mDir, "libchanged.so");
+        Files.copy(elf.toPath(), changed.toPath());
+        RandomAccessFile raf = new RandomAccessFile(changed, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        String key = getKey(elf, null, "x86");
+        assertEquals(40, key.length());
+        assertEquals(key, getKey(elf, null, "x86"));
+        // Without a build-id the path does not matter, the content does
+        assertEquals(key, getKey(same, null, "x86"));
+        assertNotEquals(key, getKey(changed, null, "x86"));
+        // With one, the content is not hashed
+        assertEquals(getKey(elf, "0123abcd", "x86"), getKey(changed, "0123abcd", "x86"));
+        assertNotEquals(key, getKey(elf, "0123abcd", "x86"));
+        assertNotEquals(key, getKey(elf, null, "arm64-v8a"));
+
+        ElfSymbolExtractor.setDeflateLevel(Deflater.BEST_SPEED);
+        assertNotEquals(key, getKey(elf, null, "x86"));
+    }
+
+    @Test
+    public void fetchesTheStoredFile() throws Exception {
+        int hits = SymbolCache.getHits();
+        int misses = SymbolCache.getMisses();
+        File elf = Fixtures.copy("libfx", mDir);
+        File symbolFile = Fixtures.getSymbolFile(elf, mDir);
+
+        ElfSymbolExtractor extractor = Fixtures.newExtractor(elf, symbolFile);
+        assertTrue(extractor.extract());
+        assertFalse(extractor.isCacheHit());
+        assertEquals(misses + 1, SymbolCache.getMisses());
+        assertEquals(1, listCache().length);
+        byte[] extracted = Files.readAllBytes(symbolFile.toPath());
+
+        assertTrue(symbolFile.delete());
+        extractor = Fixtures.newExtractor(elf, symbolFile);
+        assertTrue(extractor.extract());
+        assertTrue(extractor.isCacheHit());
+        assertEquals(hits + 1, SymbolCache.getHits());
+        assertArrayEquals(extracted, Files.readAllBytes(symbolFile.toPath()));
+
+        assertFalse(SymbolCache.fetch("0000", new File(mDir, "none").getPath()));
+        assertEquals(misses + 2, SymbolCache.getMisses());
+    }
+
+    @Test
+    public void storesAtomically() throws Exception {
+        File desFile = newFile("des", 1000);
+        SymbolCache.store("key", desFile.getPath());
+        File fetched = new File(mDir, "fetched");
+        assertTrue(SymbolCache.fetch("key", fetched.getPath()));
+        assertArrayEquals(Files.readAllBytes(desFile.toPath()), Files.readAllBytes(fetched.toPath()));
+
+        // A second store replaces the entry, leaving no file aside
+        File other = newFile("other", 2000);
+        SymbolCache.store("key", other.getPath());
+        assertTrue(SymbolCache.fetch("key", fetched.getPath()));
+        assertArrayEquals(Files.readAllBytes(other.toPath()), Files.readAllBytes(fetched.toPath()));
+        assertEquals(1, listCache().length);
+
+        // A failed copy only loses the entry
+        SymbolCache.store("missing", new File(mDir, "missing").getPath());
+        assertEquals(1, listCache().length);
+        assertFalse(SymbolCache.fetch("missing", fetched.getPath()));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() throws Exception {
+        SymbolCache.setCacheSizeMB(1L);
+        File desFile = newFile("des", 300 * 1024);
+        long now = System.currentTimeMillis();
+        String[] keys = { "a", "b", "c" };
+        for (int i = 0; i < keys.length; i++) {
+            SymbolCache.store(keys[i], desFile.getPath());
+            assertTrue(getCacheFile(keys[i]).setLastModified(now - (3 - i) * 1000000L));
+        }
+        assertEquals(3, listCache().length);
+
+        // a is the oldest until fetched, b is evicted for d
+        assertTrue(SymbolCache.fetch("a", new File(mDir, "fetched").getPath()));
+        SymbolCache.store("d", desFile.getPath());
+        String[] names = listCache();
+        Arrays.sort(names);
+        assertArrayEquals(new String[] {
+            getCacheFile("a").getName(), getCacheFile("c").getName(), getCacheFile("d").getName()
+        }, names);
+    }
+
+    private static String getKey(File elf, String buildId, String arch) throws IOException {
+        ElfFile elfFile = new ElfFile(elf.getPath());
+        try {
+            return SymbolCache.getKey(elfFile, buildId, arch, "libfx.so", "TestinSymbol_" + arch);
+        } finally {
+            elfFile.close();
+        }
+    }
+
+    private File getCacheFile(String key) {
+        return new File(mCacheDir, key + ElfSymbolExtractor.getSymbolFileSuffix());
+    }
+
+    private String[] listCache() {
+        return mCacheDir.list();
+    }
+
+    private File newFile(String name, int size) throws IOException {
+        File file = new File(mDir, name);
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) name.charAt(0));
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+}
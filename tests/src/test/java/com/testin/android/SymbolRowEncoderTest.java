@@ -0,0 +1,237 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadSymbolSection;
+
+/**
+ * SymbolRowEncoder rows against the StringBuilder format of
+ * SymbolWriter.getString() it replaced
+ */
+public class SymbolRowEncoderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int TABLE_OFFSET = 16;
+    private static final int ELF32_SYM_SIZE = 16;
+    private static final int STT_FUNC = 2;
+    private static final long[] ADDRESSES = {
+        0L, 1L, 0xfL, 0x10L, 0xdeadbeefL, 0x100000000L, Long.MAX_VALUE,
+        0x8000000000000000L, 0xffffffff00001000L, -1L
+    };
+    private static final long[] LINES = {
+        0L, 1L, 7L, 42L, 65535L, -1L, -5L, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE
+    };
+
+    @TempDir
+    File mDir;
+
+    private ElfFile mElfFile = null;
+    private ReadSymbolSection mSymbols = null;
+    // st_name of the symbols, in address order
+    private String[] mNames = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // .strtab of ASCII and UTF-8 names, ending without a 0 byte
+        byte[] strTable = "\0main\0café_初始化\0_Z3fooi\0tail".getBytes(UTF_8);
+        int[] nameOffsets = {
+            1, 6, 21, 29, 31,
+            // Out of the table: at its end, past it and negative
+            strTable.length, strTable.length + 100, 0x80000000
+        };
+        mNames = new String[nameOffsets.length];
+        ByteBuffer file = ByteBuffer.allocate(TABLE_OFFSET + nameOffsets.length * ELF32_SYM_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        file.position(TABLE_OFFSET);
+        for (int i = 0; i < nameOffsets.length; i++) {
+            int offset = nameOffsets[i];
+            if ((offset >= 0) && (offset < strTable.length)) {
+                int end = offset;
+                while ((end < strTable.length) && (strTable[end] != 0)) {
+                    end++;
+                }
+                mNames[i] = new String(strTable, offset, end - offset, UTF_8);
+            } else {
+                mNames[i] = Integer.toString(offset);
+            }
+            file.putInt(offset);
+            file.putInt(0x1000 + i * 0x10);
+            file.putInt(0x10);
+            file.put((byte) STT_FUNC);
+            file.put((byte) 0);
+            file.putShort((short) 1);
+        }
+        File symbols = new File(mDir, "symbols.bin");
+        FileOutputStream fos = new FileOutputStream(symbols);
+        try {
+            fos.write(file.array());
+        } finally {
+            fos.close();
+        }
+
+        mElfFile = new ElfFile(symbols.getPath());
+        mElfFile.setLSB(true);
+        mSymbols = new ReadSymbolSection(mElfFile, TABLE_OFFSET, nameOffsets.length,
+                strTable, strTable.length);
+        mSymbols.read();
+        assertTrue(mSymbols.readSucceed());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        mElfFile.close();
+    }
+
+    @Test
+    public void formatsAddressesAndLines() throws Exception {
+        SymbolWriter sw = new SymbolWriter();
+        sw.mFunction = "func";
+        sw.mSourceFile = "/src/a.c";
+        for (long start : ADDRESSES) {
+            for (long end : ADDRESSES) {
+                sw.mStartAddress = start;
+                sw.mEndAddress = end;
+                check(sw);
+            }
+        }
+        for (long line : LINES) {
+            for (long endLine : LINES) {
+                sw.mLineNumber = line;
+                sw.mEndLineNumber = endLine;
+                check(sw);
+            }
+        }
+    }
+
+    @Test
+    public void formatsNames() throws Exception {
+        SymbolWriter sw = new SymbolWriter();
+        String[] names = {
+            "func", "", "café", "初始化", null
+        };
+        for (String name : names) {
+            for (String path : names) {
+                sw.mFunction = name;
+                sw.mSourceFile = path;
+                sw.mLineNumber = 12L;
+                sw.mEndLineNumber = 10L;
+                check(sw);
+            }
+        }
+    }
+
+    @Test
+    public void copiesNamesOfTheStringTable() throws Exception {
+        SymbolWriter sw = new SymbolWriter();
+        for (int i = 0; i < mNames.length; i++) {
+            sw.set(0x1000L + i * 0x10, 0x1010L + i * 0x10, mSymbols, i);
+            assertEquals(mNames[i], sw.getFunction());
+            // One cache by offset behind both lookups
+            assertSame(mSymbols.getSymbolName(i), mSymbols.readSymbolName(mSymbols.getSymbolNameOffset(i)));
+            check(sw);
+            sw.mSourceFile = "/src/b.c";
+            sw.mLineNumber = 3L;
+            check(sw);
+        }
+    }
+
+    @Test
+    public void encodesRowsAcrossBlocks() throws Exception {
+        // Far more than the encoder buffer, with every kind of name
+        Random random = new Random(11);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SymbolRowEncoder encoder = new SymbolRowEncoder(bytes);
+        SymbolWriter sw = new SymbolWriter();
+        for (int row = 0; row < 50000; row++) {
+            long start = random.nextBoolean() ? random.nextLong() : random.nextInt(1 << 24);
+            if (random.nextInt(4) == 0) {
+                sw.set(start, start + random.nextInt(256), mSymbols, random.nextInt(mNames.length));
+            } else {
+                sw.set(start, start + random.nextInt(256), null, -1);
+                sw.mFunction = "f" + random.nextInt(100);
+            }
+            if (random.nextBoolean()) {
+                sw.mSourceFile = "/src/dir" + random.nextInt(10) + "/file.c";
+                sw.mLineNumber = LINES[random.nextInt(LINES.length)];
+                sw.mEndLineNumber = random.nextBoolean() ? LINES[random.nextInt(LINES.length)]
+                        : random.nextInt(10000);
+            }
+            byte[] line = getString(sw).getBytes(UTF_8);
+            expected.write(line, 0, line.length);
+            encoder.addSymbol(sw);
+        }
+        encoder.flush();
+        assertEquals(expected.size(), encoder.getBytesWritten());
+        assertArrayEquals(expected.toByteArray(), bytes.toByteArray());
+    }
+
+    private static void check(SymbolWriter sw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SymbolRowEncoder encoder = new SymbolRowEncoder(bytes);
+        encoder.addSymbol(sw);
+        encoder.flush();
+        assertEquals(getString(sw), new String(bytes.toByteArray(), UTF_8));
+    }
+
+    /**
+     * SymbolWriter.getString() before SymbolRowEncoder, with the function
+     * name now decoded by getFunction()
+     */
+    private static String getString(SymbolWriter sw) {
+        StringBuilder ret = new StringBuilder();
+        ret.append(Long.toHexString(sw.mStartAddress));
+        ret.append("\t");
+
+        ret.append(Long.toHexString(sw.mEndAddress));
+        ret.append("\t");
+
+        ret.append(sw.getFunction());
+        if (sw.mSourceFile == null) {
+            ret.append("\n");
+            return ret.toString();
+        }
+        ret.append("\t");
+        ret.append(sw.mSourceFile);
+        ret.append(":");
+        if (0L == sw.mEndLineNumber) {
+            ret.append(sw.mLineNumber);
+        } else if (sw.mEndLineNumber == sw.mLineNumber) {
+            ret.append(sw.mLineNumber);
+        } else if (sw.mEndLineNumber > sw.mLineNumber) {
+            ret.append(sw.mLineNumber);
+            ret.append("-");
+            ret.append(sw.mEndLineNumber);
+        } else {
+            ret.append(sw.mEndLineNumber);
+            ret.append("-");
+            ret.append(sw.mLineNumber);
+        }
+
+        ret.append("\n");
+        return ret.toString();
+    }
+}
@@ -0,0 +1,250 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * /symbolize and /stats of a SymbolServer on a free loopback port, and the
+ * LRU of its tables bounded by memory
+ */
+public class SymbolServerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @TempDir
+    File mDir;
+
+    private SymbolServer mServer = null;
+
+    @AfterEach
+    public void stop() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+    }
+
+    @Test
+    public void symbolizesFrames() throws Exception {
+        File root = new File(mDir, "root");
+        assertTrue(root.mkdirs());
+        Fixtures.extract(Fixtures.copy("libfx", mDir), root);
+        Symbolizer symbolizer = Symbolizer.load(new File(mDir, "libfx.so").getPath());
+        start(root, SymbolServer.DEFAULT_MEMORY_MB);
+
+        StringBuilder frames = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int row = 0; row < symbolizer.size(); row += 7) {
+            long pc = symbolizer.getStartAddress(row);
+            frames.append("libfx.so x86 0x").append(Long.toHexString(pc)).append('\n');
+            appendRow(expected, symbolizer, pc);
+        }
+        frames.append("\n libfx.so x86 0 \n");
+        expected.append("0\t??\n");
+        frames.append("libnone.so x86 10\n");
+        expected.append("10\t!! no symbols of libnone.so for x86\n");
+        assertEquals(expected.toString(), post(frames.toString(), 200));
+
+        assertEquals(400, getCode("POST", "libfx.so x86\n"));
+        assertEquals(400, getCode("POST", "libfx.so x86 0xzz\n"));
+        assertEquals(405, getCode("GET", null));
+
+        String stats = get("/stats");
+        // The wrong frames are requests, not frames
+        assertEquals(3L, getStat(stats, "requests"));
+        assertEquals(symbolizer.size() / 7 + 3, getStat(stats, "frames"));
+        assertEquals(1L, getStat(stats, "loads"));
+        assertEquals(1L, getStat(stats, "tables"));
+    }
+
+    @Test
+    public void loadsALibraryOnce() throws Exception {
+        File root = new File(mDir, "root");
+        assertTrue(root.mkdirs());
+        Fixtures.extract(Fixtures.copy("libbig", mDir), root);
+        start(root, SymbolServer.DEFAULT_MEMORY_MB);
+
+        final CountDownLatch ready = new CountDownLatch(1);
+        final List<String> answers = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ready.await();
+                        String answer = post("libbig.so x86 0\n", 200);
+                        synchronized (answers) {
+                            answers.add(answer);
+                        }
+                    } catch (Exception e) {
+                        // Counted as a missing answer
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        ready.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000L);
+        }
+        assertEquals(16, answers.size());
+        assertEquals(1L, getStat(get("/stats"), "loads"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedTables() throws Exception {
+        // Each table is over 1MB, so only the last one used is kept
+        File root = new File(mDir, "root");
+        assertTrue(root.mkdirs());
+        Fixtures.extract(Fixtures.generate(mDir, 40000L), root);
+        Fixtures.extract(Fixtures.generate(mDir, 40001L), root);
+        start(root, 1L);
+
+        String[] libs = { "libgen40000.so", "libgen40001.so", "libgen40000.so", "libgen40000.so" };
+        for (String lib : libs) {
+            assertTrue(!post(lib + " x86 0\n", 200).contains("!!"), lib);
+        }
+        String stats = get("/stats");
+        assertEquals(3L, getStat(stats, "loads"));
+        assertEquals(2L, getStat(stats, "evictions"));
+        assertEquals(1L, getStat(stats, "tables"));
+        assertEquals(1L, getStat(stats, "table_hits"));
+        assertEquals(3L, getStat(stats, "table_misses"));
+        assertTrue(getStat(stats, "table_memory_bytes") > 1024L * 1024L);
+    }
+
+    @Test
+    public void findsPercentilesOfTheHistogram() {
+        SymbolServer.Histogram histogram = new SymbolServer.Histogram();
+        assertEquals(0L, histogram.getPercentile(0.99));
+
+        // Exact below 8, then at most 12.5% above
+        for (long value = 1L; value <= 1000L; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5L);
+        checkPercentile(histogram, 0.001, 1L);
+        checkPercentile(histogram, 0.005, 5L);
+        checkPercentile(histogram, 0.50, 500L);
+        checkPercentile(histogram, 0.99, 990L);
+        checkPercentile(histogram, 1.0, 1000L);
+
+        histogram = new SymbolServer.Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(0.5));
+    }
+
+    private static void checkPercentile(SymbolServer.Histogram histogram, double percentile, long value) {
+        long bound = histogram.getPercentile(percentile);
+        assertTrue((bound >= value) && (bound <= value + value / 8), percentile + ": " + bound);
+    }
+
+    private void start(File root, long memoryMB) throws IOException {
+        mServer = new SymbolServer(root.getPath(), 0, memoryMB);
+        mServer.start();
+    }
+
+    /**
+     * The line of pc as SymbolServer answers it
+     */
+    private static void appendRow(StringBuilder sb, SymbolIndex index, long pc) {
+        int row = index.lookup(pc);
+        sb.append(Long.toHexString(pc)).append('\t').append(index.getFunction(row));
+        if (index.getSourceFile(row) != null) {
+            sb.append('\t').append(index.getSourceFile(row)).append(':').append(index.getLine(row));
+            if (index.getEndLine(row) != index.getLine(row)) {
+                sb.append('-').append(index.getEndLine(row));
+            }
+        }
+        sb.append('\n');
+    }
+
+    private static long getStat(String stats, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\": (\\d+)").matcher(stats);
+        assertTrue(matcher.find(), name);
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private String post(String frames, int code) throws IOException {
+        HttpURLConnection connection = open("/symbolize", "POST", frames);
+        try {
+            assertEquals(code, connection.getResponseCode());
+            return read(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private int getCode(String method, String body) throws IOException {
+        HttpURLConnection connection = open("/symbolize", method, body);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = open(path, "GET", null);
+        try {
+            assertEquals(200, connection.getResponseCode());
+            return read(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String path, String method, String body) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServer.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            OutputStream os = connection.getOutputStream();
+            try {
+                os.write(body.getBytes(UTF_8));
+            } finally {
+                os.close();
+            }
+        }
+        return connection;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                bytes.write(buffer, 0, count);
+            }
+        } finally {
+            is.close();
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,53 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The rows of a symbol zip read back by SymbolZipReader are the rows
+ * Symbolizer indexes from the ELF file
+ */
+public class SymbolZipReaderTest {
+    @TempDir
+    File mDir;
+
+    @AfterEach
+    public void reset() {
+        ElfSymbolExtractor.setDeflateThreads(1);
+    }
+
+    @Test
+    public void readsBackTheWrittenRows() throws Exception {
+        for (String name : Fixtures.NAMES) {
+            checkRoundTrip(name);
+        }
+    }
+
+    @Test
+    public void readsBackParallelDeflatedRows() throws Exception {
+        ElfSymbolExtractor.setDeflateThreads(3);
+        checkRoundTrip("libbig");
+    }
+
+    private void checkRoundTrip(String name) throws Exception {
+        File symbolFile = Fixtures.extract(name, mDir);
+        SymbolZipReader reader = new SymbolZipReader(symbolFile.getPath());
+        reader.read();
+        assertTrue(reader.readSucceed(), name);
+        assertTrue(reader.getHeader().contains("Arch: x86"), name);
+
+        Symbolizer expected = Symbolizer.load(new File(mDir, name + ".so").getPath());
+        Fixtures.assertSameRows(expected, reader.getSymbolizer());
+    }
+}
@@ -0,0 +1,104 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadHeader;
+import com.testin.android.elfparser.ReadSection;
+import com.testin.android.elfparser.ReadSymbolSection;
+import com.testin.android.elfparser.SymbolTable;
+
+/**
+ * Lookups at the row boundaries of an ElfCorpusGenerator file, where
+ * every function starts with a line table row
+ */
+public class SymbolizerTest {
+    @TempDir
+    File mDir;
+
+    @Test
+    public void looksUpAtRowBoundaries() throws Exception {
+        File elf = Fixtures.generate(mDir, 10000L);
+        Symbolizer symbolizer = Symbolizer.load(elf.getPath());
+        ElfFile elfFile = new ElfFile(elf.getPath());
+        try {
+            ReadSymbolSection symbols = readSymbols(elfFile);
+            SymbolTable functions = symbols.mFunctionTable;
+            assertTrue(functions.size() > 100);
+            for (int i = 0; i < functions.size(); i++) {
+                // The function and its first line table row start at a
+                long a = functions.getStartAddress(i);
+                int row = symbolizer.lookup(a + 1L);
+                assertTrue(row >= 0, "function " + i);
+                assertEquals(a + 1L, symbolizer.getStartAddress(row));
+                assertEquals(symbols.getSymbolName(i), symbolizer.getFunction(row));
+                assertNotNull(symbolizer.getSourceFile(row));
+
+                // a itself finds the row of the line table row before it,
+                // as the return address of a call ending that row
+                int before = symbolizer.lookup(a);
+                if (i == 0) {
+                    assertEquals(-1, before);
+                } else {
+                    assertEquals(row - 1, before);
+                    assertEquals(a + 1L, symbolizer.getEndAddress(before));
+                    assertTrue(symbolizer.getStartAddress(before) <= a);
+                }
+            }
+
+            // Past the last row
+            int last = symbolizer.size() - 1;
+            assertEquals(last, symbolizer.lookup(symbolizer.getEndAddress(last) - 1L));
+            assertEquals(-1, symbolizer.lookup(symbolizer.getEndAddress(last)));
+            assertEquals(-1, symbolizer.lookup(-1L));
+        } finally {
+            elfFile.close();
+        }
+    }
+
+    @Test
+    public void looksUpEveryRowStart() throws Exception {
+        Symbolizer symbolizer = Symbolizer.load(Fixtures.copy("libfx", mDir).getPath());
+        for (int row = 0; row < symbolizer.size(); row++) {
+            long start = symbolizer.getStartAddress(row);
+            assertEquals(row, symbolizer.lookup(start));
+            assertEquals(row, symbolizer.lookup(symbolizer.getEndAddress(row) - 1L));
+            int before = symbolizer.lookup(start - 1L);
+            if ((row > 0) && (symbolizer.getEndAddress(row - 1) == start)) {
+                assertEquals(row - 1, before);
+            } else {
+                assertEquals(-1, before);
+            }
+        }
+    }
+
+    private static ReadSymbolSection readSymbols(ElfFile elfFile) throws Exception {
+        ReadHeader readHeader = new ReadHeader(elfFile);
+        readHeader.read();
+        assertTrue(readHeader.readSucceed());
+        ReadSection readSection = new ReadSection(elfFile,
+                readHeader.getShOffset(), readHeader.getShEntryNumber(),
+                readHeader.getShtEntrySize(), readHeader.getIndexOfShtNameTable());
+        readSection.read();
+        assertTrue(readSection.readSucceed());
+        ReadSymbolSection symbols = new ReadSymbolSection(elfFile,
+                readSection.getSymbolTableOffset(), readSection.getSymbolTableEntryNum(),
+                readSection.getStrTable(), readSection.getStrTableSize());
+        symbols.read();
+        assertTrue(symbols.readSucceed());
+        return symbols;
+    }
+}
@@ -0,0 +1,95 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * AddressSort against a stable sort of boxed indexes, on the insertion,
+ * run merge and radix paths, with keys above Long.MAX_VALUE
+ */
+public class AddressSortTest {
+    private static final long TOP_BIT = 0x8000000000000000L;
+
+    @Test
+    public void sortsFewKeysUnsigned() {
+        long[] keys = {
+            TOP_BIT, 1L, -1L, Long.MAX_VALUE, 0L, 0xFFFFFFFF00000000L, 1L
+        };
+        check(keys);
+    }
+
+    @Test
+    public void mergesRunsWithTopBitKeys() {
+        // Long ascending runs, as units appended one by one
+        Random random = new Random(17);
+        long[] keys = new long[4000];
+        for (int run = 0; run < 4; run++) {
+            long key = (run % 2 == 0) ? TOP_BIT + random.nextInt(1000) : random.nextInt(1000);
+            for (int i = 0; i < 1000; i++) {
+                key += random.nextInt(3);
+                keys[run * 1000 + i] = key;
+            }
+        }
+        check(keys);
+    }
+
+    @Test
+    public void radixSortsShortRunsWithTopBitKeys() {
+        Random random = new Random(23);
+        long[] keys = new long[10000];
+        for (int i = 0; i < keys.length; i++) {
+            // Few distinct keys, so equal keys must keep their order
+            keys[i] = (random.nextBoolean() ? TOP_BIT : 0L) | (random.nextInt(512) << 4);
+        }
+        check(keys);
+    }
+
+    @Test
+    public void returnsNullIfSorted() {
+        long[] keys = {
+            0L, 1L, Long.MAX_VALUE, TOP_BIT, -1L
+        };
+        assertNull(AddressSort.sort(keys, keys.length));
+        assertTrue(AddressSort.isSorted(keys, keys.length));
+    }
+
+    private static void check(long[] keys) {
+        final long[] values = keys.clone();
+        Integer[] expected = new Integer[keys.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i;
+        }
+        // Arrays.sort of objects is stable
+        Arrays.sort(expected, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compareUnsigned(values[a], values[b]);
+            }
+        });
+
+        int[] order = AddressSort.sort(keys, keys.length);
+        int[] actual = new int[keys.length];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = (order == null) ? i : order[i];
+        }
+        int[] want = new int[expected.length];
+        for (int i = 0; i < want.length; i++) {
+            want[i] = expected[i];
+        }
+        assertArrayEquals(want, actual);
+        assertArrayEquals(values, keys);
+        assertTrue(AddressSort.isSorted(AddressSort.permute(keys, actual), keys.length));
+    }
+}
@@ -0,0 +1,102 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.testin.android.Fixtures;
+
+/**
+ * The build-id of .note.gnu.build-id, and notes with corrupt sizes
+ *
+ * libv5 is ELF64 LSB, with .note.gnu.build-id as section 1 at 0x238.
+ */
+public class ReadSectionTest {
+    private static final String BUILD_ID = "ad4c5bf6c6e3bb601dd0c63f928c6ec97c31c203";
+    private static final long NOTE_OFFSET = 0x238L;
+    private static final long E_SHOFF = 0x28L;
+    private static final int SHDR_SIZE_64 = 64;
+    private static final int SH_SIZE_64 = 32;
+
+    @TempDir
+    File mDir;
+
+    @Test
+    public void readsTheBuildId() throws Exception {
+        ReadSection readSection = read(Fixtures.copy("libv5", mDir));
+        assertTrue(readSection.readSucceed());
+        assertEquals(BUILD_ID, readSection.getBuildId());
+    }
+
+    @Test
+    public void skipsANoteOutOfTheSection() throws Exception {
+        File elf = Fixtures.copy("libv5", mDir);
+        patch(elf, 0x80000000L, -1L);
+        ReadSection readSection = read(elf);
+        assertTrue(readSection.readSucceed());
+        assertNull(readSection.getBuildId());
+    }
+
+    @Test
+    public void failsOnAHugeBuildId() throws Exception {
+        // Fits in the section, which the file holds
+        File elf = Fixtures.copy("libv5", mDir);
+        patch(elf, 0x800L, 0x1000L);
+        assertFalse(read(elf).readSucceed());
+
+        // Past 2^31 bytes, in a section past the file
+        elf = Fixtures.copy("libv5", mDir);
+        patch(elf, 0x80000000L, 0x100000000L);
+        assertFalse(read(elf).readSucceed());
+    }
+
+    /**
+     * Set n_descsz of the build-id note, and sh_size of its section unless
+     * sectionSize is -1.
+     */
+    private static void patch(File elf, long descSize, long sectionSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(elf, "rw");
+        try {
+            raf.seek(NOTE_OFFSET + 4);
+            raf.writeInt(Integer.reverseBytes((int) descSize));
+            if (sectionSize != -1L) {
+                raf.seek(E_SHOFF);
+                long shOffset = Long.reverseBytes(raf.readLong());
+                raf.seek(shOffset + SHDR_SIZE_64 + SH_SIZE_64);
+                raf.writeLong(Long.reverseBytes(sectionSize));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static ReadSection read(File elf) throws IOException {
+        ElfFile elfFile = new ElfFile(elf.getPath());
+        try {
+            ReadHeader readHeader = new ReadHeader(elfFile);
+            readHeader.read();
+            assertTrue(readHeader.readSucceed());
+            ReadSection readSection = new ReadSection(elfFile,
+                    readHeader.getShOffset(), readHeader.getShEntryNumber(),
+                    readHeader.getShtEntrySize(), readHeader.getIndexOfShtNameTable());
+            readSection.read();
+            return readSection;
+        } finally {
+            elfFile.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser.debugline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.testin.android.Fixtures;
+import com.testin.android.Symbolizer;
+
+/**
+ * Version 5 file tables of libv5, whose directory and file names are all
+ * DW_FORM_line_strp offsets into .debug_line_str, as readelf shows them:
+ *
+ *     The Directory Table:
+ *     0   (indirect line string, offset: 0): /tmp/x64
+ *     The File Name Table:
+ *     0   0   (indirect line string, offset: 0x9): u1.c
+ *     1   0   (indirect line string, offset: 0x9): u1.c
+ *     2   0   (indirect line string, offset: 0xe): h1.h
+ */
+public class FileTableTest {
+    @TempDir
+    File mDir;
+
+    @Test
+    public void namesFilesByLineStrings() throws Exception {
+        File elf = Fixtures.copy("libv5", mDir);
+        List<String> rows = ReadDebugLineInfoTest.readRows(elf, false);
+        assertEquals("10fa /tmp/x64/u1.c 3 2", rows.get(0));
+        for (String row : rows) {
+            String path = row.split(" ")[1];
+            assertTrue(path.startsWith("/tmp/x64/") && (path.endsWith(".c") || path.endsWith(".h")), row);
+        }
+
+        Symbolizer symbolizer = Symbolizer.load(elf.getPath());
+        int row = symbolizer.lookup(0x10fa);
+        assertEquals("api1", symbolizer.getFunction(row));
+        assertEquals("/tmp/x64/u1.c", symbolizer.getSourceFile(row));
+    }
+
+    @Test
+    public void readsCompressedLineStrings() throws Exception {
+        File elf = Fixtures.copy("libv5", mDir);
+        File compressed = Fixtures.copy("libv5z", mDir);
+        assertEquals(ReadDebugLineInfoTest.readRows(elf, false), ReadDebugLineInfoTest.readRows(compressed, false));
+    }
+}
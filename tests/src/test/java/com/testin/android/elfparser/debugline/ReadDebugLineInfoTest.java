@@ -0,0 +1,320 @@
+// -*- Mode: java; tab-width: 4; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+//
+// Copyright (C) 2015 Testin.  All rights reserved.
+//
+// This file is an original work developed by Testin
+
+package com.testin.android.elfparser.debugline;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.testin.android.ElfSymbolExtractor;
+import com.testin.android.Fixtures;
+import com.testin.android.elfparser.ElfFile;
+import com.testin.android.elfparser.ReadHeader;
+import com.testin.android.elfparser.ReadSection;
+
+/**
+ * read(LineSink) sends the rows read() sorts, in the same order, whatever
+ * the threads and whether the section is compressed
+ */
+public class ReadDebugLineInfoTest {
+    private static final int PARALLELISM = ReadDebugLineInfo.getParallelism();
+
+    @TempDir
+    File mDir;
+
+    @AfterEach
+    public void reset() {
+        ReadDebugLineInfo.setParallelism(PARALLELISM);
+        ReadDebugLineInfo.setInflateThreads(1);
+        ElfSymbolExtractor.setStreaming(false);
+    }
+
+    @Test
+    public void streamsTheSortedRows() throws Exception {
+        for (String name : Fixtures.NAMES) {
+            File elf = Fixtures.copy(name, mDir);
+            List<String> expected = readRows(elf, false);
+            assertFalse(expected.isEmpty(), name);
+            for (int threads = 1; threads <= 4; threads += 3) {
+                ReadDebugLineInfo.setParallelism(threads);
+                assertEquals(expected, readRows(elf, false), name + " by " + threads + " threads");
+                assertEquals(expected, readRows(elf, true), name + " streamed by " + threads + " threads");
+            }
+        }
+    }
+
+    @Test
+    public void inflatesTheSameRows() throws Exception {
+        List<String> expected = readRows(Fixtures.copy("libv5", mDir), false);
+        File compressed = Fixtures.copy("libv5z", mDir);
+        for (int threads = 1; threads <= 3; threads += 2) {
+            ReadDebugLineInfo.setInflateThreads(threads);
+            assertEquals(expected, readRows(compressed, false), "inflated by " + threads + " threads");
+            assertEquals(expected, readRows(compressed, true), "streamed by " + threads + " threads");
+        }
+    }
+
+    @Test
+    public void writesTheSameSymbolFileStreaming() throws Exception {
+        File defaultDir = new File(mDir, "default");
+        File streamingDir = new File(mDir, "streaming");
+        assertTrue(defaultDir.mkdir() && streamingDir.mkdir());
+        for (String name : Fixtures.NAMES) {
+            File elf = Fixtures.copy(name, mDir);
+            ElfSymbolExtractor.setStreaming(false);
+            byte[] expected = readEntry(Fixtures.extract(elf, defaultDir));
+            ElfSymbolExtractor.setStreaming(true);
+            byte[] actual = readEntry(Fixtures.extract(elf, streamingDir));
+            assertArrayEquals(expected, actual, name);
+        }
+    }
+
+    @Test
+    public void sendsEqualAddressesInUnitOrder() throws Exception {
+        // Units of equal row addresses, and a last unit below the others
+        File file = writeUnits(
+                new UnitWriter("a.c").row(0x1000, 10).row(0x1010, 11),
+                new UnitWriter("b.c").row(0x1000, 20).row(0x1008, 21).row(0x1010, 22),
+                new UnitWriter("c.c").row(0x800, 30).row(0x1000, 31));
+        List<String> expected = Arrays.asList(
+                "801 ./c.c 30 0", "1001 ./a.c 10 0", "1001 ./b.c 20 0", "1001 ./c.c 31 0",
+                "1009 ./b.c 21 0", "1011 ./a.c 11 0", "1011 ./b.c 22 0");
+        for (int threads = 1; threads <= 4; threads += 3) {
+            ReadDebugLineInfo.setParallelism(threads);
+            assertEquals(expected, readUnits(file, false), "by " + threads + " threads");
+            assertEquals(expected, readUnits(file, true), "streamed by " + threads + " threads");
+        }
+    }
+
+    @Test
+    public void skipsTheUnitsNotDecoded() throws Exception {
+        File file = writeUnits(
+                new UnitWriter("a.c").row(0x1000, 10),
+                new UnitWriter("b.c").version(9).row(0x1004, 20),
+                new UnitWriter("c.c").row(0x1008, 30));
+        List<String> expected = Arrays.asList("1001 ./a.c 10 0", "1009 ./c.c 30 0");
+        assertEquals(expected, readUnits(file, false));
+        assertEquals(expected, readUnits(file, true));
+    }
+
+    /**
+     * Rows as "address path line end line" strings.
+     */
+    static List<String> readRows(File elf, boolean streaming) throws IOException {
+        final List<String> rows = new ArrayList<String>();
+        ElfFile elfFile = new ElfFile(elf.getPath());
+        try {
+            ReadDebugLineInfo readDebugLineInfo = new ReadDebugLineInfo(elfFile, readSection(elfFile));
+            if (streaming) {
+                readDebugLineInfo.read(new LineSink() {
+                    public void addLine(long address, String pathName, int line, int endLine) {
+                        rows.add(toRow(address, pathName, line, endLine));
+                    }
+                });
+                assertTrue(readDebugLineInfo.readSucceed());
+                return rows;
+            }
+            readDebugLineInfo.read();
+            assertTrue(readDebugLineInfo.readSucceed());
+            LineTable table = readDebugLineInfo.mLineTable;
+            for (int i = 0; i < table.size(); i++) {
+                rows.add(toRow(table.getAddress(i), table.getPathName(table.getFile(i)),
+                        table.getLine(i), table.getEndLine(i)));
+            }
+            return rows;
+        } finally {
+            elfFile.close();
+        }
+    }
+
+    /**
+     * Write the units after UNITS_OFFSET bytes of padding, as the
+     * .debug_line section of a little endian file.
+     */
+    private File writeUnits(UnitWriter... units) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[UnitWriter.UNITS_OFFSET]);
+        for (UnitWriter unit : units) {
+            unit.writeTo(bytes);
+        }
+        File file = new File(mDir, "units.bin");
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            bytes.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+
+    private static List<String> readUnits(File file, boolean streaming) throws IOException {
+        final List<String> rows = new ArrayList<String>();
+        ElfFile elfFile = new ElfFile(file.getPath());
+        try {
+            elfFile.setLSB(true);
+            ReadDebugLineInfo readDebugLineInfo = new ReadDebugLineInfo(elfFile, UnitWriter.UNITS_OFFSET,
+                    file.length() - UnitWriter.UNITS_OFFSET);
+            if (streaming) {
+                readDebugLineInfo.read(new LineSink() {
+                    public void addLine(long address, String pathName, int line, int endLine) {
+                        rows.add(toRow(address, pathName, line, endLine));
+                    }
+                });
+            } else {
+                readDebugLineInfo.read();
+                LineTable table = readDebugLineInfo.mLineTable;
+                for (int i = 0; i < table.size(); i++) {
+                    rows.add(toRow(table.getAddress(i), table.getPathName(table.getFile(i)),
+                            table.getLine(i), table.getEndLine(i)));
+                }
+            }
+            assertTrue(readDebugLineInfo.readSucceed());
+            return rows;
+        } finally {
+            elfFile.close();
+        }
+    }
+
+    static ReadSection readSection(ElfFile elfFile) throws IOException {
+        ReadHeader readHeader = new ReadHeader(elfFile);
+        readHeader.read();
+        assertTrue(readHeader.readSucceed());
+        ReadSection readSection = new ReadSection(elfFile,
+                readHeader.getShOffset(), readHeader.getShEntryNumber(),
+                readHeader.getShtEntrySize(), readHeader.getIndexOfShtNameTable());
+        readSection.read();
+        assertTrue(readSection.readSucceed());
+        return readSection;
+    }
+
+    private static String toRow(long address, String pathName, int line, int endLine) {
+        return Long.toHexString(address) + " " + pathName + " " + line + " " + endLine;
+    }
+
+    private static byte[] readEntry(File zip) throws IOException {
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(zip));
+        try {
+            assertNotNull(zis.getNextEntry());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = zis.read(buffer)) > 0) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        } finally {
+            zis.close();
+        }
+    }
+
+    /**
+     * Version 2 unit of one sequence and one file, every row added by
+     * DW_LNS_copy
+     */
+    private static class UnitWriter {
+        static final int UNITS_OFFSET = 16;
+        private static final byte[] STANDARD_OPCODE_LENGTHS = {
+            0, 1, 1, 1, 1, 0, 0, 0, 1, 0, 0, 1
+        };
+
+        private final String mFile;
+        private final ByteArrayOutputStream mProgram = new ByteArrayOutputStream();
+        private int mVersion = 2;
+        private long mAddress = -1L;
+        private int mLine = 1;
+
+        UnitWriter(String file) {
+            mFile = file;
+        }
+
+        UnitWriter version(int version) {
+            mVersion = version;
+            return this;
+        }
+
+        UnitWriter row(long address, int line) {
+            if (mAddress < 0) {
+                // DW_LNE_set_address of an 8 byte address
+                mProgram.write(0);
+                mProgram.write(9);
+                mProgram.write(2);
+                writeLittleEndian(mProgram, address, 8);
+            } else {
+                mProgram.write(2);
+                writeULEB128(mProgram, address - mAddress);
+            }
+            mAddress = address;
+            // DW_LNS_advance_line, line advances are small and positive
+            mProgram.write(3);
+            writeULEB128(mProgram, line - mLine);
+            mLine = line;
+            mProgram.write(1);
+            return this;
+        }
+
+        void writeTo(ByteArrayOutputStream out) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(1);
+            header.write(1);
+            header.write(-5);
+            header.write(14);
+            header.write(STANDARD_OPCODE_LENGTHS.length + 1);
+            header.write(STANDARD_OPCODE_LENGTHS, 0, STANDARD_OPCODE_LENGTHS.length);
+            // No include directory, then the file in directory 0, read as "."
+            header.write(0);
+            byte[] name = mFile.getBytes();
+            header.write(name, 0, name.length);
+            header.write(new byte[] {0, 0, 0, 0, 0}, 0, 5);
+
+            ByteArrayOutputStream program = new ByteArrayOutputStream();
+            byte[] opcodes = mProgram.toByteArray();
+            program.write(opcodes, 0, opcodes.length);
+            // DW_LNS_advance_pc then DW_LNE_end_sequence
+            program.write(2);
+            program.write(1);
+            program.write(0);
+            program.write(1);
+            program.write(1);
+
+            writeLittleEndian(out, 2 + 4 + header.size() + program.size(), 4);
+            writeLittleEndian(out, mVersion, 2);
+            writeLittleEndian(out, header.size(), 4);
+            out.write(header.toByteArray(), 0, header.size());
+            out.write(program.toByteArray(), 0, program.size());
+        }
+
+        private static void writeLittleEndian(ByteArrayOutputStream out, long value, int size) {
+            for (int i = 0; i < size; i++) {
+                out.write((int) (value >>> (i * 8)));
+            }
+        }
+
+        private static void writeULEB128(ByteArrayOutputStream out, long value) {
+            do {
+                int b = (int) (value & 0x7F);
+                value >>>= 7;
+                out.write((value != 0) ? (b | 0x80) : b);
+            } while (value != 0);
+        }
+    }
+}